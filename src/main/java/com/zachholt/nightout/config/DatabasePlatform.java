@@ -0,0 +1,36 @@
+package com.zachholt.nightout.config;
+
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Tells services whether they are talking to Postgres, so Postgres-only SQL
+ * (ON CONFLICT, RETURNING, LISTEN/NOTIFY) can fall back to portable
+ * statements on the H2 local and test profiles.
+ */
+@Component
+public class DatabasePlatform {
+
+    private final DataSource dataSource;
+    private volatile Boolean postgres;
+
+    public DatabasePlatform(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public boolean isPostgres() {
+        Boolean result = postgres;
+        if (result == null) {
+            try (Connection connection = dataSource.getConnection()) {
+                result = "PostgreSQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName());
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to determine database platform", e);
+            }
+            postgres = result;
+        }
+        return result;
+    }
+}
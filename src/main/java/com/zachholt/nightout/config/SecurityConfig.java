@@ -23,6 +23,10 @@ public class SecurityConfig {
                 .requestMatchers("/api/favorites/**").permitAll()
                 .requestMatchers("/api/chat/**").permitAll()
                 .requestMatchers("/api/ai/**").permitAll()
+                .requestMatchers("/api/density/**").permitAll()
+                .requestMatchers("/api/trending/**").permitAll()
+                // Checked against the cluster token by the controller
+                .requestMatchers("/internal/cluster/**").permitAll()
                 .anyRequest().authenticated()
             );
         
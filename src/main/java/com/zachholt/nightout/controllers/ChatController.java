@@ -2,7 +2,10 @@ package com.zachholt.nightout.controllers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.zachholt.nightout.models.ChatMessage;
+import com.zachholt.nightout.models.TrendingCell;
 import com.zachholt.nightout.services.AiService;
+import com.zachholt.nightout.services.CrowdDensityService;
+import com.zachholt.nightout.services.TrendingService;
 import com.zachholt.nightout.services.UserService;
 //import com.zachholt.nightout.services.ChatMessageService;
 
@@ -47,6 +50,12 @@ public class ChatController {
     @Autowired
     private UserService userService;
     
+    @Autowired
+    private CrowdDensityService crowdDensityService;
+
+    @Autowired
+    private TrendingService trendingService;
+    
     //@Autowired
     //private ChatMessageService chatMessageService;
     
@@ -141,15 +150,13 @@ public class ChatController {
                     // Default radius of 2km
                     double radiusInMeters = 2000.0;
                     
-                    // Get users in the area
-                    Collection<?> usersNearby = userService.getUsersByLocation(
+                    // Count users in the area without loading them
+                    long userCount = crowdDensityService.countNearby(
                         chatRequest.getLatitude(), 
                         chatRequest.getLongitude(), 
                         radiusInMeters
                     );
                     
-                    int userCount = usersNearby != null ? usersNearby.size() : 0;
-                    
                     // Get current time
                     LocalDateTime now = LocalDateTime.now();
                     String dayOfWeek = now.getDayOfWeek().toString();
@@ -164,10 +171,21 @@ public class ChatController {
                                   .append(timeOfDay)
                                   .append(". ");
                                   
-                    if (userCount > 0) {
-                        contextBuilder.append("Popular locations right now include: ");
-                        // Note: This is where you would add actual location data if available
-                        contextBuilder.append("local bars, restaurants, and entertainment venues based on the time and day. ");
+                    // A cluster node only counts its own cells, so it would leave busy spots out
+                    List<TrendingCell> trending = trendingService.isPartial() ? List.of() : trendingService.getTrendingNear(
+                        chatRequest.getLatitude(),
+                        chatRequest.getLongitude(),
+                        radiusInMeters,
+                        TrendingService.Window.HOUR,
+                        3
+                    );
+                    if (!trending.isEmpty()) {
+                        contextBuilder.append("The busiest spots near me in the last hour are around: ");
+                        contextBuilder.append(trending.stream()
+                            .map(cell -> String.format("%.4f, %.4f (%d check-ins)",
+                                cell.getLatitude(), cell.getLongitude(), cell.getLastHour()))
+                            .collect(Collectors.joining("; ")));
+                        contextBuilder.append(". ");
                     }
                 } catch (Exception e) {
                     logger.error("Error fetching user density data", e);
@@ -0,0 +1,73 @@
+package com.zachholt.nightout.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import com.zachholt.nightout.models.PresencePosition;
+import com.zachholt.nightout.services.ClusterService;
+import io.swagger.v3.oas.annotations.Hidden;
+
+import java.util.List;
+
+/**
+ * Node-to-node endpoints of cluster mode. Not routed by nginx; callers must
+ * present the shared cluster token.
+ */
+@RestController
+@RequestMapping("/internal/cluster")
+@Hidden
+public class ClusterController {
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @PostMapping("/presence")
+    public ResponseEntity<?> applyUpdate(
+        @RequestHeader(value = ClusterService.TOKEN_HEADER, required = false) String token,
+        @RequestBody PresencePosition position) {
+
+        if (!clusterService.isEnabled() || !clusterService.acceptsToken(token)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (position.getUserId() == null || position.getLatitude() == null || position.getLongitude() == null
+                || position.getUpdatedAt() == null) {
+            return ResponseEntity.badRequest().body("userId, latitude, longitude and updatedAt are required");
+        }
+        clusterService.applyUpdate(position.getUserId(), position.getLatitude(), position.getLongitude(),
+            position.getUpdatedAt());
+        return ResponseEntity.noContent().build();
+    }
+
+    @DeleteMapping("/presence/{userId}")
+    public ResponseEntity<?> applyRemove(
+        @RequestHeader(value = ClusterService.TOKEN_HEADER, required = false) String token,
+        @PathVariable Long userId,
+        @RequestParam long before) {
+
+        if (!clusterService.isEnabled() || !clusterService.acceptsToken(token)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        clusterService.applyRemove(userId, before);
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/nearby")
+    public ResponseEntity<?> findLocal(
+        @RequestHeader(value = ClusterService.TOKEN_HEADER, required = false) String token,
+        @RequestParam double latitude,
+        @RequestParam double longitude,
+        @RequestParam double radiusInMeters) {
+
+        if (!clusterService.isEnabled() || !clusterService.acceptsToken(token)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        try {
+            List<PresencePosition> found = clusterService.findLocal(latitude, longitude, radiusInMeters);
+            return ResponseEntity.ok(found);
+        } catch (IllegalStateException e) {
+            // Still loading: the caller answers from SQL instead
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.zachholt.nightout.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.models.DensityTiles;
+import com.zachholt.nightout.services.DensityTileService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+@RestController
+@RequestMapping("/api/density")
+@CrossOrigin(origins = "*")
+@Tag(name = "Density", description = "Crowd density heatmap API")
+public class DensityController {
+
+    @Autowired
+    private DensityTileService densityTileService;
+
+    @Operation(summary = "Get heatmap tiles",
+              description = "Checked-in user counts for every Web Mercator tile at zoom z inside the bounding box")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Tile counts computed",
+                    content = @Content(schema = @Schema(implementation = DensityTiles.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid bounding box, unsupported zoom or too many tiles")
+    })
+    @GetMapping("/tiles")
+    public ResponseEntity<?> getTiles(
+        @Parameter(description = "Web Mercator zoom level") @RequestParam int z,
+        @Parameter(description = "Bounding box as minLongitude,minLatitude,maxLongitude,maxLatitude; "
+            + "minLongitude greater than maxLongitude crosses the antimeridian") @RequestParam String bbox) {
+
+        String[] parts = bbox.split(",");
+        if (parts.length != 4) {
+            return ResponseEntity.badRequest().body("bbox must be minLongitude,minLatitude,maxLongitude,maxLatitude");
+        }
+        double minLng;
+        double minLat;
+        double maxLng;
+        double maxLat;
+        try {
+            minLng = Double.parseDouble(parts[0].trim());
+            minLat = Double.parseDouble(parts[1].trim());
+            maxLng = Double.parseDouble(parts[2].trim());
+            maxLat = Double.parseDouble(parts[3].trim());
+        } catch (NumberFormatException e) {
+            return ResponseEntity.badRequest().body("bbox must contain four numbers");
+        }
+        if (minLat > maxLat || minLat < -90 || maxLat > 90 || Math.abs(minLng) > 180 || Math.abs(maxLng) > 180) {
+            return ResponseEntity.badRequest().body("Invalid bounding box");
+        }
+        if (minLng > maxLng) {
+            maxLng += 360.0;
+        }
+
+        DensityTiles tiles = densityTileService.getTiles(z, new GeoMath.BoundingBox(minLat, maxLat, minLng, maxLng));
+        return ResponseEntity.ok(tiles);
+    }
+}
@@ -1,9 +1,13 @@
 package com.zachholt.nightout.controllers;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import com.zachholt.nightout.models.Favorite;
+import com.zachholt.nightout.models.FavoriteChanges;
+import com.zachholt.nightout.models.FavoriteOutcome;
+import com.zachholt.nightout.models.FavoritesPage;
 import com.zachholt.nightout.services.FavoriteService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -14,7 +18,11 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 
 import jakarta.validation.Valid;
+import java.time.LocalDateTime;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/api/favorites")
@@ -22,18 +30,51 @@ import java.util.List;
 @Tag(name = "Favorites", description = "Favorite venues management API")
 public class FavoriteController {
 
+    private static final int MAX_CHECKS = 500;
+    private static final int MAX_BATCH = 500;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 500;
+
     @Autowired
     private FavoriteService favoriteService;
 
-    @Operation(summary = "Get user's favorites", description = "Retrieve all favorite venues for a user")
+    @Operation(summary = "Get user's favorites",
+              description = "Retrieve all favorite venues for a user. With 'limit' and/or 'after' the list is "
+                  + "returned one page at a time, oldest first. With 'since' only the changes after that time "
+                  + "are returned.")
     @ApiResponses({
-        @ApiResponse(responseCode = "200", description = "Favorites retrieved successfully",
-                    content = @Content(schema = @Schema(implementation = Favorite.class))),
-        @ApiResponse(responseCode = "400", description = "Error retrieving favorites (e.g., User not found)")
+        @ApiResponse(responseCode = "200", description = "Favorites retrieved successfully: a list, a page or changes",
+                    content = @Content(schema = @Schema(oneOf = {Favorite.class, FavoritesPage.class, FavoriteChanges.class}))),
+        @ApiResponse(responseCode = "400", description = "Error retrieving favorites, or invalid paging parameters"),
+        @ApiResponse(responseCode = "404", description = "User not found")
     })
     @GetMapping("/{userId}")
-    public ResponseEntity<List<Favorite>> getFavorites(
-        @Parameter(description = "ID of the user") @PathVariable Long userId) {
+    public ResponseEntity<?> getFavorites(
+        @Parameter(description = "ID of the user") @PathVariable Long userId,
+        @Parameter(description = "Page size (1-" + MAX_PAGE_SIZE + ")") @RequestParam(required = false) Integer limit,
+        @Parameter(description = "nextCursor of the previous page") @RequestParam(required = false) String after,
+        @Parameter(description = "syncedAt of the previous sync (ISO date-time)")
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime since) {
+
+        if (since != null) {
+            if (limit != null || after != null) {
+                return ResponseEntity.badRequest().body("since cannot be combined with limit or after");
+            }
+            FavoriteChanges changes = favoriteService.getFavoriteChanges(userId, since);
+            return ResponseEntity.ok(changes);
+        }
+        if (limit != null || after != null) {
+            int pageSize = limit != null ? limit : DEFAULT_PAGE_SIZE;
+            if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+                return ResponseEntity.badRequest().body("Limit must be between 1 and " + MAX_PAGE_SIZE);
+            }
+            try {
+                FavoritesPage page = favoriteService.getFavoritesPage(userId, after, pageSize);
+                return ResponseEntity.ok(page);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(e.getMessage());
+            }
+        }
         List<Favorite> favorites = favoriteService.getFavorites(userId);
         return ResponseEntity.ok(favorites);
     }
@@ -42,7 +83,8 @@ public class FavoriteController {
     @ApiResponses({
         @ApiResponse(responseCode = "200", description = "Favorite added successfully",
                     content = @Content(schema = @Schema(implementation = Favorite.class))),
-        @ApiResponse(responseCode = "400", description = "Invalid favorite data, user ID, or favorite already exists")
+        @ApiResponse(responseCode = "400", description = "Invalid favorite data or favorite already exists"),
+        @ApiResponse(responseCode = "404", description = "User not found")
     })
     @PostMapping
     public ResponseEntity<?> addFavorite(
@@ -52,10 +94,66 @@ public class FavoriteController {
         return ResponseEntity.ok(savedFavorite);
     }
 
+    @Operation(summary = "Add several favorite venues",
+              description = "Add up to " + MAX_BATCH + " venues in one transaction, e.g. when importing favorites. "
+                  + "Venues already favorited are skipped; a location ID may appear only once. Returns a map "
+                  + "from location ID to ADDED or ALREADY_FAVORITED, in request order.")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Favorites added"),
+        @ApiResponse(responseCode = "400", description = "Missing, invalid, duplicate or too many favorites"),
+        @ApiResponse(responseCode = "404", description = "User not found")
+    })
+    @PostMapping("/{userId}/batch")
+    public ResponseEntity<?> addFavorites(
+        @Parameter(description = "ID of the user") @PathVariable Long userId,
+        @Parameter(description = "Favorite venue details") @RequestBody List<Favorite> favorites) {
+        if (favorites == null || favorites.isEmpty() || favorites.size() > MAX_BATCH) {
+            return ResponseEntity.badRequest().body("Between 1 and " + MAX_BATCH + " favorites are required");
+        }
+        Set<String> locationIds = new HashSet<>();
+        for (Favorite favorite : favorites) {
+            if (favorite == null || favorite.getLocationId() == null || favorite.getLocationId().isBlank()
+                || favorite.getLatitude() == null || favorite.getLongitude() == null) {
+                return ResponseEntity.badRequest().body("Every favorite needs a location ID, latitude and longitude");
+            }
+            if (Math.abs(favorite.getLatitude()) > 90 || Math.abs(favorite.getLongitude()) > 180) {
+                return ResponseEntity.badRequest().body("Latitude must be within ±90 and longitude within ±180");
+            }
+            if (!locationIds.add(favorite.getLocationId())) {
+                return ResponseEntity.badRequest().body("Duplicate location ID: " + favorite.getLocationId());
+            }
+        }
+        Map<String, FavoriteOutcome> outcomes = favoriteService.addFavorites(userId, favorites);
+        return ResponseEntity.ok(outcomes);
+    }
+
+    @Operation(summary = "Remove several favorite venues",
+              description = "Remove up to " + MAX_BATCH + " venues in one transaction. Returns a map from location "
+                  + "ID to REMOVED or NOT_FAVORITED, in request order.")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Favorites removed"),
+        @ApiResponse(responseCode = "400", description = "Missing or too many location IDs"),
+        @ApiResponse(responseCode = "404", description = "User not found")
+    })
+    @PostMapping("/{userId}/batch/remove")
+    public ResponseEntity<?> removeFavorites(
+        @Parameter(description = "ID of the user") @PathVariable Long userId,
+        @Parameter(description = "IDs of the locations to remove") @RequestBody List<String> locationIds) {
+        if (locationIds == null || locationIds.isEmpty() || locationIds.size() > MAX_BATCH) {
+            return ResponseEntity.badRequest().body("Between 1 and " + MAX_BATCH + " location IDs are required");
+        }
+        if (locationIds.contains(null)) {
+            return ResponseEntity.badRequest().body("Location IDs must not be null");
+        }
+        Map<String, FavoriteOutcome> outcomes = favoriteService.removeFavorites(userId, locationIds);
+        return ResponseEntity.ok(outcomes);
+    }
+
     @Operation(summary = "Remove favorite venue", description = "Remove a venue from user's favorites")
     @ApiResponses({
         @ApiResponse(responseCode = "200", description = "Favorite removed successfully"),
-        @ApiResponse(responseCode = "400", description = "Error removing favorite (e.g., User not found)")
+        @ApiResponse(responseCode = "400", description = "Error removing favorite"),
+        @ApiResponse(responseCode = "404", description = "User not found")
     })
     @DeleteMapping("/{userId}/{locationId}")
     public ResponseEntity<?> removeFavorite(
@@ -70,7 +168,8 @@ public class FavoriteController {
     @ApiResponses({
         @ApiResponse(responseCode = "200", description = "Check completed successfully",
                     content = @Content(schema = @Schema(implementation = Boolean.class))),
-        @ApiResponse(responseCode = "400", description = "Error checking favorite status (e.g., User not found)")
+        @ApiResponse(responseCode = "400", description = "Error checking favorite status"),
+        @ApiResponse(responseCode = "404", description = "User not found")
     })
     @GetMapping("/{userId}/check/{locationId}")
     public ResponseEntity<Boolean> isFavorite(
@@ -79,4 +178,26 @@ public class FavoriteController {
         boolean isFavorite = favoriteService.isFavorite(userId, locationId);
         return ResponseEntity.ok(isFavorite);
     }
+
+    @Operation(summary = "Check several venues",
+              description = "Check which of the given venues are in user's favorites, e.g. for a venue list screen. "
+                  + "Returns a map from location ID to favorite status, in request order.")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Check completed successfully"),
+        @ApiResponse(responseCode = "400", description = "Missing or too many location IDs"),
+        @ApiResponse(responseCode = "404", description = "User not found")
+    })
+    @PostMapping("/{userId}/check")
+    public ResponseEntity<?> checkFavorites(
+        @Parameter(description = "ID of the user") @PathVariable Long userId,
+        @Parameter(description = "IDs of the locations to check") @RequestBody List<String> locationIds) {
+        if (locationIds == null || locationIds.isEmpty() || locationIds.size() > MAX_CHECKS) {
+            return ResponseEntity.badRequest().body("Between 1 and " + MAX_CHECKS + " location IDs are required");
+        }
+        if (locationIds.contains(null)) {
+            return ResponseEntity.badRequest().body("Location IDs must not be null");
+        }
+        Map<String, Boolean> favorites = favoriteService.checkFavorites(userId, locationIds);
+        return ResponseEntity.ok(favorites);
+    }
 } 
\ No newline at end of file
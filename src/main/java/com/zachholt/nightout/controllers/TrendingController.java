@@ -0,0 +1,72 @@
+package com.zachholt.nightout.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import com.zachholt.nightout.models.TrendingCell;
+import com.zachholt.nightout.services.TrendingService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/trending")
+@CrossOrigin(origins = "*")
+@Tag(name = "Trending", description = "Busiest areas by recent check-ins")
+public class TrendingController {
+
+    private static final int MAX_LIMIT = 50;
+
+    @Autowired
+    private TrendingService trendingService;
+
+    @Operation(summary = "Get trending areas",
+              description = "Geohash cells with the most check-ins in the window, busiest first. "
+                  + "With latitude and longitude, only cells within the radius are ranked.")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Trending cells found",
+                    content = @Content(array = @ArraySchema(schema = @Schema(implementation = TrendingCell.class)))),
+        @ApiResponse(responseCode = "400", description = "Invalid window, limit or location"),
+        @ApiResponse(responseCode = "503", description = "Not available when presence is sharded over a cluster")
+    })
+    @GetMapping
+    public ResponseEntity<?> getTrending(
+        @Parameter(description = "Counting window: 15m or 1h") @RequestParam(defaultValue = "15m") String window,
+        @Parameter(description = "Maximum number of cells, up to " + MAX_LIMIT) @RequestParam(defaultValue = "10") int limit,
+        @Parameter(description = "Latitude to rank around") @RequestParam(required = false) Double latitude,
+        @Parameter(description = "Longitude to rank around") @RequestParam(required = false) Double longitude,
+        @Parameter(description = "Radius around the point in meters") @RequestParam(defaultValue = "2000") Double radiusInMeters) {
+
+        if (trendingService.isPartial()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Trending is not available in cluster mode");
+        }
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            return ResponseEntity.badRequest().body("limit must be between 1 and " + MAX_LIMIT);
+        }
+        TrendingService.Window countingWindow;
+        try {
+            countingWindow = TrendingService.Window.fromLabel(window);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        if (latitude == null && longitude == null) {
+            return ResponseEntity.ok(trendingService.getTrending(countingWindow, limit));
+        }
+        if (latitude == null || longitude == null) {
+            return ResponseEntity.badRequest().body("latitude and longitude must be given together");
+        }
+        if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180 || radiusInMeters <= 0 || radiusInMeters > 50_000) {
+            return ResponseEntity.badRequest().body("Invalid location or radius");
+        }
+        List<TrendingCell> cells = trendingService.getTrendingNear(latitude, longitude, radiusInMeters, countingWindow, limit);
+        return ResponseEntity.ok(cells);
+    }
+}
@@ -1,11 +1,21 @@
 package com.zachholt.nightout.controllers;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import com.zachholt.nightout.models.Coordinate;
+import com.zachholt.nightout.models.DensityCount;
+import com.zachholt.nightout.models.NearbyBatchRequest;
+import com.zachholt.nightout.models.NearbyProbeResult;
+import com.zachholt.nightout.models.PolygonQuery;
+import com.zachholt.nightout.models.PresenceDelta;
 import com.zachholt.nightout.models.User;
 import com.zachholt.nightout.models.UserResponse;
+import com.zachholt.nightout.services.CrowdDensityService;
+import com.zachholt.nightout.services.PresenceStreamService;
 import com.zachholt.nightout.services.UserService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -17,6 +27,7 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import com.zachholt.nightout.exceptions.ResourceNotFoundException;
 
 import jakarta.validation.Valid;
+import reactor.core.publisher.Flux;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.Map;
@@ -27,9 +38,23 @@ import java.util.Map;
 @Tag(name = "Users", description = "User management API")
 public class UserController {
 
+    private static final int MAX_NEAREST = 100;
+    private static final int DEFAULT_AREA_LIMIT = 200;
+    private static final int MAX_AREA_LIMIT = 500;
+    private static final int MAX_PROBES = 100;
+    private static final int MAX_POLYGON_POINTS = 100;
+    private static final int MAX_RADII = 10;
+    private static final double MAX_PROBE_RADIUS_METERS = 10_000;
+
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private CrowdDensityService crowdDensityService;
+
+    @Autowired
+    private PresenceStreamService presenceStreamService;
+
     // Helper method to create UserResponse, handling null coordinates
     private UserResponse createUserResponse(User user) {
         Coordinate coordinate = user.getCoordinate();
@@ -100,14 +125,15 @@ public class UserController {
             return ResponseEntity.badRequest().body("Latitude and longitude are required for check-in");
         }
 
-        User user = userService.updateUserLocation(email, latitude, longitude);
-
         if (isCheckout) {
+            User user = userService.updateUserLocation(email, null, null);
             System.out.println("Check-out successful for user: " + user.getName());
-        } else {
-            System.out.println("Check-in successful for user: " + user.getName());
+            return ResponseEntity.ok(createUserResponse(user));
         }
-        return ResponseEntity.ok(createUserResponse(user));
+
+        UserResponse userResponse = userService.checkIn(email, latitude, longitude);
+        System.out.println("Check-in successful for user: " + userResponse.getName());
+        return ResponseEntity.ok(userResponse);
     }
     
     @Operation(summary = "Check out user", description = "Clear user's location when checking out")
@@ -145,13 +171,207 @@ public class UserController {
             radiusInMeters = 2000.0; 
         }
         
-        List<User> users = userService.getUsersByLocation(latitude, longitude, radiusInMeters);
-        List<UserResponse> userResponses = users.stream()
-            .map(this::createUserResponse)
-            .collect(Collectors.toList());
+        List<UserResponse> userResponses = userService.getNearbyUsers(latitude, longitude, radiusInMeters);
         return ResponseEntity.ok(userResponses);
     }
+
+    @Operation(summary = "Stream presence nearby",
+              description = "Server-sent events for a set of geohash cells of precision 6, given either as cells or as "
+                  + "a latitude/longitude with an optional radius (default: 2000). The stream opens with a snapshot "
+                  + "event of everyone checked in to the cells, then sends a delta event each tick with the joins, "
+                  + "moves and leaves since the last one. Replaces polling /nearby.")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Stream opened",
+                    content = @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE,
+                                       schema = @Schema(implementation = PresenceDelta.class))),
+        @ApiResponse(responseCode = "400", description = "Neither cells nor coordinates, invalid cells, or too many cells"),
+        @ApiResponse(responseCode = "503", description = "Not available when presence is sharded over a cluster")
+    })
+    @GetMapping(value = "/nearby/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @CrossOrigin(origins = "*")
+    public ResponseEntity<Flux<ServerSentEvent<List<PresenceDelta>>>> streamNearby(
+        @Parameter(description = "Comma-separated geohashes of precision 6") @RequestParam(required = false) List<String> cells,
+        @Parameter(description = "Latitude coordinate") @RequestParam(required = false) Double latitude,
+        @Parameter(description = "Longitude coordinate") @RequestParam(required = false) Double longitude,
+        @Parameter(description = "Radius in meters to cover with cells (default: 2000)") @RequestParam(required = false) Double radiusInMeters) {
+
+        if (presenceStreamService.isPartial()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        long[] cellCodes;
+        try {
+            if (cells != null && !cells.isEmpty()) {
+                cellCodes = presenceStreamService.parseCells(cells);
+            } else if (latitude != null && longitude != null) {
+                if (radiusInMeters == null) {
+                    radiusInMeters = 2000.0;
+                }
+                if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180 || radiusInMeters <= 0) {
+                    return ResponseEntity.badRequest().build();
+                }
+                cellCodes = presenceStreamService.cellsAround(latitude, longitude, radiusInMeters);
+            } else {
+                return ResponseEntity.badRequest().build();
+            }
+        } catch (IllegalArgumentException e) {
+            // The exception handler cannot write its JSON body to an event stream
+            return ResponseEntity.badRequest().build();
+        }
+
+        return ResponseEntity.ok(presenceStreamService.subscribe(cellCodes));
+    }
+
+    @Operation(summary = "Find nearest users",
+              description = "Find the k checked-in users closest to a coordinate point, whatever the distance (default: 20, max: 100)")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Users found, nearest first",
+                    content = @Content(schema = @Schema(implementation = UserResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid coordinates or k")
+    })
+    @GetMapping("/nearest")
+    @CrossOrigin(origins = "*")
+    public ResponseEntity<?> getNearestUsers(
+        @Parameter(description = "Latitude coordinate") @RequestParam Double latitude,
+        @Parameter(description = "Longitude coordinate") @RequestParam Double longitude,
+        @Parameter(description = "Number of users to return (default: 20, max: 100)") @RequestParam(required = false) Integer k) {
+
+        if (k == null) {
+            k = 20;
+        }
+        if (k < 1 || k > MAX_NEAREST) {
+            return ResponseEntity.badRequest().body("k must be between 1 and " + MAX_NEAREST);
+        }
+        if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180) {
+            return ResponseEntity.badRequest().body("Latitude must be within ±90 and longitude within ±180");
+        }
+
+        List<UserResponse> userResponses = userService.getNearestUsers(latitude, longitude, k);
+        return ResponseEntity.ok(userResponses);
+    }
+
+    @Operation(summary = "Find users in a map viewport",
+              description = "Find checked-in users inside a latitude/longitude box, closest to its center first. "
+                  + "A viewport crossing the antimeridian has minLongitude greater than maxLongitude.")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Users found",
+                    content = @Content(schema = @Schema(implementation = UserResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid viewport or limit")
+    })
+    @GetMapping("/in-viewport")
+    @CrossOrigin(origins = "*")
+    public ResponseEntity<?> getUsersInViewport(
+        @Parameter(description = "Southern edge latitude") @RequestParam Double minLatitude,
+        @Parameter(description = "Western edge longitude") @RequestParam Double minLongitude,
+        @Parameter(description = "Northern edge latitude") @RequestParam Double maxLatitude,
+        @Parameter(description = "Eastern edge longitude") @RequestParam Double maxLongitude,
+        @Parameter(description = "Maximum number of users (default: 200, max: 500)") @RequestParam(required = false) Integer limit) {
+
+        if (limit == null) {
+            limit = DEFAULT_AREA_LIMIT;
+        }
+        if (limit < 1 || limit > MAX_AREA_LIMIT) {
+            return ResponseEntity.badRequest().body("Limit must be between 1 and " + MAX_AREA_LIMIT);
+        }
+        if (minLatitude > maxLatitude || minLatitude < -90 || maxLatitude > 90
+                || Math.abs(minLongitude) > 180 || Math.abs(maxLongitude) > 180) {
+            return ResponseEntity.badRequest().body("Invalid viewport");
+        }
+
+        List<UserResponse> userResponses = userService.getUsersInViewport(
+            minLatitude, minLongitude, maxLatitude, maxLongitude, limit);
+        return ResponseEntity.ok(userResponses);
+    }
+
+    @Operation(summary = "Find users in a polygon",
+              description = "Find checked-in users inside a simple polygon of up to 100 points, closest to its center first")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Users found",
+                    content = @Content(schema = @Schema(implementation = UserResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid polygon or limit")
+    })
+    @PostMapping("/in-polygon")
+    @CrossOrigin(origins = "*")
+    public ResponseEntity<?> getUsersInPolygon(@RequestBody PolygonQuery query) {
+        int limit = query.getLimit() == null ? DEFAULT_AREA_LIMIT : query.getLimit();
+        if (limit < 1 || limit > MAX_AREA_LIMIT) {
+            return ResponseEntity.badRequest().body("Limit must be between 1 and " + MAX_AREA_LIMIT);
+        }
+        List<PolygonQuery.Point> points = query.getPoints();
+        if (points == null || points.size() < 3 || points.size() > MAX_POLYGON_POINTS
+                || points.stream().anyMatch(point -> point == null || point.getLatitude() == null || point.getLongitude() == null)) {
+            return ResponseEntity.badRequest().body("A polygon needs between 3 and " + MAX_POLYGON_POINTS
+                + " points with latitude and longitude");
+        }
+        if (points.stream().anyMatch(point -> Math.abs(point.getLatitude()) > 90 || Math.abs(point.getLongitude()) > 180)) {
+            return ResponseEntity.badRequest().body("Latitude must be within ±90 and longitude within ±180");
+        }
+
+        List<UserResponse> userResponses = userService.getUsersInPolygon(points, limit);
+        return ResponseEntity.ok(userResponses);
+    }
+
+    @Operation(summary = "Count users nearby",
+              description = "Count checked-in users near a coordinate for up to 10 radii of at most 10km (default: 2km) without returning the users")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Counts computed",
+                    content = @Content(schema = @Schema(implementation = DensityCount.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid coordinates, a radius over 10km, or too many radii")
+    })
+    @GetMapping("/nearby/count")
+    @CrossOrigin(origins = "*")
+    public ResponseEntity<?> countUsersNearby(
+        @Parameter(description = "Latitude coordinate") @RequestParam Double latitude,
+        @Parameter(description = "Longitude coordinate") @RequestParam Double longitude,
+        @Parameter(description = "Comma-separated search radii in meters (default: 2000)") @RequestParam(required = false) List<Double> radiusInMeters) {
+
+        if (radiusInMeters == null || radiusInMeters.isEmpty()) {
+            radiusInMeters = List.of(2000.0);
+        }
+        if (radiusInMeters.size() > MAX_RADII) {
+            return ResponseEntity.badRequest().body("Between 1 and " + MAX_RADII + " radii are allowed");
+        }
+        if (radiusInMeters.stream().anyMatch(radius -> radius == null || radius <= 0 || radius > MAX_PROBE_RADIUS_METERS)) {
+            return ResponseEntity.badRequest().body("Radius must be between 0 and " + (int) MAX_PROBE_RADIUS_METERS + " meters");
+        }
+        if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180) {
+            return ResponseEntity.badRequest().body("Latitude must be within ±90 and longitude within ±180");
+        }
+
+        List<DensityCount> counts = crowdDensityService.countNearby(latitude, longitude, radiusInMeters);
+        return ResponseEntity.ok(counts);
+    }
     
+    @Operation(summary = "Count users near many points",
+              description = "Count checked-in users around up to 100 points (default radius: 100m) in one request, "
+                  + "optionally with their IDs. Results are returned in probe order.")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Counts computed",
+                    content = @Content(schema = @Schema(implementation = NearbyProbeResult.class))),
+        @ApiResponse(responseCode = "400", description = "Missing, invalid or too many probes, or a radius over 10km")
+    })
+    @PostMapping("/nearby/batch")
+    @CrossOrigin(origins = "*")
+    public ResponseEntity<?> countUsersNearbyBatch(@RequestBody NearbyBatchRequest request) {
+        List<NearbyBatchRequest.Probe> probes = request.getProbes();
+        if (probes == null || probes.isEmpty() || probes.size() > MAX_PROBES) {
+            return ResponseEntity.badRequest().body("Between 1 and " + MAX_PROBES + " probes are required");
+        }
+        for (NearbyBatchRequest.Probe probe : probes) {
+            if (probe == null || probe.getLatitude() == null || probe.getLongitude() == null) {
+                return ResponseEntity.badRequest().body("Every probe needs a latitude and longitude");
+            }
+            if (probe.getRadiusInMeters() == null) {
+                probe.setRadiusInMeters(100.0);
+            }
+            if (probe.getRadiusInMeters() <= 0 || probe.getRadiusInMeters() > MAX_PROBE_RADIUS_METERS) {
+                return ResponseEntity.badRequest().body("Radius must be between 0 and " + (int) MAX_PROBE_RADIUS_METERS + " meters");
+            }
+        }
+
+        List<NearbyProbeResult> results = crowdDensityService.countNearbyBatch(probes, request.isIncludeUserIds());
+        return ResponseEntity.ok(results);
+    }
+
     @Operation(summary = "Find users at a specific location",
               description = "Find users who are checked in very close to a specific location (default radius: 100m)")
     @ApiResponses({
@@ -166,10 +386,7 @@ public class UserController {
         @Parameter(description = "Longitude coordinate") @RequestParam Double longitude,
         @Parameter(description = "Search radius in meters (default: 100)") @RequestParam(required = false) Double radiusInMeters) {
         
-        List<User> users = userService.getUsersAtLocation(latitude, longitude, radiusInMeters);
-        List<UserResponse> userResponses = users.stream()
-            .map(this::createUserResponse)
-            .collect(Collectors.toList());
+        List<UserResponse> userResponses = userService.getUsersAtLocation(latitude, longitude, radiusInMeters);
         return ResponseEntity.ok(userResponses);
     }
     
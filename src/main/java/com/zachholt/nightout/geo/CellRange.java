@@ -0,0 +1,71 @@
+package com.zachholt.nightout.geo;
+
+import java.util.function.LongConsumer;
+
+/**
+ * The block of geohash cells covering a bounding box at one precision.
+ * A box crossing the antimeridian is split into two column ranges.
+ */
+public final class CellRange {
+
+    private final int precision;
+    private final int minRow;
+    private final int maxRow;
+    private final int[][] columns;
+
+    private CellRange(int precision, int minRow, int maxRow, int[][] columns) {
+        this.precision = precision;
+        this.minRow = minRow;
+        this.maxRow = maxRow;
+        this.columns = columns;
+    }
+
+    public static CellRange of(GeoMath.BoundingBox box, int precision) {
+        int minRow = GeoHash.latIndex(box.minLat(), precision);
+        int maxRow = GeoHash.latIndex(box.maxLat(), precision);
+        int[][] columns;
+        if (box.crossesAntimeridian()) {
+            columns = new int[][] {
+                {GeoHash.lngIndex(box.westLng(), precision), GeoHash.lngIndex(180.0, precision)},
+                {GeoHash.lngIndex(-180.0, precision), GeoHash.lngIndex(box.eastLng(), precision)}
+            };
+        } else {
+            columns = new int[][] {
+                {GeoHash.lngIndex(box.minLng(), precision), GeoHash.lngIndex(box.maxLng(), precision)}
+            };
+        }
+        return new CellRange(precision, minRow, maxRow, columns);
+    }
+
+    public long cellCount() {
+        long width = 0;
+        for (int[] span : columns) {
+            width += span[1] - span[0] + 1L;
+        }
+        return width * (maxRow - minRow + 1L);
+    }
+
+    public boolean contains(long cell) {
+        int row = GeoHash.latIndexOf(cell, precision);
+        if (row < minRow || row > maxRow) {
+            return false;
+        }
+        int column = GeoHash.lngIndexOf(cell, precision);
+        for (int[] span : columns) {
+            if (column >= span[0] && column <= span[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void forEach(LongConsumer action) {
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int[] span : columns) {
+                for (int column = span[0]; column <= span[1]; column++) {
+                    action.accept(GeoHash.interleave(row, column, precision));
+                }
+            }
+        }
+    }
+}
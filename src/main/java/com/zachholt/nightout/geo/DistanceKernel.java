@@ -0,0 +1,159 @@
+package com.zachholt.nightout.geo;
+
+/**
+ * Radius filter over parallel primitive arrays of latitudes and longitudes
+ * in integer microdegrees, the layout {@link PresenceStore} keeps. The
+ * Haversine term {@code a} is compared against {@code sin²(r / 2R)} instead
+ * of being turned back into meters, and the sines and cosines it needs come
+ * from fixed polynomials rather than {@link Math#sin}, so the hot loop is
+ * straight-line arithmetic with no calls or branches. Candidates from a
+ * radius query sit close to the center, where short polynomials in the
+ * offsets are exact to double precision; points further out go through the
+ * full-range series.
+ */
+public final class DistanceKernel {
+
+    private static final double MICRODEGREES = 1_000_000.0;
+    private static final double RADIANS_PER_MICRODEGREE = Math.PI / 180.0 / MICRODEGREES;
+    private static final double TWO_PI = 2 * Math.PI;
+    // 0.05 rad, about 320km: the short series below stay exact up to here
+    private static final int SMALL_OFFSET = 2_864_788;
+
+    private DistanceKernel() {}
+
+    public static int toMicrodegrees(double degrees) {
+        return (int) Math.round(degrees * MICRODEGREES);
+    }
+
+    public static double toDegrees(int microdegrees) {
+        return microdegrees / MICRODEGREES;
+    }
+
+    /**
+     * Writes the indexes of the points within {@code radiusMeters} of the
+     * center into {@code out}, in ascending order.
+     *
+     * @param scratch at least {@code count} long; overwritten
+     * @param out at least {@code count} long
+     * @return how many indexes were written
+     */
+    public static int within(int[] latitudes, int[] longitudes, int count,
+                             double latitude, double longitude, double radiusMeters,
+                             double[] scratch, int[] out) {
+        haversines(latitudes, longitudes, count, latitude, longitude, scratch);
+        return select(scratch, count, maxHaversine(radiusMeters), out);
+    }
+
+    /**
+     * The Haversine term {@code sin²(Δφ/2) + cos φ1 cos φ2 sin²(Δλ/2)} between
+     * the center and each of the first {@code count} points. It grows with
+     * distance, so it can also be used to rank points.
+     */
+    public static void haversines(int[] latitudes, int[] longitudes, int count,
+                                  double latitude, double longitude, double[] out) {
+        int centerLat = toMicrodegrees(latitude);
+        int centerLng = toMicrodegrees(longitude);
+        int spread = 0;
+        for (int i = 0; i < count; i++) {
+            spread = Math.max(spread, Math.max(Math.abs(latitudes[i] - centerLat), Math.abs(longitudes[i] - centerLng)));
+        }
+        if (spread <= SMALL_OFFSET) {
+            nearHaversines(latitudes, longitudes, count, latitude, longitude, out);
+        } else {
+            farHaversines(latitudes, longitudes, count, latitude, longitude, out);
+        }
+    }
+
+    /**
+     * Every offset is small, so {@code cos φ2} is expanded around the center
+     * as {@code cos φ1 cos Δφ - sin φ1 sin Δφ} and all series stay short.
+     * The offsets are converted to radians in a pass of their own: C2 will not
+     * vectorize the polynomials with int-to-double conversions in the same loop.
+     */
+    private static void nearHaversines(int[] latitudes, int[] longitudes, int count,
+                                       double latitude, double longitude, double[] out) {
+        double centerLatitude = latitude * MICRODEGREES;
+        double centerLongitude = longitude * MICRODEGREES;
+        double cosCenter = Math.cos(Math.toRadians(latitude));
+        double sinCenter = Math.sin(Math.toRadians(latitude));
+        // out holds the latitude offsets until the second pass overwrites them
+        double[] dLambdas = new double[count];
+        for (int i = 0; i < count; i++) {
+            out[i] = (latitudes[i] - centerLatitude) * RADIANS_PER_MICRODEGREE;
+            dLambdas[i] = (longitudes[i] - centerLongitude) * RADIANS_PER_MICRODEGREE;
+        }
+        for (int i = 0; i < count; i++) {
+            double dPhi = out[i];
+            double dLambda = dLambdas[i];
+            double cosPhi = cosCenter * cosSmall(dPhi) - sinCenter * sinSmall(dPhi);
+            double sinHalfPhi = sinSmall(0.5 * dPhi);
+            double sinHalfLambda = sinSmall(0.5 * dLambda);
+            out[i] = sinHalfPhi * sinHalfPhi + cosCenter * cosPhi * sinHalfLambda * sinHalfLambda;
+        }
+    }
+
+    private static void farHaversines(int[] latitudes, int[] longitudes, int count,
+                                      double latitude, double longitude, double[] out) {
+        double centerLatitude = latitude * MICRODEGREES;
+        double centerLongitude = longitude * MICRODEGREES;
+        double cosCenter = Math.cos(Math.toRadians(latitude));
+        for (int i = 0; i < count; i++) {
+            double phi = latitudes[i] * RADIANS_PER_MICRODEGREE;
+            double dPhi = (latitudes[i] - centerLatitude) * RADIANS_PER_MICRODEGREE;
+            double dLambda = (longitudes[i] - centerLongitude) * RADIANS_PER_MICRODEGREE;
+            // Wrap into [-pi, pi] so points across the antimeridian are measured the short way
+            dLambda -= TWO_PI * Math.rint(dLambda / TWO_PI);
+            double sinHalfPhi = sin(0.5 * dPhi);
+            double sinHalfLambda = sin(0.5 * dLambda);
+            out[i] = sinHalfPhi * sinHalfPhi + cosCenter * cos(phi) * sinHalfLambda * sinHalfLambda;
+        }
+    }
+
+    /** Largest Haversine term still within {@code radiusMeters}. */
+    public static double maxHaversine(double radiusMeters) {
+        double half = radiusMeters / (2 * GeoMath.EARTH_RADIUS_METERS);
+        if (half >= Math.PI / 2) {
+            return 1.0;
+        }
+        double sin = Math.sin(half);
+        return sin * sin;
+    }
+
+    /** Indexes whose value is at most {@code max}, written branch-free. */
+    public static int select(double[] values, int count, double max, int[] out) {
+        int matches = 0;
+        for (int i = 0; i < count; i++) {
+            out[matches] = i;
+            matches += values[i] <= max ? 1 : 0;
+        }
+        return matches;
+    }
+
+    // Taylor series in Horner form. The small ones take |x| <= 0.05, the others
+    // [-pi/2, pi/2]; the truncation error is below 1e-16 either way.
+
+    private static double sinSmall(double x) {
+        double x2 = x * x;
+        return x * (1 + x2 * (-1.0 / 6 + x2 * (1.0 / 120 + x2 * (-1.0 / 5040))));
+    }
+
+    private static double cosSmall(double x) {
+        double x2 = x * x;
+        return 1 + x2 * (-1.0 / 2 + x2 * (1.0 / 24 + x2 * (-1.0 / 720 + x2 * (1.0 / 40320))));
+    }
+
+    private static double sin(double x) {
+        double x2 = x * x;
+        return x * (1 + x2 * (-1.0 / 6 + x2 * (1.0 / 120 + x2 * (-1.0 / 5040 + x2 * (1.0 / 362880
+            + x2 * (-1.0 / 39916800 + x2 * (1.0 / 6227020800.0 + x2 * (-1.0 / 1307674368000.0
+            + x2 * (1.0 / 355687428096000.0 + x2 * (-1.0 / 121645100408832000.0))))))))));
+    }
+
+    private static double cos(double x) {
+        double x2 = x * x;
+        return 1 + x2 * (-1.0 / 2 + x2 * (1.0 / 24 + x2 * (-1.0 / 720 + x2 * (1.0 / 40320
+            + x2 * (-1.0 / 3628800 + x2 * (1.0 / 479001600 + x2 * (-1.0 / 87178291200.0
+            + x2 * (1.0 / 20922789888000.0 + x2 * (-1.0 / 6402373705728000.0
+            + x2 * (1.0 / 2432902008176640000.0))))))))));
+    }
+}
@@ -0,0 +1,120 @@
+package com.zachholt.nightout.geo;
+
+/**
+ * Geohash cells encoded as interleaved (Morton) bit codes.
+ * A cell at character precision p has 5p bits, with longitude taking the
+ * extra bit when 5p is odd, exactly like the textual geohash.
+ */
+public final class GeoHash {
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+    private static final int[] BASE32_INDEX = new int[128];
+
+    static {
+        java.util.Arrays.fill(BASE32_INDEX, -1);
+        for (int i = 0; i < BASE32.length; i++) {
+            BASE32_INDEX[BASE32[i]] = i;
+        }
+    }
+
+    public static final int MAX_PRECISION = 12;
+
+    private GeoHash() {}
+
+    public static int lngBits(int precision) {
+        return (5 * precision + 1) / 2;
+    }
+
+    public static int latBits(int precision) {
+        return 5 * precision / 2;
+    }
+
+    /** Row of the cell containing the latitude, in [0, 2^latBits). */
+    public static int latIndex(double latitude, int precision) {
+        return toIndex((latitude + 90.0) / 180.0, latBits(precision));
+    }
+
+    /** Column of the cell containing the longitude, in [0, 2^lngBits). */
+    public static int lngIndex(double longitude, int precision) {
+        return toIndex((longitude + 180.0) / 360.0, lngBits(precision));
+    }
+
+    /** Height of one cell in degrees of latitude. */
+    public static double cellHeight(int precision) {
+        return 180.0 / (1L << latBits(precision));
+    }
+
+    /** Width of one cell in degrees of longitude. */
+    public static double cellWidth(int precision) {
+        return 360.0 / (1L << lngBits(precision));
+    }
+
+    public static long encode(double latitude, double longitude, int precision) {
+        return interleave(latIndex(latitude, precision), lngIndex(longitude, precision), precision);
+    }
+
+    /**
+     * Builds the cell code from its row and column. Longitude bits go first,
+     * so the result sorts the same way as the base32 string.
+     */
+    public static long interleave(int latIndex, int lngIndex, int precision) {
+        int lngBits = lngBits(precision);
+        int latBits = latBits(precision);
+        long code = 0;
+        for (int bit = 5 * precision - 1, lngBit = lngBits - 1, latBit = latBits - 1; bit >= 0; bit--) {
+            boolean even = ((5 * precision - 1 - bit) & 1) == 0;
+            long value = even ? (lngIndex >>> lngBit--) & 1 : (latIndex >>> latBit--) & 1;
+            code |= value << bit;
+        }
+        return code;
+    }
+
+    public static int latIndexOf(long code, int precision) {
+        int index = 0;
+        for (int bit = 5 * precision - 2; bit >= 0; bit -= 2) {
+            index = (index << 1) | (int) ((code >>> bit) & 1);
+        }
+        return index;
+    }
+
+    public static int lngIndexOf(long code, int precision) {
+        int index = 0;
+        for (int bit = 5 * precision - 1; bit >= 0; bit -= 2) {
+            index = (index << 1) | (int) ((code >>> bit) & 1);
+        }
+        return index;
+    }
+
+    public static String toBase32(long code, int precision) {
+        char[] chars = new char[precision];
+        for (int i = precision - 1; i >= 0; i--) {
+            chars[i] = BASE32[(int) (code & 31)];
+            code >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the string is empty, too long or not base32
+     */
+    public static long fromBase32(String hash) {
+        if (hash == null || hash.isEmpty() || hash.length() > MAX_PRECISION) {
+            throw new IllegalArgumentException("Invalid geohash: " + hash);
+        }
+        long code = 0;
+        for (char c : hash.toLowerCase().toCharArray()) {
+            int value = c < 128 ? BASE32_INDEX[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid geohash: " + hash);
+            }
+            code = (code << 5) | value;
+        }
+        return code;
+    }
+
+    private static int toIndex(double fraction, int bits) {
+        long cells = 1L << bits;
+        long index = (long) Math.floor(fraction * cells);
+        return (int) Math.max(0, Math.min(cells - 1, index));
+    }
+}
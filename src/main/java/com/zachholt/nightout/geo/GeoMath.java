@@ -0,0 +1,101 @@
+package com.zachholt.nightout.geo;
+
+/**
+ * Great-circle helpers shared by the in-memory index and the SQL fallback.
+ */
+public final class GeoMath {
+
+    public static final double EARTH_RADIUS_METERS = 6_371_000.0;
+
+    private GeoMath() {}
+
+    /** Haversine distance between two points, in meters. */
+    public static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+            * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * Position as an (x, y, z) vector on the unit sphere. The dot product of
+     * two of these is the cosine of the angle between the points.
+     */
+    public static double[] unitVector(double latitude, double longitude) {
+        double lat = Math.toRadians(latitude);
+        double lng = Math.toRadians(longitude);
+        double cosLat = Math.cos(lat);
+        return new double[] {cosLat * Math.cos(lng), cosLat * Math.sin(lng), Math.sin(lat)};
+    }
+
+    /**
+     * Smallest dot product of unit vectors still within {@code radiusMeters}
+     * of each other: {@code cos(radius / R)}, or -1 once the radius covers the globe.
+     */
+    public static double minDotProduct(double radiusMeters) {
+        double angle = radiusMeters / EARTH_RADIUS_METERS;
+        return angle >= Math.PI ? -1.0 : Math.cos(angle);
+    }
+
+    /**
+     * Smallest lat/lng box containing every point within the radius.
+     * Near the poles the longitude span is widened to the full circle.
+     */
+    public static BoundingBox boundingBox(double latitude, double longitude, double radiusMeters) {
+        double dLat = Math.toDegrees(radiusMeters / EARTH_RADIUS_METERS);
+        double minLat = Math.max(-90.0, latitude - dLat);
+        double maxLat = Math.min(90.0, latitude + dLat);
+        if (minLat <= -90.0 || maxLat >= 90.0) {
+            return new BoundingBox(minLat, maxLat, -180.0, 180.0);
+        }
+        double dLng = Math.toDegrees(Math.asin(Math.min(1.0,
+            Math.sin(radiusMeters / EARTH_RADIUS_METERS) / Math.cos(Math.toRadians(latitude)))));
+        if (dLng >= 180.0) {
+            return new BoundingBox(minLat, maxLat, -180.0, 180.0);
+        }
+        return new BoundingBox(minLat, maxLat, longitude - dLng, longitude + dLng);
+    }
+
+    /**
+     * Latitude/longitude box. {@code minLng} may be below -180 or {@code maxLng}
+     * above 180 when the box crosses the antimeridian; use {@link #crossesAntimeridian()}.
+     */
+    public record BoundingBox(double minLat, double maxLat, double minLng, double maxLng) {
+
+        public boolean crossesAntimeridian() {
+            return minLng < -180.0 || maxLng > 180.0;
+        }
+
+        public boolean contains(double latitude, double longitude) {
+            if (latitude < minLat || latitude > maxLat) {
+                return false;
+            }
+            if (!crossesAntimeridian()) {
+                return longitude >= minLng && longitude <= maxLng;
+            }
+            return longitude >= westLng() || longitude <= eastLng();
+        }
+
+        /** Western edge, wrapped into [-180, 180]. */
+        public double westLng() {
+            return normalize(minLng);
+        }
+
+        /** Eastern edge, wrapped into [-180, 180]. */
+        public double eastLng() {
+            return normalize(maxLng);
+        }
+
+        private static double normalize(double longitude) {
+            if (longitude < -180.0) {
+                return longitude + 360.0;
+            }
+            if (longitude > 180.0) {
+                return longitude - 360.0;
+            }
+            return longitude;
+        }
+    }
+}
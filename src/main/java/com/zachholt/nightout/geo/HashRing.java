@@ -0,0 +1,62 @@
+package com.zachholt.nightout.geo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Consistent hashing of geohash cells onto cluster nodes. Every node is
+ * placed at {@code virtualNodes} points of a 64-bit ring and a cell belongs
+ * to the first point at or after its own hash, so a node joining or leaving
+ * only moves the cells next to its own points.
+ */
+public final class HashRing {
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+    private final Set<String> nodes;
+
+    public HashRing(Collection<String> nodeIds, int virtualNodes) {
+        if (nodeIds.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one node");
+        }
+        this.nodes = Set.copyOf(new TreeSet<>(nodeIds));
+        for (String nodeId : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // Ties keep the smaller ID so every node builds the same ring
+                points.merge(hash(nodeId + "#" + i), nodeId, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+    }
+
+    public Set<String> nodes() {
+        return nodes;
+    }
+
+    public String ownerOf(long cell) {
+        Map.Entry<Long, String> point = points.ceilingEntry(mix(cell));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    /** FNV-1a, finished with {@link #mix} so similar IDs land far apart. */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /** The 64-bit finalizer of MurmurHash3. */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,405 @@
+package com.zachholt.nightout.geo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 3-d tree over positions projected onto the unit sphere. Straight-line
+ * distance between unit vectors grows with great-circle distance, so the
+ * nearest points in the tree are the nearest on the globe, with no special
+ * cases at the poles or the antimeridian.
+ * <p>
+ * Nodes are rows in primitive columns indexed by node number, so an update
+ * appends a row rather than allocating a node, a point array and a boxed
+ * key. Moves and removals mark the old row deleted instead of
+ * restructuring. Once the churn since the last rebuild exceeds the tree's
+ * size, a balanced, compacted copy is built on a background thread from the
+ * rows as they stood at that moment, while updates keep landing in the
+ * current tree. The copy then replays the rows added and the IDs removed
+ * since, and replaces the current tree under a brief write lock.
+ */
+public class KdTree {
+
+    private static final int MIN_REBUILD = 64;
+    private static final int NONE = -1;
+
+    private static final ExecutorService REBUILDER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "kd-tree-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Executor rebuilder;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Rows rows = new Rows(Rows.INITIAL_CAPACITY);
+    private int churn;
+    /** Rows in {@link #rows} when the running rebuild took its snapshot, or {@link #NONE}. */
+    private int rebuildFrom = NONE;
+    /** IDs removed since the running rebuild took its snapshot. */
+    private long[] removedSinceSnapshot = new long[16];
+    private int removedCount;
+    /** Bumped by {@link #clear()} so a rebuild of the old contents is thrown away. */
+    private long generation;
+
+    public KdTree() {
+        this(REBUILDER);
+    }
+
+    KdTree(Executor rebuilder) {
+        this.rebuilder = rebuilder;
+    }
+
+    public void put(long id, double latitude, double longitude) {
+        double lat = Math.toRadians(latitude);
+        double lng = Math.toRadians(longitude);
+        double cosLat = Math.cos(lat);
+        Runnable rebuild;
+        lock.writeLock().lock();
+        try {
+            rows.put(id, cosLat * Math.cos(lng), cosLat * Math.sin(lng), Math.sin(lat));
+            churn++;
+            rebuild = startRebuildIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (rebuild != null) {
+            rebuilder.execute(rebuild);
+        }
+    }
+
+    public void remove(long id) {
+        Runnable rebuild = null;
+        lock.writeLock().lock();
+        try {
+            if (rows.remove(id)) {
+                if (rebuildFrom != NONE) {
+                    logRemoval(id);
+                }
+                churn++;
+                rebuild = startRebuildIfNeeded();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (rebuild != null) {
+            rebuilder.execute(rebuild);
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            rows = new Rows(Rows.INITIAL_CAPACITY);
+            churn = 0;
+            rebuildFrom = NONE;
+            removedCount = 0;
+            generation++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rows.index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** IDs of the {@code k} points closest to the given position, nearest first. */
+    public List<Long> nearest(double latitude, double longitude, int k) {
+        if (k <= 0) {
+            return List.of();
+        }
+        double[] target = GeoMath.unitVector(latitude, longitude);
+        // Max-heap on distance so the current worst candidate is on top
+        PriorityQueue<Candidate> best = new PriorityQueue<>(k + 1,
+            Comparator.comparingDouble(Candidate::distance).reversed());
+        lock.readLock().lock();
+        try {
+            rows.search(rows.root, target, k, best);
+        } finally {
+            lock.readLock().unlock();
+        }
+        Candidate[] sorted = best.toArray(new Candidate[0]);
+        Arrays.sort(sorted, Comparator.comparingDouble(Candidate::distance));
+        List<Long> ids = new ArrayList<>(sorted.length);
+        for (Candidate candidate : sorted) {
+            ids.add(candidate.id());
+        }
+        return ids;
+    }
+
+    /**
+     * Takes a snapshot for a rebuild once churn calls for one. Must hold the
+     * write lock; the returned task is submitted after releasing it.
+     */
+    private Runnable startRebuildIfNeeded() {
+        if (rebuildFrom != NONE || churn <= Math.max(MIN_REBUILD, rows.index.size())) {
+            return null;
+        }
+        // Rows below the snapshot never change except for their deleted flag,
+        // so the builder can read these arrays without the lock. A flag it
+        // reads stale is put right when the changes since are replayed.
+        long[] ids = rows.ids;
+        double[] points = rows.points;
+        boolean[] deleted = rows.deleted;
+        int snapshotCount = rows.count;
+        int live = rows.index.size();
+        long snapshotGeneration = generation;
+        rebuildFrom = snapshotCount;
+        removedCount = 0;
+        return () -> rebuild(ids, points, deleted, snapshotCount, live, snapshotGeneration);
+    }
+
+    private void rebuild(long[] ids, double[] points, boolean[] deleted,
+                         int snapshotCount, int live, long snapshotGeneration) {
+        Rows fresh = null;
+        try {
+            fresh = Rows.compact(ids, points, deleted, snapshotCount, live);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                if (generation == snapshotGeneration) {
+                    if (fresh != null) {
+                        swapIn(fresh);
+                    }
+                    rebuildFrom = NONE;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /** Replays what changed since the snapshot onto the rebuilt rows and makes them current. */
+    private void swapIn(Rows fresh) {
+        // A row the builder saw as live may have been moved or removed since
+        for (int row = rebuildFrom; row < rows.count; row++) {
+            fresh.remove(rows.ids[row]);
+        }
+        for (int i = 0; i < removedCount; i++) {
+            fresh.remove(removedSinceSnapshot[i]);
+        }
+        int replayed = 0;
+        for (int row = rebuildFrom; row < rows.count; row++) {
+            if (!rows.deleted[row]) {
+                fresh.put(rows.ids[row], rows.points[row * 3], rows.points[row * 3 + 1], rows.points[row * 3 + 2]);
+                replayed++;
+            }
+        }
+        rows = fresh;
+        churn = replayed + removedCount;
+        removedCount = 0;
+    }
+
+    private void logRemoval(long id) {
+        if (removedCount == removedSinceSnapshot.length) {
+            removedSinceSnapshot = Arrays.copyOf(removedSinceSnapshot, removedCount * 2);
+        }
+        removedSinceSnapshot[removedCount++] = id;
+    }
+
+    /** One generation of the tree: primitive columns plus the ID to live row index. */
+    private static final class Rows {
+
+        static final int INITIAL_CAPACITY = 64;
+
+        final LongIntMap index = new LongIntMap();
+        long[] ids;
+        /** x, y and z of each row, three values per row. */
+        double[] points;
+        int[] left;
+        int[] right;
+        byte[] axes;
+        boolean[] deleted;
+        int count;
+        int root = NONE;
+
+        Rows(int capacity) {
+            ids = new long[capacity];
+            points = new double[capacity * 3];
+            left = new int[capacity];
+            right = new int[capacity];
+            axes = new byte[capacity];
+            deleted = new boolean[capacity];
+        }
+
+        void put(long id, double x, double y, double z) {
+            int previous = index.get(id);
+            if (previous != LongIntMap.MISSING) {
+                deleted[previous] = true;
+            }
+            int row = append(id, x, y, z);
+            index.put(id, row);
+            insert(row);
+        }
+
+        boolean remove(long id) {
+            int previous = index.get(id);
+            if (previous == LongIntMap.MISSING) {
+                return false;
+            }
+            deleted[previous] = true;
+            index.remove(id);
+            return true;
+        }
+
+        /** Balanced copy of the first {@code count} rows that are not deleted. */
+        static Rows compact(long[] ids, double[] points, boolean[] deleted, int count, int live) {
+            Rows fresh = new Rows(Math.max(INITIAL_CAPACITY, live * 2));
+            for (int row = 0; row < count; row++) {
+                if (!deleted[row]) {
+                    int copy = fresh.append(ids[row], points[row * 3], points[row * 3 + 1], points[row * 3 + 2]);
+                    fresh.index.put(ids[row], copy);
+                }
+            }
+            int[] order = new int[fresh.count];
+            for (int row = 0; row < order.length; row++) {
+                order[row] = row;
+            }
+            fresh.root = fresh.build(order, 0, order.length, 0);
+            return fresh;
+        }
+
+        void search(int node, double[] target, int k, PriorityQueue<Candidate> best) {
+            if (node == NONE) {
+                return;
+            }
+            if (!deleted[node]) {
+                double distance = squaredDistance(node, target);
+                if (best.size() < k) {
+                    best.add(new Candidate(ids[node], distance));
+                } else if (distance < best.peek().distance()) {
+                    best.poll();
+                    best.add(new Candidate(ids[node], distance));
+                }
+            }
+            int axis = axes[node];
+            double offset = target[axis] - points[node * 3 + axis];
+            int near = offset < 0 ? left[node] : right[node];
+            int far = offset < 0 ? right[node] : left[node];
+            search(near, target, k, best);
+            // The far side can only help if the splitting plane is closer than the current worst match
+            if (best.size() < k || offset * offset < best.peek().distance()) {
+                search(far, target, k, best);
+            }
+        }
+
+        private int append(long id, double x, double y, double z) {
+            if (count == ids.length) {
+                grow(count * 2);
+            }
+            int row = count++;
+            ids[row] = id;
+            points[row * 3] = x;
+            points[row * 3 + 1] = y;
+            points[row * 3 + 2] = z;
+            left[row] = NONE;
+            right[row] = NONE;
+            deleted[row] = false;
+            return row;
+        }
+
+        private void insert(int row) {
+            if (root == NONE) {
+                axes[row] = 0;
+                root = row;
+                return;
+            }
+            int current = root;
+            while (true) {
+                int axis = axes[current];
+                boolean toLeft = points[row * 3 + axis] < points[current * 3 + axis];
+                int child = toLeft ? left[current] : right[current];
+                if (child == NONE) {
+                    axes[row] = (byte) ((axis + 1) % 3);
+                    if (toLeft) {
+                        left[current] = row;
+                    } else {
+                        right[current] = row;
+                    }
+                    return;
+                }
+                current = child;
+            }
+        }
+
+        private int build(int[] order, int from, int to, int axis) {
+            if (from >= to) {
+                return NONE;
+            }
+            int median = (from + to) >>> 1;
+            select(order, from, to, median, axis);
+            int node = order[median];
+            axes[node] = (byte) axis;
+            int next = (axis + 1) % 3;
+            left[node] = build(order, from, median, next);
+            right[node] = build(order, median + 1, to, next);
+            return node;
+        }
+
+        /**
+         * Quickselect: leaves the row with the {@code nth} smallest coordinate on
+         * {@code axis} at {@code nth}, smaller-or-equal rows before it and
+         * greater-or-equal rows after it.
+         */
+        private void select(int[] order, int from, int to, int nth, int axis) {
+            int low = from;
+            int high = to - 1;
+            while (low < high) {
+                double pivot = points[order[(low + high) >>> 1] * 3 + axis];
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (points[order[i] * 3 + axis] < pivot) {
+                        i++;
+                    }
+                    while (points[order[j] * 3 + axis] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        int swap = order[i];
+                        order[i++] = order[j];
+                        order[j--] = swap;
+                    }
+                }
+                if (nth <= j) {
+                    high = j;
+                } else if (nth >= i) {
+                    low = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private double squaredDistance(int row, double[] target) {
+            double dx = points[row * 3] - target[0];
+            double dy = points[row * 3 + 1] - target[1];
+            double dz = points[row * 3 + 2] - target[2];
+            return dx * dx + dy * dy + dz * dz;
+        }
+
+        private void grow(int capacity) {
+            ids = Arrays.copyOf(ids, capacity);
+            points = Arrays.copyOf(points, capacity * 3);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            axes = Arrays.copyOf(axes, capacity);
+            deleted = Arrays.copyOf(deleted, capacity);
+        }
+    }
+
+    private record Candidate(long id, double distance) {}
+}
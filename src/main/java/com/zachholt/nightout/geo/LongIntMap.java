@@ -0,0 +1,110 @@
+package com.zachholt.nightout.geo;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Open-addressing map from {@code long} keys to non-negative {@code int}
+ * values, with linear probing and backward-shift deletion so there are no
+ * tombstones. Not thread-safe.
+ */
+final class LongIntMap {
+
+    static final int MISSING = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    LongIntMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** @return the value for {@code key}, or {@link #MISSING} */
+    int get(long key) {
+        for (int i = PresenceStore.mix(key) & mask; values[i] != MISSING; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return MISSING;
+    }
+
+    void put(long key, int value) {
+        int i = PresenceStore.mix(key) & mask;
+        for (; values[i] != MISSING; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 4 > values.length * 3) {
+            resize(values.length * 2);
+        }
+    }
+
+    void remove(long key) {
+        int hole = PresenceStore.mix(key) & mask;
+        while (keys[hole] != key) {
+            if (values[hole] == MISSING) {
+                return;
+            }
+            hole = (hole + 1) & mask;
+        }
+        if (values[hole] == MISSING) {
+            return;
+        }
+        for (int i = (hole + 1) & mask; values[i] != MISSING; i = (i + 1) & mask) {
+            int home = PresenceStore.mix(keys[i]) & mask;
+            // Entries whose home lies cyclically after the hole must stay put
+            boolean stays = hole <= i ? home > hole && home <= i : home > hole || home <= i;
+            if (!stays) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        values[hole] = MISSING;
+        size--;
+    }
+
+    void forEachKey(LongConsumer action) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != MISSING) {
+                action.accept(keys[i]);
+            }
+        }
+    }
+
+    void clear() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != MISSING) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+        size = 0;
+    }
+}
@@ -0,0 +1,41 @@
+package com.zachholt.nightout.geo;
+
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * k-nearest-neighbour view of the presence index. Kept in step with every
+ * check-in, checkout and expiry through the presence listener callbacks.
+ */
+@Component
+public class NearestNeighborIndex implements PresenceListener {
+
+    private final KdTree tree = new KdTree();
+
+    public NearestNeighborIndex(PresenceIndex presenceIndex) {
+        presenceIndex.addListener(this);
+    }
+
+    /** IDs of the {@code k} users closest to the point, nearest first. */
+    public List<Long> nearest(double latitude, double longitude, int k) {
+        return tree.nearest(latitude, longitude, k);
+    }
+
+    @Override
+    public void onUpdate(long userId, PresenceIndex.Position previous, PresenceIndex.Position current) {
+        if (previous == null || previous.latitude() != current.latitude() || previous.longitude() != current.longitude()) {
+            tree.put(userId, current.latitude(), current.longitude());
+        }
+    }
+
+    @Override
+    public void onRemove(long userId, PresenceIndex.Position previous) {
+        tree.remove(userId);
+    }
+
+    @Override
+    public void onClear() {
+        tree.clear();
+    }
+}
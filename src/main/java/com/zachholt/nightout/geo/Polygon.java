@@ -0,0 +1,60 @@
+package com.zachholt.nightout.geo;
+
+/**
+ * Simple polygon in latitude/longitude, tested with even-odd ray casting.
+ * Edges are treated as straight lines in lat/lng, which is fine at the
+ * neighbourhood scale the map draws; polygons must not cross the antimeridian.
+ */
+public final class Polygon {
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final GeoMath.BoundingBox boundingBox;
+
+    public Polygon(double[] latitudes, double[] longitudes) {
+        if (latitudes.length != longitudes.length || latitudes.length < 3) {
+            throw new IllegalArgumentException("A polygon needs at least three vertices");
+        }
+        this.latitudes = latitudes.clone();
+        this.longitudes = longitudes.clone();
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double minLng = Double.POSITIVE_INFINITY;
+        double maxLng = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < latitudes.length; i++) {
+            minLat = Math.min(minLat, latitudes[i]);
+            maxLat = Math.max(maxLat, latitudes[i]);
+            minLng = Math.min(minLng, longitudes[i]);
+            maxLng = Math.max(maxLng, longitudes[i]);
+        }
+        this.boundingBox = new GeoMath.BoundingBox(minLat, maxLat, minLng, maxLng);
+    }
+
+    public GeoMath.BoundingBox boundingBox() {
+        return boundingBox;
+    }
+
+    public double centerLatitude() {
+        return (boundingBox.minLat() + boundingBox.maxLat()) / 2;
+    }
+
+    public double centerLongitude() {
+        return (boundingBox.minLng() + boundingBox.maxLng()) / 2;
+    }
+
+    public boolean contains(double latitude, double longitude) {
+        if (!boundingBox.contains(latitude, longitude)) {
+            return false;
+        }
+        boolean inside = false;
+        for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+            // Edge (j, i) straddles the point's latitude and crosses east of it
+            if ((latitudes[i] > latitude) != (latitudes[j] > latitude)
+                    && longitude < (longitudes[j] - longitudes[i]) * (latitude - latitudes[i])
+                        / (latitudes[j] - latitudes[i]) + longitudes[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,539 @@
+package com.zachholt.nightout.geo;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * In-memory index of every checked-in user, bucketed by geohash cell.
+ * Radius queries only visit the cells overlapping the search box and run the
+ * exact distance check on their members, so the cost follows the number of
+ * nearby users rather than the size of the coordinates table. Positions live
+ * in a {@link PresenceStore} of off-heap primitive columns; queries copy the
+ * covered cells' members out under the read lock and filter them with
+ * {@link DistanceKernel} after releasing it.
+ * <p>
+ * Writers also hold the user's delivery lock, one of {@link #DELIVERY_STRIPES}
+ * picked by user ID, from the change until its listener callbacks return, so
+ * listeners see each user's changes in the order the index applied them
+ * while other users' changes go ahead in parallel. Queries never wait on
+ * listeners.
+ */
+@Component
+public class PresenceIndex {
+
+    /** Precision 6 cells are roughly 1.2km x 0.6km. */
+    public static final int CELL_PRECISION = 6;
+
+    /** Delivery locks; a power of two so a user's stripe is a mask of their ID. */
+    static final int DELIVERY_STRIPES = 256;
+
+    private final PresenceStore store = new PresenceStore(CELL_PRECISION);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Held by writers across the change and its callbacks; always taken before the write lock
+    private final Lock[] delivery = new Lock[DELIVERY_STRIPES];
+    private final List<PresenceListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean warm;
+    private volatile boolean partitioned;
+
+    public PresenceIndex() {
+        for (int i = 0; i < DELIVERY_STRIPES; i++) {
+            delivery[i] = new ReentrantLock();
+        }
+    }
+
+    public void addListener(PresenceListener listener) {
+        listeners.add(listener);
+    }
+
+    public void update(long userId, double latitude, double longitude) {
+        update(userId, latitude, longitude, System.currentTimeMillis());
+    }
+
+    /**
+     * Positions are kept to the microdegree (about 11cm).
+     *
+     * @param updatedAt when the position was recorded, in epoch millis
+     */
+    public void update(long userId, double latitude, double longitude, long updatedAt) {
+        put(userId, latitude, longitude, updatedAt, false);
+    }
+
+    /**
+     * {@link #update} unless the index already holds a newer position for the
+     * user, checked under the same lock as the write.
+     *
+     * @return whether the position was stored
+     */
+    public boolean updateIfNotOlder(long userId, double latitude, double longitude, long updatedAt) {
+        return put(userId, latitude, longitude, updatedAt, true);
+    }
+
+    private boolean put(long userId, double latitude, double longitude, long updatedAt, boolean skipIfNewer) {
+        int lat = DistanceKernel.toMicrodegrees(latitude);
+        int lng = DistanceKernel.toMicrodegrees(longitude);
+        Lock stripe = deliveryLock(userId);
+        stripe.lock();
+        try {
+            Position previous;
+            lock.writeLock().lock();
+            try {
+                int slot = store.find(userId);
+                if (skipIfNewer && slot != PresenceStore.NONE && store.updatedAt(slot) > updatedAt) {
+                    return false;
+                }
+                previous = slot == PresenceStore.NONE ? null : position(slot);
+                store.put(userId, lat, lng, updatedAt);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (listeners.isEmpty()) {
+                return true;
+            }
+            Position current = new Position(DistanceKernel.toDegrees(lat), DistanceKernel.toDegrees(lng),
+                GeoHash.encode(DistanceKernel.toDegrees(lat), DistanceKernel.toDegrees(lng), CELL_PRECISION), updatedAt);
+            for (PresenceListener listener : listeners) {
+                listener.onUpdate(userId, previous, current);
+            }
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    public void remove(long userId) {
+        Lock stripe = deliveryLock(userId);
+        stripe.lock();
+        try {
+            Position previous = null;
+            lock.writeLock().lock();
+            try {
+                int slot = store.find(userId);
+                if (slot != PresenceStore.NONE) {
+                    previous = position(slot);
+                    store.remove(slot);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (previous != null) {
+                for (PresenceListener listener : listeners) {
+                    listener.onRemove(userId, previous);
+                }
+            }
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Removes the user only if their position is older than {@code cutoff},
+     * so a check-in racing with expiry is never dropped.
+     *
+     * @return whether the user was removed
+     */
+    public boolean removeIfUpdatedBefore(long userId, long cutoff) {
+        Lock stripe = deliveryLock(userId);
+        stripe.lock();
+        try {
+            Position previous = null;
+            lock.writeLock().lock();
+            try {
+                int slot = store.find(userId);
+                if (slot != PresenceStore.NONE && store.updatedAt(slot) < cutoff) {
+                    previous = position(slot);
+                    store.remove(slot);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (previous == null) {
+                return false;
+            }
+            for (PresenceListener listener : listeners) {
+                listener.onRemove(userId, previous);
+            }
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    public Position get(long userId) {
+        lock.readLock().lock();
+        try {
+            int slot = store.find(userId);
+            return slot == PresenceStore.NONE ? null : position(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return store.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Bytes held off the Java heap by the position store. */
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return store.offHeapBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The index only answers queries once it has been loaded from the database;
+     * until then callers should use the SQL path.
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public void markWarm() {
+        this.warm = true;
+    }
+
+    /**
+     * Whether this index only holds the users in some cells, as on a cluster
+     * node. Queries that need every user must then go elsewhere.
+     */
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+
+    public void setPartitioned(boolean partitioned) {
+        this.partitioned = partitioned;
+    }
+
+    public void clear() {
+        // Every stripe, in order, so no user's callbacks straddle the clear
+        for (Lock stripe : delivery) {
+            stripe.lock();
+        }
+        try {
+            warm = false;
+            lock.writeLock().lock();
+            try {
+                store.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            listeners.forEach(PresenceListener::onClear);
+        } finally {
+            for (int i = delivery.length - 1; i >= 0; i--) {
+                delivery[i].unlock();
+            }
+        }
+    }
+
+    private Lock deliveryLock(long userId) {
+        return delivery[(int) (userId ^ (userId >>> 32)) & (DELIVERY_STRIPES - 1)];
+    }
+
+    /**
+     * IDs of users within the radius of the given point.
+     */
+    public List<Long> findWithin(double latitude, double longitude, double radiusMeters) {
+        Candidates candidates = new Candidates();
+        collect(GeoMath.boundingBox(latitude, longitude, radiusMeters), candidates);
+        int[] matches = new int[candidates.size];
+        int count = candidates.within(latitude, longitude, radiusMeters, matches);
+        List<Long> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(candidates.userIds[matches[i]]);
+        }
+        return result;
+    }
+
+    public int countWithin(double latitude, double longitude, double radiusMeters) {
+        return countWithin(latitude, longitude, new double[] {radiusMeters})[0];
+    }
+
+    /** How many users are within each of several radii around one point. */
+    public int[] countWithin(double latitude, double longitude, double[] radiiMeters) {
+        double maxRadius = 0;
+        for (double radius : radiiMeters) {
+            maxRadius = Math.max(maxRadius, radius);
+        }
+        Candidates candidates = new Candidates();
+        collect(GeoMath.boundingBox(latitude, longitude, maxRadius), candidates);
+        double[] haversines = candidates.haversines(latitude, longitude);
+        int[] counts = new int[radiiMeters.length];
+        for (int i = 0; i < radiiMeters.length; i++) {
+            double max = DistanceKernel.maxHaversine(radiiMeters[i]);
+            int count = 0;
+            for (int j = 0; j < candidates.size; j++) {
+                count += haversines[j] <= max ? 1 : 0;
+            }
+            counts[i] = count;
+        }
+        return counts;
+    }
+
+    /**
+     * {@link #findWithin} for many probes at once. Probes are grouped by the
+     * cells their boxes cover, so a cell shared by several nearby probes is
+     * read once and each member is tested against every probe covering it.
+     *
+     * @return the IDs within each probe's radius, in probe order
+     */
+    public List<List<Long>> findWithinEach(double[] latitudes, double[] longitudes, double[] radiiMeters) {
+        List<List<Long>> result = new ArrayList<>(latitudes.length);
+        Map<Long, List<Integer>> probesByCell = new HashMap<>();
+        Candidates candidates = new Candidates();
+        List<CellRun> runs = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < latitudes.length; i++) {
+                result.add(new ArrayList<>());
+                int probe = i;
+                CellRange range = CellRange.of(GeoMath.boundingBox(latitudes[i], longitudes[i], radiiMeters[i]), CELL_PRECISION);
+                if (range.cellCount() > store.cellCount()) {
+                    store.forEachCell(cell -> {
+                        if (range.contains(cell)) {
+                            probesByCell.computeIfAbsent(cell, key -> new ArrayList<>()).add(probe);
+                        }
+                    });
+                } else {
+                    range.forEach(cell -> {
+                        if (store.firstInCell(cell) != PresenceStore.NONE) {
+                            probesByCell.computeIfAbsent(cell, key -> new ArrayList<>()).add(probe);
+                        }
+                    });
+                }
+            }
+            // Members of each cell land in one contiguous run of the candidate columns
+            for (Map.Entry<Long, List<Integer>> entry : probesByCell.entrySet()) {
+                int from = candidates.size;
+                collectCell(entry.getKey(), candidates);
+                runs.add(new CellRun(from, candidates.size, entry.getValue()));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        double[] haversines = new double[candidates.size];
+        int[] matches = new int[candidates.size];
+        for (CellRun run : runs) {
+            int count = run.to() - run.from();
+            int[] lats = Arrays.copyOfRange(candidates.latitudes, run.from(), run.to());
+            int[] lngs = Arrays.copyOfRange(candidates.longitudes, run.from(), run.to());
+            for (int probe : run.probes()) {
+                DistanceKernel.haversines(lats, lngs, count, latitudes[probe], longitudes[probe], haversines);
+                int found = DistanceKernel.select(haversines, count, DistanceKernel.maxHaversine(radiiMeters[probe]), matches);
+                for (int i = 0; i < found; i++) {
+                    result.get(probe).add(candidates.userIds[run.from() + matches[i]]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * IDs of up to {@code limit} users inside the box that also pass the
+     * filter, closest to the given center first.
+     */
+    public List<Long> findInArea(GeoMath.BoundingBox box, AreaFilter filter,
+                                 double centerLatitude, double centerLongitude, int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        Candidates candidates = new Candidates();
+        collect(box, candidates);
+        // The Haversine term grows with distance, which is all the ordering needs
+        double[] distances = candidates.haversines(centerLatitude, centerLongitude);
+        // Max-heap on distance, so the farthest of the current best is evicted first
+        PriorityQueue<Match> closest = new PriorityQueue<>(Comparator.comparingDouble(Match::distance).reversed());
+        for (int i = 0; i < candidates.size; i++) {
+            double lat = DistanceKernel.toDegrees(candidates.latitudes[i]);
+            double lng = DistanceKernel.toDegrees(candidates.longitudes[i]);
+            if (!box.contains(lat, lng) || !filter.contains(lat, lng)) {
+                continue;
+            }
+            if (closest.size() < limit) {
+                closest.add(new Match(candidates.userIds[i], distances[i]));
+            } else if (distances[i] < closest.peek().distance()) {
+                closest.poll();
+                closest.add(new Match(candidates.userIds[i], distances[i]));
+            }
+        }
+        List<Match> matches = new ArrayList<>(closest);
+        matches.sort(Comparator.comparingDouble(Match::distance));
+        List<Long> result = new ArrayList<>(matches.size());
+        for (Match match : matches) {
+            result.add(match.userId());
+        }
+        return result;
+    }
+
+    /**
+     * Visits every user whose cell overlaps the box. Members are not filtered
+     * against the box itself; callers apply their own exact predicate. The
+     * visitor runs under the index's read lock and must not modify the index.
+     */
+    public void forEachInBox(GeoMath.BoundingBox box, PresenceVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            forEachCellInBox(box, cell -> {
+                for (int slot = store.firstInCell(cell); slot != PresenceStore.NONE; slot = store.nextInCell(slot)) {
+                    visitor.visit(store.userId(slot), position(slot));
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits every user in the given {@link #CELL_PRECISION} cells, under the
+     * read lock like {@link #forEachInBox}.
+     */
+    public void forEachInCells(long[] cells, PresenceVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            for (long cell : cells) {
+                for (int slot = store.firstInCell(cell); slot != PresenceStore.NONE; slot = store.nextInCell(slot)) {
+                    visitor.visit(store.userId(slot), position(slot));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits every stored position, coordinates in microdegrees, under the
+     * read lock so the scan is consistent. {@code start} is told how many
+     * positions follow before the first visit.
+     */
+    public void forEachPosition(IntConsumer start, PositionVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            start.accept(store.size());
+            store.forEachCell(cell -> {
+                for (int slot = store.firstInCell(cell); slot != PresenceStore.NONE; slot = store.nextInCell(slot)) {
+                    visitor.visit(store.userId(slot), store.latitude(slot), store.longitude(slot), store.updatedAt(slot));
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Copies the members of every cell overlapping the box into the candidate columns. */
+    private void collect(GeoMath.BoundingBox box, Candidates candidates) {
+        lock.readLock().lock();
+        try {
+            forEachCellInBox(box, cell -> collectCell(cell, candidates));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void collectCell(long cell, Candidates candidates) {
+        for (int slot = store.firstInCell(cell); slot != PresenceStore.NONE; slot = store.nextInCell(slot)) {
+            candidates.add(store.userId(slot), store.latitude(slot), store.longitude(slot));
+        }
+    }
+
+    private void forEachCellInBox(GeoMath.BoundingBox box, LongConsumer action) {
+        CellRange range = CellRange.of(box, CELL_PRECISION);
+        if (range.cellCount() > store.cellCount()) {
+            // Sparse data or a very large box: walking the occupied cells is cheaper
+            store.forEachCell(cell -> {
+                if (range.contains(cell)) {
+                    action.accept(cell);
+                }
+            });
+            return;
+        }
+        range.forEach(cell -> {
+            if (store.firstInCell(cell) != PresenceStore.NONE) {
+                action.accept(cell);
+            }
+        });
+    }
+
+    private Position position(int slot) {
+        double latitude = DistanceKernel.toDegrees(store.latitude(slot));
+        double longitude = DistanceKernel.toDegrees(store.longitude(slot));
+        return new Position(latitude, longitude, store.cell(slot), store.updatedAt(slot));
+    }
+
+    /**
+     * @param updatedAt when the position was recorded, in epoch millis
+     */
+    public record Position(double latitude, double longitude, long cell, long updatedAt) {}
+
+    @FunctionalInterface
+    public interface PresenceVisitor {
+        void visit(long userId, Position position);
+    }
+
+    @FunctionalInterface
+    public interface PositionVisitor {
+        void visit(long userId, int latitude, int longitude, long updatedAt);
+    }
+
+    @FunctionalInterface
+    public interface AreaFilter {
+        boolean contains(double latitude, double longitude);
+    }
+
+    private record Match(long userId, double distance) {}
+
+    /** Candidate columns {@code [from, to)} hold one cell, tested against these probes. */
+    private record CellRun(int from, int to, List<Integer> probes) {}
+
+    /** Growable parallel columns fed to {@link DistanceKernel}. */
+    private static final class Candidates {
+        long[] userIds = new long[64];
+        int[] latitudes = new int[64];
+        int[] longitudes = new int[64];
+        int size;
+
+        void add(long userId, int latitude, int longitude) {
+            if (size == userIds.length) {
+                int capacity = size * 2;
+                userIds = Arrays.copyOf(userIds, capacity);
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+            }
+            userIds[size] = userId;
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            size++;
+        }
+
+        int within(double latitude, double longitude, double radiusMeters, int[] matches) {
+            return DistanceKernel.within(latitudes, longitudes, size, latitude, longitude, radiusMeters,
+                new double[size], matches);
+        }
+
+        double[] haversines(double latitude, double longitude) {
+            double[] out = new double[size];
+            DistanceKernel.haversines(latitudes, longitudes, size, latitude, longitude, out);
+            return out;
+        }
+    }
+}
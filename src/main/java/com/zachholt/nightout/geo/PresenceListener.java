@@ -0,0 +1,21 @@
+package com.zachholt.nightout.geo;
+
+/**
+ * Receives presence changes from {@link PresenceIndex} after they are applied.
+ * Each user's changes arrive one at a time in the order they were applied;
+ * different users' changes may arrive concurrently. Callbacks run on the
+ * thread that changed the index, hold up later writers of the same user
+ * (and of users sharing their lock stripe), and must be cheap.
+ */
+public interface PresenceListener {
+
+    /**
+     * @param previous the user's position before this update, or null if they just arrived
+     */
+    void onUpdate(long userId, PresenceIndex.Position previous, PresenceIndex.Position current);
+
+    void onRemove(long userId, PresenceIndex.Position previous);
+
+    /** The whole index was dropped, e.g. before a reload. */
+    default void onClear() {}
+}
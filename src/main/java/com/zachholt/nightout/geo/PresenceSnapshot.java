@@ -0,0 +1,130 @@
+package com.zachholt.nightout.geo;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped file image of a {@link PresenceIndex}. The header holds a
+ * magic number, format version, the epoch the snapshot is consistent up to,
+ * the record count and a CRC32 of the records; each record is a user ID,
+ * latitude and longitude in microdegrees, and the update time. Snapshots are
+ * written to a temporary file and moved into place, so a crash mid-write
+ * leaves the previous snapshot intact.
+ */
+public final class PresenceSnapshot {
+
+    static final int MAGIC = 0x4e4f5053; // "NOPS"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int RECORD_BYTES = 24;
+
+    private PresenceSnapshot() {}
+
+    /**
+     * Writes every position in the index.
+     *
+     * @param epochMillis changes after this time are not guaranteed to be in the snapshot
+     * @return how many positions were written
+     */
+    public static int write(Path file, long epochMillis, PresenceIndex index) throws IOException {
+        // Copied out under the index's read lock; check-ins must not wait on the disk
+        Columns columns = new Columns();
+        index.forEachPosition(columns::allocate, columns::add);
+        int count = columns.count;
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) count * RECORD_BYTES);
+            mapped.order(ByteOrder.LITTLE_ENDIAN).position(HEADER_BYTES);
+            for (int i = 0; i < count; i++) {
+                mapped.putLong(columns.userIds[i]).putInt(columns.latitudes[i]).putInt(columns.longitudes[i])
+                    .putLong(columns.updatedAts[i]);
+            }
+            mapped.putInt(0, MAGIC)
+                .putInt(4, VERSION)
+                .putLong(8, epochMillis)
+                .putInt(16, count)
+                .putLong(24, checksum(mapped, count));
+            mapped.force();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Loads the snapshot into the index, skipping positions last updated
+     * before {@code liveSince}.
+     *
+     * @return the snapshot's epoch
+     * @throws IOException if the file is unreadable, truncated or fails its checksum
+     */
+    public static long read(Path file, PresenceIndex index, long liveSince) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Snapshot is truncated");
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+            throw new IOException("Not a version " + VERSION + " presence snapshot");
+        }
+        long epochMillis = mapped.getLong(8);
+        int count = mapped.getInt(16);
+        if (count < 0 || HEADER_BYTES + (long) count * RECORD_BYTES > mapped.capacity()) {
+            throw new IOException("Snapshot is truncated");
+        }
+        if (mapped.getLong(24) != checksum(mapped, count)) {
+            throw new IOException("Snapshot checksum does not match");
+        }
+        mapped.position(HEADER_BYTES);
+        for (int i = 0; i < count; i++) {
+            long userId = mapped.getLong();
+            int latitude = mapped.getInt();
+            int longitude = mapped.getInt();
+            long updatedAt = mapped.getLong();
+            if (updatedAt >= liveSince) {
+                index.update(userId, DistanceKernel.toDegrees(latitude), DistanceKernel.toDegrees(longitude), updatedAt);
+            }
+        }
+        return epochMillis;
+    }
+
+    /** Every position in the index, one array per field. */
+    private static final class Columns {
+        long[] userIds;
+        int[] latitudes;
+        int[] longitudes;
+        long[] updatedAts;
+        int count;
+
+        void allocate(int size) {
+            userIds = new long[size];
+            latitudes = new int[size];
+            longitudes = new int[size];
+            updatedAts = new long[size];
+        }
+
+        void add(long userId, int latitude, int longitude, long updatedAt) {
+            userIds[count] = userId;
+            latitudes[count] = latitude;
+            longitudes[count] = longitude;
+            updatedAts[count] = updatedAt;
+            count++;
+        }
+    }
+
+    private static long checksum(MappedByteBuffer mapped, int count) {
+        CRC32 crc = new CRC32();
+        crc.update(mapped.slice(HEADER_BYTES, count * RECORD_BYTES));
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,276 @@
+package com.zachholt.nightout.geo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.LongConsumer;
+
+/**
+ * Primitive storage behind {@link PresenceIndex}. Every user occupies one
+ * slot across off-heap columns: user ID, latitude and longitude as integer
+ * microdegrees (about 11cm), the update time, and the previous/next slot of
+ * their geohash cell, which chains each cell's members into an intrusive
+ * list. A user ID is found through an open-addressing table of slot numbers
+ * whose keys are read back from the user ID column, so the whole store costs
+ * roughly 40 bytes per user and nothing is boxed. Not thread-safe.
+ */
+final class PresenceStore {
+
+    static final int NONE = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int precision;
+
+    private ByteBuffer userIds;
+    private ByteBuffer latitudes;
+    private ByteBuffer longitudes;
+    private ByteBuffer updatedAts;
+    private ByteBuffer nextInCell;
+    private ByteBuffer previousInCell;
+    private int capacity;
+    private int used;
+    private int size;
+    // Freed slots, chained through the next-in-cell column
+    private int freeSlot;
+
+    // userId -> slot + 1; 0 marks an empty entry
+    private ByteBuffer table;
+    private int tableMask;
+
+    private final LongIntMap cellHeads = new LongIntMap();
+
+    PresenceStore(int precision) {
+        this.precision = precision;
+        clear();
+    }
+
+    int size() {
+        return size;
+    }
+
+    int cellCount() {
+        return cellHeads.size();
+    }
+
+    /** @return the user's slot, or {@link #NONE} */
+    int find(long userId) {
+        for (int i = mix(userId) & tableMask; ; i = (i + 1) & tableMask) {
+            int entry = table.getInt(i << 2);
+            if (entry == 0) {
+                return NONE;
+            }
+            if (userId(entry - 1) == userId) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Stores the user's position, moving them between cell lists when the
+     * cell changes.
+     *
+     * @return the user's slot
+     */
+    int put(long userId, int latitude, int longitude, long updatedAt) {
+        long cell = cellOf(latitude, longitude);
+        int slot = find(userId);
+        if (slot == NONE) {
+            slot = allocate(userId);
+            link(slot, cell);
+        } else {
+            long previousCell = cell(slot);
+            if (previousCell != cell) {
+                unlink(slot, previousCell);
+                link(slot, cell);
+            }
+        }
+        latitudes.putInt(slot << 2, latitude);
+        longitudes.putInt(slot << 2, longitude);
+        updatedAts.putLong(slot << 3, updatedAt);
+        return slot;
+    }
+
+    void remove(int slot) {
+        unlink(slot, cell(slot));
+        unindex(userId(slot));
+        nextInCell.putInt(slot << 2, freeSlot);
+        freeSlot = slot;
+        size--;
+    }
+
+    long userId(int slot) {
+        return userIds.getLong(slot << 3);
+    }
+
+    int latitude(int slot) {
+        return latitudes.getInt(slot << 2);
+    }
+
+    int longitude(int slot) {
+        return longitudes.getInt(slot << 2);
+    }
+
+    long updatedAt(int slot) {
+        return updatedAts.getLong(slot << 3);
+    }
+
+    long cell(int slot) {
+        return cellOf(latitude(slot), longitude(slot));
+    }
+
+    /** @return the first member of the cell, or {@link #NONE} */
+    int firstInCell(long cell) {
+        return cellHeads.get(cell);
+    }
+
+    /** @return the member after {@code slot} in its cell, or {@link #NONE} */
+    int nextInCell(int slot) {
+        return nextInCell.getInt(slot << 2);
+    }
+
+    void forEachCell(LongConsumer action) {
+        cellHeads.forEachKey(action);
+    }
+
+    /** Bytes held outside the Java heap by the columns and the user table. */
+    long offHeapBytes() {
+        return (long) capacity * (8 + 4 + 4 + 8 + 4 + 4) + table.capacity();
+    }
+
+    void clear() {
+        capacity = INITIAL_CAPACITY;
+        userIds = column(capacity, 8);
+        latitudes = column(capacity, 4);
+        longitudes = column(capacity, 4);
+        updatedAts = column(capacity, 8);
+        nextInCell = column(capacity, 4);
+        previousInCell = column(capacity, 4);
+        used = 0;
+        size = 0;
+        freeSlot = NONE;
+        table = column(INITIAL_CAPACITY * 2, 4);
+        tableMask = INITIAL_CAPACITY * 2 - 1;
+        cellHeads.clear();
+    }
+
+    private long cellOf(int latitude, int longitude) {
+        return GeoHash.encode(DistanceKernel.toDegrees(latitude), DistanceKernel.toDegrees(longitude), precision);
+    }
+
+    private int allocate(long userId) {
+        int slot;
+        if (freeSlot != NONE) {
+            slot = freeSlot;
+            freeSlot = nextInCell(slot);
+        } else {
+            if (used == capacity) {
+                grow();
+            }
+            slot = used++;
+        }
+        userIds.putLong(slot << 3, userId);
+        size++;
+        if (size * 4L > (tableMask + 1L) * 3) {
+            rehash((tableMask + 1) * 2);
+        }
+        index(slot);
+        return slot;
+    }
+
+    private void grow() {
+        // 1.5x keeps the slack small at millions of users
+        int grown = capacity + (capacity >> 1);
+        userIds = copy(userIds, grown, 8);
+        latitudes = copy(latitudes, grown, 4);
+        longitudes = copy(longitudes, grown, 4);
+        updatedAts = copy(updatedAts, grown, 8);
+        nextInCell = copy(nextInCell, grown, 4);
+        previousInCell = copy(previousInCell, grown, 4);
+        capacity = grown;
+    }
+
+    private void index(int slot) {
+        int i = mix(userId(slot)) & tableMask;
+        while (table.getInt(i << 2) != 0) {
+            i = (i + 1) & tableMask;
+        }
+        table.putInt(i << 2, slot + 1);
+    }
+
+    private void unindex(long userId) {
+        int hole = mix(userId) & tableMask;
+        while (userId(table.getInt(hole << 2) - 1) != userId) {
+            hole = (hole + 1) & tableMask;
+        }
+        for (int i = (hole + 1) & tableMask; ; i = (i + 1) & tableMask) {
+            int entry = table.getInt(i << 2);
+            if (entry == 0) {
+                break;
+            }
+            int home = mix(userId(entry - 1)) & tableMask;
+            // Entries whose home lies cyclically after the hole must stay put
+            boolean stays = hole <= i ? home > hole && home <= i : home > hole || home <= i;
+            if (!stays) {
+                table.putInt(hole << 2, entry);
+                hole = i;
+            }
+        }
+        table.putInt(hole << 2, 0);
+    }
+
+    private void rehash(int tableCapacity) {
+        ByteBuffer old = table;
+        table = column(tableCapacity, 4);
+        tableMask = tableCapacity - 1;
+        for (int i = 0; i < old.capacity(); i += 4) {
+            int entry = old.getInt(i);
+            if (entry != 0) {
+                index(entry - 1);
+            }
+        }
+    }
+
+    private void link(int slot, long cell) {
+        int head = cellHeads.get(cell);
+        nextInCell.putInt(slot << 2, head);
+        previousInCell.putInt(slot << 2, NONE);
+        if (head != NONE) {
+            previousInCell.putInt(head << 2, slot);
+        }
+        cellHeads.put(cell, slot);
+    }
+
+    private void unlink(int slot, long cell) {
+        int next = nextInCell(slot);
+        int previous = previousInCell.getInt(slot << 2);
+        if (previous != NONE) {
+            nextInCell.putInt(previous << 2, next);
+        } else if (next != NONE) {
+            cellHeads.put(cell, next);
+        } else {
+            cellHeads.remove(cell);
+        }
+        if (next != NONE) {
+            previousInCell.putInt(next << 2, previous);
+        }
+    }
+
+    /** Spreads sequential IDs and geohashes across the table. */
+    static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private static ByteBuffer column(int slots, int width) {
+        return ByteBuffer.allocateDirect(slots * width).order(ByteOrder.nativeOrder());
+    }
+
+    private static ByteBuffer copy(ByteBuffer from, int slots, int width) {
+        ByteBuffer to = column(slots, width);
+        to.put(from.duplicate().clear());
+        to.clear();
+        return to;
+    }
+}
@@ -0,0 +1,32 @@
+package com.zachholt.nightout.geo;
+
+/**
+ * Web Mercator ("slippy map") tile coordinates, the grid map SDKs draw in.
+ * At zoom z the world is 2^z by 2^z tiles, x growing east from the
+ * antimeridian and y growing south from the top of the projection.
+ */
+public final class TileMath {
+
+    /** Mercator stops here; points further north or south are clamped onto the edge tiles. */
+    public static final double MAX_LATITUDE = 85.05112878;
+
+    private TileMath() {}
+
+    public static int tileX(double longitude, int zoom) {
+        int tiles = 1 << zoom;
+        int x = (int) Math.floor((longitude + 180.0) / 360.0 * tiles);
+        return Math.min(tiles - 1, Math.max(0, x));
+    }
+
+    public static int tileY(double latitude, int zoom) {
+        int tiles = 1 << zoom;
+        double lat = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        double y = (1.0 - Math.log(Math.tan(lat) + 1.0 / Math.cos(lat)) / Math.PI) / 2.0 * tiles;
+        return Math.min(tiles - 1, Math.max(0, (int) Math.floor(y)));
+    }
+
+    /** Packs a tile address into one key. */
+    public static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+}
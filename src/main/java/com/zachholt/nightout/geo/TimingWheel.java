@@ -0,0 +1,228 @@
+package com.zachholt.nightout.geo;
+
+import java.util.Arrays;
+
+/**
+ * Hashed timing wheel of user IDs. Scheduling, rescheduling and cancelling
+ * are O(1); {@link #advance(long)} only touches the slots that came due.
+ * Deadlines further out than one rotation simply stay in their slot until a
+ * later pass.
+ * <p>
+ * Entries live in primitive columns, split into segments by ID so that
+ * concurrent schedules for different users rarely share a monitor. Each
+ * slot is an intrusive doubly-linked list through those columns, so a
+ * reschedule unlinks the entry from its old slot instead of leaving a
+ * stale copy behind, and nothing is boxed or allocated per call.
+ */
+public class TimingWheel {
+
+    private static final int SEGMENTS = 16;
+
+    private final long tickMillis;
+    private final int wheelSize;
+    private final int mask;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private long lastTick;
+
+    public TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+        }
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.mask = wheelSize - 1;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+        this.lastTick = startMillis / tickMillis;
+    }
+
+    public void schedule(long id, long deadlineMillis) {
+        segmentOf(id).schedule(id, deadlineMillis);
+    }
+
+    public void cancel(long id) {
+        segmentOf(id).cancel(id);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Moves the wheel up to {@code nowMillis} and returns the IDs whose
+     * deadline has passed. Each ID is returned once per schedule.
+     */
+    public synchronized long[] advance(long nowMillis) {
+        long nowTick = nowMillis / tickMillis;
+        Expired expired = new Expired();
+        // After a long pause every slot is due at most once
+        long ticks = Math.min(nowTick - lastTick, wheelSize);
+        for (long tick = nowTick - ticks + 1; tick <= nowTick; tick++) {
+            int slot = (int) (tick & mask);
+            for (Segment segment : segments) {
+                segment.expire(slot, nowMillis, expired);
+            }
+        }
+        lastTick = Math.max(lastTick, nowTick);
+        return expired.toArray();
+    }
+
+    /** Rounds up so a slot is only visited once all of its deadlines in this rotation have passed. */
+    private int slotOf(long deadlineMillis) {
+        return (int) (((deadlineMillis + tickMillis - 1) / tickMillis) & mask);
+    }
+
+    private Segment segmentOf(long id) {
+        return segments[PresenceStore.mix(id) & (SEGMENTS - 1)];
+    }
+
+    /** One share of the entries, guarded by its own monitor. */
+    private final class Segment {
+
+        private static final int NONE = -1;
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final LongIntMap entries = new LongIntMap();
+        private final int[] heads;
+        private long[] ids;
+        private long[] deadlines;
+        private int[] next;
+        private int[] previous;
+        private int used;
+        private int free;
+
+        Segment() {
+            heads = new int[wheelSize];
+            reset();
+        }
+
+        synchronized void schedule(long id, long deadlineMillis) {
+            int entry = entries.get(id);
+            if (entry == LongIntMap.MISSING) {
+                entry = allocate();
+                ids[entry] = id;
+                entries.put(id, entry);
+            } else {
+                unlink(entry);
+            }
+            deadlines[entry] = deadlineMillis;
+            link(entry, slotOf(deadlineMillis));
+        }
+
+        synchronized void cancel(long id) {
+            int entry = entries.get(id);
+            if (entry != LongIntMap.MISSING) {
+                unlink(entry);
+                release(entry);
+            }
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized void clear() {
+            reset();
+        }
+
+        /** Takes every entry in {@code slot} whose deadline has passed. */
+        synchronized void expire(int slot, long nowMillis, Expired expired) {
+            int entry = heads[slot];
+            while (entry != NONE) {
+                int following = next[entry];
+                if (deadlines[entry] <= nowMillis) {
+                    expired.add(ids[entry]);
+                    unlink(entry);
+                    release(entry);
+                }
+                entry = following;
+            }
+        }
+
+        private void link(int entry, int slot) {
+            int head = heads[slot];
+            previous[entry] = NONE;
+            next[entry] = head;
+            if (head != NONE) {
+                previous[head] = entry;
+            }
+            heads[slot] = entry;
+        }
+
+        private void unlink(int entry) {
+            int before = previous[entry];
+            int after = next[entry];
+            if (before == NONE) {
+                heads[slotOf(deadlines[entry])] = after;
+            } else {
+                next[before] = after;
+            }
+            if (after != NONE) {
+                previous[after] = before;
+            }
+        }
+
+        private int allocate() {
+            if (free != NONE) {
+                int entry = free;
+                free = next[entry];
+                return entry;
+            }
+            if (used == ids.length) {
+                int capacity = used * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                deadlines = Arrays.copyOf(deadlines, capacity);
+                next = Arrays.copyOf(next, capacity);
+                previous = Arrays.copyOf(previous, capacity);
+            }
+            return used++;
+        }
+
+        /** Puts an unlinked entry on the free list. */
+        private void release(int entry) {
+            entries.remove(ids[entry]);
+            next[entry] = free;
+            free = entry;
+        }
+
+        private void reset() {
+            Arrays.fill(heads, NONE);
+            entries.clear();
+            ids = new long[INITIAL_CAPACITY];
+            deadlines = new long[INITIAL_CAPACITY];
+            next = new int[INITIAL_CAPACITY];
+            previous = new int[INITIAL_CAPACITY];
+            used = 0;
+            free = NONE;
+        }
+    }
+
+    /** Growable list of expired IDs for one {@link #advance(long)} call. */
+    private static final class Expired {
+
+        private long[] ids = new long[16];
+        private int size;
+
+        void add(long id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+}
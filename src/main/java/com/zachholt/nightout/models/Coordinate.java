@@ -2,8 +2,10 @@ package com.zachholt.nightout.models;
 
 import jakarta.persistence.*;
 import java.time.LocalDateTime;
+import com.zachholt.nightout.geo.GeoMath;
 import io.swagger.v3.oas.annotations.media.Schema;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
 
 @Entity
 @Table(name = "coordinates")
@@ -27,11 +29,26 @@ public class Coordinate {
     @Schema(description = "Longitude coordinate", example = "-74.0060")
     private Double longitude;
 
+    // Position on the unit sphere, derived from latitude/longitude so distance checks are a dot product
+    @Column(name = "unit_x")
+    private Double unitX;
+
+    @Column(name = "unit_y")
+    private Double unitY;
+
+    @Column(name = "unit_z")
+    private Double unitZ;
+
     @CreationTimestamp
     @Column(name = "created_at", nullable = false, updatable = false)
     @Schema(description = "Timestamp when the coordinate was recorded", example = "2024-03-15T10:30:00")
     private LocalDateTime createdAt;
 
+    @UpdateTimestamp
+    @Column(name = "updated_at", nullable = false)
+    @Schema(description = "Timestamp of the latest check-in at these coordinates", example = "2024-03-15T11:45:00")
+    private LocalDateTime updatedAt;
+
     // Default constructor
     public Coordinate() {}
 
@@ -43,6 +60,15 @@ public class Coordinate {
         this.createdAt = LocalDateTime.now();
     }
 
+    @PrePersist
+    @PreUpdate
+    void updateUnitVector() {
+        double[] unit = GeoMath.unitVector(latitude, longitude);
+        unitX = unit[0];
+        unitY = unit[1];
+        unitZ = unit[2];
+    }
+
     // Getters and setters
     public Long getId() {
         return id;
@@ -83,4 +109,12 @@ public class Coordinate {
     public void setCreatedAt(LocalDateTime createdAt) {
         this.createdAt = createdAt;
     }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,34 @@
+package com.zachholt.nightout.models;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Number of checked-in users within a radius")
+public class DensityCount {
+    @Schema(description = "Search radius in meters", example = "2000")
+    private Double radiusInMeters;
+
+    @Schema(description = "Number of checked-in users within the radius", example = "42")
+    private long count;
+
+    public DensityCount(Double radiusInMeters, long count) {
+        this.radiusInMeters = radiusInMeters;
+        this.count = count;
+    }
+
+    // Getters and setters
+    public Double getRadiusInMeters() {
+        return radiusInMeters;
+    }
+
+    public void setRadiusInMeters(Double radiusInMeters) {
+        this.radiusInMeters = radiusInMeters;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+}
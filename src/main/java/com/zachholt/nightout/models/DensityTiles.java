@@ -0,0 +1,82 @@
+package com.zachholt.nightout.models;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Checked-in user counts for a block of map tiles")
+public class DensityTiles {
+    @Schema(description = "Web Mercator zoom level of the tiles", example = "14")
+    private int zoom;
+
+    @Schema(description = "Tile x of the first (westernmost) column", example = "4823")
+    private int minX;
+
+    @Schema(description = "Tile y of the first (northernmost) row", example = "6160")
+    private int minY;
+
+    @Schema(description = "Number of tile columns; x wraps to 0 after the antimeridian", example = "12")
+    private int width;
+
+    @Schema(description = "Number of tile rows", example = "9")
+    private int height;
+
+    @Schema(description = "Counts in row-major order, north to south then west to east; length is width * height")
+    private int[] counts;
+
+    public DensityTiles(int zoom, int minX, int minY, int width, int height, int[] counts) {
+        this.zoom = zoom;
+        this.minX = minX;
+        this.minY = minY;
+        this.width = width;
+        this.height = height;
+        this.counts = counts;
+    }
+
+    // Getters and setters
+    public int getZoom() {
+        return zoom;
+    }
+
+    public void setZoom(int zoom) {
+        this.zoom = zoom;
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public void setMinX(int minX) {
+        this.minX = minX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public void setMinY(int minY) {
+        this.minY = minY;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    public int[] getCounts() {
+        return counts;
+    }
+
+    public void setCounts(int[] counts) {
+        this.counts = counts;
+    }
+}
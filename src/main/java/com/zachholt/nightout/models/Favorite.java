@@ -3,9 +3,12 @@ package com.zachholt.nightout.models;
 import jakarta.persistence.*;
 import java.time.LocalDateTime;
 import org.hibernate.annotations.CreationTimestamp;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.swagger.v3.oas.annotations.media.Schema;
 
 @Entity(name = "favorites")
+@Table(name = "favorites", uniqueConstraints = @UniqueConstraint(
+    name = "favorites_unique_user_location", columnNames = {"user_id", "location_id"}))
 @Schema(description = "Represents a user's favorite venue")
 public class Favorite {
     @Id
@@ -15,9 +18,10 @@ public class Favorite {
     @Schema(description = "Unique identifier for the favorite", example = "1")
     private Long id;
 
+    // Usually an unloaded reference; only its ID is serialized
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "user_id", nullable = false)
-    @Schema(description = "User who favorited the venue")
+    @JoinColumn(name = "user_id", nullable = false, foreignKey = @ForeignKey(name = "favorites_user_fk"))
+    @JsonIgnore
     private User user;
 
     @Column(name = "location_id", nullable = false)
@@ -54,6 +58,12 @@ public class Favorite {
         this.user = user;
     }
 
+    @Schema(description = "ID of the user who favorited the venue", example = "1")
+    public Long getUserId() {
+        // Reading the ID does not initialize a lazy reference
+        return user != null ? user.getId() : null;
+    }
+
     public String getLocationId() {
         return locationId;
     }
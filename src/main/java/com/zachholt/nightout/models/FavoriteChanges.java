@@ -0,0 +1,63 @@
+package com.zachholt.nightout.models;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Schema(description = "Changes to a user's favorites since the client's last sync")
+public class FavoriteChanges {
+
+    @Schema(description = "Favorites added since then; the whole list when reset is true")
+    private List<Favorite> favorites;
+
+    @Schema(description = "Location IDs removed since then")
+    private List<String> removed;
+
+    @Schema(description = "Pass as 'since' on the next sync", example = "2024-03-15T10:30:00")
+    private LocalDateTime syncedAt;
+
+    @Schema(description = "True when 'since' is older than the removals kept on the server; "
+        + "the client should replace its list with favorites")
+    private boolean reset;
+
+    public FavoriteChanges(List<Favorite> favorites, List<String> removed, LocalDateTime syncedAt, boolean reset) {
+        this.favorites = favorites;
+        this.removed = removed;
+        this.syncedAt = syncedAt;
+        this.reset = reset;
+    }
+
+    // Getters and setters
+    public List<Favorite> getFavorites() {
+        return favorites;
+    }
+
+    public void setFavorites(List<Favorite> favorites) {
+        this.favorites = favorites;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public void setRemoved(List<String> removed) {
+        this.removed = removed;
+    }
+
+    public LocalDateTime getSyncedAt() {
+        return syncedAt;
+    }
+
+    public void setSyncedAt(LocalDateTime syncedAt) {
+        this.syncedAt = syncedAt;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+
+    public void setReset(boolean reset) {
+        this.reset = reset;
+    }
+}
@@ -0,0 +1,11 @@
+package com.zachholt.nightout.models;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "What a batch add or remove did with one location")
+public enum FavoriteOutcome {
+    ADDED,
+    ALREADY_FAVORITED,
+    REMOVED,
+    NOT_FAVORITED
+}
@@ -0,0 +1,37 @@
+package com.zachholt.nightout.models;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "One page of a user's favorites, oldest first")
+public class FavoritesPage {
+
+    @Schema(description = "Favorites on this page")
+    private List<Favorite> favorites;
+
+    @Schema(description = "Pass as 'after' to fetch the next page; null on the last page", example = "MjAyNC0wMy0xNVQxMDozMDowMHwxMDE")
+    private String nextCursor;
+
+    public FavoritesPage(List<Favorite> favorites, String nextCursor) {
+        this.favorites = favorites;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters and setters
+    public List<Favorite> getFavorites() {
+        return favorites;
+    }
+
+    public void setFavorites(List<Favorite> favorites) {
+        this.favorites = favorites;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
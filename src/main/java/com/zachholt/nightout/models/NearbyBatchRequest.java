@@ -0,0 +1,76 @@
+package com.zachholt.nightout.models;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Schema(description = "Several nearby-user lookups answered in one request")
+public class NearbyBatchRequest {
+    @Schema(description = "Points to look around, e.g. one per venue in a list (max: 100)")
+    private List<Probe> probes = new ArrayList<>();
+
+    @Schema(description = "Also return the IDs of the users found for each probe", example = "false")
+    private boolean includeUserIds;
+
+    @Schema(description = "A point and radius to count users around")
+    public static class Probe {
+        @Schema(description = "Latitude coordinate", example = "40.7128")
+        private Double latitude;
+
+        @Schema(description = "Longitude coordinate", example = "-74.0060")
+        private Double longitude;
+
+        @Schema(description = "Search radius in meters (default: 100)", example = "100")
+        private Double radiusInMeters;
+
+        public Probe() {}
+
+        public Probe(Double latitude, Double longitude, Double radiusInMeters) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.radiusInMeters = radiusInMeters;
+        }
+
+        public Double getLatitude() {
+            return latitude;
+        }
+
+        public void setLatitude(Double latitude) {
+            this.latitude = latitude;
+        }
+
+        public Double getLongitude() {
+            return longitude;
+        }
+
+        public void setLongitude(Double longitude) {
+            this.longitude = longitude;
+        }
+
+        public Double getRadiusInMeters() {
+            return radiusInMeters;
+        }
+
+        public void setRadiusInMeters(Double radiusInMeters) {
+            this.radiusInMeters = radiusInMeters;
+        }
+    }
+
+    // Getters and setters
+    public List<Probe> getProbes() {
+        return probes;
+    }
+
+    public void setProbes(List<Probe> probes) {
+        this.probes = probes;
+    }
+
+    public boolean isIncludeUserIds() {
+        return includeUserIds;
+    }
+
+    public void setIncludeUserIds(boolean includeUserIds) {
+        this.includeUserIds = includeUserIds;
+    }
+}
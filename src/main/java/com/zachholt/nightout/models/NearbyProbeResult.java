@@ -0,0 +1,74 @@
+package com.zachholt.nightout.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "Checked-in users around one probe of a batch lookup")
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class NearbyProbeResult {
+    @Schema(description = "Latitude of the probe", example = "40.7128")
+    private Double latitude;
+
+    @Schema(description = "Longitude of the probe", example = "-74.0060")
+    private Double longitude;
+
+    @Schema(description = "Search radius in meters", example = "100")
+    private Double radiusInMeters;
+
+    @Schema(description = "Number of checked-in users within the radius", example = "12")
+    private long count;
+
+    @Schema(description = "IDs of those users; only present when requested")
+    private List<Long> userIds;
+
+    public NearbyProbeResult(Double latitude, Double longitude, Double radiusInMeters, long count, List<Long> userIds) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radiusInMeters = radiusInMeters;
+        this.count = count;
+        this.userIds = userIds;
+    }
+
+    // Getters and setters
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(Double latitude) {
+        this.latitude = latitude;
+    }
+
+    public Double getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(Double longitude) {
+        this.longitude = longitude;
+    }
+
+    public Double getRadiusInMeters() {
+        return radiusInMeters;
+    }
+
+    public void setRadiusInMeters(Double radiusInMeters) {
+        this.radiusInMeters = radiusInMeters;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public List<Long> getUserIds() {
+        return userIds;
+    }
+
+    public void setUserIds(List<Long> userIds) {
+        this.userIds = userIds;
+    }
+}
@@ -0,0 +1,64 @@
+package com.zachholt.nightout.models;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Schema(description = "Area to search for checked-in users, as a simple polygon")
+public class PolygonQuery {
+    @Schema(description = "Polygon vertices in order; the last vertex connects back to the first")
+    private List<Point> points = new ArrayList<>();
+
+    @Schema(description = "Maximum number of users to return (default: 200, max: 500)", example = "200")
+    private Integer limit;
+
+    @Schema(description = "A polygon vertex")
+    public static class Point {
+        @Schema(description = "Latitude coordinate", example = "40.7128")
+        private Double latitude;
+
+        @Schema(description = "Longitude coordinate", example = "-74.0060")
+        private Double longitude;
+
+        public Point() {}
+
+        public Point(Double latitude, Double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        public Double getLatitude() {
+            return latitude;
+        }
+
+        public void setLatitude(Double latitude) {
+            this.latitude = latitude;
+        }
+
+        public Double getLongitude() {
+            return longitude;
+        }
+
+        public void setLongitude(Double longitude) {
+            this.longitude = longitude;
+        }
+    }
+
+    // Getters and setters
+    public List<Point> getPoints() {
+        return points;
+    }
+
+    public void setPoints(List<Point> points) {
+        this.points = points;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+}
@@ -0,0 +1,75 @@
+package com.zachholt.nightout.models;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "A change to who is checked in within one subscribed geohash cell")
+public class PresenceDelta {
+
+    public enum Type {
+        JOIN, MOVE, LEAVE
+    }
+
+    @Schema(description = "JOIN when the user entered the cell, MOVE when they moved within it, LEAVE when they left it")
+    private Type type;
+
+    @Schema(description = "User ID", example = "1")
+    private Long userId;
+
+    @Schema(description = "Geohash of the cell the change happened in", example = "dr5reg")
+    private String cell;
+
+    @Schema(description = "Latitude of the user, absent for LEAVE", example = "40.7128")
+    private Double latitude;
+
+    @Schema(description = "Longitude of the user, absent for LEAVE", example = "-74.0060")
+    private Double longitude;
+
+    public PresenceDelta(Type type, Long userId, String cell, Double latitude, Double longitude) {
+        this.type = type;
+        this.userId = userId;
+        this.cell = cell;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    // Getters and setters
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public String getCell() {
+        return cell;
+    }
+
+    public void setCell(String cell) {
+        this.cell = cell;
+    }
+
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(Double latitude) {
+        this.latitude = latitude;
+    }
+
+    public Double getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(Double longitude) {
+        this.longitude = longitude;
+    }
+}
@@ -0,0 +1,62 @@
+package com.zachholt.nightout.models;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "A checked-in user's position as exchanged between cluster nodes")
+public class PresencePosition {
+
+    @Schema(description = "User ID", example = "1")
+    private Long userId;
+
+    @Schema(description = "Latitude", example = "40.7128")
+    private Double latitude;
+
+    @Schema(description = "Longitude", example = "-74.0060")
+    private Double longitude;
+
+    @Schema(description = "When the position was recorded, in epoch milliseconds", example = "1700000000000")
+    private Long updatedAt;
+
+    public PresencePosition() {
+    }
+
+    public PresencePosition(Long userId, Double latitude, Double longitude, Long updatedAt) {
+        this.userId = userId;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.updatedAt = updatedAt;
+    }
+
+    // Getters and setters
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(Double latitude) {
+        this.latitude = latitude;
+    }
+
+    public Double getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(Double longitude) {
+        this.longitude = longitude;
+    }
+
+    public Long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,70 @@
+package com.zachholt.nightout.models;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Check-in activity in one geohash cell over the trending windows")
+public class TrendingCell {
+    @Schema(description = "Geohash of the cell", example = "dr5regw")
+    private String geohash;
+
+    @Schema(description = "Latitude of the cell center", example = "40.7128")
+    private double latitude;
+
+    @Schema(description = "Longitude of the cell center", example = "-74.0060")
+    private double longitude;
+
+    @Schema(description = "Check-ins in the last 15 minutes", example = "12")
+    private long lastFifteenMinutes;
+
+    @Schema(description = "Check-ins in the last hour", example = "31")
+    private long lastHour;
+
+    public TrendingCell(String geohash, double latitude, double longitude, long lastFifteenMinutes, long lastHour) {
+        this.geohash = geohash;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.lastFifteenMinutes = lastFifteenMinutes;
+        this.lastHour = lastHour;
+    }
+
+    // Getters and setters
+    public String getGeohash() {
+        return geohash;
+    }
+
+    public void setGeohash(String geohash) {
+        this.geohash = geohash;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(double latitude) {
+        this.latitude = latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(double longitude) {
+        this.longitude = longitude;
+    }
+
+    public long getLastFifteenMinutes() {
+        return lastFifteenMinutes;
+    }
+
+    public void setLastFifteenMinutes(long lastFifteenMinutes) {
+        this.lastFifteenMinutes = lastFifteenMinutes;
+    }
+
+    public long getLastHour() {
+        return lastHour;
+    }
+
+    public void setLastHour(long lastHour) {
+        this.lastHour = lastHour;
+    }
+}
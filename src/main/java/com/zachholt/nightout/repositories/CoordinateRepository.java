@@ -2,11 +2,20 @@ package com.zachholt.nightout.repositories;
 
 import com.zachholt.nightout.models.Coordinate;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface CoordinateRepository extends JpaRepository<Coordinate, Long> {
     Optional<Coordinate> findByUserId(Long userId);
+
+    @Query("SELECT c FROM Coordinate c JOIN FETCH c.user u WHERE u.email = :email")
+    Optional<Coordinate> findByUserEmail(@Param("email") String email);
+
+    List<Coordinate> findByUserIdIn(Collection<Long> userIds);
     void deleteByUserId(Long userId);
-} 
\ No newline at end of file
+}
\ No newline at end of file
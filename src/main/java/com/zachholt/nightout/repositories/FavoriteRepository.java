@@ -1,16 +1,42 @@
 package com.zachholt.nightout.repositories;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import com.zachholt.nightout.models.Favorite;
-import com.zachholt.nightout.models.User;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface FavoriteRepository extends JpaRepository<Favorite, Long> {
-    List<Favorite> findByUser(User user);
-    Optional<Favorite> findByUserAndLocationId(User user, String locationId);
-    void deleteByUserAndLocationId(User user, String locationId);
-    boolean existsByUserAndLocationId(User user, String locationId);
+    // "User_Id" walks the association; "UserId" would resolve to Favorite.getUserId()
+    List<Favorite> findByUser_Id(Long userId);
+    Optional<Favorite> findByUser_IdAndLocationId(Long userId, String locationId);
+    boolean existsByUser_IdAndLocationId(Long userId, String locationId);
+
+    // Keyset pages in (created_at, id) order, backed by favorites_user_created_idx
+    @Query("SELECT f FROM favorites f WHERE f.user.id = :userId ORDER BY f.createdAt, f.id")
+    List<Favorite> findPage(@Param("userId") Long userId, Pageable pageable);
+
+    @Query("SELECT f FROM favorites f WHERE f.user.id = :userId AND (f.createdAt, f.id) > (:createdAt, :id) "
+        + "ORDER BY f.createdAt, f.id")
+    List<Favorite> findPageAfter(@Param("userId") Long userId, @Param("createdAt") LocalDateTime createdAt,
+                                 @Param("id") Long id, Pageable pageable);
+
+    @Query("SELECT f FROM favorites f WHERE f.user.id = :userId AND f.createdAt > :since ORDER BY f.createdAt, f.id")
+    List<Favorite> findCreatedSince(@Param("userId") Long userId, @Param("since") LocalDateTime since);
+
+    // A derived delete would load each row first
+    @Modifying
+    @Query("DELETE FROM favorites f WHERE f.user.id = :userId AND f.locationId = :locationId")
+    int deleteByUserIdAndLocationId(@Param("userId") Long userId, @Param("locationId") String locationId);
+
+    @Query("SELECT f.locationId FROM favorites f WHERE f.user.id = :userId AND f.locationId IN :locationIds")
+    List<String> findFavoritedLocationIds(@Param("userId") Long userId,
+                                          @Param("locationIds") Collection<String> locationIds);
 } 
\ No newline at end of file
@@ -0,0 +1,101 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.models.UserResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Skips check-in writes that would barely move the user. If the new position
+ * is within {@code min-movement-meters} of the last written one and that
+ * write is younger than {@code min-interval-seconds}, the caller gets the
+ * response from that write back and no UPDATE is issued. The presence index
+ * keeps the written position, so nearby results match the table.
+ * Setting either threshold to 0 turns suppression off.
+ */
+@Service
+public class CheckInThrottle {
+
+    private final Map<String, LastWrite> lastWrites = new ConcurrentHashMap<>();
+    private final PresenceIndex presenceIndex;
+    private final double minMovementMeters;
+    private final long minIntervalMillis;
+    private final Counter suppressed;
+    private final Counter written;
+
+    public CheckInThrottle(PresenceIndex presenceIndex,
+                           MeterRegistry meterRegistry,
+                           @Value("${nightout.presence.suppression.min-movement-meters:25}") double minMovementMeters,
+                           @Value("${nightout.presence.suppression.min-interval-seconds:60}") long minIntervalSeconds) {
+        this.presenceIndex = presenceIndex;
+        this.minMovementMeters = minMovementMeters;
+        this.minIntervalMillis = minIntervalSeconds * 1000;
+        this.suppressed = Counter.builder("nightout.presence.checkins.suppressed")
+            .description("Check-ins answered from the last write because the user barely moved")
+            .register(meterRegistry);
+        this.written = Counter.builder("nightout.presence.checkins.written")
+            .description("Check-ins that were written")
+            .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return minMovementMeters > 0 && minIntervalMillis > 0;
+    }
+
+    /**
+     * The response of the last write if this check-in can be skipped, otherwise null.
+     */
+    public UserResponse suppress(String email, double latitude, double longitude) {
+        if (!isEnabled()) {
+            return null;
+        }
+        LastWrite last = lastWrites.get(email);
+        if (last == null || System.currentTimeMillis() - last.writtenAt() > minIntervalMillis) {
+            return null;
+        }
+        UserResponse response = last.response();
+        // Checkout or expiry removed the user since, or another node recorded a
+        // newer position; the next check-in must be written
+        PresenceIndex.Position position = presenceIndex.get(response.getId());
+        if (position == null || position.updatedAt() > last.writtenAt()) {
+            return null;
+        }
+        if (GeoMath.distanceMeters(latitude, longitude, response.getLatitude(), response.getLongitude()) > minMovementMeters) {
+            return null;
+        }
+        suppressed.increment();
+        return response;
+    }
+
+    public void recordWrite(String email, UserResponse response) {
+        written.increment();
+        if (isEnabled()) {
+            lastWrites.put(email, new LastWrite(response, System.currentTimeMillis()));
+        }
+    }
+
+    /** Drops the user's last write, e.g. after their profile changed. */
+    public void forget(long userId) {
+        lastWrites.values().removeIf(last -> last.response().getId() == userId);
+    }
+
+    public long suppressedCount() {
+        return (long) suppressed.count();
+    }
+
+    /** Entries past the interval can never suppress again. */
+    @Scheduled(fixedDelayString = "${nightout.presence.suppression.purge-interval:60000}")
+    public void purgeExpired() {
+        long cutoff = System.currentTimeMillis() - minIntervalMillis;
+        lastWrites.values().removeIf(last -> last.writtenAt() < cutoff);
+    }
+
+    private record LastWrite(UserResponse response, long writtenAt) {}
+}
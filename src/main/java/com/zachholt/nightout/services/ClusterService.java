@@ -0,0 +1,430 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.config.DatabasePlatform;
+import com.zachholt.nightout.geo.CellRange;
+import com.zachholt.nightout.geo.GeoHash;
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.geo.HashRing;
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.models.PresencePosition;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.context.WebServerInitializedEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Optional cluster mode for running several backends behind nginx. Geohash
+ * cells of {@code shard-precision} are spread over the nodes by a
+ * {@link HashRing}, and each node's presence index only holds the users in
+ * the cells it owns. Every check-in is applied locally and sent to the owner
+ * of the user's new cell, plus the owner of their previous cell when that is
+ * another node, so it can drop its copy. A checkout goes to the owner of the
+ * cell the user left. Nearby queries ask only the owners of the cells they
+ * touch.
+ * Members are listed in {@code members} or discovered through a heartbeat
+ * table in Postgres. When the membership changes, an event tells
+ * {@link CoordinateService} to reload the index for the new ownership.
+ */
+@Service
+public class ClusterService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterService.class);
+
+    public static final String TOKEN_HEADER = "X-Cluster-Token";
+
+    // A query covering more cells than this just asks every node
+    private static final int MAX_ROUTED_CELLS = 4096;
+
+    private static final String HEARTBEAT_UPSERT_SQL = """
+        INSERT INTO cluster_nodes (node_id, url, heartbeat_at) VALUES (?, ?, ?)
+        ON CONFLICT (node_id) DO UPDATE SET url = EXCLUDED.url, heartbeat_at = EXCLUDED.heartbeat_at
+        """;
+    private static final String HEARTBEAT_MERGE_SQL =
+        "MERGE INTO cluster_nodes (node_id, url, heartbeat_at) KEY (node_id) VALUES (?, ?, ?)";
+
+    /** Published when nodes join or leave and cell ownership moves. */
+    public record MembershipChanged(Set<String> nodes) {}
+
+    /** Member URLs and the ring built from them, swapped as one so a reader never mixes two versions. */
+    private record Membership(Map<String, String> urls, HashRing ring) {}
+
+    private final PresenceIndex presenceIndex;
+    private final JdbcTemplate jdbcTemplate;
+    private final DatabasePlatform databasePlatform;
+    private final ApplicationEventPublisher eventPublisher;
+    private final WebClient webClient;
+    private final boolean enabled;
+    private final String nodeId;
+    private final boolean discoverFromDatabase;
+    private final int shardPrecision;
+    private final int virtualNodes;
+    private final Duration timeout;
+    private final String token;
+    private final long heartbeatTtlMillis;
+    private volatile String selfUrl;
+    private volatile Membership membership = new Membership(Map.of(), null);
+
+    public ClusterService(PresenceIndex presenceIndex,
+                          JdbcTemplate jdbcTemplate,
+                          DatabasePlatform databasePlatform,
+                          ApplicationEventPublisher eventPublisher,
+                          WebClient.Builder webClientBuilder,
+                          @Value("${nightout.cluster.enabled:false}") boolean enabled,
+                          @Value("${nightout.cluster.node-id:}") String nodeId,
+                          @Value("${nightout.cluster.self-url:}") String selfUrl,
+                          @Value("${nightout.cluster.discovery:static}") String discovery,
+                          @Value("${nightout.cluster.members:}") String members,
+                          @Value("${nightout.cluster.shard-precision:5}") int shardPrecision,
+                          @Value("${nightout.cluster.virtual-nodes:64}") int virtualNodes,
+                          @Value("${nightout.cluster.timeout-ms:500}") long timeoutMillis,
+                          @Value("${nightout.cluster.token:}") String token,
+                          @Value("${nightout.cluster.heartbeat-ttl-seconds:15}") long heartbeatTtlSeconds) {
+        this.presenceIndex = presenceIndex;
+        this.jdbcTemplate = jdbcTemplate;
+        this.databasePlatform = databasePlatform;
+        this.eventPublisher = eventPublisher;
+        this.webClient = webClientBuilder.clone().build();
+        this.enabled = enabled;
+        this.nodeId = nodeId;
+        this.selfUrl = selfUrl.isBlank() ? null : selfUrl;
+        this.discoverFromDatabase = "postgres".equalsIgnoreCase(discovery);
+        this.shardPrecision = shardPrecision;
+        this.virtualNodes = virtualNodes;
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.token = token;
+        this.heartbeatTtlMillis = heartbeatTtlSeconds * 1000;
+        if (!enabled) {
+            return;
+        }
+        if (nodeId.isBlank()) {
+            throw new IllegalStateException("nightout.cluster.node-id is required in cluster mode");
+        }
+        if (!discoverFromDatabase && !"static".equalsIgnoreCase(discovery)) {
+            throw new IllegalStateException("nightout.cluster.discovery must be static or postgres");
+        }
+        if (token.isBlank()) {
+            // The internal endpoints would otherwise take presence changes from anyone
+            throw new IllegalStateException("nightout.cluster.token is required in cluster mode");
+        }
+        presenceIndex.setPartitioned(true);
+        if (discoverFromDatabase) {
+            // Alone until the first heartbeat finds the others
+            setMembers(Map.of(nodeId, this.selfUrl != null ? this.selfUrl : ""));
+        } else {
+            Map<String, String> configured = parseMembers(members);
+            if (!configured.containsKey(nodeId)) {
+                throw new IllegalStateException("nightout.cluster.members does not list this node (" + nodeId + ")");
+            }
+            setMembers(configured);
+        }
+    }
+
+    /** Parses {@code id=url} pairs separated by commas. */
+    static Map<String, String> parseMembers(String members) {
+        Map<String, String> parsed = new LinkedHashMap<>();
+        for (String member : members.split(",")) {
+            if (member.isBlank()) {
+                continue;
+            }
+            int separator = member.indexOf('=');
+            if (separator <= 0 || separator == member.length() - 1) {
+                throw new IllegalStateException("Cluster members must be id=url pairs, got: " + member.trim());
+            }
+            parsed.put(member.substring(0, separator).trim(), stripSlash(member.substring(separator + 1).trim()));
+        }
+        return parsed;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /** Current members, node ID to base URL. */
+    public Map<String, String> getMembers() {
+        return membership.urls();
+    }
+
+    /** Whether a caller presented the shared secret; compared in constant time. */
+    public boolean acceptsToken(String presented) {
+        return !token.isBlank() && presented != null
+            && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Whether this node keeps the position in its index; always true outside cluster mode. */
+    public boolean owns(double latitude, double longitude) {
+        return !enabled || nodeId.equals(membership.ring().ownerOf(GeoHash.encode(latitude, longitude, shardPrecision)));
+    }
+
+    /**
+     * Records a check-in here and on the owners of the user's new and
+     * previous cells.
+     *
+     * @param previousLatitude where the user was checked in before, or null if they were not
+     */
+    public void publishUpdate(long userId, double latitude, double longitude,
+                              Double previousLatitude, Double previousLongitude) {
+        long updatedAt = System.currentTimeMillis();
+        applyUpdate(userId, latitude, longitude, updatedAt);
+        if (enabled) {
+            Membership current = membership;
+            Set<String> peers = peersForUpdate(current.ring(), latitude, longitude, previousLatitude, previousLongitude);
+            send(current, peers, peer -> webClient.post()
+                .uri(peer + "/internal/cluster/presence")
+                .header(TOKEN_HEADER, token)
+                .bodyValue(new PresencePosition(userId, latitude, longitude, updatedAt))
+                .retrieve()
+                .toBodilessEntity());
+        }
+    }
+
+    /**
+     * Records a checkout here and on the owner of the user's cell.
+     *
+     * @param latitude where the user was checked in, or null if unknown, in
+     *                 which case every node is told
+     */
+    public void publishRemove(long userId, Double latitude, Double longitude) {
+        long removedAt = System.currentTimeMillis();
+        presenceIndex.remove(userId);
+        if (enabled) {
+            Membership current = membership;
+            send(current, peersForRemove(current.ring(), latitude, longitude), peer -> webClient.delete()
+                .uri(peer + "/internal/cluster/presence/{userId}?before={before}", userId, removedAt)
+                .header(TOKEN_HEADER, token)
+                .retrieve()
+                .toBodilessEntity());
+        }
+    }
+
+    /**
+     * Keeps the position if this node owns its cell, and otherwise drops any
+     * older copy, e.g. from before the user moved into another node's cells.
+     * Messages can arrive out of order, so an older position never replaces
+     * a newer one.
+     */
+    public void applyUpdate(long userId, double latitude, double longitude, long updatedAt) {
+        if (!owns(latitude, longitude)) {
+            presenceIndex.removeIfUpdatedBefore(userId, updatedAt);
+            return;
+        }
+        presenceIndex.updateIfNotOlder(userId, latitude, longitude, updatedAt);
+    }
+
+    /** Drops the user unless they checked in again after {@code removedAt}. */
+    public void applyRemove(long userId, long removedAt) {
+        presenceIndex.removeIfUpdatedBefore(userId, removedAt + 1);
+    }
+
+    /**
+     * Users within the radius from this node's own index.
+     *
+     * @throws IllegalStateException while the index is loading
+     */
+    public List<PresencePosition> findLocal(double latitude, double longitude, double radiusMeters) {
+        if (!presenceIndex.isWarm()) {
+            throw new IllegalStateException("Presence index is not loaded yet");
+        }
+        List<PresencePosition> found = new ArrayList<>();
+        for (Long userId : presenceIndex.findWithin(latitude, longitude, radiusMeters)) {
+            PresenceIndex.Position position = presenceIndex.get(userId);
+            if (position != null) {
+                found.add(new PresencePosition(userId, position.latitude(), position.longitude(), position.updatedAt()));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Users within the radius, gathered from the owners of every cell the
+     * radius touches, this node included. Owners and their URLs come from
+     * one membership snapshot, so a change mid-query cannot pair an owner
+     * with a missing URL.
+     *
+     * @throws IllegalStateException if an owner has no known URL, is loading,
+     *                               or does not answer in time
+     */
+    public List<PresencePosition> findWithin(double latitude, double longitude, double radiusMeters) {
+        Membership current = membership;
+        Set<String> owners = ownersOf(current.ring(), GeoMath.boundingBox(latitude, longitude, radiusMeters));
+        boolean local = owners.remove(nodeId);
+        Map<String, String> urls = new LinkedHashMap<>();
+        for (String owner : owners) {
+            String url = current.urls().get(owner);
+            if (url == null || url.isEmpty()) {
+                // A discovered node may not have published its URL yet; SQL still covers its users
+                throw new IllegalStateException("Cluster node " + owner + " has no known URL");
+            }
+            urls.put(owner, url);
+        }
+        List<PresencePosition> found = new ArrayList<>();
+        if (local) {
+            found.addAll(findLocal(latitude, longitude, radiusMeters));
+        }
+        if (urls.isEmpty()) {
+            return found;
+        }
+        List<List<PresencePosition>> remote = Flux.fromIterable(urls.entrySet())
+            .flatMap(owner -> webClient.get()
+                .uri(owner.getValue() + "/internal/cluster/nearby?latitude={latitude}&longitude={longitude}"
+                    + "&radiusInMeters={radius}", latitude, longitude, radiusMeters)
+                .header(TOKEN_HEADER, token)
+                .retrieve()
+                .bodyToFlux(PresencePosition.class)
+                .collectList()
+                .timeout(timeout)
+                .onErrorMap(e -> new IllegalStateException(
+                    "Cluster node " + owner.getKey() + " did not answer: " + e.getMessage(), e)))
+            .collectList()
+            .block();
+        if (remote != null) {
+            remote.forEach(found::addAll);
+        }
+        return found;
+    }
+
+    private Set<String> ownersOf(HashRing ring, GeoMath.BoundingBox box) {
+        CellRange range = CellRange.of(box, shardPrecision);
+        if (range.cellCount() > MAX_ROUTED_CELLS) {
+            return new HashSet<>(ring.nodes());
+        }
+        Set<String> owners = new HashSet<>();
+        range.forEach(cell -> owners.add(ring.ownerOf(cell)));
+        return owners;
+    }
+
+    /** Other nodes owning the new cell or, if the user was checked in elsewhere, the previous one. */
+    Set<String> peersForUpdate(HashRing ring, double latitude, double longitude,
+                               Double previousLatitude, Double previousLongitude) {
+        Set<String> peers = new HashSet<>(2);
+        peers.add(ring.ownerOf(GeoHash.encode(latitude, longitude, shardPrecision)));
+        if (previousLatitude != null && previousLongitude != null) {
+            peers.add(ring.ownerOf(GeoHash.encode(previousLatitude, previousLongitude, shardPrecision)));
+        }
+        peers.remove(nodeId);
+        return peers;
+    }
+
+    /** The other node owning the user's cell, or every other node when the cell is unknown. */
+    Set<String> peersForRemove(HashRing ring, Double latitude, Double longitude) {
+        Set<String> peers = new HashSet<>();
+        if (latitude != null && longitude != null) {
+            peers.add(ring.ownerOf(GeoHash.encode(latitude, longitude, shardPrecision)));
+        } else {
+            peers.addAll(ring.nodes());
+        }
+        peers.remove(nodeId);
+        return peers;
+    }
+
+    private void send(Membership current, Set<String> peers, Function<String, Mono<?>> request) {
+        for (String peer : peers) {
+            String url = current.urls().get(peer);
+            if (url == null || url.isEmpty()) {
+                continue;
+            }
+            request.apply(url)
+                .timeout(timeout)
+                .subscribe(response -> {}, error -> logger.warn("Failed to send presence change to {}: {}",
+                    peer, error.getMessage()));
+        }
+    }
+
+    /** Derives this node's URL from the bound port unless one is configured, then joins the cluster. */
+    @EventListener
+    public void onWebServerInitialized(WebServerInitializedEvent event) {
+        if (!enabled || !discoverFromDatabase) {
+            return;
+        }
+        if (selfUrl == null) {
+            selfUrl = "http://" + hostName() + ":" + event.getWebServer().getPort();
+        }
+        heartbeat();
+    }
+
+    /** Refreshes this node's row in cluster_nodes and rebuilds the ring from the live rows. */
+    @Scheduled(fixedDelayString = "${nightout.cluster.heartbeat-interval:5000}")
+    public void heartbeat() {
+        if (!enabled || !discoverFromDatabase || selfUrl == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            jdbcTemplate.update(databasePlatform.isPostgres() ? HEARTBEAT_UPSERT_SQL : HEARTBEAT_MERGE_SQL,
+                nodeId, selfUrl, new Timestamp(now));
+            Map<String, String> live = new LinkedHashMap<>();
+            jdbcTemplate.query("SELECT node_id, url FROM cluster_nodes WHERE heartbeat_at >= ? ORDER BY node_id",
+                rs -> { live.put(rs.getString(1), stripSlash(rs.getString(2))); }, new Timestamp(now - heartbeatTtlMillis));
+            live.put(nodeId, selfUrl);
+            setMembers(live);
+        } catch (RuntimeException e) {
+            // Keep the last known ring rather than shrinking to this node alone
+            logger.warn("Cluster heartbeat failed: {}", e.getMessage());
+        }
+    }
+
+    /** Leaves the cluster on shutdown so the others take over its cells right away. */
+    @PreDestroy
+    public void leave() {
+        if (!enabled || !discoverFromDatabase) {
+            return;
+        }
+        try {
+            jdbcTemplate.update("DELETE FROM cluster_nodes WHERE node_id = ?", nodeId);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to leave the cluster: {}", e.getMessage());
+        }
+    }
+
+    synchronized void setMembers(Map<String, String> next) {
+        Membership previous = membership;
+        if (previous.ring() != null && previous.urls().keySet().equals(next.keySet())) {
+            // Same nodes, perhaps at new URLs: ownership does not move
+            membership = new Membership(Map.copyOf(next), previous.ring());
+            return;
+        }
+        membership = new Membership(Map.copyOf(next), new HashRing(next.keySet(), virtualNodes));
+        logger.info("Cluster node {} sees members {}", nodeId, next.keySet());
+        if (previous.ring() != null) {
+            eventPublisher.publishEvent(new MembershipChanged(membership.ring().nodes()));
+        }
+    }
+
+    private static String stripSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+}
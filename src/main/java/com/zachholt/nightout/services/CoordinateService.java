@@ -1,18 +1,89 @@
 package com.zachholt.nightout.services;
 
+import com.zachholt.nightout.config.DatabasePlatform;
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.geo.NearestNeighborIndex;
+import com.zachholt.nightout.geo.Polygon;
+import com.zachholt.nightout.geo.PresenceIndex;
 import com.zachholt.nightout.models.Coordinate;
+import com.zachholt.nightout.models.PresencePosition;
 import com.zachholt.nightout.models.User;
+import com.zachholt.nightout.models.UserResponse;
 import com.zachholt.nightout.repositories.CoordinateRepository;
 import com.zachholt.nightout.repositories.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.Query;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 @Service
 public class CoordinateService {
+    private static final Logger logger = LoggerFactory.getLogger(CoordinateService.class);
+
+    /**
+     * Cosine of the angle between the unit vector (:ux, :uy, :uz) and coordinate c.
+     * It falls as distance grows, so "within r" is {@code >= cos(r / R)} and
+     * nearest-first is a descending sort; no trig runs per row.
+     */
+    static final String COSINE_SQL = "(c.unit_x * :ux + c.unit_y * :uy + c.unit_z * :uz)";
+
+    /**
+     * Postgres-only check-in: inserts or moves the user's coordinate and
+     * returns their public fields in one round trip, or no row for an
+     * unknown email. The last two columns are the position before the move,
+     * null on a first check-in; every CTE reads the same snapshot, so
+     * {@code previous} sees the row as it was. Parameters :email, :lat, :lng
+     * and the unit vector.
+     */
+    static final String UPSERT_CHECK_IN_SQL = """
+        WITH previous AS (
+            SELECT c.latitude, c.longitude FROM coordinates c JOIN users u ON u.id = c.user_id
+            WHERE u.email = :email
+        ), upserted AS (
+            INSERT INTO coordinates (user_id, latitude, longitude, unit_x, unit_y, unit_z, created_at, updated_at)
+            SELECT u.id, :lat, :lng, :ux, :uy, :uz, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP
+            FROM users u WHERE u.email = :email
+            ON CONFLICT (user_id) DO UPDATE
+                SET latitude = EXCLUDED.latitude, longitude = EXCLUDED.longitude,
+                    unit_x = EXCLUDED.unit_x, unit_y = EXCLUDED.unit_y, unit_z = EXCLUDED.unit_z,
+                    updated_at = EXCLUDED.updated_at
+            RETURNING user_id, latitude, longitude
+        )
+        SELECT u.id, u.name, u.email, u.created_at, u.profile_image, up.latitude, up.longitude,
+            p.latitude, p.longitude
+        FROM upserted up JOIN users u ON u.id = up.user_id LEFT JOIN previous p ON TRUE
+        """;
+
     @Autowired
     private CoordinateRepository coordinateRepository;
 
@@ -22,6 +93,152 @@ public class CoordinateService {
     @Autowired
     private EntityManager entityManager;
 
+    @Autowired
+    private PresenceIndex presenceIndex;
+
+    @Autowired
+    private DatabasePlatform databasePlatform;
+
+    @Autowired
+    private LocationWriteBuffer locationWriteBuffer;
+
+    @Autowired
+    private CheckInThrottle checkInThrottle;
+
+    @Autowired
+    private PresenceExpiryService presenceExpiryService;
+
+    @Autowired
+    private NearestNeighborIndex nearestNeighborIndex;
+
+    @Autowired
+    private PresenceSnapshotService presenceSnapshotService;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Autowired
+    private InvalidationBus invalidationBus;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final ExecutorService rebalancer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "presence-rebalance");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean rebalancePending = new AtomicBoolean();
+
+    @PostConstruct
+    void subscribeToInvalidations() {
+        invalidationBus.subscribe(InvalidationBus.Topic.PRESENCE, this::patchPresenceIndex);
+        invalidationBus.subscribe(InvalidationBus.Topic.USER,
+            invalidation -> checkInThrottle.forget(Long.parseLong(invalidation.key())));
+    }
+
+    /**
+     * Loads every live coordinate into the presence index once the app is up.
+     * When a snapshot is available only the rows changed since its epoch are
+     * read, and users whose rows were deleted meanwhile are dropped. A
+     * cluster node only loads the cells it owns, always from the table.
+     * Until this finishes, nearby queries fall back to SQL.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void warmPresenceIndex() {
+        long started = System.currentTimeMillis();
+        LocalDateTime liveSince = presenceExpiryService.liveSince();
+        // A snapshot cannot supply cells this node did not own when it was written
+        OptionalLong snapshotEpoch = clusterService.isEnabled() ? OptionalLong.empty() : presenceSnapshotService.restore();
+        LocalDateTime since = liveSince;
+        if (snapshotEpoch.isPresent()) {
+            LocalDateTime epoch = LocalDateTime.ofInstant(Instant.ofEpochMilli(snapshotEpoch.getAsLong()), ZoneId.systemDefault());
+            since = epoch.isAfter(liveSince) ? epoch : liveSince;
+        }
+        int[] replayed = new int[1];
+        try (Stream<Object[]> rows = entityManager
+                .createQuery("SELECT c.user.id, c.latitude, c.longitude, c.updatedAt FROM Coordinate c "
+                    + "WHERE c.updatedAt >= :since", Object[].class)
+                .setParameter("since", since)
+                .getResultStream()) {
+            rows.forEach(row -> {
+                if (clusterService.owns((Double) row[1], (Double) row[2])) {
+                    presenceIndex.update((Long) row[0], (Double) row[1], (Double) row[2],
+                        toEpochMillis((LocalDateTime) row[3]));
+                }
+                replayed[0]++;
+            });
+        }
+        if (snapshotEpoch.isPresent()) {
+            dropCheckedOutUsers(liveSince);
+        }
+        presenceIndex.markWarm();
+        logger.info("Presence index loaded {} users ({} rows read{}) in {} ms",
+            presenceIndex.size(), replayed[0], snapshotEpoch.isPresent() ? " on top of a snapshot" : "",
+            System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Reloads a cluster node's index when nodes join or leave and the cells
+     * it owns change, and any node's index after it may have missed
+     * positions from the others. Queries use SQL while it reloads. A reload
+     * already in progress at startup picks up the new ring as it goes.
+     * <p>
+     * Membership changes arrive on the scheduler thread, which also runs
+     * the expiry sweep, write-behind flushes and stream ticks, so the reload
+     * runs on its own thread. Changes arriving before a queued reload starts
+     * share it.
+     */
+    @EventListener({ClusterService.MembershipChanged.class, InvalidationBus.Reconnected.class})
+    public void rebalancePresenceIndex() {
+        if (!presenceIndex.isWarm() || !rebalancePending.compareAndSet(false, true)) {
+            return;
+        }
+        rebalancer.execute(() -> {
+            rebalancePending.set(false);
+            try {
+                TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+                readOnly.setReadOnly(true);
+                readOnly.executeWithoutResult(status -> {
+                    presenceIndex.clear();
+                    warmPresenceIndex();
+                });
+            } catch (RuntimeException e) {
+                logger.error("Failed to reload the presence index", e);
+            }
+        });
+    }
+
+    @PreDestroy
+    void stopRebalancing() {
+        rebalancer.shutdownNow();
+    }
+
+    /**
+     * Checkouts and expiries after the snapshot leave no row to replay, so the
+     * restored users are checked against the IDs still in the table. Users
+     * who checked in after the query started may be missing from its result,
+     * so only older positions are dropped.
+     */
+    private void dropCheckedOutUsers(LocalDateTime liveSince) {
+        long queriedAt = System.currentTimeMillis();
+        long[] live;
+        try (Stream<Long> ids = entityManager
+                .createQuery("SELECT c.user.id FROM Coordinate c WHERE c.updatedAt >= :liveSince", Long.class)
+                .setParameter("liveSince", liveSince)
+                .getResultStream()) {
+            live = ids.mapToLong(Long::longValue).sorted().toArray();
+        }
+        List<Long> gone = new ArrayList<>();
+        presenceIndex.forEachPosition(size -> {}, (userId, latitude, longitude, updatedAt) -> {
+            if (updatedAt < queriedAt && Arrays.binarySearch(live, userId) < 0) {
+                gone.add(userId);
+            }
+        });
+        gone.forEach(userId -> presenceIndex.removeIfUpdatedBefore(userId, queriedAt));
+    }
+
     public Coordinate getCurrentLocation(Long userId) {
         return coordinateRepository.findByUserId(userId)
             .orElse(null);
@@ -36,6 +253,8 @@ public class CoordinateService {
         // Try to find existing coordinate for this user
         Coordinate coordinate = coordinateRepository.findByUserId(userId)
             .orElse(null); // Find existing or return null
+        Double previousLatitude = coordinate != null ? coordinate.getLatitude() : null;
+        Double previousLongitude = coordinate != null ? coordinate.getLongitude() : null;
 
         if (coordinate != null) {
             // Update existing coordinate
@@ -52,33 +271,491 @@ public class CoordinateService {
         }
 
         // Save the updated or new coordinate
-        return coordinateRepository.save(coordinate);
+        Coordinate saved = coordinateRepository.save(coordinate);
+        publishCheckIn(userId, latitude, longitude, previousLatitude, previousLongitude);
+        return saved;
+    }
+
+    /**
+     * Checks the user in at the given position and returns their response DTO.
+     * On Postgres this is a single INSERT ... ON CONFLICT (user_id) DO UPDATE
+     * ... RETURNING statement joined back to users; other databases use the
+     * find-then-save path. Empty if no user has that email.
+     */
+    @Transactional
+    public Optional<UserResponse> checkIn(String email, Double latitude, Double longitude) {
+        UserResponse unchanged = checkInThrottle.suppress(email, latitude, longitude);
+        if (unchanged != null) {
+            return Optional.of(unchanged);
+        }
+        UserResponse response;
+        if (locationWriteBuffer.isEnabled()) {
+            response = bufferCheckIn(email, latitude, longitude);
+        } else {
+            response = databasePlatform.isPostgres()
+                ? upsertCheckIn(email, latitude, longitude)
+                : saveCheckIn(email, latitude, longitude);
+        }
+        if (response != null) {
+            afterCommit(() -> checkInThrottle.recordWrite(email, response));
+        }
+        return Optional.ofNullable(response);
+    }
+
+    /**
+     * Write-behind check-in: reads the user's public fields and stored
+     * position, updates the presence index right away and leaves the row
+     * write to the flusher.
+     */
+    private UserResponse bufferCheckIn(String email, Double latitude, Double longitude) {
+        List<Object[]> rows = entityManager.createQuery(
+                "SELECT u.id, u.name, u.email, u.createdAt, u.profileImage, c.latitude, c.longitude "
+                    + "FROM users u LEFT JOIN u.coordinate c WHERE u.email = :email",
+                Object[].class)
+            .setParameter("email", email)
+            .getResultList();
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Object[] row = rows.get(0);
+        Long userId = (Long) row[0];
+        // A position still waiting for the flusher is newer than the stored row
+        double[] previous = locationWriteBuffer.pendingPosition(userId);
+        Double previousLatitude = previous != null ? Double.valueOf(previous[0]) : (Double) row[5];
+        Double previousLongitude = previous != null ? Double.valueOf(previous[1]) : (Double) row[6];
+        locationWriteBuffer.enqueue(userId, latitude, longitude);
+        publishPosition(userId, latitude, longitude);
+        clusterService.publishUpdate(userId, latitude, longitude, previousLatitude, previousLongitude);
+        return new UserResponse(userId, (String) row[1], (String) row[2],
+            (LocalDateTime) row[3], (String) row[4], latitude, longitude);
+    }
+
+    @SuppressWarnings("unchecked")
+    private UserResponse upsertCheckIn(String email, Double latitude, Double longitude) {
+        Query query = entityManager.createNativeQuery(UPSERT_CHECK_IN_SQL)
+            .setParameter("lat", latitude)
+            .setParameter("lng", longitude)
+            .setParameter("email", email);
+        bindUnitVector(query, latitude, longitude);
+        List<Object[]> rows = query.getResultList();
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Object[] row = rows.get(0);
+        UserResponse response = toUserResponse(row);
+        publishCheckIn(response.getId(), latitude, longitude,
+            row[7] != null ? ((Number) row[7]).doubleValue() : null,
+            row[8] != null ? ((Number) row[8]).doubleValue() : null);
+        return response;
+    }
+
+    private UserResponse saveCheckIn(String email, Double latitude, Double longitude) {
+        // Repeat check-ins (the common case) find the coordinate and its user in one query
+        Coordinate coordinate = coordinateRepository.findByUserEmail(email).orElse(null);
+        Double previousLatitude = coordinate != null ? coordinate.getLatitude() : null;
+        Double previousLongitude = coordinate != null ? coordinate.getLongitude() : null;
+        if (coordinate == null) {
+            User user = userRepository.findByEmail(email).orElse(null);
+            if (user == null) {
+                return null;
+            }
+            coordinate = new Coordinate(user, latitude, longitude);
+        }
+        coordinate.setLatitude(latitude);
+        coordinate.setLongitude(longitude);
+        coordinateRepository.save(coordinate);
+
+        User user = coordinate.getUser();
+        publishCheckIn(user.getId(), latitude, longitude, previousLatitude, previousLongitude);
+        return new UserResponse(user.getId(), user.getName(), user.getEmail(), user.getCreatedAt(),
+            user.getProfileImage(), latitude, longitude);
     }
 
     @Transactional
     public void clearLocation(Long userId) {
+        // Fences a buffered write that is in flight before the row is deleted
+        evictFromIndex(userId);
         coordinateRepository.deleteByUserId(userId);
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Drops the user from the presence index once the surrounding transaction commits.
+     * Used by callers that remove the coordinate row themselves (e.g. orphan removal on checkout),
+     * which should call it before that delete runs so a buffered write in flight is fenced.
+     */
+    public void evictFromIndex(Long userId) {
+        // In cluster mode only the owner of the cell the user leaves is told, so find that cell first
+        double[] position = clusterService.isEnabled() ? lastPosition(userId) : null;
+        locationWriteBuffer.discard(userId);
+        afterCommit(() -> clusterService.publishRemove(userId,
+            position != null ? position[0] : null, position != null ? position[1] : null));
+        if (!clusterService.isEnabled()) {
+            invalidationBus.publish(InvalidationBus.Topic.PRESENCE, userId, String.valueOf(System.currentTimeMillis()));
+        }
+    }
+
+    /** The user's buffered position if one is waiting for the flusher, else the stored one, else null. */
+    private double[] lastPosition(Long userId) {
+        double[] pending = locationWriteBuffer.pendingPosition(userId);
+        if (pending != null) {
+            return pending;
+        }
+        return coordinateRepository.findByUserId(userId)
+            .map(coordinate -> new double[] {coordinate.getLatitude(), coordinate.getLongitude()})
+            .orElse(null);
+    }
+
+    /** Sends a committed check-in to the cluster and the other nodes once the transaction commits. */
+    private void publishCheckIn(Long userId, double latitude, double longitude,
+                                Double previousLatitude, Double previousLongitude) {
+        afterCommit(() -> clusterService.publishUpdate(userId, latitude, longitude, previousLatitude, previousLongitude));
+        publishPosition(userId, latitude, longitude);
+    }
+
+    /**
+     * Sends the position to the other nodes once the transaction commits,
+     * as "latitude,longitude,updatedAt"; a checkout is sent as "removedAt".
+     * Cluster nodes forward positions to the owning node themselves.
+     */
+    private void publishPosition(Long userId, double latitude, double longitude) {
+        if (!clusterService.isEnabled()) {
+            invalidationBus.publish(InvalidationBus.Topic.PRESENCE, userId,
+                latitude + "," + longitude + "," + System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Applies another node's check-in or checkout. This node's own changes
+     * are already in its index. Messages can arrive out of order, so a
+     * position older than the one held is ignored and a checkout only drops
+     * a position recorded before it.
+     */
+    private void patchPresenceIndex(InvalidationBus.Invalidation invalidation) {
+        if (!invalidation.remote() || clusterService.isEnabled() || invalidation.value() == null) {
+            return;
+        }
+        long userId = Long.parseLong(invalidation.key());
+        String[] fields = invalidation.value().split(",");
+        if (fields.length == 1) {
+            clusterService.applyRemove(userId, Long.parseLong(fields[0]));
+            return;
+        }
+        clusterService.applyUpdate(userId, Double.parseDouble(fields[0]), Double.parseDouble(fields[1]),
+            Long.parseLong(fields[2]));
+    }
+
+    /**
+     * Coordinates within {@code radius} kilometers of the point. Answered from the
+     * presence index when it is warm, otherwise by the Haversine SQL below.
+     */
     public List<Coordinate> getNearbyCoordinates(Double latitude, Double longitude, Double radius) {
-        // Haversine formula to calculate distance between points
-        String sql = """
-            SELECT c.* FROM coordinates c
-            WHERE (
-                6371 * acos(
-                    cos(radians(?1)) * cos(radians(c.latitude)) *
-                    cos(radians(c.longitude) - radians(?2)) +
-                    sin(radians(?1)) * sin(radians(c.latitude))
-                )
-            ) <= ?3
-        """;
+        if (clusterService.isEnabled()) {
+            List<PresencePosition> found = findInCluster(latitude, longitude, radius);
+            if (found != null) {
+                List<Long> userIds = found.stream().map(PresencePosition::getUserId).toList();
+                return userIds.isEmpty() ? Collections.emptyList() : coordinateRepository.findByUserIdIn(userIds);
+            }
+        } else if (presenceIndex.isWarm()) {
+            List<Long> userIds = presenceIndex.findWithin(latitude, longitude, radius * 1000.0);
+            return userIds.isEmpty() ? Collections.emptyList() : coordinateRepository.findByUserIdIn(userIds);
+        }
+        return queryNearbyCoordinates(latitude, longitude, radius);
+    }
 
-        Query query = entityManager.createNativeQuery(sql, Coordinate.class)
-            .setParameter(1, latitude)
-            .setParameter(2, longitude)
-            .setParameter(3, radius);
+    @SuppressWarnings("unchecked")
+    private List<Coordinate> queryNearbyCoordinates(Double latitude, Double longitude, Double radius) {
+        GeoMath.BoundingBox box = GeoMath.boundingBox(latitude, longitude, radius * 1000.0);
 
+        Query query = entityManager.createNativeQuery(nearbySql("SELECT c.* FROM coordinates c", box), Coordinate.class);
+        bindNearbyParameters(query, box, latitude, longitude, radius, presenceExpiryService.liveSince());
         return query.getResultList();
     }
-} 
\ No newline at end of file
+
+    /**
+     * Users within {@code radius} kilometers of the point, read straight into
+     * UserResponse by one statement. The User entity (and its password hash)
+     * is never loaded, so there is no per-row lazy fetch.
+     */
+    public List<UserResponse> getNearbyUsers(Double latitude, Double longitude, Double radius) {
+        if (clusterService.isEnabled()) {
+            List<PresencePosition> found = findInCluster(latitude, longitude, radius);
+            if (found != null) {
+                return found.isEmpty() ? Collections.emptyList() : getUserResponses(found);
+            }
+        } else if (presenceIndex.isWarm()) {
+            List<Long> userIds = presenceIndex.findWithin(latitude, longitude, radius * 1000.0);
+            return userIds.isEmpty() ? Collections.emptyList() : getUserResponses(userIds);
+        }
+        return queryNearbyUsers(latitude, longitude, radius);
+    }
+
+    /**
+     * Asks the owners of the cells within {@code radius} kilometers; null
+     * when this node or an owner cannot answer from memory, so the caller
+     * uses SQL instead.
+     */
+    private List<PresencePosition> findInCluster(Double latitude, Double longitude, Double radius) {
+        if (!presenceIndex.isWarm()) {
+            return null;
+        }
+        try {
+            return clusterService.findWithin(latitude, longitude, radius * 1000.0);
+        } catch (IllegalStateException e) {
+            logger.warn("Answering nearby query from SQL: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The {@code k} users closest to the point regardless of distance, nearest
+     * first. Answered from the KD-tree when the presence index is warm,
+     * otherwise by ordering the live coordinates on the Haversine distance.
+     */
+    public List<UserResponse> getNearestUsers(Double latitude, Double longitude, int k) {
+        if (presenceIndex.isWarm() && !presenceIndex.isPartitioned()) {
+            return getUserResponsesInOrder(nearestNeighborIndex.nearest(latitude, longitude, k));
+        }
+        return queryNearestUsers(latitude, longitude, k);
+    }
+
+    /**
+     * Up to {@code limit} users inside the box, closest to its center first.
+     * A box crossing the antimeridian has {@code maxLng} above 180.
+     */
+    @Transactional(readOnly = true)
+    public List<UserResponse> getUsersInBox(GeoMath.BoundingBox box, int limit) {
+        double centerLongitude = (box.minLng() + box.maxLng()) / 2;
+        if (centerLongitude > 180.0) {
+            centerLongitude -= 360.0;
+        }
+        return getUsersInArea(box, (lat, lng) -> true,
+            (box.minLat() + box.maxLat()) / 2, centerLongitude, limit);
+    }
+
+    /** Up to {@code limit} users inside the polygon, closest to its center first. */
+    @Transactional(readOnly = true)
+    public List<UserResponse> getUsersInPolygon(Polygon polygon, int limit) {
+        return getUsersInArea(polygon.boundingBox(), polygon::contains,
+            polygon.centerLatitude(), polygon.centerLongitude(), limit);
+    }
+
+    private List<UserResponse> getUsersInArea(GeoMath.BoundingBox box, PresenceIndex.AreaFilter filter,
+                                              double centerLatitude, double centerLongitude, int limit) {
+        if (presenceIndex.isWarm() && !presenceIndex.isPartitioned()) {
+            return getUserResponsesInOrder(
+                presenceIndex.findInArea(box, filter, centerLatitude, centerLongitude, limit));
+        }
+        return queryUsersInArea(box, filter, centerLatitude, centerLongitude, limit);
+    }
+
+    /**
+     * Reads the box with the sargable latitude/longitude range, ordered by
+     * distance from the center, and applies the exact filter while streaming
+     * so only {@code limit} matches are mapped.
+     */
+    private List<UserResponse> queryUsersInArea(GeoMath.BoundingBox box, PresenceIndex.AreaFilter filter,
+                                                double centerLatitude, double centerLongitude, int limit) {
+        Query query = entityManager.createNativeQuery("""
+                SELECT u.id, u.name, u.email, u.created_at, u.profile_image, c.latitude, c.longitude
+                FROM coordinates c JOIN users u ON u.id = c.user_id
+                WHERE c.latitude BETWEEN :minLat AND :maxLat
+                  AND %s
+                  AND c.updated_at >= :liveSince
+                ORDER BY %s DESC
+                """.formatted(longitudeFilter(box), COSINE_SQL))
+            .setParameter("minLat", box.minLat())
+            .setParameter("maxLat", box.maxLat())
+            .setParameter("minLng", box.westLng())
+            .setParameter("maxLng", box.eastLng())
+            .setParameter("liveSince", presenceExpiryService.liveSince());
+        bindUnitVector(query, centerLatitude, centerLongitude);
+
+        List<UserResponse> users = new ArrayList<>();
+        @SuppressWarnings("unchecked")
+        Stream<Object[]> rows = query.getResultStream();
+        try (rows) {
+            Iterator<Object[]> iterator = rows.iterator();
+            while (users.size() < limit && iterator.hasNext()) {
+                UserResponse user = toUserResponse(iterator.next());
+                if (filter.contains(user.getLatitude(), user.getLongitude())) {
+                    users.add(user);
+                }
+            }
+        }
+        return users;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<UserResponse> queryNearestUsers(Double latitude, Double longitude, int k) {
+        Query query = entityManager.createNativeQuery("""
+                SELECT u.id, u.name, u.email, u.created_at, u.profile_image, c.latitude, c.longitude
+                FROM coordinates c JOIN users u ON u.id = c.user_id
+                WHERE c.updated_at >= :liveSince
+                ORDER BY %s DESC
+                """.formatted(COSINE_SQL))
+            .setParameter("liveSince", presenceExpiryService.liveSince())
+            .setMaxResults(k);
+        bindUnitVector(query, latitude, longitude);
+        List<Object[]> rows = query.getResultList();
+        List<UserResponse> users = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            users.add(toUserResponse(row));
+        }
+        return users;
+    }
+
+    /** Like {@link #getUserResponses} but keeps the order of {@code userIds}. */
+    private List<UserResponse> getUserResponsesInOrder(List<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, Integer> rank = new HashMap<>();
+        for (int i = 0; i < userIds.size(); i++) {
+            rank.put(userIds.get(i), i);
+        }
+        List<UserResponse> users = getUserResponses(userIds);
+        users.sort(Comparator.comparing(user -> rank.get(user.getId())));
+        return users;
+    }
+
+    /**
+     * Builds responses for users found in the presence index. Positions come
+     * from the index too, so buffered (not yet flushed) check-ins are visible.
+     */
+    private List<UserResponse> getUserResponses(Collection<Long> userIds) {
+        List<Object[]> rows = queryUserRows(userIds);
+        List<UserResponse> users = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            PresenceIndex.Position position = presenceIndex.get((Long) row[0]);
+            if (position == null) {
+                continue; // Checked out since the index lookup
+            }
+            users.add(new UserResponse((Long) row[0], (String) row[1], (String) row[2],
+                (LocalDateTime) row[3], (String) row[4], position.latitude(), position.longitude()));
+        }
+        return users;
+    }
+
+    /** Builds responses for users found on cluster nodes, at the positions those nodes reported. */
+    private List<UserResponse> getUserResponses(List<PresencePosition> positions) {
+        Map<Long, PresencePosition> byUser = new HashMap<>();
+        for (PresencePosition position : positions) {
+            byUser.put(position.getUserId(), position);
+        }
+        List<Object[]> rows = queryUserRows(byUser.keySet());
+        List<UserResponse> users = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            PresencePosition position = byUser.get((Long) row[0]);
+            users.add(new UserResponse((Long) row[0], (String) row[1], (String) row[2],
+                (LocalDateTime) row[3], (String) row[4], position.getLatitude(), position.getLongitude()));
+        }
+        return users;
+    }
+
+    private List<Object[]> queryUserRows(Collection<Long> userIds) {
+        return entityManager.createQuery(
+                "SELECT u.id, u.name, u.email, u.createdAt, u.profileImage FROM users u WHERE u.id IN :userIds",
+                Object[].class)
+            .setParameter("userIds", userIds)
+            .getResultList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<UserResponse> queryNearbyUsers(Double latitude, Double longitude, Double radius) {
+        GeoMath.BoundingBox box = GeoMath.boundingBox(latitude, longitude, radius * 1000.0);
+
+        Query query = entityManager.createNativeQuery(nearbySql(
+            "SELECT u.id, u.name, u.email, u.created_at, u.profile_image, c.latitude, c.longitude "
+                + "FROM coordinates c JOIN users u ON u.id = c.user_id", box));
+        bindNearbyParameters(query, box, latitude, longitude, radius, presenceExpiryService.liveSince());
+
+        List<Object[]> rows = query.getResultList();
+        List<UserResponse> users = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            users.add(toUserResponse(row));
+        }
+        return users;
+    }
+
+    /** Maps an (id, name, email, created_at, profile_image, latitude, longitude) row. */
+    private static UserResponse toUserResponse(Object[] row) {
+        return new UserResponse(
+            ((Number) row[0]).longValue(),
+            (String) row[1],
+            (String) row[2],
+            toLocalDateTime(row[3]),
+            (String) row[4],
+            ((Number) row[5]).doubleValue(),
+            ((Number) row[6]).doubleValue());
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        if (value instanceof Timestamp timestamp) {
+            return timestamp.toLocalDateTime();
+        }
+        return (LocalDateTime) value;
+    }
+
+    private static long toEpochMillis(LocalDateTime value) {
+        return value.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Native query for coordinates within the radius of the point bound by
+     * {@link #bindNearbyParameters}. The latitude/longitude range is checked
+     * first so the planner can use coordinates_lat_lng_idx; the dot-product
+     * check then only runs on rows inside the bounding box. Boxes crossing the antimeridian get two
+     * longitude ranges. Check-ins older than :liveSince have expired and
+     * are skipped even if the sweeper has not deleted them yet.
+     *
+     * @param selectFrom the SELECT ... FROM clause, with the coordinates table aliased as c
+     */
+    static String nearbySql(String selectFrom, GeoMath.BoundingBox box) {
+        return """
+            %s
+            WHERE c.latitude BETWEEN :minLat AND :maxLat
+              AND %s
+              AND %s >= :minCosine
+              AND c.updated_at >= :liveSince
+            """.formatted(selectFrom, longitudeFilter(box), COSINE_SQL);
+    }
+
+    /** Longitude range on :minLng/:maxLng, split in two when the box crosses the antimeridian. */
+    static String longitudeFilter(GeoMath.BoundingBox box) {
+        return box.crossesAntimeridian()
+            ? "(c.longitude >= :minLng OR c.longitude <= :maxLng)"
+            : "c.longitude BETWEEN :minLng AND :maxLng";
+    }
+
+    static void bindNearbyParameters(Query query, GeoMath.BoundingBox box, Double latitude, Double longitude, Double radius,
+                                     LocalDateTime liveSince) {
+        query.setParameter("minLat", box.minLat())
+            .setParameter("maxLat", box.maxLat())
+            .setParameter("minLng", box.westLng())
+            .setParameter("maxLng", box.eastLng())
+            .setParameter("minCosine", GeoMath.minDotProduct(radius * 1000.0))
+            .setParameter("liveSince", liveSince);
+        bindUnitVector(query, latitude, longitude);
+    }
+
+    /** Binds :ux, :uy, :uz, the unit vector of the point distances are measured from. */
+    static void bindUnitVector(Query query, double latitude, double longitude) {
+        double[] unit = GeoMath.unitVector(latitude, longitude);
+        query.setParameter("ux", unit[0])
+            .setParameter("uy", unit[1])
+            .setParameter("uz", unit[2]);
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,243 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.models.DensityCount;
+import com.zachholt.nightout.models.NearbyBatchRequest;
+import com.zachholt.nightout.models.NearbyProbeResult;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Answers "how many people are around here" without materializing users.
+ * Counts come from the presence index when it is warm, otherwise from a
+ * single aggregate query; several radii are answered in one pass.
+ */
+@Service
+public class CrowdDensityService {
+
+    /** How much larger than its probes' boxes together a group's box may grow. */
+    static final double MERGE_SLACK = 4.0;
+
+    @Autowired
+    private PresenceIndex presenceIndex;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PresenceExpiryService presenceExpiryService;
+
+    public long countNearby(Double latitude, Double longitude, Double radiusInMeters) {
+        return countNearby(latitude, longitude, Collections.singletonList(radiusInMeters)).get(0).getCount();
+    }
+
+    /**
+     * Counts checked-in users within each radius of the point.
+     * Results are returned in the same order as {@code radiiInMeters}.
+     */
+    public List<DensityCount> countNearby(Double latitude, Double longitude, List<Double> radiiInMeters) {
+        double[] radii = radiiInMeters.stream().mapToDouble(Double::doubleValue).toArray();
+        long[] counts = presenceIndex.isWarm() && !presenceIndex.isPartitioned()
+            ? countFromIndex(latitude, longitude, radii)
+            : countFromDatabase(latitude, longitude, radii);
+
+        List<DensityCount> result = new ArrayList<>(radii.length);
+        for (int i = 0; i < radii.length; i++) {
+            result.add(new DensityCount(radiiInMeters.get(i), counts[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Answers many (point, radius) probes in one pass, e.g. the "N people here"
+     * badges of a venue list. Results are in probe order; user IDs are only
+     * filled in when asked for.
+     */
+    @Transactional(readOnly = true)
+    public List<NearbyProbeResult> countNearbyBatch(List<NearbyBatchRequest.Probe> probes, boolean includeUserIds) {
+        double[] latitudes = new double[probes.size()];
+        double[] longitudes = new double[probes.size()];
+        double[] radii = new double[probes.size()];
+        for (int i = 0; i < probes.size(); i++) {
+            latitudes[i] = probes.get(i).getLatitude();
+            longitudes[i] = probes.get(i).getLongitude();
+            radii[i] = probes.get(i).getRadiusInMeters();
+        }
+        List<List<Long>> found = presenceIndex.isWarm() && !presenceIndex.isPartitioned()
+            ? presenceIndex.findWithinEach(latitudes, longitudes, radii)
+            : findEachFromDatabase(latitudes, longitudes, radii);
+
+        List<NearbyProbeResult> result = new ArrayList<>(probes.size());
+        for (int i = 0; i < probes.size(); i++) {
+            NearbyBatchRequest.Probe probe = probes.get(i);
+            result.add(new NearbyProbeResult(probe.getLatitude(), probe.getLongitude(), probe.getRadiusInMeters(),
+                found.get(i).size(), includeUserIds ? found.get(i) : null));
+        }
+        return result;
+    }
+
+    /**
+     * Groups nearby probes and reads the live coordinates inside each group's
+     * box once, testing each row against that group's probes only. A single
+     * union box would make a few far-apart probes scan most of the table.
+     */
+    private List<List<Long>> findEachFromDatabase(double[] latitudes, double[] longitudes, double[] radii) {
+        List<List<Long>> result = new ArrayList<>(latitudes.length);
+        for (int i = 0; i < latitudes.length; i++) {
+            result.add(new ArrayList<>());
+        }
+        for (ProbeCluster cluster : clusterProbes(latitudes, longitudes, radii)) {
+            List<Object[]> rows = entityManager.createQuery(
+                    "SELECT c.user.id, c.latitude, c.longitude FROM Coordinate c "
+                        + "WHERE c.latitude BETWEEN :minLat AND :maxLat AND "
+                        + (cluster.wraps ? "(c.longitude >= :minLng OR c.longitude <= :maxLng)" : "c.longitude BETWEEN :minLng AND :maxLng")
+                        + " AND c.updatedAt >= :liveSince", Object[].class)
+                .setParameter("minLat", cluster.minLat)
+                .setParameter("maxLat", cluster.maxLat)
+                .setParameter("minLng", cluster.minLng)
+                .setParameter("maxLng", cluster.maxLng)
+                .setParameter("liveSince", presenceExpiryService.liveSince())
+                .getResultList();
+            for (Object[] row : rows) {
+                double latitude = (Double) row[1];
+                double longitude = (Double) row[2];
+                for (int i : cluster.probes) {
+                    if (GeoMath.distanceMeters(latitudes[i], longitudes[i], latitude, longitude) <= radii[i]) {
+                        result.get(i).add((Long) row[0]);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Greedily adds each probe to the first group whose box it can join
+     * without the merged box growing past {@link #MERGE_SLACK} times the
+     * area of its probes' own boxes. Boxes crossing the antimeridian stay on their own.
+     */
+    static List<ProbeCluster> clusterProbes(double[] latitudes, double[] longitudes, double[] radii) {
+        List<ProbeCluster> clusters = new ArrayList<>();
+        for (int i = 0; i < latitudes.length; i++) {
+            GeoMath.BoundingBox box = GeoMath.boundingBox(latitudes[i], longitudes[i], radii[i]);
+            ProbeCluster probe = new ProbeCluster(box, i);
+            ProbeCluster joined = null;
+            if (!probe.wraps) {
+                for (ProbeCluster cluster : clusters) {
+                    if (cluster.absorbs(probe)) {
+                        joined = cluster;
+                        break;
+                    }
+                }
+            }
+            if (joined == null) {
+                clusters.add(probe);
+            }
+        }
+        return clusters;
+    }
+
+    private long[] countFromIndex(double latitude, double longitude, double[] radii) {
+        int[] found = presenceIndex.countWithin(latitude, longitude, radii);
+        long[] counts = new long[radii.length];
+        for (int i = 0; i < radii.length; i++) {
+            counts[i] = found[i];
+        }
+        return counts;
+    }
+
+    private long[] countFromDatabase(double latitude, double longitude, double[] radii) {
+        double maxRadius = max(radii);
+        GeoMath.BoundingBox box = GeoMath.boundingBox(latitude, longitude, maxRadius);
+
+        StringBuilder select = new StringBuilder("SELECT ");
+        for (int i = 0; i < radii.length; i++) {
+            if (i > 0) {
+                select.append(", ");
+            }
+            select.append("SUM(CASE WHEN ").append(CoordinateService.COSINE_SQL)
+                .append(" >= :r").append(i).append(" THEN 1 ELSE 0 END)");
+        }
+        select.append(" FROM coordinates c");
+
+        Query query = entityManager.createNativeQuery(CoordinateService.nearbySql(select.toString(), box));
+        CoordinateService.bindNearbyParameters(query, box, latitude, longitude, maxRadius / 1000.0,
+            presenceExpiryService.liveSince());
+        for (int i = 0; i < radii.length; i++) {
+            query.setParameter("r" + i, GeoMath.minDotProduct(radii[i]));
+        }
+
+        Object result = query.getSingleResult();
+        Object[] row = radii.length == 1 ? new Object[] {result} : (Object[]) result;
+        long[] counts = new long[radii.length];
+        for (int i = 0; i < radii.length; i++) {
+            // SUM over no rows is NULL
+            counts[i] = row[i] == null ? 0 : ((Number) row[i]).longValue();
+        }
+        return counts;
+    }
+
+    /** Probes whose boxes are read from the table together, and the box covering them. */
+    static final class ProbeCluster {
+        final List<Integer> probes = new ArrayList<>();
+        final boolean wraps;
+        double minLat;
+        double maxLat;
+        double minLng;
+        double maxLng;
+        // The probes' own boxes added up, overlaps counted twice
+        double probeArea;
+
+        ProbeCluster(GeoMath.BoundingBox box, int probe) {
+            probes.add(probe);
+            wraps = box.crossesAntimeridian();
+            minLat = box.minLat();
+            maxLat = box.maxLat();
+            minLng = wraps ? box.westLng() : box.minLng();
+            maxLng = wraps ? box.eastLng() : box.maxLng();
+            probeArea = area();
+        }
+
+        /** Takes in the other (single, non-wrapping) probe if the merged box stays tight. */
+        boolean absorbs(ProbeCluster other) {
+            if (wraps) {
+                return false;
+            }
+            double mergedMinLat = Math.min(minLat, other.minLat);
+            double mergedMaxLat = Math.max(maxLat, other.maxLat);
+            double mergedMinLng = Math.min(minLng, other.minLng);
+            double mergedMaxLng = Math.max(maxLng, other.maxLng);
+            double merged = (mergedMaxLat - mergedMinLat) * (mergedMaxLng - mergedMinLng);
+            if (merged > MERGE_SLACK * (probeArea + other.probeArea)) {
+                return false;
+            }
+            probes.addAll(other.probes);
+            minLat = mergedMinLat;
+            maxLat = mergedMaxLat;
+            minLng = mergedMinLng;
+            maxLng = mergedMaxLng;
+            probeArea += other.probeArea;
+            return true;
+        }
+
+        private double area() {
+            return (maxLat - minLat) * (maxLng - minLng);
+        }
+    }
+
+    private static double max(double[] values) {
+        double max = 0;
+        for (double value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+}
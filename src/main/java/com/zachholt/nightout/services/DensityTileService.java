@@ -0,0 +1,157 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.geo.PresenceListener;
+import com.zachholt.nightout.geo.TileMath;
+import com.zachholt.nightout.models.DensityTiles;
+import jakarta.persistence.EntityManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Heatmap counts of checked-in users per map tile, kept for a range of zoom
+ * levels. Every check-in, checkout and expiry adjusts one tile per level
+ * through the presence listener callbacks, so serving a heatmap is a read
+ * of the tiles in view instead of a distance scan per tile.
+ */
+@Service
+public class DensityTileService implements PresenceListener {
+
+    /** Largest block of tiles one request may ask for. */
+    static final int MAX_TILES = 65_536;
+
+    private final PresenceIndex presenceIndex;
+    private final PresenceExpiryService presenceExpiryService;
+    private final EntityManager entityManager;
+    private final int minZoom;
+    private final int maxZoom;
+    private final List<Map<Long, Integer>> counts;
+
+    public DensityTileService(PresenceIndex presenceIndex,
+                              PresenceExpiryService presenceExpiryService,
+                              EntityManager entityManager,
+                              @Value("${nightout.density.min-zoom:8}") int minZoom,
+                              @Value("${nightout.density.max-zoom:16}") int maxZoom) {
+        this.presenceIndex = presenceIndex;
+        this.presenceExpiryService = presenceExpiryService;
+        this.entityManager = entityManager;
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        this.counts = new ArrayList<>(maxZoom - minZoom + 1);
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            counts.add(new ConcurrentHashMap<>());
+        }
+        presenceIndex.addListener(this);
+    }
+
+    public boolean supportsZoom(int zoom) {
+        return zoom >= minZoom && zoom <= maxZoom;
+    }
+
+    /**
+     * Counts for every tile at {@code zoom} overlapping the box. A box
+     * crossing the antimeridian has {@code maxLng} above 180.
+     */
+    @Transactional(readOnly = true)
+    public DensityTiles getTiles(int zoom, GeoMath.BoundingBox box) {
+        if (!supportsZoom(zoom)) {
+            throw new IllegalArgumentException("Zoom must be between " + minZoom + " and " + maxZoom);
+        }
+        int tiles = 1 << zoom;
+        int minX = TileMath.tileX(box.westLng(), zoom);
+        int maxX = TileMath.tileX(box.eastLng(), zoom);
+        int minY = TileMath.tileY(box.maxLat(), zoom);
+        int maxY = TileMath.tileY(box.minLat(), zoom);
+        int width = box.crossesAntimeridian() ? maxX + tiles - minX + 1 : maxX - minX + 1;
+        int height = maxY - minY + 1;
+        if ((long) width * height > MAX_TILES) {
+            throw new IllegalArgumentException("Too many tiles requested; zoom in or shrink the bounding box");
+        }
+
+        int[] grid = new int[width * height];
+        if (presenceIndex.isWarm() && !presenceIndex.isPartitioned()) {
+            Map<Long, Integer> level = counts.get(zoom - minZoom);
+            for (int row = 0; row < height; row++) {
+                for (int column = 0; column < width; column++) {
+                    Integer count = level.get(TileMath.key((minX + column) % tiles, minY + row));
+                    if (count != null) {
+                        grid[row * width + column] = count;
+                    }
+                }
+            }
+        } else {
+            countFromDatabase(zoom, box, minX, minY, width, height, grid);
+        }
+        return new DensityTiles(zoom, minX, minY, width, height, grid);
+    }
+
+    /** Bins the live coordinates inside the box while the presence index is still loading. */
+    private void countFromDatabase(int zoom, GeoMath.BoundingBox box,
+                                   int minX, int minY, int width, int height, int[] grid) {
+        int tiles = 1 << zoom;
+        List<Object[]> rows = entityManager.createQuery(
+                "SELECT c.latitude, c.longitude FROM Coordinate c "
+                    + "WHERE c.latitude BETWEEN :minLat AND :maxLat AND " + CoordinateService.longitudeFilter(box)
+                    + " AND c.updatedAt >= :liveSince", Object[].class)
+            .setParameter("minLat", box.minLat())
+            .setParameter("maxLat", box.maxLat())
+            .setParameter("minLng", box.westLng())
+            .setParameter("maxLng", box.eastLng())
+            .setParameter("liveSince", presenceExpiryService.liveSince())
+            .getResultList();
+        for (Object[] row : rows) {
+            int x = TileMath.tileX((Double) row[1], zoom);
+            int y = TileMath.tileY((Double) row[0], zoom);
+            int column = Math.floorMod(x - minX, tiles);
+            int rowIndex = y - minY;
+            if (column < width && rowIndex >= 0 && rowIndex < height) {
+                grid[rowIndex * width + column]++;
+            }
+        }
+    }
+
+    @Override
+    public void onUpdate(long userId, PresenceIndex.Position previous, PresenceIndex.Position current) {
+        // Finest level first: once both positions share a tile, they share it at every coarser zoom too
+        for (int zoom = maxZoom; zoom >= minZoom; zoom--) {
+            long to = tileKey(current, zoom);
+            if (previous != null) {
+                long from = tileKey(previous, zoom);
+                if (from == to) {
+                    break;
+                }
+                decrement(zoom, from);
+            }
+            counts.get(zoom - minZoom).merge(to, 1, Integer::sum);
+        }
+    }
+
+    @Override
+    public void onRemove(long userId, PresenceIndex.Position previous) {
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            decrement(zoom, tileKey(previous, zoom));
+        }
+    }
+
+    @Override
+    public void onClear() {
+        for (Map<Long, Integer> level : counts) {
+            level.clear();
+        }
+    }
+
+    private void decrement(int zoom, long key) {
+        counts.get(zoom - minZoom).computeIfPresent(key, (tile, count) -> count == 1 ? null : count - 1);
+    }
+
+    private static long tileKey(PresenceIndex.Position position, int zoom) {
+        return TileMath.key(TileMath.tileX(position.longitude(), zoom), TileMath.tileY(position.latitude(), zoom));
+    }
+}
@@ -0,0 +1,249 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.models.Favorite;
+import com.zachholt.nightout.models.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Each user's favorites, least recently used first, so the favorites list
+ * and the favorite check are answered without touching the database. At
+ * most {@code max-size} users are kept and an entry is reloaded once it is
+ * {@code ttl-seconds} old. This node's writes patch the entry in place;
+ * other nodes' writes, announced on the {@link InvalidationBus}, drop it.
+ * <p>
+ * Users are split by ID over up to 16 segments, each an LRU with its own
+ * monitor, so lookups for different users rarely wait on each other. The
+ * least recently used user is evicted per segment, which approximates a
+ * global LRU.
+ */
+@Service
+public class FavoriteCache {
+
+    /**
+     * A user's favorites and their location IDs, for set lookups. The
+     * favorites are detached copies holding plain values; the user they
+     * point at carries nothing but its ID.
+     */
+    public record Favorites(List<Favorite> favorites, Set<String> locationIds) {
+
+        static Favorites of(List<Favorite> favorites) {
+            List<Favorite> copies = new ArrayList<>(favorites.size());
+            Set<String> locationIds = new HashSet<>();
+            for (Favorite favorite : favorites) {
+                copies.add(detached(favorite));
+                locationIds.add(favorite.getLocationId());
+            }
+            return new Favorites(List.copyOf(copies), Set.copyOf(locationIds));
+        }
+
+        private static Favorite detached(Favorite favorite) {
+            Favorite copy = new Favorite();
+            copy.setId(favorite.getId());
+            copy.setLocationId(favorite.getLocationId());
+            copy.setLatitude(favorite.getLatitude());
+            copy.setLongitude(favorite.getLongitude());
+            copy.setCreatedAt(favorite.getCreatedAt());
+            Long userId = favorite.getUserId();
+            if (userId != null) {
+                User owner = new User();
+                owner.setId(userId);
+                copy.setUser(owner);
+            }
+            return copy;
+        }
+
+        public boolean contains(String locationId) {
+            return locationIds.contains(locationId);
+        }
+    }
+
+    private record Entry(Favorites favorites, long loadedAt) {}
+
+    /** One share of the users, with its own LRU order and monitor. */
+    private static final class Segment {
+        // Access order: the eldest entry is the least recently used
+        final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        final int capacity;
+        // Bumped by every write, so a load that raced one is not cached
+        long generation;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+    private static final int MAX_SEGMENTS = 16;
+    // Small caches keep one segment, and with it an exact LRU order
+    private static final int MIN_SEGMENT_SIZE = 64;
+
+    private final Segment[] segments;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter sizeEvictions;
+    private final Counter expiryEvictions;
+
+    public FavoriteCache(MeterRegistry meterRegistry,
+                         InvalidationBus invalidationBus,
+                         @Value("${nightout.favorites.cache.max-size:10000}") int maxSize,
+                         @Value("${nightout.favorites.cache.ttl-seconds:300}") long ttlSeconds) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlSeconds * 1000;
+        int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maxSize / MIN_SEGMENT_SIZE)));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment((maxSize + segmentCount - 1) / segmentCount);
+        }
+        this.hits = Counter.builder("nightout.favorites.cache.requests")
+            .tag("result", "hit")
+            .description("Favorites lookups answered from the cache")
+            .register(meterRegistry);
+        this.misses = Counter.builder("nightout.favorites.cache.requests")
+            .tag("result", "miss")
+            .description("Favorites lookups that loaded from the database")
+            .register(meterRegistry);
+        this.sizeEvictions = Counter.builder("nightout.favorites.cache.evictions")
+            .tag("cause", "size")
+            .description("Users dropped from the favorites cache")
+            .register(meterRegistry);
+        this.expiryEvictions = Counter.builder("nightout.favorites.cache.evictions")
+            .tag("cause", "expired")
+            .description("Users dropped from the favorites cache")
+            .register(meterRegistry);
+        Gauge.builder("nightout.favorites.cache.size", this, FavoriteCache::size)
+            .description("Users whose favorites are cached")
+            .register(meterRegistry);
+        invalidationBus.subscribe(InvalidationBus.Topic.FAVORITES, invalidation -> {
+            if (invalidation.remote()) {
+                invalidate(Long.parseLong(invalidation.key()));
+            }
+        });
+        invalidationBus.subscribe(InvalidationBus.Topic.USER,
+            invalidation -> invalidate(Long.parseLong(invalidation.key())));
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0 && ttlMillis > 0;
+    }
+
+    /** The user's favorites from the cache, or from {@code loader} on a miss. */
+    public Favorites get(long userId, Supplier<List<Favorite>> loader) {
+        return get(userId, loader, System.currentTimeMillis());
+    }
+
+    Favorites get(long userId, Supplier<List<Favorite>> loader, long now) {
+        if (!isEnabled()) {
+            return Favorites.of(loader.get());
+        }
+        Segment segment = segmentOf(userId);
+        long loadGeneration;
+        synchronized (segment) {
+            Entry entry = segment.entries.get(userId);
+            if (entry != null && now - entry.loadedAt() < ttlMillis) {
+                hits.increment();
+                return entry.favorites();
+            }
+            if (entry != null) {
+                segment.entries.remove(userId);
+                expiryEvictions.increment();
+            }
+            loadGeneration = segment.generation;
+        }
+        misses.increment();
+        Favorites favorites = Favorites.of(loader.get());
+        synchronized (segment) {
+            if (segment.generation == loadGeneration) {
+                segment.entries.put(userId, new Entry(favorites, now));
+                evictEldest(segment);
+            }
+        }
+        return favorites;
+    }
+
+    /** Write-through for a favorite this node just added. */
+    public void added(long userId, Favorite favorite) {
+        Segment segment = segmentOf(userId);
+        synchronized (segment) {
+            segment.generation++;
+            Entry entry = segment.entries.get(userId);
+            if (entry != null) {
+                List<Favorite> favorites = new ArrayList<>(entry.favorites().favorites());
+                favorites.removeIf(existing -> existing.getLocationId().equals(favorite.getLocationId()));
+                favorites.add(favorite);
+                segment.entries.put(userId, new Entry(Favorites.of(favorites), entry.loadedAt()));
+            }
+        }
+    }
+
+    /** Write-through for a favorite this node just removed. */
+    public void removed(long userId, String locationId) {
+        Segment segment = segmentOf(userId);
+        synchronized (segment) {
+            segment.generation++;
+            Entry entry = segment.entries.get(userId);
+            if (entry != null && entry.favorites().contains(locationId)) {
+                List<Favorite> favorites = new ArrayList<>(entry.favorites().favorites());
+                favorites.removeIf(existing -> existing.getLocationId().equals(locationId));
+                segment.entries.put(userId, new Entry(Favorites.of(favorites), entry.loadedAt()));
+            }
+        }
+    }
+
+    public void invalidate(long userId) {
+        Segment segment = segmentOf(userId);
+        synchronized (segment) {
+            segment.generation++;
+            segment.entries.remove(userId);
+        }
+    }
+
+    /** Notifications may have been missed while the bus was down. */
+    @EventListener(InvalidationBus.Reconnected.class)
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.generation++;
+                segment.entries.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentOf(long userId) {
+        return segments[(int) (userId ^ (userId >>> 32)) & (segments.length - 1)];
+    }
+
+    private void evictEldest(Segment segment) {
+        LinkedHashMap<Long, Entry> entries = segment.entries;
+        Iterator<Map.Entry<Long, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > segment.capacity && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            sizeEvictions.increment();
+        }
+    }
+}
@@ -1,54 +1,327 @@
 package com.zachholt.nightout.services;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import com.zachholt.nightout.config.DatabasePlatform;
+import com.zachholt.nightout.exceptions.ResourceNotFoundException;
 import com.zachholt.nightout.models.Favorite;
-import com.zachholt.nightout.models.User;
+import com.zachholt.nightout.models.FavoriteChanges;
+import com.zachholt.nightout.models.FavoriteOutcome;
+import com.zachholt.nightout.models.FavoritesPage;
 import com.zachholt.nightout.repositories.FavoriteRepository;
 import com.zachholt.nightout.repositories.UserRepository;
 
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * Favorites are read and written by user ID alone; the user row is never
+ * loaded. A missing user shows up as an empty result, which is then told
+ * apart from "no favorites" with one existence check, or as a
+ * favorites_user_fk violation on insert.
+ */
 @Service
 public class FavoriteService {
+    // Rows committed a little after their created_at or removed_at are still picked up by the next sync
+    private static final Duration SYNC_MARGIN = Duration.ofSeconds(10);
+
+    private static final String BATCH_INSERT_SQL = """
+        INSERT INTO favorites (id, user_id, location_id, latitude, longitude, created_at)
+        VALUES (nextval('favorite_id_seq'), ?, ?, ?, ?, ?)
+        ON CONFLICT (user_id, location_id) DO NOTHING
+        """;
+    // H2 has no ON CONFLICT outside PostgreSQL mode
+    private static final String BATCH_INSERT_PORTABLE_SQL = """
+        INSERT INTO favorites (id, user_id, location_id, latitude, longitude, created_at)
+        SELECT NEXT VALUE FOR favorite_id_seq, ?, ?, ?, ?, ?
+        WHERE NOT EXISTS (SELECT 1 FROM favorites WHERE user_id = ? AND location_id = ?)
+        """;
+    private static final String BATCH_DELETE_SQL = "DELETE FROM favorites WHERE user_id = ? AND location_id = ?";
+
     @Autowired
     private FavoriteRepository favoriteRepository;
 
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private InvalidationBus invalidationBus;
+
+    @Autowired
+    private FavoriteCache favoriteCache;
+
+    @Autowired
+    private FavoriteTombstones favoriteTombstones;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DatabasePlatform databasePlatform;
+
     public List<Favorite> getFavorites(Long userId) {
-        User user = userRepository.findById(userId)
-            .orElseThrow(() -> new RuntimeException("User not found"));
-        return favoriteRepository.findByUser(user);
+        return loadFavorites(userId).favorites();
     }
 
-    public Favorite addFavorite(Long userId, Favorite favorite) {
-        User user = userRepository.findById(userId)
-            .orElseThrow(() -> new RuntimeException("User not found"));
+    /**
+     * Up to {@code limit} favorites, oldest first, after the one the cursor
+     * points at (from the start when it is null). Each page is one index
+     * range read, however deep into the list it is.
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public FavoritesPage getFavoritesPage(Long userId, String after, int limit) {
+        // One row more than asked tells whether there is a next page
+        PageRequest page = PageRequest.of(0, limit + 1);
+        List<Favorite> rows;
+        if (after == null) {
+            rows = favoriteRepository.findPage(userId, page);
+            if (rows.isEmpty()) {
+                requireUser(userId);
+            }
+        } else {
+            Cursor cursor = Cursor.decode(after);
+            rows = favoriteRepository.findPageAfter(userId, cursor.createdAt(), cursor.id(), page);
+        }
+        if (rows.size() <= limit) {
+            return new FavoritesPage(rows, null);
+        }
+        List<Favorite> favorites = rows.subList(0, limit);
+        return new FavoritesPage(favorites, Cursor.of(favorites.get(limit - 1)).encode());
+    }
 
-        // Check if already favorited
-        if (favoriteRepository.existsByUserAndLocationId(user, favorite.getLocationId())) {
-            throw new RuntimeException("Location already favorited");
+    /**
+     * What was added and removed after {@code since}, which should be the
+     * {@code syncedAt} of the client's previous sync. If removals that old
+     * are no longer kept, the whole list is returned with {@code reset} set.
+     */
+    public FavoriteChanges getFavoriteChanges(Long userId, LocalDateTime since) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime syncedAt = now.minus(SYNC_MARGIN);
+        if (since.isBefore(favoriteTombstones.retainedSince(now))) {
+            return new FavoriteChanges(getFavorites(userId), List.of(), syncedAt, true);
         }
+        List<Favorite> added = favoriteRepository.findCreatedSince(userId, since);
+        List<String> removed = favoriteTombstones.removedSince(userId, since);
+        if (added.isEmpty() && removed.isEmpty()) {
+            requireUser(userId);
+        }
+        return new FavoriteChanges(added, removed, syncedAt, false);
+    }
 
-        favorite.setUser(user);
-        return favoriteRepository.save(favorite);
+    /**
+     * @throws ResourceNotFoundException if the user does not exist
+     * @throws RuntimeException if the location is already a favorite
+     */
+    public Favorite addFavorite(Long userId, Favorite favorite) {
+        favorite.setUser(userRepository.getReferenceById(userId));
+        Favorite saved;
+        try {
+            // Flushed here so the constraint violations below surface in this call
+            saved = favoriteRepository.saveAndFlush(favorite);
+        } catch (DataIntegrityViolationException e) {
+            throw translateViolation(e, userId);
+        }
+        favoriteCache.added(userId, saved);
+        invalidationBus.publish(InvalidationBus.Topic.FAVORITES, userId);
+        return saved;
     }
 
     @Transactional
     public void removeFavorite(Long userId, String locationId) {
-        User user = userRepository.findById(userId)
-            .orElseThrow(() -> new RuntimeException("User not found"));
+        if (favoriteRepository.deleteByUserIdAndLocationId(userId, locationId) == 0) {
+            requireUser(userId);
+            return;
+        }
+        favoriteTombstones.record(userId, locationId, LocalDateTime.now());
+        // A read between the delete and the commit must not cache the old row again
+        afterCommit(() -> favoriteCache.removed(userId, locationId));
+        invalidationBus.publish(InvalidationBus.Topic.FAVORITES, userId);
+    }
 
-        favoriteRepository.deleteByUserAndLocationId(user, locationId);
+    /**
+     * Adds every location in one transaction and one JDBC batch, skipping
+     * those already favorited. Outcomes are keyed by location ID in request
+     * order; a location listed twice is added once.
+     * @throws ResourceNotFoundException if the user does not exist
+     */
+    @Transactional
+    public Map<String, FavoriteOutcome> addFavorites(Long userId, List<Favorite> favorites) {
+        Map<String, Favorite> byLocation = new LinkedHashMap<>();
+        for (Favorite favorite : favorites) {
+            byLocation.putIfAbsent(favorite.getLocationId(), favorite);
+        }
+        List<Favorite> batch = List.copyOf(byLocation.values());
+        Timestamp createdAt = Timestamp.valueOf(LocalDateTime.now());
+        boolean postgres = databasePlatform.isPostgres();
+        int[][] inserted;
+        try {
+            inserted = jdbcTemplate.batchUpdate(postgres ? BATCH_INSERT_SQL : BATCH_INSERT_PORTABLE_SQL,
+                batch, batch.size(), (statement, favorite) -> {
+                    statement.setLong(1, userId);
+                    statement.setString(2, favorite.getLocationId());
+                    statement.setDouble(3, favorite.getLatitude());
+                    statement.setDouble(4, favorite.getLongitude());
+                    statement.setTimestamp(5, createdAt);
+                    if (!postgres) {
+                        statement.setLong(6, userId);
+                        statement.setString(7, favorite.getLocationId());
+                    }
+                });
+        } catch (DataIntegrityViolationException e) {
+            throw translateViolation(e, userId);
+        }
+        Map<String, FavoriteOutcome> outcomes = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            // Relies on per-row update counts, i.e. without reWriteBatchedInserts
+            outcomes.put(batch.get(i).getLocationId(),
+                inserted[0][i] == 0 ? FavoriteOutcome.ALREADY_FAVORITED : FavoriteOutcome.ADDED);
+        }
+        if (outcomes.containsValue(FavoriteOutcome.ADDED)) {
+            // The new rows' IDs are not known here, so the entry is reloaded rather than patched
+            afterCommit(() -> favoriteCache.invalidate(userId));
+            invalidationBus.publish(InvalidationBus.Topic.FAVORITES, userId);
+        }
+        return outcomes;
+    }
+
+    /**
+     * Removes every location in one transaction and one JDBC batch.
+     * Outcomes are keyed by location ID in request order.
+     * @throws ResourceNotFoundException if the user does not exist
+     */
+    @Transactional
+    public Map<String, FavoriteOutcome> removeFavorites(Long userId, List<String> locationIds) {
+        List<String> batch = List.copyOf(new LinkedHashSet<>(locationIds));
+        int[][] deleted = jdbcTemplate.batchUpdate(BATCH_DELETE_SQL, batch, batch.size(), (statement, locationId) -> {
+            statement.setLong(1, userId);
+            statement.setString(2, locationId);
+        });
+        Map<String, FavoriteOutcome> outcomes = new LinkedHashMap<>();
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (deleted[0][i] == 0) {
+                outcomes.put(batch.get(i), FavoriteOutcome.NOT_FAVORITED);
+            } else {
+                outcomes.put(batch.get(i), FavoriteOutcome.REMOVED);
+                removed.add(batch.get(i));
+            }
+        }
+        if (removed.isEmpty()) {
+            requireUser(userId);
+            return outcomes;
+        }
+        favoriteTombstones.recordAll(userId, removed, LocalDateTime.now());
+        afterCommit(() -> removed.forEach(locationId -> favoriteCache.removed(userId, locationId)));
+        invalidationBus.publish(InvalidationBus.Topic.FAVORITES, userId);
+        return outcomes;
     }
 
     public boolean isFavorite(Long userId, String locationId) {
-        User user = userRepository.findById(userId)
-            .orElseThrow(() -> new RuntimeException("User not found"));
+        return loadFavorites(userId).contains(locationId);
+    }
+
+    /**
+     * Whether each location is one of the user's favorites, in request order.
+     * Answered from the cached set, or by one IN query when the cache is off.
+     */
+    public Map<String, Boolean> checkFavorites(Long userId, List<String> locationIds) {
+        Set<String> favorited;
+        if (favoriteCache.isEnabled()) {
+            favorited = loadFavorites(userId).locationIds();
+        } else {
+            favorited = new HashSet<>(favoriteRepository.findFavoritedLocationIds(userId, new HashSet<>(locationIds)));
+            if (favorited.isEmpty()) {
+                requireUser(userId);
+            }
+        }
+        Map<String, Boolean> result = new LinkedHashMap<>();
+        for (String locationId : locationIds) {
+            result.put(locationId, favorited.contains(locationId));
+        }
+        return result;
+    }
+
+    private FavoriteCache.Favorites loadFavorites(Long userId) {
+        return favoriteCache.get(userId, () -> {
+            List<Favorite> favorites = favoriteRepository.findByUser_Id(userId);
+            if (favorites.isEmpty()) {
+                requireUser(userId);
+            }
+            return favorites;
+        });
+    }
+
+    private void requireUser(Long userId) {
+        if (!userRepository.existsById(userId)) {
+            throw new ResourceNotFoundException("User not found with ID: " + userId);
+        }
+    }
 
-        return favoriteRepository.existsByUserAndLocationId(user, locationId);
+    private static RuntimeException translateViolation(DataIntegrityViolationException e, Long userId) {
+        String message = String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage()).toLowerCase(Locale.ROOT);
+        if (message.contains("favorites_user_fk")) {
+            return new ResourceNotFoundException("User not found with ID: " + userId);
+        }
+        if (message.contains("favorites_unique_user_location")) {
+            return new RuntimeException("Location already favorited");
+        }
+        return e;
+    }
+
+    /** Position of the last favorite on a page, as an opaque URL-safe string. */
+    private record Cursor(LocalDateTime createdAt, Long id) {
+
+        static Cursor of(Favorite favorite) {
+            return new Cursor(favorite.getCreatedAt(), favorite.getId());
+        }
+
+        String encode() {
+            return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((createdAt + "|" + id).getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String value) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8).split("\\|");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid cursor");
+                }
+                return new Cursor(LocalDateTime.parse(parts[0]), Long.parseLong(parts[1]));
+            } catch (DateTimeParseException | IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
     }
-} 
\ No newline at end of file
+} 
@@ -0,0 +1,84 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.config.DatabasePlatform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Remembers which favorites were removed and when, so a delta sync can tell
+ * the client to drop them. One row per user and location, kept for
+ * {@code retention-days}; a client that last synced before that has to
+ * fetch its whole list again.
+ */
+@Service
+public class FavoriteTombstones {
+
+    private static final Logger logger = LoggerFactory.getLogger(FavoriteTombstones.class);
+
+    private static final String UPSERT_SQL = """
+        INSERT INTO favorite_tombstones (user_id, location_id, removed_at) VALUES (?, ?, ?)
+        ON CONFLICT (user_id, location_id) DO UPDATE SET removed_at = EXCLUDED.removed_at
+        """;
+    private static final String MERGE_SQL =
+        "MERGE INTO favorite_tombstones (user_id, location_id, removed_at) KEY (user_id, location_id) VALUES (?, ?, ?)";
+    // A location favorited again after its removal is reported as added, not removed
+    private static final String REMOVED_SINCE_SQL = """
+        SELECT t.location_id FROM favorite_tombstones t
+        WHERE t.user_id = ? AND t.removed_at > ?
+          AND NOT EXISTS (SELECT 1 FROM favorites f WHERE f.user_id = t.user_id AND f.location_id = t.location_id)
+        ORDER BY t.removed_at
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DatabasePlatform databasePlatform;
+    private final int retentionDays;
+
+    public FavoriteTombstones(JdbcTemplate jdbcTemplate,
+                              DatabasePlatform databasePlatform,
+                              @Value("${nightout.favorites.tombstones.retention-days:30}") int retentionDays) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.databasePlatform = databasePlatform;
+        this.retentionDays = retentionDays;
+    }
+
+    public void record(Long userId, String locationId, LocalDateTime removedAt) {
+        jdbcTemplate.update(databasePlatform.isPostgres() ? UPSERT_SQL : MERGE_SQL,
+            userId, locationId, Timestamp.valueOf(removedAt));
+    }
+
+    public void recordAll(Long userId, List<String> locationIds, LocalDateTime removedAt) {
+        Timestamp timestamp = Timestamp.valueOf(removedAt);
+        jdbcTemplate.batchUpdate(databasePlatform.isPostgres() ? UPSERT_SQL : MERGE_SQL, locationIds,
+            locationIds.size(), (statement, locationId) -> {
+                statement.setLong(1, userId);
+                statement.setString(2, locationId);
+                statement.setTimestamp(3, timestamp);
+            });
+    }
+
+    public List<String> removedSince(Long userId, LocalDateTime since) {
+        return jdbcTemplate.queryForList(REMOVED_SINCE_SQL, String.class, userId, Timestamp.valueOf(since));
+    }
+
+    /** Removals before this may already be purged. */
+    public LocalDateTime retainedSince(LocalDateTime now) {
+        return now.minusDays(retentionDays);
+    }
+
+    @Scheduled(fixedDelayString = "${nightout.favorites.tombstones.purge-interval:3600000}")
+    public void purge() {
+        int purged = jdbcTemplate.update("DELETE FROM favorite_tombstones WHERE removed_at < ?",
+            Timestamp.valueOf(retainedSince(LocalDateTime.now())));
+        if (purged > 0) {
+            logger.info("Purged {} favorite tombstones older than {} days", purged, retentionDays);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.config.DatabasePlatform;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Tells every node when cached users, favorites or positions change, so each
+ * can evict or patch its own copy. Services publish after their transaction
+ * commits; handlers on this node run right away and the other nodes hear of
+ * it through Postgres {@code NOTIFY} on {@code channel}, which each node
+ * {@code LISTEN}s to on a dedicated connection. On H2 there are no other
+ * nodes and only the local handlers run.
+ *
+ * <p>Notifications for other nodes are coalesced per topic and key, latest
+ * wins, and sent every {@code flush-interval} in one statement from a thread
+ * of their own, so a burst of check-ins costs one round trip per tick and
+ * the outbox never holds more than one entry per changed key.
+ *
+ * <p>Notifications sent while a node is disconnected are lost, so after
+ * reconnecting it publishes {@link Reconnected} and caches drop everything.
+ */
+@Service
+public class InvalidationBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(InvalidationBus.class);
+
+    // Postgres rejects NOTIFY payloads of 8000 bytes or more
+    private static final int MAX_PAYLOAD = 7999;
+
+    public enum Topic { USER, FAVORITES, PRESENCE }
+
+    /**
+     * What changed. {@code value} optionally carries the new state so the
+     * cache can patch instead of evicting; {@code remote} is false on the node
+     * that made the change, whose caches may already be up to date.
+     */
+    public record Invalidation(Topic topic, String key, String value, boolean remote) {}
+
+    /** Published when the channel comes back after an outage that may have lost notifications. */
+    public record Reconnected() {}
+
+    private final Map<Topic, List<Consumer<Invalidation>>> handlers = new EnumMap<>(Topic.class);
+    // Lets a node skip its own notifications, whose handlers already ran
+    private final String origin = UUID.randomUUID().toString();
+    private final JdbcTemplate jdbcTemplate;
+    private final DatabasePlatform databasePlatform;
+    private final ApplicationEventPublisher eventPublisher;
+    private final DataSourceProperties dataSourceProperties;
+    private final boolean enabled;
+    private final String channel;
+    private final long reconnectDelayMillis;
+    private final long flushIntervalMillis;
+    private final ScheduledExecutorService sender;
+    // Latest invalidation per topic and key not yet sent to the other nodes
+    private final Map<String, Invalidation> outbox = new LinkedHashMap<>();
+    private volatile boolean notifying;
+    private volatile boolean listening;
+    private volatile Thread listener;
+    private volatile Connection connection;
+
+    public InvalidationBus(JdbcTemplate jdbcTemplate,
+                           DatabasePlatform databasePlatform,
+                           DataSourceProperties dataSourceProperties,
+                           ApplicationEventPublisher eventPublisher,
+                           @Value("${nightout.invalidation.enabled:true}") boolean enabled,
+                           @Value("${nightout.invalidation.channel:nightout_invalidation}") String channel,
+                           @Value("${nightout.invalidation.reconnect-delay:5000}") long reconnectDelayMillis,
+                           @Value("${nightout.invalidation.flush-interval:100}") long flushIntervalMillis) {
+        if (!channel.matches("[a-z_][a-z0-9_]*")) {
+            throw new IllegalArgumentException("Invalid invalidation channel: " + channel);
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.databasePlatform = databasePlatform;
+        this.dataSourceProperties = dataSourceProperties;
+        this.eventPublisher = eventPublisher;
+        this.enabled = enabled;
+        this.channel = channel;
+        this.reconnectDelayMillis = reconnectDelayMillis;
+        this.flushIntervalMillis = flushIntervalMillis;
+        for (Topic topic : Topic.values()) {
+            handlers.put(topic, new CopyOnWriteArrayList<>());
+        }
+        this.sender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "invalidation-notify");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public boolean isListening() {
+        return listening;
+    }
+
+    public void subscribe(Topic topic, Consumer<Invalidation> handler) {
+        handlers.get(topic).add(handler);
+    }
+
+    public void publish(Topic topic, Object key) {
+        publish(topic, key, null);
+    }
+
+    /**
+     * Runs the handlers once the current transaction commits, or now if there
+     * is none, so no node sees the change before it is visible in the table.
+     */
+    public void publish(Topic topic, Object key, String value) {
+        Invalidation invalidation = new Invalidation(topic, key.toString(), value, false);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    send(invalidation);
+                }
+            });
+        } else {
+            send(invalidation);
+        }
+    }
+
+    private void send(Invalidation invalidation) {
+        dispatch(invalidation);
+        if (notifying) {
+            synchronized (outbox) {
+                outbox.put(invalidation.topic() + "\t" + invalidation.key(), invalidation);
+            }
+        }
+    }
+
+    /** Sends everything in the outbox to the other nodes in one round trip. */
+    void flush() {
+        List<String> payloads = drain();
+        if (payloads.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(
+                    "SELECT pg_notify(?, payload) FROM unnest(?::text[]) AS payload");
+                statement.setString(1, channel);
+                statement.setArray(2, connection.createArrayOf("text", payloads.toArray()));
+                return statement;
+            }, rs -> null);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to notify other nodes of {} invalidations", payloads.size(), e);
+        }
+    }
+
+    /** Empties the outbox into NOTIFY payloads, oldest key first. */
+    List<String> drain() {
+        List<Invalidation> pending;
+        synchronized (outbox) {
+            pending = new ArrayList<>(outbox.values());
+            outbox.clear();
+        }
+        List<String> payloads = new ArrayList<>(pending.size());
+        for (Invalidation invalidation : pending) {
+            String payload = encode(invalidation);
+            if (payload.length() > MAX_PAYLOAD) {
+                payload = encode(new Invalidation(invalidation.topic(), invalidation.key(), null, false));
+            }
+            payloads.add(payload);
+        }
+        return payloads;
+    }
+
+    private void dispatch(Invalidation invalidation) {
+        for (Consumer<Invalidation> handler : handlers.get(invalidation.topic())) {
+            try {
+                handler.accept(invalidation);
+            } catch (RuntimeException e) {
+                logger.warn("Invalidation handler failed for {} {}", invalidation.topic(), invalidation.key(), e);
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || !databasePlatform.isPostgres() || listener != null) {
+            return;
+        }
+        startNotifying();
+        Thread thread = new Thread(this::listen, "invalidation-listen");
+        thread.setDaemon(true);
+        listener = thread;
+        thread.start();
+    }
+
+    /** Starts queueing invalidations for the other nodes and flushing them every tick. */
+    void startNotifying() {
+        if (notifying) {
+            return;
+        }
+        notifying = true;
+        sender.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (notifying) {
+            notifying = false;
+            flush();
+        }
+        Thread thread = listener;
+        listener = null;
+        listening = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        closeConnection();
+        sender.shutdown();
+    }
+
+    private void listen() {
+        boolean reconnecting = false;
+        while (listener == Thread.currentThread()) {
+            try {
+                PGConnection pgConnection = connect();
+                if (reconnecting) {
+                    logger.info("Reconnected to invalidation channel {}, dropping cached state", channel);
+                    eventPublisher.publishEvent(new Reconnected());
+                }
+                listening = true;
+                while (listener == Thread.currentThread()) {
+                    PGNotification[] notifications = pgConnection.getNotifications(1000);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            receive(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (listener != Thread.currentThread()) {
+                    return;
+                }
+                logger.warn("Lost invalidation channel {}, reconnecting in {} ms", channel, reconnectDelayMillis, e);
+            } finally {
+                listening = false;
+                closeConnection();
+            }
+            reconnecting = true;
+            try {
+                Thread.sleep(reconnectDelayMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private PGConnection connect() throws SQLException {
+        Connection opened = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+            dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword());
+        connection = opened;
+        try (Statement statement = opened.createStatement()) {
+            statement.execute("LISTEN " + channel);
+        }
+        return opened.unwrap(PGConnection.class);
+    }
+
+    private void closeConnection() {
+        Connection current = connection;
+        connection = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (SQLException e) {
+                // Already broken
+            }
+        }
+    }
+
+    void receive(String payload) {
+        Invalidation invalidation = decode(payload);
+        if (invalidation != null) {
+            dispatch(invalidation);
+        }
+    }
+
+    /** origin, topic, key and value separated by tabs; an empty value is null. */
+    private String encode(Invalidation invalidation) {
+        return String.join("\t", origin, invalidation.topic().name(), invalidation.key(),
+            invalidation.value() != null ? invalidation.value() : "");
+    }
+
+    private Invalidation decode(String payload) {
+        String[] parts = payload.split("\t", 4);
+        if (parts.length != 4 || parts[0].equals(origin)) {
+            return null;
+        }
+        try {
+            return new Invalidation(Topic.valueOf(parts[1]), parts[2], parts[3].isEmpty() ? null : parts[3], true);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ignoring invalidation for unknown topic {}", parts[1]);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.config.DatabasePlatform;
+import com.zachholt.nightout.geo.GeoMath;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional write-behind mode for check-ins. Positions are parked in a
+ * per-user "latest wins" map and a scheduled flusher writes them to
+ * coordinates in JDBC batches, so a client resending its location every few
+ * seconds costs one row write per flush instead of one transaction per call.
+ * The presence index is updated immediately, so nearby reads never lag.
+ */
+@Service
+public class LocationWriteBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocationWriteBuffer.class);
+
+    // Skips users deleted since the check-in instead of failing the batch on the FK.
+    // Write times come from the app clock so the undo can match them exactly.
+    private static final String UPSERT_SQL = """
+        INSERT INTO coordinates (user_id, latitude, longitude, unit_x, unit_y, unit_z, created_at, updated_at)
+        SELECT u.id, ?, ?, ?, ?, ?, ?, ? FROM users u WHERE u.id = ?
+        ON CONFLICT (user_id) DO UPDATE
+            SET latitude = EXCLUDED.latitude, longitude = EXCLUDED.longitude,
+                unit_x = EXCLUDED.unit_x, unit_y = EXCLUDED.unit_y, unit_z = EXCLUDED.unit_z,
+                updated_at = EXCLUDED.updated_at
+        """;
+    private static final String UPDATE_SQL = """
+        UPDATE coordinates SET latitude = ?, longitude = ?, unit_x = ?, unit_y = ?, unit_z = ?,
+            updated_at = ?
+        WHERE user_id = ?
+        """;
+    private static final String INSERT_SQL = """
+        INSERT INTO coordinates (user_id, latitude, longitude, unit_x, unit_y, unit_z, created_at, updated_at)
+        SELECT u.id, ?, ?, ?, ?, ?, ?, ? FROM users u WHERE u.id = ?
+        """;
+
+    // Removes the row a flush wrote for a user who checked out while it was in flight,
+    // but not one rewritten since, whose write time differs
+    private static final String UNDO_SQL = "DELETE FROM coordinates WHERE user_id = ? AND updated_at = ?";
+
+    private final Map<Long, PendingLocation> pending = new ConcurrentHashMap<>();
+    // Checkouts during the current flush, by user: positions queued before the fence must not be written
+    private final Map<Long, Long> fences = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final JdbcTemplate jdbcTemplate;
+    private final DatabasePlatform databasePlatform;
+    private final boolean enabled;
+    private final int batchSize;
+    private final Timer flushTimer;
+    private final Counter flushedRows;
+
+    public LocationWriteBuffer(JdbcTemplate jdbcTemplate,
+                               DatabasePlatform databasePlatform,
+                               MeterRegistry meterRegistry,
+                               @Value("${nightout.presence.write-behind.enabled:false}") boolean enabled,
+                               @Value("${nightout.presence.write-behind.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.databasePlatform = databasePlatform;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        Gauge.builder("nightout.presence.write_behind.queue_depth", pending, Map::size)
+            .description("Check-ins waiting to be flushed to the coordinates table")
+            .register(meterRegistry);
+        this.flushTimer = Timer.builder("nightout.presence.write_behind.flush")
+            .description("Time taken to flush buffered check-ins")
+            .register(meterRegistry);
+        this.flushedRows = Counter.builder("nightout.presence.write_behind.flushed_rows")
+            .description("Coordinate rows written by the write-behind flusher")
+            .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void enqueue(Long userId, double latitude, double longitude) {
+        pending.compute(userId, (id, previous) ->
+            new PendingLocation(userId, latitude, longitude, sequence.incrementAndGet()));
+    }
+
+    /** The position waiting to be flushed for the user, as {latitude, longitude}, or null. */
+    public double[] pendingPosition(Long userId) {
+        PendingLocation location = pending.get(userId);
+        return location != null ? new double[] {location.latitude(), location.longitude()} : null;
+    }
+
+    /**
+     * Drops a buffered position, e.g. on checkout, so it is not written back
+     * afterwards. Also fences a position the flusher is writing right now;
+     * call this before deleting the coordinate row, so that a write committed
+     * before the fence is removed by that delete and one committed after it
+     * is undone by the flusher.
+     */
+    public void discard(Long userId) {
+        pending.compute(userId, (id, location) -> {
+            fences.put(userId, sequence.incrementAndGet());
+            return null;
+        });
+    }
+
+    public int queueDepth() {
+        return pending.size();
+    }
+
+    @Scheduled(fixedDelayString = "${nightout.presence.write-behind.flush-interval:1000}")
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            fences.clear();
+            return;
+        }
+        flushTimer.record(() -> {
+            List<PendingLocation> batch = new ArrayList<>(batchSize);
+            Iterator<Long> userIds = pending.keySet().iterator();
+            while (userIds.hasNext()) {
+                PendingLocation location = pending.remove(userIds.next());
+                if (location != null) {
+                    batch.add(location);
+                }
+                if (batch.size() == batchSize || (!userIds.hasNext() && !batch.isEmpty())) {
+                    write(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        });
+        // Positions queued from now on are newer than every fence
+        fences.clear();
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        if (enabled) {
+            flush();
+        }
+    }
+
+    private void write(List<PendingLocation> batch) {
+        batch.removeIf(this::isFenced);
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Whole milliseconds, so the value round-trips through any timestamp column precision
+        Timestamp writtenAt = Timestamp.valueOf(LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS));
+        try {
+            if (databasePlatform.isPostgres()) {
+                jdbcTemplate.batchUpdate(UPSERT_SQL, batch, batch.size(),
+                    (statement, location) -> bind(statement, location, writtenAt, 2));
+            } else {
+                writePortable(batch, writtenAt);
+            }
+            flushedRows.increment(batch.size());
+        } catch (RuntimeException e) {
+            logger.error("Failed to flush {} buffered check-ins, re-queueing", batch.size(), e);
+            // Newer positions that arrived meanwhile win over the failed ones, and checkouts over both
+            batch.forEach(location -> pending.compute(location.userId(),
+                (id, current) -> current != null || isFenced(location) ? current : location));
+            return;
+        }
+        undoFenced(batch, writtenAt);
+    }
+
+    /** Deletes the rows just written for users who checked out while the batch was in flight. */
+    private void undoFenced(List<PendingLocation> batch, Timestamp writtenAt) {
+        List<Long> checkedOut = batch.stream().filter(this::isFenced).map(PendingLocation::userId).toList();
+        if (checkedOut.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(UNDO_SQL, checkedOut, checkedOut.size(), (statement, userId) -> {
+                statement.setLong(1, userId);
+                statement.setTimestamp(2, writtenAt);
+            });
+        } catch (RuntimeException e) {
+            // Nearby SQL ignores the row once it is stale, and the expiry sweep removes it
+            logger.error("Failed to remove {} check-ins written after checkout", checkedOut.size(), e);
+        }
+    }
+
+    private boolean isFenced(PendingLocation location) {
+        Long fence = fences.get(location.userId());
+        return fence != null && fence > location.sequence();
+    }
+
+    /** UPDATE first, then INSERT the rows that did not exist yet. */
+    private void writePortable(List<PendingLocation> batch, Timestamp writtenAt) {
+        int[][] updated = jdbcTemplate.batchUpdate(UPDATE_SQL, batch, batch.size(),
+            (statement, location) -> bind(statement, location, writtenAt, 1));
+        List<PendingLocation> missing = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (updated[0][i] == 0) {
+                missing.add(batch.get(i));
+            }
+        }
+        if (!missing.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_SQL, missing, missing.size(),
+                (statement, location) -> bind(statement, location, writtenAt, 2));
+        }
+    }
+
+    /**
+     * Parameters shared by all three statements: latitude, longitude, unit
+     * vector, the write time once per timestamp column, user ID.
+     */
+    private static void bind(PreparedStatement statement, PendingLocation location,
+                             Timestamp writtenAt, int timestamps) throws SQLException {
+        double[] unit = GeoMath.unitVector(location.latitude(), location.longitude());
+        statement.setDouble(1, location.latitude());
+        statement.setDouble(2, location.longitude());
+        statement.setDouble(3, unit[0]);
+        statement.setDouble(4, unit[1]);
+        statement.setDouble(5, unit[2]);
+        for (int i = 0; i < timestamps; i++) {
+            statement.setTimestamp(6 + i, writtenAt);
+        }
+        statement.setLong(6 + timestamps, location.userId());
+    }
+
+    private record PendingLocation(Long userId, double latitude, double longitude, long sequence) {}
+}
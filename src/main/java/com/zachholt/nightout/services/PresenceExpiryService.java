@@ -0,0 +1,148 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.geo.PresenceListener;
+import com.zachholt.nightout.geo.TimingWheel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Expires check-ins that have not been refreshed within the presence TTL.
+ * Every index update (re)schedules the user on a timing wheel; the sweeper
+ * drops due users from the index and deletes their coordinate rows in
+ * batches, so presence stays bounded by the people currently out.
+ */
+@Service
+public class PresenceExpiryService implements PresenceListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(PresenceExpiryService.class);
+
+    private static final long TICK_MILLIS = 1000;
+    // 4096 one-second slots, about 68 minutes per rotation
+    private static final int WHEEL_SIZE = 4096;
+
+    // Only deletes rows nobody refreshed in the meantime
+    private static final String DELETE_SQL = "DELETE FROM coordinates WHERE user_id = ? AND updated_at < ?";
+    private static final String PURGE_SQL = "DELETE FROM coordinates WHERE updated_at < ?";
+
+    private final PresenceIndex presenceIndex;
+    private final LocationWriteBuffer locationWriteBuffer;
+    private final JdbcTemplate jdbcTemplate;
+    private final long ttlMillis;
+    private final int batchSize;
+    private final TimingWheel wheel = new TimingWheel(TICK_MILLIS, WHEEL_SIZE, System.currentTimeMillis());
+    private final Counter expiredCount;
+
+    public PresenceExpiryService(PresenceIndex presenceIndex,
+                                 LocationWriteBuffer locationWriteBuffer,
+                                 JdbcTemplate jdbcTemplate,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${nightout.presence.expiry.ttl-minutes:240}") long ttlMinutes,
+                                 @Value("${nightout.presence.expiry.batch-size:500}") int batchSize) {
+        this.presenceIndex = presenceIndex;
+        this.locationWriteBuffer = locationWriteBuffer;
+        this.jdbcTemplate = jdbcTemplate;
+        this.ttlMillis = ttlMinutes * 60_000L;
+        this.batchSize = batchSize;
+        this.expiredCount = Counter.builder("nightout.presence.expired")
+            .description("Check-ins removed after the presence TTL ran out")
+            .register(meterRegistry);
+        presenceIndex.addListener(this);
+    }
+
+    public boolean isEnabled() {
+        return ttlMillis > 0;
+    }
+
+    /** Check-ins older than this are no longer live; the epoch when expiry is off. */
+    public LocalDateTime liveSince() {
+        return toLocalDateTime(liveSinceMillis(System.currentTimeMillis()));
+    }
+
+    public long liveSinceMillis(long now) {
+        return isEnabled() ? now - ttlMillis : 0L;
+    }
+
+    @Override
+    public void onUpdate(long userId, PresenceIndex.Position previous, PresenceIndex.Position current) {
+        if (isEnabled()) {
+            wheel.schedule(userId, current.updatedAt() + ttlMillis);
+        }
+    }
+
+    @Override
+    public void onRemove(long userId, PresenceIndex.Position previous) {
+        wheel.cancel(userId);
+    }
+
+    @Override
+    public void onClear() {
+        wheel.clear();
+    }
+
+    /** Rows that expired while the app was down are removed before anyone can see them. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void purgeStaleRows() {
+        if (!isEnabled()) {
+            return;
+        }
+        int deleted = jdbcTemplate.update(PURGE_SQL, Timestamp.valueOf(liveSince()));
+        if (deleted > 0) {
+            logger.info("Purged {} expired check-ins", deleted);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${nightout.presence.expiry.sweep-interval:1000}")
+    public void sweep() {
+        sweep(System.currentTimeMillis());
+    }
+
+    /** @return how many users were expired */
+    public int sweep(long now) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        long cutoff = liveSinceMillis(now);
+        List<Long> expired = new ArrayList<>();
+        for (long userId : wheel.advance(now)) {
+            if (presenceIndex.removeIfUpdatedBefore(userId, cutoff)) {
+                locationWriteBuffer.discard(userId);
+                expired.add(userId);
+            }
+        }
+        if (expired.isEmpty()) {
+            return 0;
+        }
+        Timestamp cutoffTimestamp = Timestamp.valueOf(toLocalDateTime(cutoff));
+        try {
+            jdbcTemplate.batchUpdate(DELETE_SQL, expired, batchSize, (statement, userId) -> {
+                statement.setLong(1, userId);
+                statement.setTimestamp(2, cutoffTimestamp);
+            });
+        } catch (RuntimeException e) {
+            // Nearby SQL ignores stale rows anyway; the next startup purge catches them
+            logger.error("Failed to delete {} expired check-ins", expired.size(), e);
+        }
+        expiredCount.increment(expired.size());
+        return expired.size();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,96 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.geo.PresenceSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.OptionalLong;
+
+/**
+ * Periodically writes the presence index to a memory-mapped snapshot file
+ * and restores it on startup, so a restarted node only replays the
+ * coordinates changed since the snapshot instead of reloading the table.
+ */
+@Service
+public class PresenceSnapshotService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PresenceSnapshotService.class);
+
+    private final PresenceIndex presenceIndex;
+    private final PresenceExpiryService presenceExpiryService;
+    private final Path file;
+    private final long replayMarginMillis;
+
+    public PresenceSnapshotService(PresenceIndex presenceIndex,
+                                   PresenceExpiryService presenceExpiryService,
+                                   @Value("${nightout.presence.snapshot.path:}") String path,
+                                   @Value("${nightout.presence.snapshot.replay-margin-seconds:60}") long replayMarginSeconds) {
+        this.presenceIndex = presenceIndex;
+        this.presenceExpiryService = presenceExpiryService;
+        this.file = path.isBlank() ? null : Path.of(path);
+        this.replayMarginMillis = replayMarginSeconds * 1000;
+    }
+
+    /** Off without a path, and on cluster nodes, whose index only covers some cells. */
+    public boolean isEnabled() {
+        return file != null && !presenceIndex.isPartitioned();
+    }
+
+    @Scheduled(fixedDelayString = "${nightout.presence.snapshot.interval:60000}",
+               initialDelayString = "${nightout.presence.snapshot.interval:60000}")
+    public void writeSnapshot() {
+        if (!isEnabled() || !presenceIndex.isWarm()) {
+            return;
+        }
+        long started = System.currentTimeMillis();
+        // Check-ins still committing when the scan starts reach the index late,
+        // so the epoch is backed off far enough for startup to replay them
+        long epoch = started - replayMarginMillis;
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            int written = PresenceSnapshot.write(file, epoch, presenceIndex);
+            logger.debug("Wrote presence snapshot of {} users in {} ms", written, System.currentTimeMillis() - started);
+        } catch (IOException e) {
+            logger.error("Failed to write presence snapshot to {}", file, e);
+        }
+    }
+
+    /** A last snapshot on shutdown keeps the replay window of a deploy short. */
+    @EventListener(ContextClosedEvent.class)
+    public void writeSnapshotOnShutdown() {
+        writeSnapshot();
+    }
+
+    /**
+     * Loads the snapshot into the (empty) presence index.
+     *
+     * @return the snapshot's epoch, or empty when there is no usable snapshot
+     *         and the index has to be loaded from scratch
+     */
+    public OptionalLong restore() {
+        if (!isEnabled() || !Files.exists(file)) {
+            return OptionalLong.empty();
+        }
+        try {
+            long epoch = PresenceSnapshot.read(file, presenceIndex,
+                presenceExpiryService.liveSinceMillis(System.currentTimeMillis()));
+            return OptionalLong.of(epoch);
+        } catch (IOException e) {
+            logger.warn("Ignoring unusable presence snapshot {}: {}", file, e.getMessage());
+            presenceIndex.clear();
+            return OptionalLong.empty();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.CellRange;
+import com.zachholt.nightout.geo.GeoHash;
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.geo.PresenceListener;
+import com.zachholt.nightout.models.PresenceDelta;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pushes presence changes to clients watching a set of geohash cells at
+ * {@link PresenceIndex#CELL_PRECISION}. Changes arriving through the
+ * presence listener are kept only for watched cells and coalesced per user
+ * per cell until the next tick, when each stream gets one batch of the
+ * joins, moves and leaves in its cells. Unwatched cells cost a map lookup,
+ * and a quiet stream costs nothing but the occasional heartbeat.
+ */
+@Service
+public class PresenceStreamService implements PresenceListener {
+
+    /** Most cells one stream may watch; a 2km radius covers about 30. */
+    static final int MAX_CELLS = 256;
+
+    private static final Comparator<PresenceDelta> LEAVES_FIRST =
+        Comparator.comparing(delta -> delta.getType() != PresenceDelta.Type.LEAVE);
+
+    private final PresenceIndex presenceIndex;
+    private final int bufferSize;
+    private final long heartbeatMillis;
+    private final Map<Long, Set<Subscription>> subscribers = new ConcurrentHashMap<>();
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    // cell -> userId -> change since the last tick; guarded by this
+    private Map<Long, Map<Long, PresenceDelta>> pending = new HashMap<>();
+
+    public PresenceStreamService(PresenceIndex presenceIndex,
+                                 @Value("${nightout.presence.stream.buffer-size:64}") int bufferSize,
+                                 @Value("${nightout.presence.stream.heartbeat-interval:15000}") long heartbeatMillis) {
+        this.presenceIndex = presenceIndex;
+        this.bufferSize = bufferSize;
+        this.heartbeatMillis = heartbeatMillis;
+        presenceIndex.addListener(this);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a geohash is invalid or not of
+     *         precision {@link PresenceIndex#CELL_PRECISION}, or there are too many
+     */
+    public long[] parseCells(List<String> geohashes) {
+        long[] cells = new long[geohashes.size()];
+        for (int i = 0; i < cells.length; i++) {
+            String geohash = geohashes.get(i).trim();
+            if (geohash.length() != PresenceIndex.CELL_PRECISION) {
+                throw new IllegalArgumentException("Cells must be geohashes of " + PresenceIndex.CELL_PRECISION + " characters");
+            }
+            cells[i] = GeoHash.fromBase32(geohash);
+        }
+        return checkCellCount(Arrays.stream(cells).distinct().toArray());
+    }
+
+    /**
+     * The cells covering a radius around a point.
+     *
+     * @throws IllegalArgumentException if the radius covers too many cells
+     */
+    public long[] cellsAround(double latitude, double longitude, double radiusMeters) {
+        CellRange range = CellRange.of(GeoMath.boundingBox(latitude, longitude, radiusMeters), PresenceIndex.CELL_PRECISION);
+        if (range.cellCount() > MAX_CELLS) {
+            throw new IllegalArgumentException("Radius covers more than " + MAX_CELLS + " cells");
+        }
+        long[] cells = new long[(int) range.cellCount()];
+        int[] filled = new int[1];
+        range.forEach(cell -> cells[filled[0]++] = cell);
+        return checkCellCount(cells);
+    }
+
+    private static long[] checkCellCount(long[] cells) {
+        if (cells.length == 0 || cells.length > MAX_CELLS) {
+            throw new IllegalArgumentException("Subscribe to between 1 and " + MAX_CELLS + " cells");
+        }
+        return cells;
+    }
+
+    /**
+     * Whether this node only holds the users in the cells it owns, as a
+     * cluster node does. Streams would then miss the other nodes' changes,
+     * so they are not offered.
+     */
+    public boolean isPartial() {
+        return presenceIndex.isPartitioned();
+    }
+
+    /**
+     * A stream opening with a "snapshot" event of everyone checked in to the
+     * cells, followed by a "delta" event per tick with changes. A stream that
+     * falls {@code buffer-size} ticks behind is completed; reconnecting
+     * starts over from a fresh snapshot.
+     */
+    public Flux<ServerSentEvent<List<PresenceDelta>>> subscribe(long[] cells) {
+        return Flux.defer(() -> {
+            Subscription subscription = new Subscription(cells, System.currentTimeMillis());
+            register(subscription);
+            // Registered before the snapshot is read, so no change falls in between. A change
+            // already in the snapshot may repeat as a delta; clients apply deltas as upserts.
+            List<PresenceDelta> snapshot = new ArrayList<>();
+            presenceIndex.forEachInCells(cells, (userId, position) ->
+                snapshot.add(delta(PresenceDelta.Type.JOIN, userId, position.cell(), position)));
+            return Flux.concat(
+                    Mono.just(ServerSentEvent.builder(snapshot).event("snapshot").build()),
+                    subscription.sink.asFlux().map(PresenceStreamService::toEvent))
+                .doFinally(signal -> unregister(subscription));
+        });
+    }
+
+    int subscriberCount() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public void onUpdate(long userId, PresenceIndex.Position previous, PresenceIndex.Position current) {
+        if (previous != null && previous.cell() == current.cell()) {
+            record(PresenceDelta.Type.MOVE, userId, current.cell(), current);
+            return;
+        }
+        if (previous != null) {
+            record(PresenceDelta.Type.LEAVE, userId, previous.cell(), null);
+        }
+        record(PresenceDelta.Type.JOIN, userId, current.cell(), current);
+    }
+
+    @Override
+    public void onRemove(long userId, PresenceIndex.Position previous) {
+        record(PresenceDelta.Type.LEAVE, userId, previous.cell(), null);
+    }
+
+    private void record(PresenceDelta.Type type, long userId, long cell, PresenceIndex.Position position) {
+        if (!subscribers.containsKey(cell)) {
+            return;
+        }
+        PresenceDelta delta = delta(type, userId, cell, position);
+        synchronized (this) {
+            pending.computeIfAbsent(cell, key -> new HashMap<>()).merge(userId, delta, PresenceStreamService::coalesce);
+        }
+    }
+
+    /**
+     * Folds a later change for the same user and cell into an earlier one.
+     * A join followed by a leave still sends the leave: the user may have
+     * made it into a new stream's snapshot, and clients ignore leaves of
+     * users they never saw.
+     */
+    static PresenceDelta coalesce(PresenceDelta earlier, PresenceDelta later) {
+        if (later.getType() == PresenceDelta.Type.LEAVE) {
+            return later;
+        }
+        if (earlier.getType() == PresenceDelta.Type.JOIN) {
+            later.setType(PresenceDelta.Type.JOIN);
+        } else if (earlier.getType() == PresenceDelta.Type.LEAVE) {
+            // Left and came back: still there, somewhere else
+            later.setType(PresenceDelta.Type.MOVE);
+        }
+        return later;
+    }
+
+    @Scheduled(fixedDelayString = "${nightout.presence.stream.tick:1000}")
+    public void flush() {
+        flush(System.currentTimeMillis());
+    }
+
+    /** Sends each stream the changes in its cells since the last tick, or a heartbeat when it has been idle. */
+    void flush(long now) {
+        Map<Long, Map<Long, PresenceDelta>> changes;
+        synchronized (this) {
+            changes = pending;
+            pending = new HashMap<>();
+        }
+        Map<Subscription, List<PresenceDelta>> batches = new HashMap<>();
+        changes.forEach((cell, deltas) -> {
+            Set<Subscription> watching = subscribers.get(cell);
+            if (watching != null) {
+                for (Subscription subscription : watching) {
+                    batches.computeIfAbsent(subscription, key -> new ArrayList<>()).addAll(deltas.values());
+                }
+            }
+        });
+        batches.forEach((subscription, batch) -> {
+            // A user crossing between two watched cells leaves one before joining the other
+            batch.sort(LEAVES_FIRST);
+            subscription.send(batch, now);
+        });
+        for (Subscription subscription : subscriptions) {
+            if (!batches.containsKey(subscription) && now - subscription.lastSent >= heartbeatMillis) {
+                subscription.send(List.of(), now);
+            }
+        }
+    }
+
+    private void register(Subscription subscription) {
+        subscriptions.add(subscription);
+        for (long cell : subscription.cells) {
+            subscribers.compute(cell, (key, watching) -> {
+                Set<Subscription> set = watching != null ? watching : ConcurrentHashMap.newKeySet();
+                set.add(subscription);
+                return set;
+            });
+        }
+    }
+
+    private void unregister(Subscription subscription) {
+        subscriptions.remove(subscription);
+        for (long cell : subscription.cells) {
+            subscribers.computeIfPresent(cell, (key, watching) -> {
+                watching.remove(subscription);
+                return watching.isEmpty() ? null : watching;
+            });
+        }
+    }
+
+    private static PresenceDelta delta(PresenceDelta.Type type, long userId, long cell, PresenceIndex.Position position) {
+        return new PresenceDelta(type, userId, GeoHash.toBase32(cell, PresenceIndex.CELL_PRECISION),
+            position == null ? null : position.latitude(), position == null ? null : position.longitude());
+    }
+
+    private static ServerSentEvent<List<PresenceDelta>> toEvent(List<PresenceDelta> batch) {
+        if (batch.isEmpty()) {
+            // Keeps proxies from closing an idle stream and lets a dead client be noticed
+            return ServerSentEvent.<List<PresenceDelta>>builder().comment("heartbeat").build();
+        }
+        return ServerSentEvent.builder(batch).event("delta").build();
+    }
+
+    private final class Subscription {
+        private final long[] cells;
+        private final Sinks.Many<List<PresenceDelta>> sink;
+        private volatile long lastSent;
+
+        Subscription(long[] cells, long now) {
+            this.cells = cells;
+            this.sink = Sinks.many().unicast().onBackpressureBuffer(Queues.<List<PresenceDelta>>get(bufferSize).get());
+            this.lastSent = now;
+        }
+
+        /** Only called from the flushing thread, so emissions are never concurrent. */
+        void send(List<PresenceDelta> batch, long now) {
+            lastSent = now;
+            if (sink.tryEmitNext(batch).isFailure()) {
+                // The completion only reaches the client after the buffered batches,
+                // so stop collecting for it now rather than when the stream ends
+                unregister(this);
+                sink.tryEmitComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.CellRange;
+import com.zachholt.nightout.geo.GeoHash;
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.geo.PresenceListener;
+import com.zachholt.nightout.models.TrendingCell;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sliding-window check-in counts per geohash cell, fed by arrivals in the
+ * presence index. Each cell keeps an hour of one-minute buckets backed by
+ * striped {@link LongAdder}s, so concurrent check-ins never contend on a
+ * lock; a bucket is only reset, under the cell's monitor, when its minute
+ * comes round again. The busiest cells per window are ranked on a schedule,
+ * so serving the trending list touches neither the database nor every cell.
+ */
+@Service
+public class TrendingService implements PresenceListener {
+
+    static final long BUCKET_MILLIS = 60_000;
+    static final int BUCKETS = 60;
+
+    public enum Window {
+        FIFTEEN_MINUTES("15m", 15),
+        HOUR("1h", 60);
+
+        private final String label;
+        private final int minutes;
+
+        Window(String label, int minutes) {
+            this.label = label;
+            this.minutes = minutes;
+        }
+
+        public String label() {
+            return label;
+        }
+
+        /** @throws IllegalArgumentException for anything but "15m" or "1h" */
+        public static Window fromLabel(String label) {
+            for (Window window : values()) {
+                if (window.label.equalsIgnoreCase(label)) {
+                    return window;
+                }
+            }
+            throw new IllegalArgumentException("window must be 15m or 1h");
+        }
+    }
+
+    private final PresenceIndex presenceIndex;
+    private final int precision;
+    private final int topK;
+    private final Map<Long, CellCounter> cells = new ConcurrentHashMap<>();
+    private volatile Map<Window, List<TrendingCell>> ranked = emptyRanking();
+
+    public TrendingService(PresenceIndex presenceIndex,
+                           @Value("${nightout.trending.precision:7}") int precision,
+                           @Value("${nightout.trending.top-k:50}") int topK) {
+        this.presenceIndex = presenceIndex;
+        this.precision = precision;
+        this.topK = topK;
+        presenceIndex.addListener(this);
+    }
+
+    @Override
+    public void onUpdate(long userId, PresenceIndex.Position previous, PresenceIndex.Position current) {
+        // Loading the index at startup replays old check-ins; they are not new arrivals
+        if (!presenceIndex.isWarm()) {
+            return;
+        }
+        long cell = GeoHash.encode(current.latitude(), current.longitude(), precision);
+        if (previous == null || GeoHash.encode(previous.latitude(), previous.longitude(), precision) != cell) {
+            record(cell, current.updatedAt());
+        }
+    }
+
+    @Override
+    public void onRemove(long userId, PresenceIndex.Position previous) {
+        // Leaving does not undo a check-in
+    }
+
+    void recordCheckIn(double latitude, double longitude, long timestamp) {
+        record(GeoHash.encode(latitude, longitude, precision), timestamp);
+    }
+
+    private void record(long cell, long timestamp) {
+        while (true) {
+            CellCounter counter = cells.computeIfAbsent(cell, key -> new CellCounter());
+            if (counter.increment(timestamp / BUCKET_MILLIS)) {
+                return;
+            }
+            // Retired by refresh() without our check-in; make sure it is gone and count in a fresh one
+            cells.remove(cell, counter);
+        }
+    }
+
+    /**
+     * Whether this node only sees check-ins in the cells it owns, as a
+     * cluster node does. Rankings would then leave out the other nodes' cells.
+     */
+    public boolean isPartial() {
+        return presenceIndex.isPartitioned();
+    }
+
+    /** The busiest cells as of the last ranking, most check-ins first. */
+    public List<TrendingCell> getTrending(Window window, int limit) {
+        List<TrendingCell> top = ranked.get(window);
+        return top.subList(0, Math.min(limit, top.size()));
+    }
+
+    /**
+     * The busiest cells within {@code radiusMeters} of a point, counted now
+     * from the cells under the radius' bounding box.
+     */
+    public List<TrendingCell> getTrendingNear(double latitude, double longitude, double radiusMeters,
+                                              Window window, int limit) {
+        return getTrendingNear(latitude, longitude, radiusMeters, window, limit, System.currentTimeMillis());
+    }
+
+    List<TrendingCell> getTrendingNear(double latitude, double longitude, double radiusMeters,
+                                       Window window, int limit, long now) {
+        long minute = now / BUCKET_MILLIS;
+        TopK top = new TopK(window, limit);
+        CellRange range = CellRange.of(GeoMath.boundingBox(latitude, longitude, radiusMeters), precision);
+        if (range.cellCount() > cells.size()) {
+            cells.forEach((cell, counter) -> {
+                if (range.contains(cell)) {
+                    top.offer(cell, counter, minute);
+                }
+            });
+        } else {
+            range.forEach(cell -> {
+                CellCounter counter = cells.get(cell);
+                if (counter != null) {
+                    top.offer(cell, counter, minute);
+                }
+            });
+        }
+        return top.sorted();
+    }
+
+    @Scheduled(fixedDelayString = "${nightout.trending.refresh-interval:10000}")
+    public void refresh() {
+        refresh(System.currentTimeMillis());
+    }
+
+    /** Re-ranks every window and drops cells with no check-ins left in the last hour. */
+    void refresh(long now) {
+        long minute = now / BUCKET_MILLIS;
+        Map<Window, TopK> tops = new EnumMap<>(Window.class);
+        for (Window window : Window.values()) {
+            tops.put(window, new TopK(window, topK));
+        }
+        cells.forEach((cell, counter) -> {
+            if (counter.sum(minute, BUCKETS) == 0 && counter.retireIfIdle(minute)) {
+                cells.remove(cell, counter);
+                return;
+            }
+            tops.values().forEach(top -> top.offer(cell, counter, minute));
+        });
+        Map<Window, List<TrendingCell>> next = new EnumMap<>(Window.class);
+        tops.forEach((window, top) -> next.put(window, top.sorted()));
+        ranked = next;
+    }
+
+    private TrendingCell toTrendingCell(long cell, long fifteenMinutes, long hour) {
+        double height = GeoHash.cellHeight(precision);
+        double width = GeoHash.cellWidth(precision);
+        double latitude = -90.0 + (GeoHash.latIndexOf(cell, precision) + 0.5) * height;
+        double longitude = -180.0 + (GeoHash.lngIndexOf(cell, precision) + 0.5) * width;
+        return new TrendingCell(GeoHash.toBase32(cell, precision), latitude, longitude, fifteenMinutes, hour);
+    }
+
+    private static Map<Window, List<TrendingCell>> emptyRanking() {
+        Map<Window, List<TrendingCell>> empty = new EnumMap<>(Window.class);
+        for (Window window : Window.values()) {
+            empty.put(window, List.of());
+        }
+        return empty;
+    }
+
+    /** Bounded min-heap keeping the {@code limit} cells with the most check-ins in one window. */
+    private final class TopK {
+        private final Window window;
+        private final int limit;
+        private final PriorityQueue<TrendingCell> heap;
+
+        TopK(Window window, int limit) {
+            this.window = window;
+            this.limit = limit;
+            this.heap = new PriorityQueue<>(Comparator.comparingLong(this::count));
+        }
+
+        void offer(long cell, CellCounter counter, long minute) {
+            if (limit <= 0) {
+                return;
+            }
+            long count = counter.sum(minute, window.minutes);
+            if (count == 0 || (heap.size() == limit && count <= count(heap.peek()))) {
+                return;
+            }
+            if (heap.size() == limit) {
+                heap.poll();
+            }
+            heap.add(toTrendingCell(cell, counter.sum(minute, Window.FIFTEEN_MINUTES.minutes),
+                counter.sum(minute, Window.HOUR.minutes)));
+        }
+
+        List<TrendingCell> sorted() {
+            List<TrendingCell> result = new ArrayList<>(heap);
+            result.sort(Comparator.comparingLong(this::count).reversed());
+            return List.copyOf(result);
+        }
+
+        private long count(TrendingCell cell) {
+            return window == Window.FIFTEEN_MINUTES ? cell.getLastFifteenMinutes() : cell.getLastHour();
+        }
+    }
+
+    /**
+     * An hour of one-minute buckets; each remembers which minute it is
+     * counting. A counter with nothing left in the hour is retired by CAS
+     * rather than under a lock: refresh() flags it, checks it is still
+     * idle, and either retires it or puts it back. A check-in that finds its
+     * counter retired after incrementing was not seen by that check, so it
+     * counts again in a fresh counter.
+     */
+    private static final class CellCounter {
+        private static final int ACTIVE = 0;
+        private static final int RETIRING = 1;
+        private static final int RETIRED = 2;
+
+        private final AtomicLongArray minutes = new AtomicLongArray(BUCKETS);
+        private final LongAdder[] counts = new LongAdder[BUCKETS];
+        private final AtomicInteger state = new AtomicInteger(ACTIVE);
+
+        CellCounter() {
+            for (int i = 0; i < BUCKETS; i++) {
+                minutes.set(i, -1);
+                counts[i] = new LongAdder();
+            }
+        }
+
+        /** @return false if the counter was retired and the check-in has to go to a fresh one */
+        boolean increment(long minute) {
+            int bucket = (int) (minute % BUCKETS);
+            if (minutes.get(bucket) != minute) {
+                synchronized (this) {
+                    if (minutes.get(bucket) < minute) {
+                        counts[bucket].reset();
+                        minutes.set(bucket, minute);
+                    } else if (minutes.get(bucket) > minute) {
+                        return true; // Older than the window
+                    }
+                }
+            }
+            counts[bucket].increment();
+            // Read after the increment: if retirement's idle check missed it, we see RETIRED
+            int current;
+            while ((current = state.get()) == RETIRING) {
+                Thread.onSpinWait();
+            }
+            return current == ACTIVE;
+        }
+
+        /** Retires the counter if it still has no check-ins in the hour ending with {@code minute}. */
+        boolean retireIfIdle(long minute) {
+            if (!state.compareAndSet(ACTIVE, RETIRING)) {
+                return state.get() == RETIRED;
+            }
+            boolean idle = sum(minute, BUCKETS) == 0;
+            state.set(idle ? RETIRED : ACTIVE);
+            return idle;
+        }
+
+        /** Check-ins in the {@code window} minutes ending with {@code minute}. */
+        long sum(long minute, int window) {
+            long total = 0;
+            for (long m = minute - window + 1; m <= minute; m++) {
+                int bucket = (int) (m % BUCKETS);
+                if (minutes.get(bucket) == m) {
+                    total += counts[bucket].sum();
+                }
+            }
+            return total;
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.zachholt.nightout.services;
 
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.geo.Polygon;
 import com.zachholt.nightout.models.Coordinate;
+import com.zachholt.nightout.models.PolygonQuery;
 import com.zachholt.nightout.models.User;
+import com.zachholt.nightout.models.UserResponse;
 import com.zachholt.nightout.repositories.UserRepository;
 import com.zachholt.nightout.exceptions.ResourceNotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,6 +32,9 @@ public class UserService {
     @Autowired
     private Environment environment;
 
+    @Autowired
+    private InvalidationBus invalidationBus;
+
     public User registerUser(User user) {
         Optional<User> existingUser = userRepository.findByEmail(user.getEmail());
         if (existingUser.isPresent()) {
@@ -65,7 +72,9 @@ public class UserService {
 
     public User saveUser(User user) {
         // Note: Saving user might cascade save coordinate if coordinate is set on user object
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        invalidationBus.publish(InvalidationBus.Topic.USER, saved.getId());
+        return saved;
     }
     
     public User getUserById(Long id) {
@@ -92,6 +101,16 @@ public class UserService {
         return null;
     }
     
+    /**
+     * Checks the user in at the given coordinates and returns the response DTO.
+     * The coordinate upsert and user read are one statement on Postgres.
+     * @throws ResourceNotFoundException if user with the given email is not found.
+     */
+    public UserResponse checkIn(String email, Double latitude, Double longitude) {
+        return coordinateService.checkIn(email, latitude, longitude)
+            .orElseThrow(() -> new ResourceNotFoundException("User not found with email: " + email));
+    }
+
     /**
      * Updates or creates the user's location coordinates.
      * Delegates the core logic to CoordinateService.
@@ -112,6 +131,8 @@ public class UserService {
             user = userRepository.findById(userId)
                 .orElseThrow(() -> new ResourceNotFoundException("User not found with ID: " + userId));
         } else {
+            // Always evict, and before the row delete: a buffered check-in may not have reached the table yet
+            coordinateService.evictFromIndex(user.getId());
             // Check-out: Leverage orphanRemoval by setting the coordinate to null on the User side
             // Fetch the current coordinate state first to avoid issues if already null
             Coordinate currentCoordinate = coordinateService.getCurrentLocation(user.getId());
@@ -143,17 +164,57 @@ public class UserService {
                 .collect(Collectors.toList());
     }
     
+    /**
+     * Find users near a given location, already shaped as UserResponse.
+     * Users and coordinates are read with a single query, so the password
+     * column is never loaded and there is no per-user lazy fetch.
+     */
+    public List<UserResponse> getNearbyUsers(Double latitude, Double longitude, Double radiusInMeters) {
+        return coordinateService.getNearbyUsers(latitude, longitude, radiusInMeters / 1000.0);
+    }
+
+    /**
+     * The {@code k} checked-in users closest to a point, nearest first.
+     */
+    public List<UserResponse> getNearestUsers(Double latitude, Double longitude, int k) {
+        return coordinateService.getNearestUsers(latitude, longitude, k);
+    }
+
+    /**
+     * Users inside a map viewport, closest to its center first, at most {@code limit}.
+     * A viewport crossing the antimeridian has {@code minLongitude > maxLongitude}.
+     */
+    public List<UserResponse> getUsersInViewport(Double minLatitude, Double minLongitude,
+                                                 Double maxLatitude, Double maxLongitude, int limit) {
+        double east = maxLongitude < minLongitude ? maxLongitude + 360.0 : maxLongitude;
+        return coordinateService.getUsersInBox(
+            new GeoMath.BoundingBox(minLatitude, maxLatitude, minLongitude, east), limit);
+    }
+
+    /**
+     * Users inside a polygon, closest to its center first, at most {@code limit}.
+     */
+    public List<UserResponse> getUsersInPolygon(List<PolygonQuery.Point> points, int limit) {
+        double[] latitudes = new double[points.size()];
+        double[] longitudes = new double[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            latitudes[i] = points.get(i).getLatitude();
+            longitudes[i] = points.get(i).getLongitude();
+        }
+        return coordinateService.getUsersInPolygon(new Polygon(latitudes, longitudes), limit);
+    }
+
     /**
      * Find users *at* a specific location (closer radius).
-     * Reuses getUsersByLocation with a default radius if none provided.
+     * Reuses getNearbyUsers with a default radius if none provided.
      */
-    public List<User> getUsersAtLocation(Double latitude, Double longitude, Double radiusInMeters) {
+    public List<UserResponse> getUsersAtLocation(Double latitude, Double longitude, Double radiusInMeters) {
         // Default radius of 100 meters if not specified
         if (radiusInMeters == null) {
             radiusInMeters = 100.0;
         }
-        // Delegate to the main getUsersByLocation method
-        return getUsersByLocation(latitude, longitude, radiusInMeters);
+        // Delegate to the main getNearbyUsers method
+        return getNearbyUsers(latitude, longitude, radiusInMeters);
     }
     
     /**
@@ -167,6 +228,7 @@ public class UserService {
         if (userOptional.isPresent()) {
             User user = userOptional.get();
             
+            coordinateService.evictFromIndex(user.getId());
             // First clear location if exists to handle orphaned coordinates
             if (user.getCoordinate() != null) {
                 user.setCoordinate(null);
@@ -175,6 +237,7 @@ public class UserService {
             
             // Then delete the user
             userRepository.deleteById(user.getId());
+            invalidationBus.publish(InvalidationBus.Topic.USER, user.getId());
             return true;
         }
         return false;
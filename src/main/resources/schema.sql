@@ -55,4 +55,43 @@ CREATE TABLE IF NOT EXISTS coordinates (
     created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, -- Set default creation timestamp
     CONSTRAINT coordinates_pkey PRIMARY KEY (id),
     CONSTRAINT coordinates_user_fk FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
-);
\ No newline at end of file
+);
+
+-- Lets the nearby query's latitude/longitude bounding box use an index range scan
+CREATE INDEX IF NOT EXISTS coordinates_lat_lng_idx ON coordinates (latitude, longitude);
+
+
+-- Check-ins expire after the presence TTL; the sweeper deletes by updated_at
+ALTER TABLE coordinates ADD COLUMN IF NOT EXISTS updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP;
+CREATE INDEX IF NOT EXISTS coordinates_updated_at_idx ON coordinates (updated_at);
+
+-- Unit-sphere position so the nearby predicate is a dot product instead of per-row trig
+ALTER TABLE coordinates ADD COLUMN IF NOT EXISTS unit_x DOUBLE PRECISION;
+ALTER TABLE coordinates ADD COLUMN IF NOT EXISTS unit_y DOUBLE PRECISION;
+ALTER TABLE coordinates ADD COLUMN IF NOT EXISTS unit_z DOUBLE PRECISION;
+UPDATE coordinates
+SET unit_x = cos(radians(latitude)) * cos(radians(longitude)),
+    unit_y = cos(radians(latitude)) * sin(radians(longitude)),
+    unit_z = sin(radians(latitude))
+WHERE unit_x IS NULL;
+
+-- Backend nodes in cluster mode with Postgres discovery; rows not refreshed within the TTL are ignored
+CREATE TABLE IF NOT EXISTS cluster_nodes (
+    node_id VARCHAR(64) NOT NULL,
+    url VARCHAR(255) NOT NULL,
+    heartbeat_at TIMESTAMP NOT NULL,
+    CONSTRAINT cluster_nodes_pkey PRIMARY KEY (node_id)
+);
+
+-- Backs keyset pagination of a user's favorites in (created_at, id) order
+CREATE INDEX IF NOT EXISTS favorites_user_created_idx ON favorites (user_id, created_at, id);
+
+-- Removed favorites, so delta syncs can tell clients what to drop; purged after the retention period
+CREATE TABLE IF NOT EXISTS favorite_tombstones (
+    user_id BIGINT NOT NULL,
+    location_id VARCHAR(255) NOT NULL,
+    removed_at TIMESTAMP NOT NULL,
+    CONSTRAINT favorite_tombstones_pkey PRIMARY KEY (user_id, location_id),
+    CONSTRAINT favorite_tombstones_user_fk FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+);
+CREATE INDEX IF NOT EXISTS favorite_tombstones_removed_at_idx ON favorite_tombstones (removed_at);
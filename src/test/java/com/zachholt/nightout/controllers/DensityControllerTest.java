@@ -0,0 +1,89 @@
+package com.zachholt.nightout.controllers;
+
+import com.zachholt.nightout.exceptions.GlobalExceptionHandler;
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.models.DensityTiles;
+import com.zachholt.nightout.services.DensityTileService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@ExtendWith(SpringExtension.class)
+@WebMvcTest(value = DensityController.class)
+@AutoConfigureMockMvc(addFilters = false)
+@Import(GlobalExceptionHandler.class)
+public class DensityControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private DensityTileService densityTileService;
+
+    @Test
+    void getTiles_ReturnsFlattenedCounts() throws Exception {
+        GeoMath.BoundingBox box = new GeoMath.BoundingBox(40.5, 40.9, -74.3, -73.7);
+        when(densityTileService.getTiles(12, box))
+            .thenReturn(new DensityTiles(12, 1200, 1538, 2, 1, new int[] {3, 0}));
+
+        mockMvc.perform(get("/api/density/tiles")
+                .param("z", "12")
+                .param("bbox", "-74.3,40.5,-73.7,40.9")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.minX", is(1200)))
+                .andExpect(jsonPath("$.width", is(2)))
+                .andExpect(jsonPath("$.counts", contains(3, 0)));
+    }
+
+    @Test
+    void getTiles_AcrossAntimeridian_ShiftsEasternEdge() throws Exception {
+        when(densityTileService.getTiles(eq(10), any()))
+            .thenReturn(new DensityTiles(10, 1023, 511, 2, 1, new int[] {1, 1}));
+
+        mockMvc.perform(get("/api/density/tiles")
+                .param("z", "10")
+                .param("bbox", "179.9,-0.1,-179.9,0.1")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        verify(densityTileService).getTiles(10, new GeoMath.BoundingBox(-0.1, 0.1, 179.9, 180.1));
+    }
+
+    @Test
+    void getTiles_WithMalformedBbox_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/density/tiles")
+                .param("z", "12")
+                .param("bbox", "-74.3,40.5,-73.7")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(densityTileService);
+    }
+
+    @Test
+    void getTiles_WhenServiceRejectsZoom_ReturnsBadRequest() throws Exception {
+        when(densityTileService.getTiles(eq(20), any()))
+            .thenThrow(new IllegalArgumentException("Zoom must be between 8 and 16"));
+
+        mockMvc.perform(get("/api/density/tiles")
+                .param("z", "20")
+                .param("bbox", "-74.3,40.5,-73.7,40.9")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error", containsString("Zoom")));
+    }
+}
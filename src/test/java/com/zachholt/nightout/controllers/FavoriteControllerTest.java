@@ -3,6 +3,9 @@ package com.zachholt.nightout.controllers;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.zachholt.nightout.exceptions.GlobalExceptionHandler;
 import com.zachholt.nightout.models.Favorite;
+import com.zachholt.nightout.models.FavoriteChanges;
+import com.zachholt.nightout.models.FavoriteOutcome;
+import com.zachholt.nightout.models.FavoritesPage;
 import com.zachholt.nightout.models.User;
 import com.zachholt.nightout.services.FavoriteService;
 import org.junit.jupiter.api.BeforeEach;
@@ -20,11 +23,17 @@ import org.springframework.test.web.servlet.MockMvc;
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 // Imports for MockMvc, matchers, security
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -105,6 +114,82 @@ public class FavoriteControllerTest {
         verify(favoriteService, times(1)).getFavorites(userId);
     }
 
+    @Test
+    void getFavorites_WithLimit_ReturnsPage() throws Exception {
+        when(favoriteService.getFavoritesPage(userId, null, 1))
+            .thenReturn(new FavoritesPage(List.of(testFavorite1), "next"));
+
+        mockMvc.perform(get("/api/favorites/{userId}", userId)
+                .param("limit", "1")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.favorites", hasSize(1)))
+                .andExpect(jsonPath("$.favorites[0].locationId", is(locationId1)))
+                .andExpect(jsonPath("$.nextCursor", is("next")));
+
+        verify(favoriteService, never()).getFavorites(anyLong());
+    }
+
+    @Test
+    void getFavorites_WithCursorOnly_UsesDefaultLimit() throws Exception {
+        when(favoriteService.getFavoritesPage(userId, "next", 100))
+            .thenReturn(new FavoritesPage(List.of(testFavorite2), null));
+
+        mockMvc.perform(get("/api/favorites/{userId}", userId)
+                .param("after", "next")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.favorites[0].locationId", is(locationId2)))
+                .andExpect(jsonPath("$.nextCursor").value(nullValue()));
+    }
+
+    @Test
+    void getFavorites_LimitOutOfRange_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/favorites/{userId}", userId)
+                .param("limit", "501"))
+                .andExpect(status().isBadRequest());
+
+        verify(favoriteService, never()).getFavoritesPage(anyLong(), any(), anyInt());
+    }
+
+    @Test
+    void getFavorites_Since_ReturnsChanges() throws Exception {
+        LocalDateTime since = LocalDateTime.of(2024, 3, 15, 10, 30);
+        LocalDateTime syncedAt = LocalDateTime.of(2024, 3, 16, 9, 0);
+        when(favoriteService.getFavoriteChanges(userId, since))
+            .thenReturn(new FavoriteChanges(List.of(testFavorite2), List.of(locationId1), syncedAt, false));
+
+        mockMvc.perform(get("/api/favorites/{userId}", userId)
+                .param("since", "2024-03-15T10:30:00")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.favorites[0].locationId", is(locationId2)))
+                .andExpect(jsonPath("$.removed[0]", is(locationId1)))
+                .andExpect(jsonPath("$.syncedAt", is("2024-03-16T09:00:00")))
+                .andExpect(jsonPath("$.reset", is(false)));
+    }
+
+    @Test
+    void getFavorites_SinceWithCursor_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/favorites/{userId}", userId)
+                .param("since", "2024-03-15T10:30:00")
+                .param("after", "next"))
+                .andExpect(status().isBadRequest());
+
+        verify(favoriteService, never()).getFavoriteChanges(anyLong(), any());
+    }
+
+    @Test
+    void getFavorites_InvalidCursor_ReturnsBadRequest() throws Exception {
+        when(favoriteService.getFavoritesPage(userId, "bogus", 100))
+            .thenThrow(new IllegalArgumentException("Invalid cursor"));
+
+        mockMvc.perform(get("/api/favorites/{userId}", userId)
+                .param("after", "bogus"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Invalid cursor"));
+    }
+
     // --- Tests for POST /api/favorites?userId={userId} ---
     @Test
     void addFavorite_ValidData_ReturnsSavedFavorite() throws Exception {
@@ -221,4 +306,118 @@ public class FavoriteControllerTest {
 
         verify(favoriteService, times(1)).isFavorite(userId, locationId1);
     }
-} 
\ No newline at end of file
+
+    // --- Tests for POST /api/favorites/{userId}/check ---
+    @Test
+    void checkFavorites_ReturnsStatusPerLocation() throws Exception {
+        Map<String, Boolean> statuses = new LinkedHashMap<>();
+        statuses.put(locationId1, true);
+        statuses.put(locationId2, false);
+        when(favoriteService.checkFavorites(userId, List.of(locationId1, locationId2))).thenReturn(statuses);
+
+        mockMvc.perform(post("/api/favorites/{userId}/check", userId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(List.of(locationId1, locationId2)))
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.loc123", is(true)))
+                .andExpect(jsonPath("$.loc456", is(false)));
+
+        verify(favoriteService, times(1)).checkFavorites(userId, List.of(locationId1, locationId2));
+    }
+
+    @Test
+    void checkFavorites_EmptyList_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(post("/api/favorites/{userId}/check", userId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[]"))
+                .andExpect(status().isBadRequest());
+
+        verify(favoriteService, never()).checkFavorites(anyLong(), any());
+    }
+
+    @Test
+    void checkFavorites_UserNotFound_ReturnsBadRequest() throws Exception {
+        when(favoriteService.checkFavorites(userId, List.of(locationId1))).thenThrow(new RuntimeException("User not found"));
+
+        mockMvc.perform(post("/api/favorites/{userId}/check", userId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(List.of(locationId1))))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error", containsString("User not found")));
+    }
+
+    // --- Tests for POST /api/favorites/{userId}/batch ---
+    @Test
+    void addFavorites_ReturnsOutcomePerLocation() throws Exception {
+        Map<String, FavoriteOutcome> outcomes = new LinkedHashMap<>();
+        outcomes.put(locationId1, FavoriteOutcome.ADDED);
+        outcomes.put(locationId2, FavoriteOutcome.ALREADY_FAVORITED);
+        when(favoriteService.addFavorites(eq(userId), anyList())).thenReturn(outcomes);
+
+        mockMvc.perform(post("/api/favorites/{userId}/batch", userId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(List.of(testFavorite1, testFavorite2)))
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.loc123", is("ADDED")))
+                .andExpect(jsonPath("$.loc456", is("ALREADY_FAVORITED")));
+    }
+
+    @Test
+    void addFavorites_MissingCoordinates_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(post("/api/favorites/{userId}/batch", userId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"locationId\": \"loc123\"}]"))
+                .andExpect(status().isBadRequest());
+
+        verify(favoriteService, never()).addFavorites(anyLong(), any());
+    }
+
+    @Test
+    void addFavorites_DuplicateLocation_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(post("/api/favorites/{userId}/batch", userId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(List.of(testFavorite1, testFavorite1))))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Duplicate location ID: " + locationId1));
+
+        verify(favoriteService, never()).addFavorites(anyLong(), any());
+    }
+
+    @Test
+    void addFavorites_LatitudeOutOfRange_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(post("/api/favorites/{userId}/batch", userId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"locationId\": \"loc123\", \"latitude\": 95.0, \"longitude\": -74.0}]"))
+                .andExpect(status().isBadRequest());
+
+        verify(favoriteService, never()).addFavorites(anyLong(), any());
+    }
+
+    @Test
+    void removeFavorites_ReturnsOutcomePerLocation() throws Exception {
+        Map<String, FavoriteOutcome> outcomes = new LinkedHashMap<>();
+        outcomes.put(locationId1, FavoriteOutcome.REMOVED);
+        outcomes.put(locationId2, FavoriteOutcome.NOT_FAVORITED);
+        when(favoriteService.removeFavorites(userId, List.of(locationId1, locationId2))).thenReturn(outcomes);
+
+        mockMvc.perform(post("/api/favorites/{userId}/batch/remove", userId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(List.of(locationId1, locationId2)))
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.loc123", is("REMOVED")))
+                .andExpect(jsonPath("$.loc456", is("NOT_FAVORITED")));
+    }
+
+    @Test
+    void removeFavorites_EmptyList_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(post("/api/favorites/{userId}/batch/remove", userId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[]"))
+                .andExpect(status().isBadRequest());
+
+        verify(favoriteService, never()).removeFavorites(anyLong(), any());
+    }
+}
@@ -0,0 +1,96 @@
+package com.zachholt.nightout.controllers;
+
+import com.zachholt.nightout.exceptions.GlobalExceptionHandler;
+import com.zachholt.nightout.models.TrendingCell;
+import com.zachholt.nightout.services.TrendingService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@ExtendWith(SpringExtension.class)
+@WebMvcTest(value = TrendingController.class)
+@AutoConfigureMockMvc(addFilters = false)
+@Import(GlobalExceptionHandler.class)
+public class TrendingControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private TrendingService trendingService;
+
+    @Test
+    void getTrending_ReturnsRankedCells() throws Exception {
+        when(trendingService.getTrending(TrendingService.Window.HOUR, 5))
+            .thenReturn(List.of(new TrendingCell("dr5regw", 40.7128, -74.0060, 4, 9)));
+
+        mockMvc.perform(get("/api/trending")
+                .param("window", "1h")
+                .param("limit", "5")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].geohash", is("dr5regw")))
+                .andExpect(jsonPath("$[0].lastHour", is(9)));
+    }
+
+    @Test
+    void getTrending_WithLocation_RanksAroundPoint() throws Exception {
+        when(trendingService.getTrendingNear(40.7128, -74.006, 2000.0, TrendingService.Window.FIFTEEN_MINUTES, 10))
+            .thenReturn(List.of());
+
+        mockMvc.perform(get("/api/trending")
+                .param("latitude", "40.7128")
+                .param("longitude", "-74.006")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(0)));
+
+        verify(trendingService, never()).getTrending(any(), anyInt());
+    }
+
+    @Test
+    void getTrending_WithUnknownWindow_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/trending")
+                .param("window", "3h")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("window must be 15m or 1h"));
+
+        verify(trendingService, never()).getTrending(any(), anyInt());
+    }
+
+    @Test
+    void getTrending_WithOnlyLatitude_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/trending")
+                .param("latitude", "40.7128")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getTrending_InClusterMode_ReturnsServiceUnavailable() throws Exception {
+        when(trendingService.isPartial()).thenReturn(true);
+
+        mockMvc.perform(get("/api/trending")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isServiceUnavailable());
+
+        verify(trendingService, never()).getTrending(any(), anyInt());
+    }
+}
@@ -4,9 +4,16 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.zachholt.nightout.exceptions.GlobalExceptionHandler;
 import com.zachholt.nightout.exceptions.ResourceNotFoundException;
 import com.zachholt.nightout.models.Coordinate;
+import com.zachholt.nightout.models.DensityCount;
+import com.zachholt.nightout.models.NearbyBatchRequest;
+import com.zachholt.nightout.models.NearbyProbeResult;
+import com.zachholt.nightout.models.PolygonQuery;
+import com.zachholt.nightout.models.PresenceDelta;
 import com.zachholt.nightout.models.User;
 import com.zachholt.nightout.models.UserResponse;
 import com.zachholt.nightout.services.CoordinateService;
+import com.zachholt.nightout.services.CrowdDensityService;
+import com.zachholt.nightout.services.PresenceStreamService;
 import com.zachholt.nightout.services.UserService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -20,18 +27,22 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors;
 import org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import reactor.core.publisher.Flux;
 
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -55,6 +66,12 @@ public class UserControllerTest {
     @MockBean
     private UserService userService;
 
+    @MockBean
+    private CrowdDensityService crowdDensityService;
+
+    @MockBean
+    private PresenceStreamService presenceStreamService;
+
     private User testUser;
     private Coordinate testCoordinate;
     private final Long userId = 1L;
@@ -126,7 +143,7 @@ public class UserControllerTest {
 
     @Test
     void checkIn_WithValidCoordinates_ReturnsUpdatedUser() throws Exception {
-        when(userService.updateUserLocation(userEmail, latitude, longitude)).thenReturn(testUser);
+        when(userService.checkIn(userEmail, latitude, longitude)).thenReturn(testUserResponse());
 
         mockMvc.perform(post("/api/users/checkin")
                 .with(csrf())
@@ -139,7 +156,7 @@ public class UserControllerTest {
                 .andExpect(jsonPath("$.latitude", is(latitude)))
                 .andExpect(jsonPath("$.longitude", is(longitude)));
 
-        verify(userService, times(1)).updateUserLocation(userEmail, latitude, longitude);
+        verify(userService, times(1)).checkIn(userEmail, latitude, longitude);
     }
 
     @Test
@@ -154,6 +171,7 @@ public class UserControllerTest {
                 .andExpect(content().string(containsString("Latitude and longitude are required")));
 
         verify(userService, never()).updateUserLocation(any(), any(), any());
+        verify(userService, never()).checkIn(any(), any(), any());
     }
 
     @Test
@@ -163,7 +181,7 @@ public class UserControllerTest {
         requestBody.put("longitude", longitude);
         testUser.setCoordinate(testCoordinate); // Assume coordinate is set after update
 
-        when(userService.updateUserLocation(userEmail, latitude, longitude)).thenReturn(testUser);
+        when(userService.checkIn(userEmail, latitude, longitude)).thenReturn(testUserResponse());
 
         mockMvc.perform(post("/api/users/checkin")
                 .with(csrf())
@@ -176,12 +194,12 @@ public class UserControllerTest {
                 .andExpect(jsonPath("$.latitude", is(latitude)))
                 .andExpect(jsonPath("$.longitude", is(longitude)));
 
-        verify(userService, times(1)).updateUserLocation(userEmail, latitude, longitude);
+        verify(userService, times(1)).checkIn(userEmail, latitude, longitude);
     }
 
     @Test
     void checkIn_WhenUserNotFound_ReturnsNotFound() throws Exception {
-        when(userService.updateUserLocation(userEmail, latitude, longitude))
+        when(userService.checkIn(userEmail, latitude, longitude))
             .thenThrow(new ResourceNotFoundException("User not found with email: " + userEmail));
 
         mockMvc.perform(post("/api/users/checkin")
@@ -194,7 +212,7 @@ public class UserControllerTest {
                 .andExpect(status().isNotFound())
                 .andExpect(jsonPath("$.error", containsString("User not found with email")));
 
-        verify(userService, times(1)).updateUserLocation(userEmail, latitude, longitude);
+        verify(userService, times(1)).checkIn(userEmail, latitude, longitude);
     }
 
     @Test
@@ -233,8 +251,8 @@ public class UserControllerTest {
     @Test
     void getUsersNearby_WhenUsersFound_ReturnsUserList() throws Exception {
         Double radiusMeters = 2000.0;
-        when(userService.getUsersByLocation(latitude, longitude, radiusMeters))
-            .thenReturn(Collections.singletonList(testUser));
+        when(userService.getNearbyUsers(latitude, longitude, radiusMeters))
+            .thenReturn(Collections.singletonList(testUserResponse()));
 
         mockMvc.perform(get("/api/users/nearby")
                 .param("latitude", String.valueOf(latitude))
@@ -246,14 +264,279 @@ public class UserControllerTest {
                 .andExpect(jsonPath("$[0].latitude", is(latitude)))
                 .andExpect(jsonPath("$[0].longitude", is(longitude)));
 
-        verify(userService, times(1)).getUsersByLocation(latitude, longitude, radiusMeters);
+        verify(userService, times(1)).getNearbyUsers(latitude, longitude, radiusMeters);
+    }
+
+    @Test
+    void getNearestUsers_WithoutK_UsesDefault() throws Exception {
+        when(userService.getNearestUsers(latitude, longitude, 20))
+            .thenReturn(Collections.singletonList(testUserResponse()));
+
+        mockMvc.perform(get("/api/users/nearest")
+                .param("latitude", String.valueOf(latitude))
+                .param("longitude", String.valueOf(longitude))
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(userId.intValue())));
+
+        verify(userService, times(1)).getNearestUsers(latitude, longitude, 20);
+    }
+
+    @Test
+    void getNearestUsers_WithKAboveLimit_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/users/nearest")
+                .param("latitude", String.valueOf(latitude))
+                .param("longitude", String.valueOf(longitude))
+                .param("k", "500")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verify(userService, never()).getNearestUsers(any(), any(), anyInt());
+    }
+
+    @Test
+    void getNearestUsers_WithLatitudeOutOfRange_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/users/nearest")
+                .param("latitude", "91")
+                .param("longitude", String.valueOf(longitude))
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verify(userService, never()).getNearestUsers(any(), any(), anyInt());
+    }
+
+    @Test
+    void getUsersInViewport_WhenUsersFound_ReturnsUserList() throws Exception {
+        when(userService.getUsersInViewport(40.70, -74.02, 40.72, -73.99, 200))
+            .thenReturn(Collections.singletonList(testUserResponse()));
+
+        mockMvc.perform(get("/api/users/in-viewport")
+                .param("minLatitude", "40.70")
+                .param("minLongitude", "-74.02")
+                .param("maxLatitude", "40.72")
+                .param("maxLongitude", "-73.99")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(userId.intValue())));
+
+        verify(userService, times(1)).getUsersInViewport(40.70, -74.02, 40.72, -73.99, 200);
+    }
+
+    @Test
+    void getUsersInViewport_WithInvertedLatitudes_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/users/in-viewport")
+                .param("minLatitude", "40.72")
+                .param("minLongitude", "-74.02")
+                .param("maxLatitude", "40.70")
+                .param("maxLongitude", "-73.99")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(userService);
+    }
+
+    @Test
+    void getUsersInPolygon_WithLimit_PassesPointsAndLimit() throws Exception {
+        PolygonQuery query = new PolygonQuery();
+        query.setPoints(List.of(new PolygonQuery.Point(40.70, -74.02), new PolygonQuery.Point(40.72, -74.01),
+            new PolygonQuery.Point(40.70, -73.99)));
+        query.setLimit(50);
+        when(userService.getUsersInPolygon(anyList(), eq(50)))
+            .thenReturn(Collections.singletonList(testUserResponse()));
+
+        mockMvc.perform(post("/api/users/in-polygon")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(query))
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)));
+
+        verify(userService, times(1)).getUsersInPolygon(argThat(points -> points.size() == 3), eq(50));
+    }
+
+    @Test
+    void getUsersInPolygon_WithTwoPoints_ReturnsBadRequest() throws Exception {
+        PolygonQuery query = new PolygonQuery();
+        query.setPoints(List.of(new PolygonQuery.Point(40.70, -74.02), new PolygonQuery.Point(40.72, -74.01)));
+
+        mockMvc.perform(post("/api/users/in-polygon")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(query))
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(userService);
+    }
+
+    @Test
+    void getUsersInPolygon_WithTooManyPoints_ReturnsBadRequest() throws Exception {
+        List<PolygonQuery.Point> points = new ArrayList<>();
+        for (int i = 0; i < 101; i++) {
+            double angle = 2 * Math.PI * i / 101;
+            points.add(new PolygonQuery.Point(40.71 + 0.01 * Math.sin(angle), -74.0 + 0.01 * Math.cos(angle)));
+        }
+        PolygonQuery query = new PolygonQuery();
+        query.setPoints(points);
+
+        mockMvc.perform(post("/api/users/in-polygon")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(query))
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(userService);
+    }
+
+    @Test
+    void getUsersInPolygon_WithOutOfRangePoint_ReturnsBadRequest() throws Exception {
+        PolygonQuery query = new PolygonQuery();
+        query.setPoints(List.of(new PolygonQuery.Point(40.70, -74.02), new PolygonQuery.Point(95.0, -74.01),
+            new PolygonQuery.Point(40.70, -73.99)));
+
+        mockMvc.perform(post("/api/users/in-polygon")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(query))
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(userService);
+    }
+
+    @Test
+    void countUsersNearby_WithSeveralRadii_ReturnsCountPerRadius() throws Exception {
+        List<Double> radii = List.of(100.0, 2000.0);
+        when(crowdDensityService.countNearby(latitude, longitude, radii))
+            .thenReturn(List.of(new DensityCount(100.0, 3), new DensityCount(2000.0, 42)));
+
+        mockMvc.perform(get("/api/users/nearby/count")
+                .param("latitude", String.valueOf(latitude))
+                .param("longitude", String.valueOf(longitude))
+                .param("radiusInMeters", "100,2000")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].radiusInMeters", is(100.0)))
+                .andExpect(jsonPath("$[0].count", is(3)))
+                .andExpect(jsonPath("$[1].count", is(42)));
+
+        verify(userService, never()).getNearbyUsers(any(), any(), any());
+    }
+
+    @Test
+    void countUsersNearby_WithoutRadius_UsesDefault() throws Exception {
+        when(crowdDensityService.countNearby(latitude, longitude, List.of(2000.0)))
+            .thenReturn(List.of(new DensityCount(2000.0, 7)));
+
+        mockMvc.perform(get("/api/users/nearby/count")
+                .param("latitude", String.valueOf(latitude))
+                .param("longitude", String.valueOf(longitude))
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].count", is(7)));
+    }
+
+    @Test
+    void countUsersNearby_WithTooManyRadii_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/users/nearby/count")
+                .param("latitude", String.valueOf(latitude))
+                .param("longitude", String.valueOf(longitude))
+                .param("radiusInMeters", "1,2,3,4,5,6,7,8,9,10,11")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(crowdDensityService);
+    }
+
+    @Test
+    void countUsersNearby_WithNegativeRadius_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/users/nearby/count")
+                .param("latitude", String.valueOf(latitude))
+                .param("longitude", String.valueOf(longitude))
+                .param("radiusInMeters", "-5")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(crowdDensityService);
+    }
+
+    @Test
+    void countUsersNearby_WithOversizedRadius_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/users/nearby/count")
+                .param("latitude", String.valueOf(latitude))
+                .param("longitude", String.valueOf(longitude))
+                .param("radiusInMeters", "500,20000")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(crowdDensityService);
+    }
+
+    @Test
+    void countUsersNearby_WithLongitudeOutOfRange_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/users/nearby/count")
+                .param("latitude", String.valueOf(latitude))
+                .param("longitude", "-181")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(crowdDensityService);
+    }
+
+    @Test
+    void countUsersNearbyBatch_FillsDefaultRadiusAndReturnsResultsInOrder() throws Exception {
+        NearbyBatchRequest request = new NearbyBatchRequest();
+        request.setProbes(List.of(new NearbyBatchRequest.Probe(latitude, longitude, null),
+            new NearbyBatchRequest.Probe(latitude + 0.01, longitude, 250.0)));
+        when(crowdDensityService.countNearbyBatch(anyList(), eq(false))).thenReturn(List.of(
+            new NearbyProbeResult(latitude, longitude, 100.0, 4, null),
+            new NearbyProbeResult(latitude + 0.01, longitude, 250.0, 0, null)));
+
+        mockMvc.perform(post("/api/users/nearby/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request))
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].count", is(4)))
+                .andExpect(jsonPath("$[0].userIds").doesNotExist())
+                .andExpect(jsonPath("$[1].radiusInMeters", is(250.0)));
+
+        verify(crowdDensityService).countNearbyBatch(
+            argThat(probes -> probes.get(0).getRadiusInMeters() == 100.0), eq(false));
+    }
+
+    @Test
+    void countUsersNearbyBatch_WithoutProbes_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(post("/api/users/nearby/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"probes\": []}")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(crowdDensityService);
+    }
+
+    @Test
+    void countUsersNearbyBatch_WithOversizedRadius_ReturnsBadRequest() throws Exception {
+        NearbyBatchRequest request = new NearbyBatchRequest();
+        request.setProbes(List.of(new NearbyBatchRequest.Probe(latitude, longitude, 50_000.0)));
+
+        mockMvc.perform(post("/api/users/nearby/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request))
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(crowdDensityService);
     }
 
     @Test
     void getUsersAtLocation_WhenUsersFound_ReturnsUserList() throws Exception {
         Double radiusInMeters = 50.0;
         when(userService.getUsersAtLocation(latitude, longitude, radiusInMeters))
-            .thenReturn(Collections.singletonList(testUser));
+            .thenReturn(Collections.singletonList(testUserResponse()));
 
         mockMvc.perform(get("/api/users/at-location")
                 .param("latitude", String.valueOf(latitude))
@@ -271,7 +554,7 @@ public class UserControllerTest {
     @Test
     void getUsersAtLocation_WithNullRadius_ReturnsUserListUsingDefault() throws Exception {
         when(userService.getUsersAtLocation(latitude, longitude, null))
-            .thenReturn(Collections.singletonList(testUser));
+            .thenReturn(Collections.singletonList(testUserResponse()));
 
         mockMvc.perform(get("/api/users/at-location")
                 .param("latitude", String.valueOf(latitude))
@@ -341,4 +624,80 @@ public class UserControllerTest {
 
         verify(userService, times(1)).deleteUser(userEmail);
     }
-} 
\ No newline at end of file
+
+    @Test
+    void streamNearby_WithCoordinates_StreamsSnapshot() throws Exception {
+        long[] cells = {1L, 2L};
+        PresenceDelta delta = new PresenceDelta(PresenceDelta.Type.JOIN, userId, "dr5reg", latitude, longitude);
+        when(presenceStreamService.cellsAround(latitude, longitude, 2000.0)).thenReturn(cells);
+        when(presenceStreamService.subscribe(cells))
+            .thenReturn(Flux.just(ServerSentEvent.builder(List.of(delta)).event("snapshot").build()));
+
+        MvcResult result = mockMvc.perform(get("/api/users/nearby/stream")
+                .param("latitude", latitude.toString())
+                .param("longitude", longitude.toString())
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(content().string(containsString("event:snapshot")))
+                .andExpect(content().string(containsString("\"cell\":\"dr5reg\"")));
+    }
+
+    @Test
+    void streamNearby_WithCells_SubscribesToThem() throws Exception {
+        long[] cells = {1L};
+        when(presenceStreamService.parseCells(List.of("dr5reg"))).thenReturn(cells);
+        when(presenceStreamService.subscribe(cells)).thenReturn(Flux.empty());
+
+        MvcResult result = mockMvc.perform(get("/api/users/nearby/stream")
+                .param("cells", "dr5reg")
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+        verify(presenceStreamService, never()).cellsAround(anyDouble(), anyDouble(), anyDouble());
+    }
+
+    @Test
+    void streamNearby_WithInvalidCells_ReturnsBadRequest() throws Exception {
+        when(presenceStreamService.parseCells(any())).thenThrow(new IllegalArgumentException("Invalid geohash"));
+
+        mockMvc.perform(get("/api/users/nearby/stream")
+                .param("cells", "dr5")
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isBadRequest());
+
+        verify(presenceStreamService, never()).subscribe(any());
+    }
+
+    @Test
+    void streamNearby_WithoutCellsOrCoordinates_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/users/nearby/stream")
+                .param("latitude", latitude.toString())
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void streamNearby_InClusterMode_ReturnsServiceUnavailable() throws Exception {
+        when(presenceStreamService.isPartial()).thenReturn(true);
+
+        mockMvc.perform(get("/api/users/nearby/stream")
+                .param("latitude", latitude.toString())
+                .param("longitude", longitude.toString())
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isServiceUnavailable());
+
+        verify(presenceStreamService, never()).subscribe(any());
+    }
+
+    private UserResponse testUserResponse() {
+        return new UserResponse(userId, testUser.getName(), userEmail, testUser.getCreatedAt(),
+            testUser.getProfileImage(), latitude, longitude);
+    }
+}
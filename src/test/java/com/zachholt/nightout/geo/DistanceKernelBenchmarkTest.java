@@ -0,0 +1,135 @@
+package com.zachholt.nightout.geo;
+
+import com.zachholt.nightout.support.LocalPostgres;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Exact-distance stage of the nearby search three ways: a Haversine per
+ * point (what the presence index used to do), the polynomial kernel over
+ * microdegree columns, and the dot-product SQL predicate on the local Postgres.
+ * Run with {@code mvn test -Dtest=DistanceKernelBenchmarkTest -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class DistanceKernelBenchmarkTest {
+
+    private static final int POINTS = 1_000_000;
+    private static final int RUNS = 50;
+    private static final double LATITUDE = 40.7128;
+    private static final double LONGITUDE = -74.0060;
+    private static final double RADIUS_METERS = 2000.0;
+
+    @Test
+    void inMemory_HaversineVersusKernel() {
+        Random random = new Random(3);
+        double[] lats = new double[POINTS];
+        double[] lngs = new double[POINTS];
+        int[] latColumn = new int[POINTS];
+        int[] lngColumn = new int[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            latColumn[i] = DistanceKernel.toMicrodegrees(LATITUDE + random.nextGaussian() * 0.05);
+            lngColumn[i] = DistanceKernel.toMicrodegrees(LONGITUDE + random.nextGaussian() * 0.05);
+            lats[i] = DistanceKernel.toDegrees(latColumn[i]);
+            lngs[i] = DistanceKernel.toDegrees(lngColumn[i]);
+        }
+        double[] scratch = new double[POINTS];
+        int[] out = new int[POINTS];
+
+        for (int warmup = 0; warmup < 10; warmup++) {
+            haversine(lats, lngs, out);
+            DistanceKernel.within(latColumn, lngColumn, POINTS, LATITUDE, LONGITUDE, RADIUS_METERS, scratch, out);
+        }
+
+        long started = System.nanoTime();
+        int haversineMatches = 0;
+        for (int run = 0; run < RUNS; run++) {
+            haversineMatches = haversine(lats, lngs, out);
+        }
+        long haversineNanos = System.nanoTime() - started;
+
+        started = System.nanoTime();
+        int kernelMatches = 0;
+        for (int run = 0; run < RUNS; run++) {
+            kernelMatches = DistanceKernel.within(latColumn, lngColumn, POINTS, LATITUDE, LONGITUDE, RADIUS_METERS, scratch, out);
+        }
+        long kernelNanos = System.nanoTime() - started;
+
+        System.out.printf("Per %d points: haversine %.2f ms, kernel %.2f ms%n",
+            POINTS, haversineNanos / 1e6 / RUNS, kernelNanos / 1e6 / RUNS);
+        assertEquals(haversineMatches, kernelMatches, 2);
+    }
+
+    @Test
+    void sql_DotProductPredicate() throws SQLException {
+        try (Connection connection = LocalPostgres.connect()) {
+            LocalPostgres.applySchema(connection);
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("""
+                    INSERT INTO users (name, email, password, created_at)
+                    SELECT 'Bench ' || g, 'kernel-bench-' || g || '@example.com', 'x', now()
+                    FROM generate_series(1, %d) g
+                    """.formatted(POINTS));
+                statement.execute("""
+                    INSERT INTO coordinates (user_id, latitude, longitude, unit_x, unit_y, unit_z, created_at)
+                    SELECT p.id, p.lat, p.lng,
+                           cos(radians(p.lat)) * cos(radians(p.lng)),
+                           cos(radians(p.lat)) * sin(radians(p.lng)),
+                           sin(radians(p.lat)),
+                           now()
+                    FROM (SELECT u.id, %f + random() * 0.1 - 0.05 AS lat, %f + random() * 0.1 - 0.05 AS lng
+                          FROM users u WHERE u.email LIKE 'kernel-bench-%%') p
+                    """.formatted(LATITUDE, LONGITUDE));
+                statement.execute("ANALYZE coordinates");
+            }
+
+            double[] unit = GeoMath.unitVector(LATITUDE, LONGITUDE);
+            try (PreparedStatement query = connection.prepareStatement(
+                    "SELECT count(*) FROM coordinates c WHERE c.unit_x * ? + c.unit_y * ? + c.unit_z * ? >= ?")) {
+                query.setDouble(1, unit[0]);
+                query.setDouble(2, unit[1]);
+                query.setDouble(3, unit[2]);
+                query.setDouble(4, GeoMath.minDotProduct(RADIUS_METERS));
+                count(query);
+
+                int runs = 5;
+                long started = System.nanoTime();
+                long matches = 0;
+                for (int run = 0; run < runs; run++) {
+                    matches = count(query);
+                }
+                System.out.printf("Per %d rows: SQL dot-product predicate %.2f ms (%d matches)%n",
+                    POINTS, (System.nanoTime() - started) / 1e6 / runs, matches);
+                assertTrue(matches > 0);
+            } finally {
+                connection.rollback();
+            }
+        }
+    }
+
+    private static int haversine(double[] lats, double[] lngs, int[] out) {
+        int matches = 0;
+        for (int i = 0; i < lats.length; i++) {
+            if (GeoMath.distanceMeters(LATITUDE, LONGITUDE, lats[i], lngs[i]) <= RADIUS_METERS) {
+                out[matches++] = i;
+            }
+        }
+        return matches;
+    }
+
+    private static long count(PreparedStatement statement) throws SQLException {
+        try (ResultSet rows = statement.executeQuery()) {
+            rows.next();
+            return rows.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.zachholt.nightout.geo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DistanceKernelTest {
+
+    @Test
+    void within_MatchesHaversineAwayFromBoundary() {
+        Random random = new Random(7);
+        int count = 10_000;
+        double latitude = 40.7128;
+        double longitude = -74.0060;
+        double radiusMeters = 1500.0;
+        int[] lats = new int[count];
+        int[] lngs = new int[count];
+        boolean[] inside = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            lats[i] = DistanceKernel.toMicrodegrees(latitude + random.nextGaussian() * 0.02);
+            lngs[i] = DistanceKernel.toMicrodegrees(longitude + random.nextGaussian() * 0.02);
+            inside[i] = GeoMath.distanceMeters(latitude, longitude,
+                DistanceKernel.toDegrees(lats[i]), DistanceKernel.toDegrees(lngs[i])) <= radiusMeters;
+        }
+
+        int[] out = new int[count];
+        int matches = DistanceKernel.within(lats, lngs, count, latitude, longitude, radiusMeters, new double[count], out);
+
+        int expected = 0;
+        for (boolean hit : inside) {
+            expected += hit ? 1 : 0;
+        }
+        // Float rounding may only disagree for points sitting on the circle
+        assertEquals(expected, matches, 2);
+        for (int i = 1; i < matches; i++) {
+            assertTrue(out[i] > out[i - 1]);
+        }
+    }
+
+    @Test
+    void within_WhenNothingInRange_ReturnsZero() {
+        int[] lats = {DistanceKernel.toMicrodegrees(-33.8688)};
+        int[] lngs = {DistanceKernel.toMicrodegrees(151.2093)};
+
+        assertEquals(0, DistanceKernel.within(lats, lngs, 1, 40.7128, -74.0060, 1000.0, new double[1], new int[1]));
+    }
+
+    @Test
+    void haversines_AgreeWithGeoMathAcrossTheGlobe() {
+        Random random = new Random(5);
+        int count = 1000;
+        int[] lats = new int[count];
+        int[] lngs = new int[count];
+        for (int i = 0; i < count; i++) {
+            lats[i] = DistanceKernel.toMicrodegrees(random.nextDouble() * 180 - 90);
+            lngs[i] = DistanceKernel.toMicrodegrees(random.nextDouble() * 360 - 180);
+        }
+        double[] haversines = new double[count];
+
+        DistanceKernel.haversines(lats, lngs, count, 10.0, 170.0, haversines);
+
+        for (int i = 0; i < count; i++) {
+            double meters = 2 * GeoMath.EARTH_RADIUS_METERS * Math.asin(Math.sqrt(haversines[i]));
+            double expected = GeoMath.distanceMeters(10.0, 170.0,
+                DistanceKernel.toDegrees(lats[i]), DistanceKernel.toDegrees(lngs[i]));
+            assertEquals(expected, meters, 0.01);
+        }
+    }
+}
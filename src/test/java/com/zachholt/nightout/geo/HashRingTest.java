@@ -0,0 +1,56 @@
+package com.zachholt.nightout.geo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashRingTest {
+
+    private static final int CELLS = 20_000;
+
+    @Test
+    void ownerOf_IsSameWhateverTheMemberOrder() {
+        HashRing ring = new HashRing(List.of("a", "b", "c"), 64);
+        HashRing reordered = new HashRing(List.of("c", "a", "b"), 64);
+
+        for (long cell = 0; cell < 1000; cell++) {
+            assertEquals(ring.ownerOf(cell), reordered.ownerOf(cell));
+        }
+    }
+
+    @Test
+    void ownerOf_SpreadsCellsAcrossNodes() {
+        HashRing ring = new HashRing(List.of("a", "b", "c"), 64);
+        Map<String, Integer> owned = new HashMap<>();
+        // Neighbouring cells of one city, not random codes
+        long base = GeoHash.encode(40.7128, -74.0060, 5) & ~0x3ffL;
+        for (long cell = base; cell < base + CELLS; cell++) {
+            owned.merge(ring.ownerOf(cell), 1, Integer::sum);
+        }
+
+        assertEquals(3, owned.size());
+        for (int count : owned.values()) {
+            assertTrue(count > CELLS / 5 && count < CELLS / 2, "owned " + owned);
+        }
+    }
+
+    @Test
+    void addingNode_OnlyMovesCellsToIt() {
+        HashRing before = new HashRing(List.of("a", "b", "c"), 64);
+        HashRing after = new HashRing(List.of("a", "b", "c", "d"), 64);
+
+        int moved = 0;
+        for (long cell = 0; cell < CELLS; cell++) {
+            String owner = after.ownerOf(cell);
+            if (!owner.equals(before.ownerOf(cell))) {
+                assertEquals("d", owner);
+                moved++;
+            }
+        }
+        assertTrue(moved > CELLS / 8 && moved < CELLS * 3 / 8, "moved " + moved);
+    }
+}
@@ -0,0 +1,158 @@
+package com.zachholt.nightout.geo;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KdTreeTest {
+
+    private KdTree tree;
+    private final double latitude = 40.7128;
+    private final double longitude = -74.0060;
+
+    @BeforeEach
+    void setUp() {
+        tree = new KdTree();
+    }
+
+    @Test
+    void nearest_ReturnsClosestFirst() {
+        tree.put(1L, latitude + 0.05, longitude);
+        tree.put(2L, latitude + 0.001, longitude);
+        tree.put(3L, latitude + 0.01, longitude);
+
+        assertEquals(List.of(2L, 3L), tree.nearest(latitude, longitude, 2));
+        assertEquals(List.of(2L, 3L, 1L), tree.nearest(latitude, longitude, 10));
+    }
+
+    @Test
+    void put_WhenPointMoves_OnlyNewPositionCounts() {
+        tree.put(1L, latitude, longitude);
+        tree.put(2L, latitude + 0.01, longitude);
+        tree.put(1L, latitude + 1.0, longitude);
+
+        assertEquals(List.of(2L, 1L), tree.nearest(latitude, longitude, 5));
+        assertEquals(2, tree.size());
+    }
+
+    @Test
+    void remove_DropsPointFromResults() {
+        tree.put(1L, latitude, longitude);
+        tree.put(2L, latitude + 0.01, longitude);
+        tree.remove(1L);
+
+        assertEquals(List.of(2L), tree.nearest(latitude, longitude, 5));
+    }
+
+    @Test
+    void nearest_AcrossAntimeridian_FindsPointOnOtherSide() {
+        tree.put(1L, 0.0, -179.999);
+        tree.put(2L, 0.0, 179.9);
+
+        assertEquals(List.of(1L), tree.nearest(0.0, 179.999, 1));
+    }
+
+    @Test
+    void nearest_AfterChurn_MatchesBruteForce() {
+        Random random = new Random(7);
+        double[][] points = new double[3000][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = randomPoint(random);
+            tree.put((long) i, points[i][0], points[i][1]);
+        }
+        // Move and remove enough points to force several rebuilds
+        for (int round = 0; round < 5000; round++) {
+            int i = random.nextInt(points.length);
+            if (random.nextInt(10) == 0) {
+                points[i] = null;
+                tree.remove((long) i);
+            } else {
+                points[i] = randomPoint(random);
+                tree.put((long) i, points[i][0], points[i][1]);
+            }
+        }
+
+        for (int query = 0; query < 20; query++) {
+            double[] target = randomPoint(random);
+            assertEquals(bruteForce(points, target, 15), tree.nearest(target[0], target[1], 15));
+        }
+    }
+
+    @Test
+    void put_WhileRebuildRuns_IsKeptWhenRebuiltTreeSwapsIn() {
+        List<Runnable> rebuilds = new ArrayList<>();
+        tree = new KdTree(rebuilds::add);
+        Random random = new Random(11);
+        double[][] points = new double[200][];
+        // 64 points and one move cross the rebuild threshold and snapshot those rows
+        for (int i = 0; i < 64; i++) {
+            points[i] = randomPoint(random);
+            tree.put((long) i, points[i][0], points[i][1]);
+        }
+        points[0] = randomPoint(random);
+        tree.put(0L, points[0][0], points[0][1]);
+        assertEquals(1, rebuilds.size());
+
+        // Changes after the snapshot: moves and removals of snapshotted points, plus new ones
+        for (int i = 0; i < 64; i += 3) {
+            points[i] = randomPoint(random);
+            tree.put((long) i, points[i][0], points[i][1]);
+        }
+        for (int i = 1; i < 64; i += 5) {
+            points[i] = null;
+            tree.remove((long) i);
+        }
+        for (int i = 64; i < points.length; i++) {
+            points[i] = randomPoint(random);
+            tree.put((long) i, points[i][0], points[i][1]);
+        }
+        // Still only the one rebuild in flight
+        assertEquals(1, rebuilds.size());
+
+        rebuilds.get(0).run();
+
+        long live = IntStream.range(0, points.length).filter(i -> points[i] != null).count();
+        assertEquals(live, tree.size());
+        double[] target = randomPoint(random);
+        assertEquals(bruteForce(points, target, 25), tree.nearest(target[0], target[1], 25));
+    }
+
+    @Test
+    void clear_WhileRebuildRuns_DiscardsRebuiltTree() {
+        List<Runnable> rebuilds = new ArrayList<>();
+        tree = new KdTree(rebuilds::add);
+        for (int i = 0; i < 64; i++) {
+            tree.put((long) i, latitude + i * 0.001, longitude);
+        }
+        tree.remove(0L);
+        tree.clear();
+        tree.put(100L, latitude, longitude);
+
+        rebuilds.get(0).run();
+
+        assertEquals(1, tree.size());
+        assertEquals(List.of(100L), tree.nearest(latitude, longitude, 5));
+    }
+
+    private List<Long> bruteForce(double[][] points, double[] target, int k) {
+        return IntStream.range(0, points.length)
+            .filter(i -> points[i] != null)
+            .boxed()
+            .sorted(Comparator.comparingDouble(i ->
+                GeoMath.distanceMeters(target[0], target[1], points[i][0], points[i][1])))
+            .limit(k)
+            .map(Integer::longValue)
+            .toList();
+    }
+
+    private double[] randomPoint(Random random) {
+        return new double[] {latitude + random.nextGaussian() * 0.05, longitude + random.nextGaussian() * 0.05};
+    }
+}
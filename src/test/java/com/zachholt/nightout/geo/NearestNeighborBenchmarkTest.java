@@ -0,0 +1,88 @@
+package com.zachholt.nightout.geo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares k-nearest lookups on the KD-tree with what the map client used
+ * to do: widen a radius query on the presence index until it holds k users.
+ * Run with {@code mvn test -Dtest=NearestNeighborBenchmarkTest -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class NearestNeighborBenchmarkTest {
+
+    private static final int USERS = 200_000;
+    private static final int QUERIES = 2_000;
+    private static final int K = 20;
+
+    @Test
+    void nearest_KdTreeVersusWideningRadius() {
+        Random random = new Random(1);
+        PresenceIndex presenceIndex = new PresenceIndex();
+        NearestNeighborIndex nearestNeighborIndex = new NearestNeighborIndex(presenceIndex);
+        for (long id = 0; id < USERS; id++) {
+            // A dense downtown with a sparse suburban spread around it
+            double spread = id % 4 == 0 ? 0.3 : 0.02;
+            presenceIndex.update(id, 40.7128 + random.nextGaussian() * spread, -74.0060 + random.nextGaussian() * spread);
+        }
+        double[][] targets = new double[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            targets[i] = new double[] {40.7128 + random.nextGaussian() * 0.2, -74.0060 + random.nextGaussian() * 0.2};
+        }
+
+        for (int warmup = 0; warmup < 3; warmup++) {
+            runTree(nearestNeighborIndex, targets);
+            runWidening(presenceIndex, targets);
+        }
+
+        long treeStarted = System.nanoTime();
+        long treeChecksum = runTree(nearestNeighborIndex, targets);
+        long treeNanos = System.nanoTime() - treeStarted;
+
+        long wideningStarted = System.nanoTime();
+        long wideningChecksum = runWidening(presenceIndex, targets);
+        long wideningNanos = System.nanoTime() - wideningStarted;
+
+        System.out.printf("k=%d over %d users: kd-tree %.1f us/query, widening radius %.1f us/query%n",
+            K, USERS, treeNanos / 1000.0 / QUERIES, wideningNanos / 1000.0 / QUERIES);
+        assertEquals(wideningChecksum, treeChecksum);
+    }
+
+    private static long runTree(NearestNeighborIndex index, double[][] targets) {
+        long checksum = 0;
+        for (double[] target : targets) {
+            for (Long id : index.nearest(target[0], target[1], K)) {
+                checksum += id;
+            }
+        }
+        return checksum;
+    }
+
+    private static long runWidening(PresenceIndex index, double[][] targets) {
+        long checksum = 0;
+        for (double[] target : targets) {
+            double radius = 100.0;
+            List<Long> found = index.findWithin(target[0], target[1], radius);
+            while (found.size() < K) {
+                radius *= 2;
+                found = index.findWithin(target[0], target[1], radius);
+            }
+            List<Long> sorted = new ArrayList<>(found);
+            sorted.sort(Comparator.comparingDouble(id -> {
+                PresenceIndex.Position position = index.get(id);
+                return GeoMath.distanceMeters(target[0], target[1], position.latitude(), position.longitude());
+            }));
+            for (Long id : sorted.subList(0, K)) {
+                checksum += id;
+            }
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,176 @@
+package com.zachholt.nightout.geo;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceIndexTest {
+
+    private PresenceIndex presenceIndex;
+    private final double latitude = 40.7128;
+    private final double longitude = -74.0060;
+
+    @BeforeEach
+    void setUp() {
+        presenceIndex = new PresenceIndex();
+    }
+
+    @Test
+    void findWithin_ReturnsOnlyUsersInsideRadius() {
+        presenceIndex.update(1L, latitude, longitude);
+        presenceIndex.update(2L, latitude + 0.005, longitude);  // ~555m north
+        presenceIndex.update(3L, latitude + 0.05, longitude);   // ~5.5km north
+
+        List<Long> result = presenceIndex.findWithin(latitude, longitude, 1000.0);
+
+        assertEquals(2, result.size());
+        assertTrue(result.containsAll(List.of(1L, 2L)));
+        assertEquals(2, presenceIndex.countWithin(latitude, longitude, 1000.0));
+    }
+
+    @Test
+    void update_WhenUserMoves_ReplacesPreviousPosition() {
+        presenceIndex.update(1L, latitude, longitude);
+        presenceIndex.update(1L, latitude + 0.05, longitude);
+
+        assertTrue(presenceIndex.findWithin(latitude, longitude, 1000.0).isEmpty());
+        assertEquals(List.of(1L), presenceIndex.findWithin(latitude + 0.05, longitude, 1000.0));
+        assertEquals(1, presenceIndex.size());
+    }
+
+    @Test
+    void remove_DropsUserFromQueries() {
+        presenceIndex.update(1L, latitude, longitude);
+        presenceIndex.remove(1L);
+
+        assertTrue(presenceIndex.findWithin(latitude, longitude, 1000.0).isEmpty());
+        assertNull(presenceIndex.get(1L));
+        assertEquals(0, presenceIndex.size());
+    }
+
+    @Test
+    void findWithin_AcrossAntimeridian_FindsUsersOnBothSides() {
+        presenceIndex.update(1L, 0.0, 179.999);
+        presenceIndex.update(2L, 0.0, -179.999);
+
+        List<Long> result = presenceIndex.findWithin(0.0, 180.0, 1000.0);
+
+        assertEquals(2, result.size());
+    }
+
+    @Test
+    void findInArea_ReturnsClosestToCenterUpToLimit() {
+        // Triangle around the origin point, pointing north
+        Polygon triangle = new Polygon(
+            new double[] {latitude - 0.01, latitude + 0.02, latitude - 0.01},
+            new double[] {longitude - 0.01, longitude, longitude + 0.01});
+        presenceIndex.update(1L, latitude, longitude);
+        presenceIndex.update(2L, latitude + 0.004, longitude);
+        presenceIndex.update(3L, latitude + 0.015, longitude);
+        presenceIndex.update(4L, latitude + 0.015, longitude + 0.009); // In the bounding box, outside the triangle
+
+        List<Long> all = presenceIndex.findInArea(triangle.boundingBox(), triangle::contains,
+            triangle.centerLatitude(), triangle.centerLongitude(), 10);
+        List<Long> capped = presenceIndex.findInArea(triangle.boundingBox(), triangle::contains,
+            triangle.centerLatitude(), triangle.centerLongitude(), 2);
+
+        assertEquals(List.of(2L, 1L, 3L), all);
+        assertEquals(List.of(2L, 1L), capped);
+    }
+
+    @Test
+    void findInArea_ViewportAcrossAntimeridian_FindsUsersOnBothSides() {
+        presenceIndex.update(1L, 0.0, 179.5);
+        presenceIndex.update(2L, 0.0, -179.5);
+        presenceIndex.update(3L, 0.0, 178.0);
+        GeoMath.BoundingBox viewport = new GeoMath.BoundingBox(-1.0, 1.0, 179.0, 181.0);
+
+        List<Long> result = presenceIndex.findInArea(viewport, (lat, lng) -> true, 0.0, 180.0, 10);
+
+        assertEquals(2, result.size());
+        assertTrue(result.containsAll(List.of(1L, 2L)));
+    }
+
+    @Test
+    void findWithinEach_MatchesOneQueryPerProbe() {
+        Random random = new Random(11);
+        for (int i = 0; i < 2000; i++) {
+            presenceIndex.update((long) i, latitude + random.nextGaussian() * 0.02, longitude + random.nextGaussian() * 0.02);
+        }
+        // Overlapping probes of mixed sizes, including one large enough to take the sparse path
+        double[] latitudes = {latitude, latitude + 0.001, latitude - 0.01, latitude};
+        double[] longitudes = {longitude, longitude, longitude + 0.01, longitude};
+        double[] radii = {100.0, 500.0, 2000.0, 200_000.0};
+
+        List<List<Long>> result = presenceIndex.findWithinEach(latitudes, longitudes, radii);
+
+        for (int i = 0; i < radii.length; i++) {
+            List<Long> expected = presenceIndex.findWithin(latitudes[i], longitudes[i], radii[i]);
+            assertEquals(expected.size(), result.get(i).size(), "probe " + i);
+            assertTrue(result.get(i).containsAll(expected), "probe " + i);
+        }
+    }
+
+    @Test
+    void findWithin_MatchesBruteForceHaversine() {
+        Random random = new Random(42);
+        double[][] points = new double[2000][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new double[] {latitude + random.nextGaussian() * 0.05, longitude + random.nextGaussian() * 0.05};
+            presenceIndex.update((long) i, points[i][0], points[i][1]);
+        }
+
+        for (double radius : new double[] {50.0, 500.0, 2000.0, 20000.0}) {
+            long expected = 0;
+            for (double[] point : points) {
+                if (GeoMath.distanceMeters(latitude, longitude, point[0], point[1]) <= radius) {
+                    expected++;
+                }
+            }
+            assertEquals(expected, presenceIndex.findWithin(latitude, longitude, radius).size(), "radius " + radius);
+        }
+    }
+
+    @Test
+    void update_SlowListenerForOneUser_DoesNotHoldUpOthers() throws Exception {
+        CountDownLatch inCallback = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        presenceIndex.addListener(new PresenceListener() {
+            @Override
+            public void onUpdate(long userId, PresenceIndex.Position previous, PresenceIndex.Position current) {
+                if (userId == 1L) {
+                    inCallback.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public void onRemove(long userId, PresenceIndex.Position previous) {
+            }
+        });
+        Thread slow = new Thread(() -> presenceIndex.update(1L, latitude, longitude));
+        slow.start();
+        try {
+            assertTrue(inCallback.await(5, TimeUnit.SECONDS));
+
+            // User 2 is on another stripe and goes through while user 1's callback runs
+            CompletableFuture<Void> other = CompletableFuture.runAsync(() -> presenceIndex.update(2L, latitude, longitude));
+            other.get(5, TimeUnit.SECONDS);
+            assertNotNull(presenceIndex.get(2L));
+        } finally {
+            release.countDown();
+            slow.join();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.zachholt.nightout.geo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writeThenRead_RestoresPositionsAndEpoch() throws IOException {
+        PresenceIndex source = new PresenceIndex();
+        source.update(1L, 40.7128, -74.0060, 1000L);
+        source.update(2L, 51.5074, -0.1278, 2000L);
+        source.update(3L, -33.8688, 151.2093, 3000L);
+        Path file = directory.resolve("presence.snapshot");
+
+        assertEquals(3, PresenceSnapshot.write(file, 5000L, source));
+
+        PresenceIndex restored = new PresenceIndex();
+        assertEquals(5000L, PresenceSnapshot.read(file, restored, 0L));
+        assertEquals(3, restored.size());
+        assertEquals(source.get(2L), restored.get(2L));
+        assertEquals(3000L, restored.get(3L).updatedAt());
+    }
+
+    @Test
+    void read_SkipsPositionsOlderThanLiveSince() throws IOException {
+        PresenceIndex source = new PresenceIndex();
+        source.update(1L, 40.7128, -74.0060, 1000L);
+        source.update(2L, 40.7128, -74.0060, 9000L);
+        Path file = directory.resolve("presence.snapshot");
+        PresenceSnapshot.write(file, 10_000L, source);
+
+        PresenceIndex restored = new PresenceIndex();
+        PresenceSnapshot.read(file, restored, 5000L);
+
+        assertNull(restored.get(1L));
+        assertNotNull(restored.get(2L));
+    }
+
+    @Test
+    void read_WhenRecordCorrupted_FailsChecksum() throws IOException {
+        PresenceIndex source = new PresenceIndex();
+        source.update(1L, 40.7128, -74.0060, 1000L);
+        Path file = directory.resolve("presence.snapshot");
+        PresenceSnapshot.write(file, 5000L, source);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {42}), PresenceSnapshot.HEADER_BYTES + 9);
+        }
+
+        IOException error = assertThrows(IOException.class, () -> PresenceSnapshot.read(file, new PresenceIndex(), 0L));
+        assertTrue(error.getMessage().contains("checksum"));
+    }
+}
@@ -0,0 +1,65 @@
+package com.zachholt.nightout.geo;
+
+import com.zachholt.nightout.services.DensityTileService;
+import com.zachholt.nightout.services.PresenceExpiryService;
+import com.zachholt.nightout.services.PresenceStreamService;
+import com.zachholt.nightout.services.TrendingService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Loads five million check-ins into the presence index, with every listener
+ * the application registers on it, and reports the off-heap footprint, the
+ * heap left behind, and the update rate. The heap figure is what the
+ * listeners' own structures (k-d tree, expiry wheel, density tiles,
+ * trending counters) cost on top of the off-heap store.
+ * Run with {@code mvn test -Dtest=PresenceStoreBenchmarkTest -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class PresenceStoreBenchmarkTest {
+
+    private static final int USERS = 5_000_000;
+
+    @Test
+    void fiveMillionUsers_FootprintAndUpdateRate() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+
+        Random random = new Random(1);
+        PresenceIndex presenceIndex = new PresenceIndex();
+        NearestNeighborIndex nearestNeighborIndex = new NearestNeighborIndex(presenceIndex);
+        PresenceExpiryService presenceExpiryService = new PresenceExpiryService(
+            presenceIndex, null, null, new SimpleMeterRegistry(), 240, 500);
+        new DensityTileService(presenceIndex, presenceExpiryService, null, 8, 16);
+        new PresenceStreamService(presenceIndex, 64, 15_000);
+        new TrendingService(presenceIndex, 7, 50);
+        long now = System.currentTimeMillis();
+
+        long started = System.nanoTime();
+        for (long id = 0; id < USERS; id++) {
+            presenceIndex.update(id, 40.7128 + random.nextGaussian() * 0.3, -74.0060 + random.nextGaussian() * 0.3, now);
+        }
+        long insertNanos = System.nanoTime() - started;
+
+        started = System.nanoTime();
+        for (long id = 0; id < USERS; id++) {
+            presenceIndex.update(id, 40.7128 + random.nextGaussian() * 0.3, -74.0060 + random.nextGaussian() * 0.3, now + 1);
+        }
+        long moveNanos = System.nanoTime() - started;
+
+        System.gc();
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("%d users with listeners: %.1f MB off-heap, %.1f MB heap delta, insert %.0f ns, move %.0f ns per update%n",
+            USERS, presenceIndex.offHeapBytes() / 1e6, (heapAfter - heapBefore) / 1e6,
+            (double) insertNanos / USERS, (double) moveNanos / USERS);
+        assertEquals(USERS, presenceIndex.size());
+        assertEquals(10, nearestNeighborIndex.nearest(40.7128, -74.0060, 10).size());
+        assertTrue(presenceIndex.offHeapBytes() < 200_000_000L);
+    }
+}
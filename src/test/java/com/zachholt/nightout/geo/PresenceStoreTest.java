@@ -0,0 +1,86 @@
+package com.zachholt.nightout.geo;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceStoreTest {
+
+    private PresenceStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new PresenceStore(PresenceIndex.CELL_PRECISION);
+    }
+
+    @Test
+    void put_ThenFind_ReturnsStoredColumns() {
+        int slot = store.put(42L, 40_712_800, -74_006_000, 1234L);
+
+        assertEquals(slot, store.find(42L));
+        assertEquals(42L, store.userId(slot));
+        assertEquals(40_712_800, store.latitude(slot));
+        assertEquals(-74_006_000, store.longitude(slot));
+        assertEquals(1234L, store.updatedAt(slot));
+        assertEquals(PresenceStore.NONE, store.find(43L));
+    }
+
+    @Test
+    void remove_ReusesSlotAndUnlinksCell() {
+        int slot = store.put(1L, 40_712_800, -74_006_000, 0L);
+        long cell = store.cell(slot);
+
+        store.remove(slot);
+
+        assertEquals(PresenceStore.NONE, store.find(1L));
+        assertEquals(PresenceStore.NONE, store.firstInCell(cell));
+        assertEquals(0, store.cellCount());
+        assertEquals(slot, store.put(2L, 51_507_400, -127_800, 0L));
+    }
+
+    @Test
+    void randomOperations_MatchMapModel() {
+        Random random = new Random(9);
+        Map<Long, int[]> model = new HashMap<>();
+        for (int round = 0; round < 50_000; round++) {
+            long userId = random.nextInt(5000);
+            if (random.nextInt(4) == 0) {
+                int slot = store.find(userId);
+                if (slot != PresenceStore.NONE) {
+                    store.remove(slot);
+                }
+                model.remove(userId);
+            } else {
+                // A small area so users share cells and move between them
+                int latitude = 40_700_000 + random.nextInt(50_000);
+                int longitude = -74_000_000 + random.nextInt(50_000);
+                store.put(userId, latitude, longitude, round);
+                model.put(userId, new int[] {latitude, longitude});
+            }
+        }
+
+        assertEquals(model.size(), store.size());
+        for (Map.Entry<Long, int[]> entry : model.entrySet()) {
+            int slot = store.find(entry.getKey());
+            assertNotEquals(PresenceStore.NONE, slot);
+            assertEquals(entry.getValue()[0], store.latitude(slot));
+            assertEquals(entry.getValue()[1], store.longitude(slot));
+        }
+        // Every user is on exactly one cell list, the one matching their position
+        Set<Long> seen = new HashSet<>();
+        store.forEachCell(cell -> {
+            for (int slot = store.firstInCell(cell); slot != PresenceStore.NONE; slot = store.nextInCell(slot)) {
+                assertEquals(cell, store.cell(slot));
+                assertTrue(seen.add(store.userId(slot)));
+            }
+        });
+        assertEquals(model.keySet(), seen);
+    }
+}
@@ -0,0 +1,88 @@
+package com.zachholt.nightout.geo;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingWheelTest {
+
+    private static final long START = 1_000_000L;
+
+    private TimingWheel wheel;
+
+    @BeforeEach
+    void setUp() {
+        wheel = new TimingWheel(1000, 8, START);
+    }
+
+    @Test
+    void advance_ReturnsIdsOnlyOnceTheirDeadlinePasses() {
+        wheel.schedule(1L, START + 2500);
+        wheel.schedule(2L, START + 5000);
+
+        assertEquals(0, wheel.advance(START + 2000).length);
+        assertArrayEquals(new long[] {1L}, wheel.advance(START + 3000));
+        assertArrayEquals(new long[] {2L}, wheel.advance(START + 5000));
+        assertEquals(0, wheel.advance(START + 6000).length);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void schedule_Again_ReplacesEarlierDeadline() {
+        wheel.schedule(1L, START + 2000);
+        wheel.schedule(1L, START + 6000);
+
+        assertEquals(0, wheel.advance(START + 3000).length);
+        assertArrayEquals(new long[] {1L}, wheel.advance(START + 6000));
+    }
+
+    @Test
+    void cancel_PreventsExpiry() {
+        wheel.schedule(1L, START + 2000);
+        wheel.cancel(1L);
+
+        assertEquals(0, wheel.advance(START + 3000).length);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void advance_DeadlineBeyondOneRotation_WaitsForLaterPass() {
+        // Lands in the same slot as START + 4000 on an 8-slot wheel
+        wheel.schedule(1L, START + 12_000);
+
+        assertEquals(0, wheel.advance(START + 4000).length);
+        assertEquals(0, wheel.advance(START + 11_000).length);
+        assertArrayEquals(new long[] {1L}, wheel.advance(START + 12_000));
+    }
+
+    @Test
+    void advance_AfterLongPause_ExpiresEverythingDue() {
+        wheel.schedule(1L, START + 1000);
+        wheel.schedule(2L, START + 3000);
+        wheel.schedule(3L, START + 100_000);
+
+        long[] expired = wheel.advance(START + 50_000);
+        Arrays.sort(expired);
+
+        assertArrayEquals(new long[] {1L, 2L}, expired);
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    void schedule_ManyIdsAcrossSegments_ExpireTogether() {
+        for (long id = 0; id < 1000; id++) {
+            wheel.schedule(id, START + 2000);
+        }
+        for (long id = 0; id < 1000; id += 2) {
+            wheel.schedule(id, START + 5000);
+        }
+
+        assertEquals(500, wheel.advance(START + 2000).length);
+        assertEquals(500, wheel.size());
+        assertEquals(500, wheel.advance(START + 5000).length);
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,80 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.models.UserResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CheckInThrottleTest {
+
+    private PresenceIndex presenceIndex;
+    private CheckInThrottle checkInThrottle;
+    private UserResponse written;
+    private final Long userId = 1L;
+    private final String userEmail = "test@example.com";
+    private final double latitude = 40.7128;
+    private final double longitude = -74.0060;
+
+    @BeforeEach
+    void setUp() {
+        presenceIndex = new PresenceIndex();
+        checkInThrottle = new CheckInThrottle(presenceIndex, new SimpleMeterRegistry(), 25.0, 60);
+        written = new UserResponse(userId, "Test User", userEmail, LocalDateTime.now(), null, latitude, longitude);
+        presenceIndex.update(userId, latitude, longitude);
+        checkInThrottle.recordWrite(userEmail, written);
+    }
+
+    @Test
+    void suppress_WhenUserBarelyMoved_ReturnsLastWrite() {
+        UserResponse result = checkInThrottle.suppress(userEmail, latitude + 0.0001, longitude); // ~11m
+
+        assertSame(written, result);
+        assertEquals(1, checkInThrottle.suppressedCount());
+    }
+
+    @Test
+    void suppress_WhenUserMovedFarEnough_ReturnsNull() {
+        assertNull(checkInThrottle.suppress(userEmail, latitude + 0.001, longitude)); // ~111m
+        assertEquals(0, checkInThrottle.suppressedCount());
+    }
+
+    @Test
+    void suppress_AfterCheckout_ReturnsNull() {
+        presenceIndex.remove(userId);
+
+        assertNull(checkInThrottle.suppress(userEmail, latitude, longitude));
+    }
+
+    @Test
+    void suppress_AfterNewerPositionFromAnotherNode_ReturnsNull() {
+        presenceIndex.update(userId, latitude + 0.01, longitude, System.currentTimeMillis() + 1000);
+
+        assertNull(checkInThrottle.suppress(userEmail, latitude, longitude));
+    }
+
+    @Test
+    void suppress_AfterForget_ReturnsNull() {
+        checkInThrottle.forget(userId);
+
+        assertNull(checkInThrottle.suppress(userEmail, latitude, longitude));
+    }
+
+    @Test
+    void suppress_ForUnknownUser_ReturnsNull() {
+        assertNull(checkInThrottle.suppress("other@example.com", latitude, longitude));
+    }
+
+    @Test
+    void suppress_WhenDisabled_ReturnsNull() {
+        CheckInThrottle disabled = new CheckInThrottle(presenceIndex, new SimpleMeterRegistry(), 0, 60);
+        disabled.recordWrite(userEmail, written);
+
+        assertFalse(disabled.isEnabled());
+        assertNull(disabled.suppress(userEmail, latitude, longitude));
+    }
+}
@@ -0,0 +1,132 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.NightoutApplication;
+import com.zachholt.nightout.geo.GeoHash;
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.geo.HashRing;
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.models.User;
+import com.zachholt.nightout.models.UserResponse;
+import com.zachholt.nightout.repositories.UserRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Two cluster nodes in one JVM, sharing an in-memory database the way
+ * real nodes share Postgres.
+ */
+public class ClusterNodesTest {
+
+    private static ConfigurableApplicationContext nodeA;
+    private static ConfigurableApplicationContext nodeB;
+
+    @BeforeAll
+    static void startNodes() throws IOException {
+        int portA = freePort();
+        int portB = freePort();
+        String members = "a=http://localhost:" + portA + ",b=http://localhost:" + portB;
+        nodeA = startNode("a", portA, members, "create-drop");
+        // The second node uses the tables the first one created
+        nodeB = startNode("b", portB, members, "none");
+    }
+
+    @AfterAll
+    static void stopNodes() {
+        if (nodeB != null) {
+            nodeB.close();
+        }
+        if (nodeA != null) {
+            nodeA.close();
+        }
+    }
+
+    private static ConfigurableApplicationContext startNode(String nodeId, int port, String members, String ddlAuto) {
+        return new SpringApplicationBuilder(NightoutApplication.class)
+            .profiles("test")
+            .run("--server.port=" + port,
+                "--spring.datasource.url=jdbc:h2:mem:cluster;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+                "--spring.jpa.hibernate.ddl-auto=" + ddlAuto,
+                "--nightout.cluster.enabled=true",
+                "--nightout.cluster.node-id=" + nodeId,
+                "--nightout.cluster.members=" + members,
+                "--nightout.cluster.token=test-token",
+                "--nightout.cluster.timeout-ms=5000");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /** Walks east from New York until a shard cell owned by the node turns up. */
+    private static double[] pointOwnedBy(String node) {
+        HashRing ring = new HashRing(List.of("a", "b"), 64);
+        double width = GeoHash.cellWidth(5);
+        for (int i = 0; ; i++) {
+            double longitude = -74.0060 + i * width;
+            if (ring.ownerOf(GeoHash.encode(40.7128, longitude, 5)).equals(node)) {
+                return new double[] {40.7128, longitude};
+            }
+        }
+    }
+
+    private static Long createUser(String email) {
+        User user = new User();
+        user.setName(email);
+        user.setEmail(email);
+        user.setPassword("encoded");
+        return nodeA.getBean(UserRepository.class).save(user).getId();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the other node");
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    void nearbyQuery_FansOutToOwnerOfEachCell() throws Exception {
+        double[] pointA = pointOwnedBy("a");
+        double[] pointB = pointOwnedBy("b");
+        Long userA = createUser("cluster-a@example.com");
+        Long userB = createUser("cluster-b@example.com");
+        PresenceIndex indexA = nodeA.getBean(PresenceIndex.class);
+        PresenceIndex indexB = nodeB.getBean(PresenceIndex.class);
+        CoordinateService coordinateA = nodeA.getBean(CoordinateService.class);
+
+        // Both check in through node a; b's user is forwarded to b
+        coordinateA.checkIn("cluster-a@example.com", pointA[0], pointA[1]);
+        coordinateA.checkIn("cluster-b@example.com", pointB[0], pointB[1]);
+        await(() -> indexB.get(userB) != null);
+
+        assertNotNull(indexA.get(userA));
+        assertNull(indexA.get(userB));
+        assertNull(indexB.get(userA));
+
+        double radiusKm = GeoMath.distanceMeters(pointA[0], pointA[1], pointB[0], pointB[1]) / 1000.0 + 1.0;
+        for (ConfigurableApplicationContext node : List.of(nodeA, nodeB)) {
+            List<UserResponse> nearby = node.getBean(CoordinateService.class)
+                .getNearbyUsers(pointA[0], pointA[1], radiusKm);
+            assertEquals(2, nearby.size());
+            UserResponse found = nearby.stream().filter(user -> user.getId().equals(userB)).findFirst().orElseThrow();
+            assertEquals(pointB[1], found.getLongitude(), 1e-6);
+        }
+
+        coordinateA.clearLocation(userB);
+        await(() -> indexB.get(userB) == null);
+        assertEquals(1, coordinateA.getNearbyUsers(pointA[0], pointA[1], radiusKm).size());
+    }
+}
@@ -0,0 +1,149 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.GeoHash;
+import com.zachholt.nightout.geo.HashRing;
+import com.zachholt.nightout.geo.PresenceIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterServiceTest {
+
+    private static final HashRing RING = new HashRing(List.of("a", "b"), 64);
+
+    private PresenceIndex presenceIndex;
+    private ClusterService clusterService;
+    private double[] owned;
+    private double[] foreign;
+
+    @BeforeEach
+    void setUp() {
+        presenceIndex = new PresenceIndex();
+        clusterService = new ClusterService(presenceIndex, null, null, event -> {}, WebClient.builder(),
+            true, "a", "", "static", "a=http://localhost:1/,b=http://localhost:2", 5, 64, 500, "secret", 15);
+        presenceIndex.markWarm();
+        owned = findPoint("a");
+        foreign = findPoint("b");
+    }
+
+    /** Walks east from New York until a cell owned by the node turns up. */
+    private static double[] findPoint(String node) {
+        double width = GeoHash.cellWidth(5);
+        for (int i = 0; ; i++) {
+            double longitude = -74.0060 + i * width;
+            if (RING.ownerOf(GeoHash.encode(40.7128, longitude, 5)).equals(node)) {
+                return new double[] {40.7128, longitude};
+            }
+        }
+    }
+
+    @Test
+    void constructor_MarksIndexPartitioned() {
+        assertTrue(presenceIndex.isPartitioned());
+        assertEquals(Map.of("a", "http://localhost:1", "b", "http://localhost:2"), clusterService.getMembers());
+    }
+
+    @Test
+    void applyUpdate_KeepsOnlyOwnedCells() {
+        clusterService.applyUpdate(1L, owned[0], owned[1], 1000);
+        clusterService.applyUpdate(2L, foreign[0], foreign[1], 1000);
+
+        assertTrue(clusterService.owns(owned[0], owned[1]));
+        assertFalse(clusterService.owns(foreign[0], foreign[1]));
+        assertNotNull(presenceIndex.get(1L));
+        assertNull(presenceIndex.get(2L));
+    }
+
+    @Test
+    void applyUpdate_MovingToForeignCell_DropsLocalCopy() {
+        clusterService.applyUpdate(1L, owned[0], owned[1], 1000);
+        clusterService.applyUpdate(1L, foreign[0], foreign[1], 2000);
+
+        assertNull(presenceIndex.get(1L));
+    }
+
+    @Test
+    void applyUpdate_IgnoresOlderPositions() {
+        clusterService.applyUpdate(1L, owned[0], owned[1], 2000);
+        clusterService.applyUpdate(1L, owned[0] + 0.001, owned[1], 1000);
+        // A stale message from before the user moved here does not remove them either
+        clusterService.applyUpdate(1L, foreign[0], foreign[1], 1500);
+
+        assertEquals(owned[0], presenceIndex.get(1L).latitude(), 1e-6);
+    }
+
+    @Test
+    void applyRemove_KeepsLaterCheckIn() {
+        clusterService.applyUpdate(1L, owned[0], owned[1], 2000);
+        clusterService.applyRemove(1L, 1000);
+        assertNotNull(presenceIndex.get(1L));
+
+        clusterService.applyRemove(1L, 2000);
+        assertNull(presenceIndex.get(1L));
+    }
+
+    @Test
+    void findWithin_OnlyOwnedCells_AnswersLocally() {
+        clusterService.applyUpdate(1L, owned[0], owned[1], 1000);
+
+        // 50m stays inside the owned cell, so the unreachable node b is never asked
+        assertEquals(1, clusterService.findWithin(owned[0], owned[1], 50).size());
+    }
+
+    @Test
+    void findWithin_UnreachableOwner_Throws() {
+        assertThrows(IllegalStateException.class, () -> clusterService.findWithin(foreign[0], foreign[1], 50));
+    }
+
+    @Test
+    void peersForUpdate_SendsOnlyToOwnersOfNewAndPreviousCells() {
+        // First check-in, or a move within this node's cells: nobody else needs it
+        assertEquals(Set.of(), clusterService.peersForUpdate(RING, owned[0], owned[1], null, null));
+        assertEquals(Set.of(), clusterService.peersForUpdate(RING, owned[0], owned[1], owned[0] + 0.0001, owned[1]));
+        // Into b's cells, or out of them so b drops its copy
+        assertEquals(Set.of("b"), clusterService.peersForUpdate(RING, foreign[0], foreign[1], owned[0], owned[1]));
+        assertEquals(Set.of("b"), clusterService.peersForUpdate(RING, owned[0], owned[1], foreign[0], foreign[1]));
+    }
+
+    @Test
+    void peersForRemove_SendsToOwnerOrEveryoneWhenCellUnknown() {
+        assertEquals(Set.of(), clusterService.peersForRemove(RING, owned[0], owned[1]));
+        assertEquals(Set.of("b"), clusterService.peersForRemove(RING, foreign[0], foreign[1]));
+        assertEquals(Set.of("b"), clusterService.peersForRemove(RING, null, null));
+    }
+
+    @Test
+    void findWithin_OwnerWithoutUrl_ThrowsSoCallerUsesSql() {
+        // A discovered node whose heartbeat row carries no URL
+        clusterService.setMembers(Map.of("a", "http://localhost:1", "b", ""));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+            () -> clusterService.findWithin(foreign[0], foreign[1], 50));
+        assertTrue(e.getMessage().contains("no known URL"));
+    }
+
+    @Test
+    void acceptsToken_RequiresSharedSecret() {
+        assertTrue(clusterService.acceptsToken("secret"));
+        assertFalse(clusterService.acceptsToken("guess"));
+        assertFalse(clusterService.acceptsToken(null));
+    }
+
+    @Test
+    void constructor_ClusterModeWithoutToken_Throws() {
+        assertThrows(IllegalStateException.class, () -> new ClusterService(new PresenceIndex(), null, null, event -> {},
+            WebClient.builder(), true, "a", "", "static", "a=http://localhost:1", 5, 64, 500, "", 15));
+    }
+
+    @Test
+    void parseMembers_RejectsMalformedPairs() {
+        assertThrows(IllegalStateException.class, () -> ClusterService.parseMembers("a=http://x,b"));
+        assertTrue(ClusterService.parseMembers("").isEmpty());
+    }
+}
@@ -0,0 +1,124 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.support.LocalPostgres;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Measures the per-row cost of the old trig distance predicate against the
+ * unit-vector dot product on the local Postgres. Both queries skip the
+ * bounding box so every one of the 100k rows is evaluated.
+ * Run with {@code mvn test -Dtest=CoordinateDistanceBenchmarkTest -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class CoordinateDistanceBenchmarkTest {
+
+    private static final int ROWS = 100_000;
+    private static final int RUNS = 20;
+
+    private static final String TRIG_SQL = """
+        SELECT count(*) FROM coordinates c
+        WHERE (6371 * acos(least(1.0,
+            cos(radians(?)) * cos(radians(c.latitude)) *
+            cos(radians(c.longitude) - radians(?)) +
+            sin(radians(?)) * sin(radians(c.latitude))))) <= ?
+        """;
+    private static final String DOT_SQL = """
+        SELECT count(*) FROM coordinates c
+        WHERE c.unit_x * ? + c.unit_y * ? + c.unit_z * ? >= ?
+        """;
+
+    private Connection connection;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = LocalPostgres.connect();
+        LocalPostgres.applySchema(connection);
+        connection.setAutoCommit(false);
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                INSERT INTO users (name, email, password, created_at)
+                SELECT 'Bench ' || g, 'distance-bench-' || g || '@example.com', 'x', now()
+                FROM generate_series(1, %d) g
+                """.formatted(ROWS));
+            statement.execute("""
+                INSERT INTO coordinates (user_id, latitude, longitude, unit_x, unit_y, unit_z, created_at)
+                SELECT p.id, p.lat, p.lng,
+                       cos(radians(p.lat)) * cos(radians(p.lng)),
+                       cos(radians(p.lat)) * sin(radians(p.lng)),
+                       sin(radians(p.lat)),
+                       now()
+                FROM (SELECT u.id, 39.7 + random() * 2 AS lat, -75.0 + random() * 2 AS lng
+                      FROM users u WHERE u.email LIKE 'distance-bench-%') p
+                """);
+            statement.execute("ANALYZE coordinates");
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        if (connection != null) {
+            connection.rollback();
+            connection.close();
+        }
+    }
+
+    @Test
+    void dotProductPredicate_VersusTrig() throws SQLException {
+        double latitude = 40.7128;
+        double longitude = -74.0060;
+        double radiusKm = 2.0;
+        double[] unit = GeoMath.unitVector(latitude, longitude);
+
+        try (PreparedStatement trig = connection.prepareStatement(TRIG_SQL);
+             PreparedStatement dot = connection.prepareStatement(DOT_SQL)) {
+            trig.setDouble(1, latitude);
+            trig.setDouble(2, longitude);
+            trig.setDouble(3, latitude);
+            trig.setDouble(4, radiusKm);
+            dot.setDouble(1, unit[0]);
+            dot.setDouble(2, unit[1]);
+            dot.setDouble(3, unit[2]);
+            dot.setDouble(4, GeoMath.minDotProduct(radiusKm * 1000.0));
+
+            // Warm up caches and the plan before timing
+            long trigCount = count(trig);
+            long dotCount = count(dot);
+
+            long trigNanos = time(trig);
+            long dotNanos = time(dot);
+
+            System.out.printf("Per %d rows: trig predicate %.2f ms, dot product %.2f ms%n",
+                ROWS, trigNanos / 1e6 / RUNS, dotNanos / 1e6 / RUNS);
+            // Rows right on the boundary may round differently
+            assertEquals(trigCount, dotCount, 2);
+        }
+    }
+
+    private static long time(PreparedStatement statement) throws SQLException {
+        long started = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            count(statement);
+        }
+        return System.nanoTime() - started;
+    }
+
+    private static long count(PreparedStatement statement) throws SQLException {
+        try (ResultSet rows = statement.executeQuery()) {
+            rows.next();
+            return rows.getLong(1);
+        }
+    }
+}
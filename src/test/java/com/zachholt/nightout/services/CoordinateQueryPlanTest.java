@@ -0,0 +1,107 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.support.LocalPostgres;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks with EXPLAIN that the nearby fallback query is sargable on the
+ * local Postgres profile. Seed data is rolled back after each test.
+ */
+public class CoordinateQueryPlanTest {
+
+    private static final Pattern PARAMETER = Pattern.compile(":(\\w+)");
+
+    private Connection connection;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = LocalPostgres.connect();
+        LocalPostgres.applySchema(connection);
+        connection.setAutoCommit(false);
+
+        try (Statement statement = connection.createStatement()) {
+            // 20k users spread over roughly 2 x 2 degrees around New York
+            statement.execute("""
+                INSERT INTO users (name, email, password, created_at)
+                SELECT 'Plan ' || g, 'plan-test-' || g || '@example.com', 'x', now()
+                FROM generate_series(1, 20000) g
+                """);
+            statement.execute("""
+                INSERT INTO coordinates (user_id, latitude, longitude, created_at)
+                SELECT u.id, 39.7 + random() * 2, -75.0 + random() * 2, now()
+                FROM users u WHERE u.email LIKE 'plan-test-%'
+                """);
+            statement.execute("""
+                UPDATE coordinates
+                SET unit_x = cos(radians(latitude)) * cos(radians(longitude)),
+                    unit_y = cos(radians(latitude)) * sin(radians(longitude)),
+                    unit_z = sin(radians(latitude))
+                WHERE unit_x IS NULL
+                """);
+            statement.execute("ANALYZE coordinates");
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        if (connection != null) {
+            connection.rollback();
+            connection.close();
+        }
+    }
+
+    @Test
+    void nearbySql_UsesLatLngIndex() throws SQLException {
+        String plan = explain(40.7128, -74.0060, 2.0);
+
+        assertTrue(plan.contains("coordinates_lat_lng_idx"), "Expected index scan, got:\n" + plan);
+        assertFalse(plan.contains("Seq Scan"), "Expected no sequential scan, got:\n" + plan);
+    }
+
+    @Test
+    void nearbySql_AcrossAntimeridian_StillAvoidsSeqScan() throws SQLException {
+        String plan = explain(0.0, 179.999, 2.0);
+
+        assertFalse(plan.contains("Seq Scan"), "Expected no sequential scan, got:\n" + plan);
+    }
+
+    private String explain(double latitude, double longitude, double radiusKm) throws SQLException {
+        GeoMath.BoundingBox box = GeoMath.boundingBox(latitude, longitude, radiusKm * 1000.0);
+        double[] unit = GeoMath.unitVector(latitude, longitude);
+        Map<String, Object> parameters = Map.of(
+            "minLat", box.minLat(), "maxLat", box.maxLat(),
+            "minLng", box.westLng(), "maxLng", box.eastLng(),
+            "ux", unit[0], "uy", unit[1], "uz", unit[2],
+            "minCosine", GeoMath.minDotProduct(radiusKm * 1000.0),
+            "liveSince", "now() - interval '4 hours'");
+
+        Matcher matcher = PARAMETER.matcher(CoordinateService.nearbySql("SELECT c.* FROM coordinates c", box));
+        StringBuilder sql = new StringBuilder();
+        while (matcher.find()) {
+            matcher.appendReplacement(sql, String.valueOf(parameters.get(matcher.group(1))));
+        }
+        matcher.appendTail(sql);
+
+        StringBuilder plan = new StringBuilder();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("EXPLAIN " + sql)) {
+            while (rows.next()) {
+                plan.append(rows.getString(1)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+}
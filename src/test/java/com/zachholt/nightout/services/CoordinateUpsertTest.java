@@ -0,0 +1,144 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.support.LocalPostgres;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the Postgres-only check-in upsert against the local Postgres
+ * profile; H2 takes the JPA path instead. Changes are rolled back after
+ * each test.
+ */
+public class CoordinateUpsertTest {
+
+    private static final Pattern PARAMETER = Pattern.compile(":(\\w+)");
+    private static final String EMAIL = "upsert-test@example.com";
+
+    private Connection connection;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = LocalPostgres.connect();
+        LocalPostgres.applySchema(connection);
+        connection.setAutoCommit(false);
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO users (name, email, password, created_at) "
+                + "VALUES ('Upsert User', '" + EMAIL + "', 'x', now())");
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        if (connection != null) {
+            connection.rollback();
+            connection.close();
+        }
+    }
+
+    @Test
+    void upsert_FirstCheckIn_InsertsCoordinateAndReturnsUser() throws SQLException {
+        List<Object[]> rows = upsert(EMAIL, 40.7128, -74.0060);
+
+        assertEquals(1, rows.size());
+        assertEquals("Upsert User", rows.get(0)[1]);
+        assertEquals(EMAIL, rows.get(0)[2]);
+        assertEquals(40.7128, (Double) rows.get(0)[5], 1e-9);
+        assertEquals(-74.0060, (Double) rows.get(0)[6], 1e-9);
+        assertNull(rows.get(0)[7]);
+
+        double[] unit = GeoMath.unitVector(40.7128, -74.0060);
+        try (Statement statement = connection.createStatement();
+             ResultSet stored = statement.executeQuery("SELECT c.unit_x, c.unit_y, c.unit_z FROM coordinates c "
+                 + "JOIN users u ON u.id = c.user_id WHERE u.email = '" + EMAIL + "'")) {
+            assertTrue(stored.next());
+            assertEquals(unit[0], stored.getDouble(1), 1e-12);
+            assertEquals(unit[1], stored.getDouble(2), 1e-12);
+            assertEquals(unit[2], stored.getDouble(3), 1e-12);
+        }
+    }
+
+    @Test
+    void upsert_RepeatCheckIn_MovesTheOneRowAndKeepsCreatedAt() throws SQLException {
+        upsert(EMAIL, 40.7128, -74.0060);
+        Timestamp createdAt = coordinateColumn("created_at");
+
+        List<Object[]> rows = upsert(EMAIL, 40.7306, -73.9352);
+
+        assertEquals(1, rows.size());
+        assertEquals(40.7306, (Double) rows.get(0)[5], 1e-9);
+        // The position before the move comes back for routing the change in cluster mode
+        assertEquals(40.7128, (Double) rows.get(0)[7], 1e-9);
+        assertEquals(-74.0060, (Double) rows.get(0)[8], 1e-9);
+        assertEquals(1L, ((Number) coordinateColumn("count(*)")).longValue());
+        assertEquals(40.7306, (Double) coordinateColumn("latitude"), 1e-9);
+        assertEquals(createdAt, coordinateColumn("created_at"));
+    }
+
+    @Test
+    void upsert_UnknownEmail_ReturnsNoRowAndWritesNothing() throws SQLException {
+        List<Object[]> rows = upsert("nobody@example.com", 40.7128, -74.0060);
+
+        assertTrue(rows.isEmpty());
+        assertEquals(0L, ((Number) coordinateColumn("count(*)")).longValue());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T coordinateColumn(String column) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet row = statement.executeQuery("SELECT " + column + " FROM coordinates c "
+                 + "JOIN users u ON u.id = c.user_id WHERE u.email = '" + EMAIL + "'")) {
+            return row.next() ? (T) row.getObject(1) : null;
+        }
+    }
+
+    private List<Object[]> upsert(String email, double latitude, double longitude) throws SQLException {
+        double[] unit = GeoMath.unitVector(latitude, longitude);
+        Map<String, Object> parameters = Map.of(
+            "email", email, "lat", latitude, "lng", longitude,
+            "ux", unit[0], "uy", unit[1], "uz", unit[2]);
+
+        // The same named parameters Hibernate binds, as JDBC placeholders
+        Matcher matcher = PARAMETER.matcher(CoordinateService.UPSERT_CHECK_IN_SQL);
+        List<Object> values = new ArrayList<>();
+        StringBuilder sql = new StringBuilder();
+        while (matcher.find()) {
+            values.add(parameters.get(matcher.group(1)));
+            matcher.appendReplacement(sql, "?");
+        }
+        matcher.appendTail(sql);
+
+        List<Object[]> rows = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < values.size(); i++) {
+                statement.setObject(i + 1, values.get(i));
+            }
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    Object[] row = new Object[9];
+                    for (int column = 0; column < row.length; column++) {
+                        row[column] = result.getObject(column + 1);
+                    }
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,57 @@
+package com.zachholt.nightout.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CrowdDensityServiceTest {
+
+    @Test
+    void clusterProbes_GroupsNearbyProbesAndSeparatesDistantOnes() {
+        double[] latitudes = {40.7128, 40.7140, 34.0522, 40.7135};
+        double[] longitudes = {-74.0060, -74.0050, -118.2437, -74.0070};
+        double[] radii = {100, 100, 100, 200};
+
+        List<CrowdDensityService.ProbeCluster> clusters =
+            CrowdDensityService.clusterProbes(latitudes, longitudes, radii);
+
+        assertEquals(2, clusters.size());
+        assertEquals(List.of(0, 1, 3), clusters.get(0).probes);
+        assertEquals(List.of(2), clusters.get(1).probes);
+        assertTrue(clusters.get(0).maxLng < -73.9);
+    }
+
+    @Test
+    void clusterProbes_DiagonalChain_DoesNotGrowIntoOneBox() {
+        int probes = 20;
+        double[] latitudes = new double[probes];
+        double[] longitudes = new double[probes];
+        double[] radii = new double[probes];
+        for (int i = 0; i < probes; i++) {
+            latitudes[i] = 40.0 + i * 0.01;
+            longitudes[i] = -74.0 + i * 0.01;
+            radii[i] = 300;
+        }
+
+        List<CrowdDensityService.ProbeCluster> clusters =
+            CrowdDensityService.clusterProbes(latitudes, longitudes, radii);
+
+        assertTrue(clusters.size() > 1);
+        assertEquals(probes, clusters.stream().mapToInt(cluster -> cluster.probes.size()).sum());
+    }
+
+    @Test
+    void clusterProbes_AcrossTheAntimeridian_KeepsItsOwnGroup() {
+        double[] latitudes = {0.0, 0.0};
+        double[] longitudes = {179.9999, 179.9990};
+        double[] radii = {1000, 100};
+
+        List<CrowdDensityService.ProbeCluster> clusters =
+            CrowdDensityService.clusterProbes(latitudes, longitudes, radii);
+
+        assertEquals(2, clusters.size());
+        assertTrue(clusters.get(0).wraps);
+    }
+}
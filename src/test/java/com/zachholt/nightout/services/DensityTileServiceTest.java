@@ -0,0 +1,154 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.GeoMath;
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.geo.TileMath;
+import com.zachholt.nightout.models.DensityTiles;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DensityTileServiceTest {
+
+    private PresenceIndex presenceIndex;
+    private DensityTileService densityTileService;
+    private final double latitude = 40.7128;
+    private final double longitude = -74.0060;
+    private final GeoMath.BoundingBox city = new GeoMath.BoundingBox(40.5, 40.9, -74.3, -73.7);
+
+    @BeforeEach
+    void setUp() {
+        presenceIndex = new PresenceIndex();
+        // Only the warm path is exercised, so no database is needed
+        densityTileService = new DensityTileService(presenceIndex, null, null, 10, 14);
+        presenceIndex.markWarm();
+    }
+
+    @Test
+    void getTiles_CountsUsersInTheirTile() {
+        presenceIndex.update(1L, latitude, longitude);
+        presenceIndex.update(2L, latitude + 0.0001, longitude);
+        presenceIndex.update(3L, latitude + 0.2, longitude);
+
+        DensityTiles tiles = densityTileService.getTiles(14, city);
+
+        assertEquals(3, Arrays.stream(tiles.getCounts()).sum());
+        assertEquals(2, countAt(tiles, latitude, longitude));
+        assertEquals(tiles.getWidth() * tiles.getHeight(), tiles.getCounts().length);
+    }
+
+    @Test
+    void onUpdate_WhenUserMovesOrLeaves_AdjustsEveryZoom() {
+        presenceIndex.update(1L, latitude, longitude);
+        presenceIndex.update(1L, latitude + 0.2, longitude);
+        presenceIndex.update(2L, latitude, longitude);
+        presenceIndex.remove(2L);
+
+        for (int zoom = 10; zoom <= 14; zoom++) {
+            DensityTiles tiles = densityTileService.getTiles(zoom, city);
+            assertEquals(1, Arrays.stream(tiles.getCounts()).sum(), "zoom " + zoom);
+            assertEquals(1, countAt(tiles, latitude + 0.2, longitude), "zoom " + zoom);
+        }
+    }
+
+    @Test
+    void concurrentUpdatesAndRemoves_CountsReturnToZero() throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            workers.add(executor.submit(() -> {
+                start.await();
+                // Few users, so threads keep racing on the same ones
+                for (int round = 0; round < 20_000; round++) {
+                    long userId = random.nextInt(4);
+                    if (random.nextBoolean()) {
+                        presenceIndex.remove(userId);
+                    } else {
+                        presenceIndex.update(userId, latitude + random.nextGaussian() * 0.05,
+                            longitude + random.nextGaussian() * 0.05);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        for (long userId = 0; userId < 4; userId++) {
+            presenceIndex.remove(userId);
+        }
+        // Far wider than the scatter of positions above
+        GeoMath.BoundingBox everywhere = new GeoMath.BoundingBox(39.5, 42.0, -75.5, -72.5);
+        for (int zoom = 10; zoom <= 14; zoom++) {
+            assertEquals(0, Arrays.stream(densityTileService.getTiles(zoom, everywhere).getCounts()).sum(),
+                "zoom " + zoom);
+        }
+    }
+
+    @Test
+    void getTiles_MatchesRecountFromScratch() {
+        Random random = new Random(3);
+        for (int round = 0; round < 5000; round++) {
+            long userId = random.nextInt(500);
+            if (random.nextInt(8) == 0) {
+                presenceIndex.remove(userId);
+            } else {
+                presenceIndex.update(userId, latitude + random.nextGaussian() * 0.05, longitude + random.nextGaussian() * 0.05);
+            }
+        }
+
+        DensityTiles tiles = densityTileService.getTiles(12, city);
+
+        int[] expected = new int[tiles.getCounts().length];
+        presenceIndex.forEachInBox(city, (userId, position) -> {
+            if (city.contains(position.latitude(), position.longitude())) {
+                int column = TileMath.tileX(position.longitude(), 12) - tiles.getMinX();
+                int row = TileMath.tileY(position.latitude(), 12) - tiles.getMinY();
+                expected[row * tiles.getWidth() + column]++;
+            }
+        });
+        assertArrayEquals(expected, tiles.getCounts());
+    }
+
+    @Test
+    void getTiles_AcrossAntimeridian_WrapsColumns() {
+        presenceIndex.update(1L, 0.0, 179.99);
+        presenceIndex.update(2L, 0.0, -179.99);
+
+        DensityTiles tiles = densityTileService.getTiles(10, new GeoMath.BoundingBox(-0.1, 0.1, 179.9, 180.1));
+
+        assertEquals((1 << 10) - 1, tiles.getMinX());
+        assertEquals(2, tiles.getWidth());
+        assertEquals(2, Arrays.stream(tiles.getCounts()).sum());
+    }
+
+    @Test
+    void getTiles_WithUnsupportedZoomOrHugeBox_Throws() {
+        assertThrows(IllegalArgumentException.class, () -> densityTileService.getTiles(18, city));
+        assertThrows(IllegalArgumentException.class,
+            () -> densityTileService.getTiles(14, new GeoMath.BoundingBox(-60.0, 60.0, -170.0, 170.0)));
+    }
+
+    private int countAt(DensityTiles tiles, double lat, double lng) {
+        int column = TileMath.tileX(lng, tiles.getZoom()) - tiles.getMinX();
+        int row = TileMath.tileY(lat, tiles.getZoom()) - tiles.getMinY();
+        return tiles.getCounts()[row * tiles.getWidth() + column];
+    }
+}
@@ -0,0 +1,172 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.models.Favorite;
+import com.zachholt.nightout.models.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FavoriteCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private InvalidationBus invalidationBus;
+    private FavoriteCache favoriteCache;
+    private AtomicInteger loads;
+    private List<Favorite> stored;
+    private Supplier<List<Favorite>> loader;
+    private final long now = 1_700_000_000_000L;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        invalidationBus = new InvalidationBus(null, null, new DataSourceProperties(), event -> {}, true,
+            "nightout_invalidation", 5000, 100);
+        favoriteCache = new FavoriteCache(meterRegistry, invalidationBus, 2, 60);
+        loads = new AtomicInteger();
+        stored = new ArrayList<>(List.of(favorite("loc123")));
+        loader = () -> {
+            loads.incrementAndGet();
+            return new ArrayList<>(stored);
+        };
+    }
+
+    @Test
+    void get_SecondLookup_IsAnsweredFromCache() {
+        favoriteCache.get(1L, loader, now);
+        FavoriteCache.Favorites favorites = favoriteCache.get(1L, loader, now + 1000);
+
+        assertTrue(favorites.contains("loc123"));
+        assertEquals(1, loads.get());
+        assertEquals(1.0, requests("hit"));
+        assertEquals(1.0, requests("miss"));
+    }
+
+    @Test
+    void get_AfterTtl_Reloads() {
+        favoriteCache.get(1L, loader, now);
+        favoriteCache.get(1L, loader, now + 60_000);
+
+        assertEquals(2, loads.get());
+        assertEquals(1.0, evictions("expired"));
+    }
+
+    @Test
+    void get_OverMaxSize_EvictsLeastRecentlyUsed() {
+        favoriteCache.get(1L, loader, now);
+        favoriteCache.get(2L, loader, now);
+        favoriteCache.get(1L, loader, now);
+        favoriteCache.get(3L, loader, now);
+
+        assertEquals(2, favoriteCache.size());
+        assertEquals(1.0, evictions("size"));
+        favoriteCache.get(1L, loader, now);
+        assertEquals(3, loads.get());
+        favoriteCache.get(2L, loader, now);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void get_ManyUsersAcrossSegments_StayWithinMaxSize() {
+        FavoriteCache large = new FavoriteCache(new SimpleMeterRegistry(), invalidationBus, 1024, 60);
+        for (long userId = 0; userId < 4096; userId++) {
+            large.get(userId, loader, now);
+        }
+
+        assertEquals(1024, large.size());
+        large.get(4095L, loader, now);
+        assertEquals(4096, loads.get());
+        large.invalidate(4095L);
+        assertEquals(1023, large.size());
+    }
+
+    @Test
+    void addedAndRemoved_PatchCachedEntry() {
+        favoriteCache.get(1L, loader, now);
+
+        favoriteCache.added(1L, favorite("loc456"));
+        assertTrue(favoriteCache.get(1L, loader, now).contains("loc456"));
+
+        favoriteCache.removed(1L, "loc123");
+        FavoriteCache.Favorites favorites = favoriteCache.get(1L, loader, now);
+        assertFalse(favorites.contains("loc123"));
+        assertEquals(1, favorites.favorites().size());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void get_WhenWriteRacesLoad_DoesNotCacheLoadedValue() {
+        favoriteCache.get(1L, () -> {
+            List<Favorite> old = loader.get();
+            favoriteCache.added(1L, favorite("loc456"));
+            return old;
+        }, now);
+
+        favoriteCache.get(1L, loader, now);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void invalidation_FromAnotherNodeDropsEntry_OwnWriteDoesNot() {
+        favoriteCache.get(1L, loader, now);
+
+        invalidationBus.publish(InvalidationBus.Topic.FAVORITES, 1L);
+        favoriteCache.get(1L, loader, now);
+        assertEquals(1, loads.get());
+
+        invalidationBus.receive("other-node\tFAVORITES\t1\t");
+        favoriteCache.get(1L, loader, now);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void get_WhenDisabled_AlwaysLoads() {
+        FavoriteCache disabled = new FavoriteCache(meterRegistry, invalidationBus, 0, 60);
+
+        disabled.get(1L, loader, now);
+        disabled.get(1L, loader, now);
+
+        assertFalse(disabled.isEnabled());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void get_CachesDetachedCopiesCarryingOnlyTheUserId() {
+        User owner = new User();
+        owner.setId(1L);
+        owner.setEmail("owner@example.com");
+        owner.setPassword("hash");
+        stored.get(0).setUser(owner);
+
+        Favorite cached = favoriteCache.get(1L, loader, now).favorites().get(0);
+
+        assertNotSame(stored.get(0), cached);
+        assertEquals("loc123", cached.getLocationId());
+        assertEquals(1L, cached.getUserId());
+        assertNull(cached.getUser().getPassword());
+        assertNull(cached.getUser().getEmail());
+    }
+
+    private double requests(String result) {
+        return meterRegistry.get("nightout.favorites.cache.requests").tag("result", result).counter().count();
+    }
+
+    private double evictions(String cause) {
+        return meterRegistry.get("nightout.favorites.cache.evictions").tag("cause", cause).counter().count();
+    }
+
+    private static Favorite favorite(String locationId) {
+        Favorite favorite = new Favorite();
+        favorite.setLocationId(locationId);
+        favorite.setLatitude(40.7128);
+        favorite.setLongitude(-74.0060);
+        return favorite;
+    }
+}
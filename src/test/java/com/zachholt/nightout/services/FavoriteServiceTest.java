@@ -1 +1,260 @@
- 
\ No newline at end of file
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.exceptions.ResourceNotFoundException;
+import com.zachholt.nightout.models.Favorite;
+import com.zachholt.nightout.models.FavoriteChanges;
+import com.zachholt.nightout.models.FavoriteOutcome;
+import com.zachholt.nightout.models.FavoritesPage;
+import com.zachholt.nightout.models.User;
+import com.zachholt.nightout.repositories.FavoriteRepository;
+import com.zachholt.nightout.repositories.UserRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pins the number of SQL statements each favorites operation issues, with
+ * the favorites cache off so every call reaches the database.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "spring.datasource.url=jdbc:h2:mem:favorites;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+    "spring.jpa.properties.hibernate.generate_statistics=true",
+    "nightout.favorites.cache.max-size=0"
+})
+public class FavoriteServiceTest {
+
+    @Autowired
+    private FavoriteService favoriteService;
+
+    @Autowired
+    private FavoriteRepository favoriteRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+    private Long userId;
+    private final long missingUserId = 999_999L;
+
+    @BeforeEach
+    void setUp() {
+        User user = new User();
+        user.setName("Favorites User");
+        user.setEmail("favorites@example.com");
+        user.setPassword("encoded");
+        userId = userRepository.save(user).getId();
+        favoriteService.addFavorite(userId, favorite("loc123"));
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        favoriteRepository.deleteAll();
+        userRepository.deleteAll();
+    }
+
+    @Test
+    void getFavorites_RunsOneQuery() {
+        List<Favorite> favorites = favoriteService.getFavorites(userId);
+
+        assertEquals(1, favorites.size());
+        assertEquals(userId, favorites.get(0).getUserId());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void getFavorites_UnknownUser_ThrowsNotFound() {
+        assertThrows(ResourceNotFoundException.class, () -> favoriteService.getFavorites(missingUserId));
+    }
+
+    @Test
+    void addFavorite_RunsSequenceAndInsertOnly() {
+        favoriteService.addFavorite(userId, favorite("loc456"));
+
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertTrue(favoriteService.isFavorite(userId, "loc456"));
+    }
+
+    @Test
+    void addFavorite_UnknownUser_ThrowsNotFound() {
+        assertThrows(ResourceNotFoundException.class,
+            () -> favoriteService.addFavorite(missingUserId, favorite("loc456")));
+    }
+
+    @Test
+    void addFavorite_Duplicate_ThrowsAlreadyFavorited() {
+        RuntimeException e = assertThrows(RuntimeException.class,
+            () -> favoriteService.addFavorite(userId, favorite("loc123")));
+
+        assertEquals("Location already favorited", e.getMessage());
+    }
+
+    @Test
+    void removeFavorite_RunsOneDelete() {
+        favoriteService.removeFavorite(userId, "loc123");
+
+        // Plus the tombstone write, which goes through JdbcTemplate and is not counted here
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertFalse(favoriteService.isFavorite(userId, "loc123"));
+    }
+
+    @Test
+    void removeFavorite_UnknownUser_ThrowsNotFound() {
+        assertThrows(ResourceNotFoundException.class, () -> favoriteService.removeFavorite(missingUserId, "loc123"));
+    }
+
+    @Test
+    void isFavorite_RunsOneQuery() {
+        assertTrue(favoriteService.isFavorite(userId, "loc123"));
+        assertFalse(favoriteService.isFavorite(userId, "loc456"));
+
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void checkFavorites_RunsOneQuery() {
+        Map<String, Boolean> result = favoriteService.checkFavorites(userId, List.of("loc456", "loc123"));
+
+        assertEquals(Map.of("loc456", false, "loc123", true), result);
+        assertEquals(List.of("loc456", "loc123"), List.copyOf(result.keySet()));
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void getFavoritesPage_FollowsCursorToLastPage() {
+        favoriteService.addFavorite(userId, favorite("loc456"));
+        favoriteService.addFavorite(userId, favorite("loc789"));
+        statistics.clear();
+
+        FavoritesPage first = favoriteService.getFavoritesPage(userId, null, 2);
+        assertEquals(List.of("loc123", "loc456"), locationIds(first.getFavorites()));
+        assertNotNull(first.getNextCursor());
+
+        FavoritesPage last = favoriteService.getFavoritesPage(userId, first.getNextCursor(), 2);
+        assertEquals(List.of("loc789"), locationIds(last.getFavorites()));
+        assertNull(last.getNextCursor());
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void getFavoritesPage_InvalidCursor_ThrowsIllegalArgument() {
+        assertThrows(IllegalArgumentException.class, () -> favoriteService.getFavoritesPage(userId, "not-a-cursor", 2));
+    }
+
+    @Test
+    void getFavoritesPage_UnknownUser_ThrowsNotFound() {
+        assertThrows(ResourceNotFoundException.class, () -> favoriteService.getFavoritesPage(missingUserId, null, 2));
+    }
+
+    @Test
+    void getFavoriteChanges_ReportsAddedAndRemovedSince() {
+        LocalDateTime since = LocalDateTime.now().minusSeconds(1);
+        favoriteService.addFavorite(userId, favorite("loc456"));
+        favoriteService.removeFavorite(userId, "loc123");
+
+        FavoriteChanges changes = favoriteService.getFavoriteChanges(userId, since);
+
+        assertFalse(changes.isReset());
+        assertEquals(List.of("loc456"), locationIds(changes.getFavorites()));
+        assertEquals(List.of("loc123"), changes.getRemoved());
+        assertTrue(changes.getSyncedAt().isBefore(LocalDateTime.now()));
+    }
+
+    @Test
+    void getFavoriteChanges_RemovedThenAddedAgain_ReportedAsAddedOnly() {
+        LocalDateTime since = LocalDateTime.now().minusSeconds(1);
+        favoriteService.removeFavorite(userId, "loc123");
+        favoriteService.addFavorite(userId, favorite("loc123"));
+
+        FavoriteChanges changes = favoriteService.getFavoriteChanges(userId, since);
+
+        assertEquals(List.of("loc123"), locationIds(changes.getFavorites()));
+        assertEquals(List.of(), changes.getRemoved());
+    }
+
+    @Test
+    void getFavoriteChanges_SinceOlderThanRetention_ResetsToFullList() {
+        FavoriteChanges changes = favoriteService.getFavoriteChanges(userId, LocalDateTime.now().minusDays(31));
+
+        assertTrue(changes.isReset());
+        assertEquals(List.of("loc123"), locationIds(changes.getFavorites()));
+    }
+
+    @Test
+    void getFavoriteChanges_UnknownUser_ThrowsNotFound() {
+        assertThrows(ResourceNotFoundException.class,
+            () -> favoriteService.getFavoriteChanges(missingUserId, LocalDateTime.now().minusHours(1)));
+    }
+
+    @Test
+    void addFavorites_SkipsExistingAndDuplicates() {
+        Map<String, FavoriteOutcome> outcomes = favoriteService.addFavorites(userId,
+            List.of(favorite("loc456"), favorite("loc123"), favorite("loc789"), favorite("loc456")));
+
+        assertEquals(List.of("loc456", "loc123", "loc789"), List.copyOf(outcomes.keySet()));
+        assertEquals(Map.of("loc456", FavoriteOutcome.ADDED, "loc123", FavoriteOutcome.ALREADY_FAVORITED,
+            "loc789", FavoriteOutcome.ADDED), outcomes);
+        assertEquals(List.of("loc123", "loc456", "loc789"), locationIds(favoriteService.getFavorites(userId)));
+    }
+
+    @Test
+    void addFavorites_UnknownUser_ThrowsNotFound() {
+        assertThrows(ResourceNotFoundException.class,
+            () -> favoriteService.addFavorites(missingUserId, List.of(favorite("loc456"))));
+    }
+
+    @Test
+    void removeFavorites_ReportsEachLocationAndRecordsTombstones() {
+        LocalDateTime since = LocalDateTime.now().minusSeconds(1);
+        favoriteService.addFavorite(userId, favorite("loc456"));
+
+        Map<String, FavoriteOutcome> outcomes = favoriteService.removeFavorites(userId,
+            List.of("loc123", "loc999", "loc456"));
+
+        assertEquals(List.of("loc123", "loc999", "loc456"), List.copyOf(outcomes.keySet()));
+        assertEquals(Map.of("loc123", FavoriteOutcome.REMOVED, "loc999", FavoriteOutcome.NOT_FAVORITED,
+            "loc456", FavoriteOutcome.REMOVED), outcomes);
+        assertEquals(List.of(), favoriteService.getFavorites(userId));
+        assertEquals(Set.of("loc123", "loc456"),
+            Set.copyOf(favoriteService.getFavoriteChanges(userId, since).getRemoved()));
+    }
+
+    @Test
+    void removeFavorites_UnknownUser_ThrowsNotFound() {
+        assertThrows(ResourceNotFoundException.class,
+            () -> favoriteService.removeFavorites(missingUserId, List.of("loc123")));
+    }
+
+    private static List<String> locationIds(List<Favorite> favorites) {
+        return favorites.stream().map(Favorite::getLocationId).toList();
+    }
+
+    private static Favorite favorite(String locationId) {
+        Favorite favorite = new Favorite();
+        favorite.setLocationId(locationId);
+        favorite.setLatitude(40.7128);
+        favorite.setLongitude(-74.0060);
+        return favorite;
+    }
+}
@@ -0,0 +1,120 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.config.DatabasePlatform;
+import com.zachholt.nightout.support.LocalPostgres;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InvalidationBusTest {
+
+    @Test
+    void publish_OutsideTransaction_RunsLocalHandlersRightAway() {
+        InvalidationBus bus = new InvalidationBus(null, null, new DataSourceProperties(), event -> {}, true,
+            "nightout_invalidation", 5000, 100);
+        List<InvalidationBus.Invalidation> received = new CopyOnWriteArrayList<>();
+        bus.subscribe(InvalidationBus.Topic.FAVORITES, received::add);
+
+        bus.publish(InvalidationBus.Topic.FAVORITES, 7L);
+        bus.publish(InvalidationBus.Topic.USER, 7L);
+
+        assertEquals(List.of(new InvalidationBus.Invalidation(InvalidationBus.Topic.FAVORITES, "7", null, false)),
+            received);
+    }
+
+    @Test
+    void receive_FromAnotherNode_DecodesKeyAndValue() {
+        InvalidationBus bus = new InvalidationBus(null, null, new DataSourceProperties(), event -> {}, true,
+            "nightout_invalidation", 5000, 100);
+        List<InvalidationBus.Invalidation> received = new CopyOnWriteArrayList<>();
+        bus.subscribe(InvalidationBus.Topic.PRESENCE, received::add);
+
+        bus.receive("other-node\tPRESENCE\t3\t40.7128,-74.006,1700000000000");
+        bus.receive("other-node\tPRESENCE\t4\t");
+        bus.receive("other-node\tUNKNOWN\t5\t");
+
+        assertEquals(List.of(
+            new InvalidationBus.Invalidation(InvalidationBus.Topic.PRESENCE, "3", "40.7128,-74.006,1700000000000", true),
+            new InvalidationBus.Invalidation(InvalidationBus.Topic.PRESENCE, "4", null, true)), received);
+    }
+
+    @Test
+    void publish_ManyChangesToOneKey_SendsOnlyTheLatestPerTick() {
+        InvalidationBus bus = new InvalidationBus(null, null, new DataSourceProperties(), event -> {}, true,
+            "nightout_invalidation", 5000, 3_600_000);
+        bus.startNotifying();
+        try {
+            bus.publish(InvalidationBus.Topic.PRESENCE, 7L, "40.7128,-74.006,1700000000000");
+            bus.publish(InvalidationBus.Topic.FAVORITES, 7L);
+            bus.publish(InvalidationBus.Topic.PRESENCE, 7L, "40.7129,-74.006,1700000001000");
+            bus.publish(InvalidationBus.Topic.PRESENCE, 8L, "1700000002000");
+
+            List<String> payloads = bus.drain();
+
+            assertEquals(3, payloads.size());
+            assertTrue(payloads.get(0).endsWith("\tPRESENCE\t7\t40.7129,-74.006,1700000001000"));
+            assertTrue(payloads.get(1).endsWith("\tFAVORITES\t7\t"));
+            assertTrue(payloads.get(2).endsWith("\tPRESENCE\t8\t1700000002000"));
+            assertEquals(List.of(), bus.drain());
+        } finally {
+            bus.stop();
+        }
+    }
+
+    @Test
+    void publish_OnPostgres_ReachesOtherNodeOnly() throws Exception {
+        try (Connection ignored = LocalPostgres.connect()) {
+            // Skipped unless the docker-compose Postgres is running
+        }
+        InvalidationBus a = localPostgresBus();
+        InvalidationBus b = localPostgresBus();
+        BlockingQueue<InvalidationBus.Invalidation> seenByA = new LinkedBlockingQueue<>();
+        BlockingQueue<InvalidationBus.Invalidation> seenByB = new LinkedBlockingQueue<>();
+        a.subscribe(InvalidationBus.Topic.FAVORITES, seenByA::add);
+        b.subscribe(InvalidationBus.Topic.FAVORITES, seenByB::add);
+        try {
+            a.start();
+            b.start();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!(a.isListening() && b.isListening()) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(a.isListening() && b.isListening());
+
+            a.publish(InvalidationBus.Topic.FAVORITES, 42L);
+
+            assertEquals(new InvalidationBus.Invalidation(InvalidationBus.Topic.FAVORITES, "42", null, true),
+                seenByB.poll(10, TimeUnit.SECONDS));
+            assertEquals(new InvalidationBus.Invalidation(InvalidationBus.Topic.FAVORITES, "42", null, false),
+                seenByA.poll());
+            // A skips its own notification when it comes back over the channel
+            assertNull(seenByA.poll(1, TimeUnit.SECONDS));
+        } finally {
+            a.stop();
+            b.stop();
+        }
+    }
+
+    private static InvalidationBus localPostgresBus() {
+        Properties settings = LocalPostgres.properties();
+        DataSourceProperties properties = new DataSourceProperties();
+        properties.setUrl(settings.getProperty("spring.datasource.url"));
+        properties.setUsername(settings.getProperty("spring.datasource.username"));
+        properties.setPassword(settings.getProperty("spring.datasource.password"));
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(properties.getUrl(),
+            properties.getUsername(), properties.getPassword());
+        return new InvalidationBus(new JdbcTemplate(dataSource), new DatabasePlatform(dataSource), properties,
+            event -> {}, true, "nightout_invalidation_test", 500, 50);
+    }
+}
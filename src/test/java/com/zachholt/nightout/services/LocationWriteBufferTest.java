@@ -0,0 +1,224 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.config.DatabasePlatform;
+import com.zachholt.nightout.models.User;
+import com.zachholt.nightout.models.UserResponse;
+import com.zachholt.nightout.repositories.CoordinateRepository;
+import com.zachholt.nightout.repositories.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "spring.datasource.url=jdbc:h2:mem:writebehind;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+    "nightout.presence.write-behind.enabled=true",
+    "nightout.presence.write-behind.flush-interval=3600000",
+    "nightout.presence.write-behind.batch-size=2"
+})
+public class LocationWriteBufferTest {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private CoordinateRepository coordinateRepository;
+
+    @Autowired
+    private LocationWriteBuffer locationWriteBuffer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private DatabasePlatform databasePlatform;
+
+    private final String[] emails = {"buffer-0@example.com", "buffer-1@example.com", "buffer-2@example.com"};
+    private final double latitude = 40.7128;
+    private final double longitude = -74.0060;
+
+    @BeforeEach
+    void setUp() {
+        for (String email : emails) {
+            User user = new User();
+            user.setName(email);
+            user.setEmail(email);
+            user.setPassword("encoded");
+            userRepository.save(user);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        locationWriteBuffer.flush();
+        for (String email : emails) {
+            userService.deleteUser(email);
+        }
+    }
+
+    @Test
+    void checkIn_IsVisibleToNearbyBeforeFlushAndWrittenOnceAfter() {
+        userService.checkIn(emails[0], latitude, longitude);
+        userService.checkIn(emails[0], latitude + 0.001, longitude);
+        UserResponse latest = userService.checkIn(emails[0], latitude + 0.002, longitude);
+
+        assertTrue(coordinateRepository.findByUserId(latest.getId()).isEmpty());
+        assertEquals(1, locationWriteBuffer.queueDepth());
+        assertEquals(1.0, meterRegistry.get("nightout.presence.write_behind.queue_depth").gauge().value());
+
+        List<UserResponse> nearby = userService.getNearbyUsers(latitude, longitude, 2000.0);
+        assertEquals(1, nearby.size());
+        // Served from the presence index, which keeps positions to the microdegree
+        assertEquals(latitude + 0.002, nearby.get(0).getLatitude(), 1e-6);
+
+        locationWriteBuffer.flush();
+
+        assertEquals(0, locationWriteBuffer.queueDepth());
+        assertEquals(latitude + 0.002, coordinateRepository.findByUserId(latest.getId()).orElseThrow().getLatitude());
+        assertTrue(meterRegistry.get("nightout.presence.write_behind.flush").timer().count() > 0);
+    }
+
+    @Test
+    void flush_WritesInBatchesAndUpdatesExistingRows() {
+        for (String email : emails) {
+            userService.checkIn(email, latitude, longitude);
+        }
+        locationWriteBuffer.flush();
+        for (String email : emails) {
+            userService.checkIn(email, latitude + 0.01, longitude);
+        }
+        locationWriteBuffer.flush();
+
+        assertEquals(emails.length, coordinateRepository.count());
+        coordinateRepository.findAll()
+            .forEach(coordinate -> assertEquals(latitude + 0.01, coordinate.getLatitude()));
+    }
+
+    @Test
+    void checkOut_DiscardsBufferedPosition() {
+        UserResponse response = userService.checkIn(emails[0], latitude, longitude);
+
+        userService.updateUserLocation(emails[0], null, null);
+        locationWriteBuffer.flush();
+
+        assertTrue(coordinateRepository.findByUserId(response.getId()).isEmpty());
+        assertTrue(userService.getNearbyUsers(latitude, longitude, 2000.0).isEmpty());
+    }
+
+    @Test
+    void flush_CheckoutWhileBatchIsInFlight_DoesNotRecreateRow() {
+        Long userId = userRepository.findByEmail(emails[0]).orElseThrow().getId();
+        // The checkout's delete found no row yet; its discard lands while the flusher is writing
+        LocationWriteBuffer buffer = bufferCheckingOutDuringWrite(userId, false);
+        buffer.enqueue(userId, latitude, longitude);
+
+        buffer.flush();
+
+        assertTrue(coordinateRepository.findByUserId(userId).isEmpty());
+        assertEquals(0, buffer.queueDepth());
+    }
+
+    @Test
+    void flush_FailedBatchAfterCheckout_IsNotRequeued() {
+        Long userId = userRepository.findByEmail(emails[0]).orElseThrow().getId();
+        LocationWriteBuffer buffer = bufferCheckingOutDuringWrite(userId, true);
+        buffer.enqueue(userId, latitude, longitude);
+
+        buffer.flush();
+        buffer.flush();
+
+        assertEquals(0, buffer.queueDepth());
+        assertTrue(coordinateRepository.findByUserId(userId).isEmpty());
+    }
+
+    @Test
+    void flush_CheckInAfterCheckout_IsWritten() {
+        Long userId = userRepository.findByEmail(emails[0]).orElseThrow().getId();
+        LocationWriteBuffer buffer = bufferCheckingOutDuringWrite(userId, false);
+        buffer.enqueue(userId, latitude, longitude);
+        buffer.flush();
+
+        buffer.enqueue(userId, latitude + 0.01, longitude);
+        buffer.flush();
+
+        assertEquals(latitude + 0.01, coordinateRepository.findByUserId(userId).orElseThrow().getLatitude());
+    }
+
+    @Test
+    void flush_RowRewrittenBeforeUndo_IsKeptEvenWhenDatabaseClockLags() {
+        Long userId = userRepository.findByEmail(emails[0]).orElseThrow().getId();
+        AtomicReference<LocationWriteBuffer> buffer = new AtomicReference<>();
+        AtomicBoolean checkedOut = new AtomicBoolean();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource) {
+            @Override
+            public <T> int[][] batchUpdate(String sql, Collection<T> batchArgs, int batchSize,
+                                           ParameterizedPreparedStatementSetter<T> setter) {
+                if (sql.startsWith("DELETE")) {
+                    // A later check-in rewrote the row, stamped by a database clock an hour behind the app
+                    update("UPDATE coordinates SET latitude = ?, updated_at = ? WHERE user_id = ?",
+                        latitude + 0.01, Timestamp.valueOf(LocalDateTime.now().minusHours(1)), userId);
+                }
+                int[][] counts = super.batchUpdate(sql, batchArgs, batchSize, setter);
+                if (!checkedOut.getAndSet(true)) {
+                    buffer.get().discard(userId);
+                }
+                return counts;
+            }
+        };
+        buffer.set(new LocationWriteBuffer(jdbcTemplate, databasePlatform, new SimpleMeterRegistry(), true, 2));
+        buffer.get().enqueue(userId, latitude, longitude);
+
+        buffer.get().flush();
+
+        assertEquals(latitude + 0.01, coordinateRepository.findByUserId(userId).orElseThrow().getLatitude());
+    }
+
+    /** A buffer whose first batch statement is interleaved with a checkout of {@code userId}. */
+    private LocationWriteBuffer bufferCheckingOutDuringWrite(Long userId, boolean failWrite) {
+        AtomicReference<LocationWriteBuffer> buffer = new AtomicReference<>();
+        AtomicBoolean checkedOut = new AtomicBoolean();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource) {
+            @Override
+            public <T> int[][] batchUpdate(String sql, Collection<T> batchArgs, int batchSize,
+                                           ParameterizedPreparedStatementSetter<T> setter) {
+                if (failWrite && !checkedOut.getAndSet(true)) {
+                    buffer.get().discard(userId);
+                    throw new DataAccessResourceFailureException("connection lost");
+                }
+                int[][] counts = super.batchUpdate(sql, batchArgs, batchSize, setter);
+                if (!checkedOut.getAndSet(true)) {
+                    buffer.get().discard(userId);
+                }
+                return counts;
+            }
+        };
+        buffer.set(new LocationWriteBuffer(jdbcTemplate, databasePlatform, new SimpleMeterRegistry(), true, 2));
+        return buffer.get();
+    }
+}
@@ -0,0 +1,111 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.models.User;
+import com.zachholt.nightout.models.UserResponse;
+import com.zachholt.nightout.repositories.CoordinateRepository;
+import com.zachholt.nightout.repositories.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "spring.datasource.url=jdbc:h2:mem:expiry;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+    "nightout.presence.expiry.ttl-minutes=1",
+    "nightout.presence.expiry.sweep-interval=3600000"
+})
+public class PresenceExpiryServiceTest {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private CoordinateService coordinateService;
+
+    @Autowired
+    private PresenceExpiryService presenceExpiryService;
+
+    @Autowired
+    private PresenceIndex presenceIndex;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private CoordinateRepository coordinateRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final String[] emails = {"expiry-0@example.com", "expiry-1@example.com"};
+    private final double latitude = 40.7128;
+    private final double longitude = -74.0060;
+
+    @BeforeEach
+    void setUp() {
+        for (String email : emails) {
+            User user = new User();
+            user.setName(email);
+            user.setEmail(email);
+            user.setPassword("encoded");
+            userRepository.save(user);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (String email : emails) {
+            userService.deleteUser(email);
+        }
+    }
+
+    @Test
+    void sweep_RemovesExpiredCheckInsFromIndexAndDatabase() {
+        UserResponse stale = userService.checkIn(emails[0], latitude, longitude);
+        UserResponse fresh = userService.checkIn(emails[1], latitude, longitude);
+        long now = System.currentTimeMillis() + 90_000;
+        // The second user checks in again just before the sweep
+        presenceIndex.update(fresh.getId(), latitude, longitude, now);
+        jdbcTemplate.update("UPDATE coordinates SET updated_at = ? WHERE user_id = ?",
+            Timestamp.valueOf(LocalDateTime.now().plusSeconds(90)), fresh.getId());
+
+        assertEquals(1, presenceExpiryService.sweep(now));
+
+        assertNull(presenceIndex.get(stale.getId()));
+        assertTrue(coordinateRepository.findByUserId(stale.getId()).isEmpty());
+        assertNotNull(presenceIndex.get(fresh.getId()));
+        assertTrue(coordinateRepository.findByUserId(fresh.getId()).isPresent());
+    }
+
+    @Test
+    void getNearbyUsers_FromSqlFallback_SkipsExpiredRows() {
+        UserResponse stale = userService.checkIn(emails[0], latitude, longitude);
+        UserResponse fresh = userService.checkIn(emails[1], latitude, longitude);
+        jdbcTemplate.update("UPDATE coordinates SET updated_at = ? WHERE user_id = ?",
+            Timestamp.valueOf(LocalDateTime.now().minusMinutes(5)), stale.getId());
+
+        presenceIndex.clear();
+        try {
+            var nearby = userService.getNearbyUsers(latitude, longitude, 2000.0);
+
+            assertEquals(1, nearby.size());
+            assertEquals(fresh.getId(), nearby.get(0).getId());
+        } finally {
+            coordinateService.warmPresenceIndex();
+        }
+        assertNull(presenceIndex.get(stale.getId()));
+        assertNotNull(presenceIndex.get(fresh.getId()));
+    }
+}
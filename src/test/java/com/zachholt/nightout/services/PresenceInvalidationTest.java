@@ -0,0 +1,137 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.geo.PresenceListener;
+import com.zachholt.nightout.models.User;
+import com.zachholt.nightout.models.UserResponse;
+import com.zachholt.nightout.repositories.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * How check-ins and checkouts announced on the {@link InvalidationBus}
+ * reach the presence index, on the node that made them and on the others.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "spring.datasource.url=jdbc:h2:mem:presencebus;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE"
+})
+public class PresenceInvalidationTest {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private PresenceIndex presenceIndex;
+
+    @Autowired
+    private InvalidationBus invalidationBus;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    private final double latitude = 40.7128;
+    private final double longitude = -74.0060;
+    private String email;
+
+    @BeforeEach
+    void setUp() {
+        // A fresh email each time, so the check-in throttle never answers from an earlier test
+        email = "presence-" + UUID.randomUUID() + "@example.com";
+        User user = new User();
+        user.setName("Presence User");
+        user.setEmail(email);
+        user.setPassword("encoded");
+        userRepository.save(user);
+    }
+
+    @AfterEach
+    void tearDown() {
+        userService.deleteUser(email);
+    }
+
+    @Test
+    void checkIn_ReachesTheIndexOnce() {
+        AtomicInteger updates = new AtomicInteger();
+        Long userId = userRepository.findByEmail(email).orElseThrow().getId();
+        presenceIndex.addListener(new PresenceListener() {
+            @Override
+            public void onUpdate(long id, PresenceIndex.Position previous, PresenceIndex.Position current) {
+                if (id == userId) {
+                    updates.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void onRemove(long id, PresenceIndex.Position previous) {
+            }
+        });
+
+        userService.checkIn(email, latitude, longitude);
+
+        assertEquals(1, updates.get());
+    }
+
+    @Test
+    void remoteCheckout_OlderThanCheckIn_KeepsUser() {
+        UserResponse response = userService.checkIn(email, latitude, longitude);
+        long checkedInAt = presenceIndex.get(response.getId()).updatedAt();
+
+        invalidationBus.receive("other-node\tPRESENCE\t" + response.getId() + "\t" + (checkedInAt - 1000));
+        assertNotNull(presenceIndex.get(response.getId()));
+
+        invalidationBus.receive("other-node\tPRESENCE\t" + response.getId() + "\t" + (checkedInAt + 1000));
+        assertNull(presenceIndex.get(response.getId()));
+    }
+
+    @Test
+    void remoteCheckIn_OlderThanHeldPosition_IsIgnored() {
+        UserResponse response = userService.checkIn(email, latitude, longitude);
+        long checkedInAt = presenceIndex.get(response.getId()).updatedAt();
+
+        invalidationBus.receive("other-node\tPRESENCE\t" + response.getId() + "\t"
+            + (latitude + 0.01) + "," + longitude + "," + (checkedInAt - 1000));
+
+        assertEquals(latitude, presenceIndex.get(response.getId()).latitude(), 1e-6);
+    }
+
+    @Test
+    void reconnect_ReloadsIndexOffTheCallingThread() throws Exception {
+        UserResponse response = userService.checkIn(email, latitude, longitude);
+        CompletableFuture<String> reloadedOn = new CompletableFuture<>();
+        presenceIndex.addListener(new PresenceListener() {
+            @Override
+            public void onUpdate(long id, PresenceIndex.Position previous, PresenceIndex.Position current) {
+                if (id == response.getId()) {
+                    reloadedOn.complete(Thread.currentThread().getName());
+                }
+            }
+
+            @Override
+            public void onRemove(long id, PresenceIndex.Position previous) {
+            }
+        });
+
+        eventPublisher.publishEvent(new InvalidationBus.Reconnected());
+
+        assertNotEquals(Thread.currentThread().getName(), reloadedOn.get(5, TimeUnit.SECONDS));
+        assertNotNull(presenceIndex.get(response.getId()));
+    }
+}
@@ -0,0 +1,110 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.models.User;
+import com.zachholt.nightout.models.UserResponse;
+import com.zachholt.nightout.repositories.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "spring.datasource.url=jdbc:h2:mem:snapshot;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+    "nightout.presence.snapshot.path=target/test-snapshots/presence.snapshot",
+    "nightout.presence.snapshot.interval=3600000",
+    "nightout.presence.snapshot.replay-margin-seconds=0"
+})
+public class PresenceSnapshotServiceTest {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private CoordinateService coordinateService;
+
+    @Autowired
+    private PresenceSnapshotService presenceSnapshotService;
+
+    @Autowired
+    private PresenceIndex presenceIndex;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private static final Path SNAPSHOT = Path.of("target/test-snapshots/presence.snapshot");
+
+    private final String[] emails = {"snapshot-0@example.com", "snapshot-1@example.com", "snapshot-2@example.com"};
+    private final double latitude = 40.7128;
+    private final double longitude = -74.0060;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // Closing an earlier context writes a shutdown snapshot
+        Files.deleteIfExists(SNAPSHOT);
+        for (String email : emails) {
+            User user = new User();
+            user.setName(email);
+            user.setEmail(email);
+            user.setPassword("encoded");
+            userRepository.save(user);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (String email : emails) {
+            userService.deleteUser(email);
+        }
+        Files.deleteIfExists(SNAPSHOT);
+    }
+
+    @Test
+    void warmPresenceIndex_FromSnapshot_ReplaysChangesSinceEpoch() {
+        UserResponse moved = userService.checkIn(emails[0], latitude, longitude);
+        UserResponse checkedOut = userService.checkIn(emails[1], latitude, longitude);
+        UserResponse untouched = userService.checkIn(emails[2], latitude, longitude);
+        presenceSnapshotService.writeSnapshot();
+
+        userService.checkIn(emails[0], latitude + 0.01, longitude);
+        coordinateService.clearLocation(checkedOut.getId());
+        // Rows older than the epoch are not re-read: the snapshot's copy wins
+        jdbcTemplate.update("UPDATE coordinates SET latitude = ?, updated_at = ? WHERE user_id = ?",
+            latitude + 1.0, Timestamp.valueOf(LocalDateTime.now().minusMinutes(10)), untouched.getId());
+
+        presenceIndex.clear();
+        coordinateService.warmPresenceIndex();
+
+        assertTrue(presenceIndex.isWarm());
+        assertEquals(latitude + 0.01, presenceIndex.get(moved.getId()).latitude(), 1e-6);
+        assertNull(presenceIndex.get(checkedOut.getId()));
+        assertEquals(latitude, presenceIndex.get(untouched.getId()).latitude(), 1e-6);
+    }
+
+    @Test
+    void warmPresenceIndex_WithoutSnapshot_LoadsFromTable() {
+        UserResponse user = userService.checkIn(emails[0], latitude, longitude);
+
+        presenceIndex.clear();
+        assertTrue(presenceSnapshotService.restore().isEmpty());
+        coordinateService.warmPresenceIndex();
+
+        assertNotNull(presenceIndex.get(user.getId()));
+    }
+}
@@ -0,0 +1,151 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.GeoHash;
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.models.PresenceDelta;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.Disposable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceStreamServiceTest {
+
+    private PresenceIndex presenceIndex;
+    private PresenceStreamService presenceStreamService;
+    private final double latitude = 40.7128;
+    private final double longitude = -74.0060;
+    private long cell;
+
+    @BeforeEach
+    void setUp() {
+        presenceIndex = new PresenceIndex();
+        presenceStreamService = new PresenceStreamService(presenceIndex, 4, 15_000);
+        cell = GeoHash.encode(latitude, longitude, PresenceIndex.CELL_PRECISION);
+    }
+
+    @Test
+    void subscribe_StartsWithSnapshotOfCell() {
+        presenceIndex.update(1L, latitude, longitude);
+        presenceIndex.update(2L, latitude + 1, longitude); // Elsewhere
+
+        List<ServerSentEvent<List<PresenceDelta>>> events = new ArrayList<>();
+        presenceStreamService.subscribe(new long[] {cell}).subscribe(events::add);
+
+        assertEquals(1, events.size());
+        assertEquals("snapshot", events.get(0).event());
+        assertEquals(1, events.get(0).data().size());
+        assertEquals(1L, events.get(0).data().get(0).getUserId());
+        assertEquals(PresenceDelta.Type.JOIN, events.get(0).data().get(0).getType());
+    }
+
+    @Test
+    void flush_CoalescesChangesPerTick() {
+        presenceIndex.update(1L, latitude, longitude);
+        List<ServerSentEvent<List<PresenceDelta>>> events = new ArrayList<>();
+        presenceStreamService.subscribe(new long[] {cell}).subscribe(events::add);
+
+        presenceIndex.update(1L, latitude + 0.0001, longitude);
+        presenceIndex.update(1L, latitude + 0.0002, longitude); // Two moves, one delta
+        presenceIndex.update(2L, latitude, longitude);
+        presenceIndex.remove(2L); // Joined and left within the tick: only the leave is sent
+        presenceIndex.update(3L, latitude, longitude);
+        presenceIndex.update(4L, latitude + 1, longitude); // Unwatched cell
+        presenceStreamService.flush(0);
+
+        assertEquals(2, events.size());
+        List<PresenceDelta> deltas = events.get(1).data();
+        assertEquals("delta", events.get(1).event());
+        assertEquals(3, deltas.size());
+        assertEquals(PresenceDelta.Type.LEAVE, deltas.get(0).getType());
+        assertEquals(2L, deltas.get(0).getUserId());
+        PresenceDelta moved = deltas.stream().filter(d -> d.getUserId() == 1L).findFirst().orElseThrow();
+        assertEquals(PresenceDelta.Type.MOVE, moved.getType());
+        assertEquals(latitude + 0.0002, moved.getLatitude(), 1e-6);
+        PresenceDelta joined = deltas.stream().filter(d -> d.getUserId() == 3L).findFirst().orElseThrow();
+        assertEquals(PresenceDelta.Type.JOIN, joined.getType());
+    }
+
+    @Test
+    void flush_SendsLeaveBeforeJoinAcrossWatchedCells() {
+        double otherLatitude = latitude + GeoHash.cellHeight(PresenceIndex.CELL_PRECISION);
+        long otherCell = GeoHash.encode(otherLatitude, longitude, PresenceIndex.CELL_PRECISION);
+        presenceIndex.update(1L, latitude, longitude);
+        List<ServerSentEvent<List<PresenceDelta>>> events = new ArrayList<>();
+        presenceStreamService.subscribe(new long[] {otherCell, cell}).subscribe(events::add);
+
+        presenceIndex.update(1L, otherLatitude, longitude);
+        presenceStreamService.flush(0);
+
+        List<PresenceDelta> deltas = events.get(1).data();
+        assertEquals(2, deltas.size());
+        assertEquals(PresenceDelta.Type.LEAVE, deltas.get(0).getType());
+        assertNull(deltas.get(0).getLatitude());
+        assertEquals(PresenceDelta.Type.JOIN, deltas.get(1).getType());
+        assertEquals(GeoHash.toBase32(otherCell, PresenceIndex.CELL_PRECISION), deltas.get(1).getCell());
+    }
+
+    @Test
+    void flush_SendsHeartbeatOnlyWhenIdle() {
+        List<ServerSentEvent<List<PresenceDelta>>> events = new ArrayList<>();
+        presenceStreamService.subscribe(new long[] {cell}).subscribe(events::add);
+        long now = System.currentTimeMillis();
+
+        presenceStreamService.flush(now + 1_000);
+        assertEquals(1, events.size());
+
+        presenceStreamService.flush(now + 15_000);
+        assertEquals(2, events.size());
+        assertEquals("heartbeat", events.get(1).comment());
+        assertNull(events.get(1).data());
+    }
+
+    @Test
+    void cancel_StopsRecordingForCell() {
+        Disposable stream = presenceStreamService.subscribe(new long[] {cell}).subscribe();
+        assertEquals(1, presenceStreamService.subscriberCount());
+
+        stream.dispose();
+        presenceIndex.update(1L, latitude, longitude);
+
+        assertEquals(0, presenceStreamService.subscriberCount());
+        presenceStreamService.flush(0); // Nothing pending, nothing to send
+    }
+
+    @Test
+    void slowSubscriber_IsCompletedWhenBufferFills() {
+        List<ServerSentEvent<List<PresenceDelta>>> events = new ArrayList<>();
+        // Takes the snapshot and nothing more
+        presenceStreamService.subscribe(new long[] {cell})
+            .subscribe(events::add, error -> {}, () -> {}, subscription -> subscription.request(1));
+
+        for (int i = 0; i < 10; i++) {
+            presenceIndex.update(1L, latitude + (i % 2) * 0.0001, longitude);
+            presenceStreamService.flush(i);
+        }
+
+        assertEquals(1, events.size());
+        assertEquals(0, presenceStreamService.subscriberCount());
+    }
+
+    @Test
+    void parseCells_RejectsOtherPrecisions() {
+        assertThrows(IllegalArgumentException.class, () -> presenceStreamService.parseCells(List.of("dr5r")));
+        assertThrows(IllegalArgumentException.class, () -> presenceStreamService.parseCells(List.of("dr5re!")));
+        assertEquals(1, presenceStreamService.parseCells(List.of("dr5reg", "DR5REG")).length);
+    }
+
+    @Test
+    void cellsAround_CoversRadius() {
+        long[] cells = presenceStreamService.cellsAround(latitude, longitude, 2000);
+
+        assertTrue(cells.length > 1);
+        assertTrue(Arrays.stream(cells).anyMatch(c -> c == cell));
+        assertThrows(IllegalArgumentException.class, () -> presenceStreamService.cellsAround(latitude, longitude, 50_000));
+    }
+}
@@ -0,0 +1,127 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.models.TrendingCell;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrendingServiceTest {
+
+    private static final long MINUTE = 60_000;
+
+    private PresenceIndex presenceIndex;
+    private TrendingService trendingService;
+    private final double latitude = 40.7128;
+    private final double longitude = -74.0060;
+    private final long now = 1_000_000 * MINUTE;
+
+    @BeforeEach
+    void setUp() {
+        presenceIndex = new PresenceIndex();
+        trendingService = new TrendingService(presenceIndex, 7, 10);
+    }
+
+    @Test
+    void refresh_RanksCellsByWindowCount() {
+        // Busy an hour-ish ago, quiet now
+        for (int i = 0; i < 5; i++) {
+            trendingService.recordCheckIn(latitude, longitude, now - 40 * MINUTE);
+        }
+        // Fewer check-ins overall, all of them recent
+        double nearbyLatitude = latitude + 0.01;
+        for (int i = 0; i < 3; i++) {
+            trendingService.recordCheckIn(nearbyLatitude, longitude, now - 2 * MINUTE);
+        }
+
+        trendingService.refresh(now);
+
+        List<TrendingCell> recent = trendingService.getTrending(TrendingService.Window.FIFTEEN_MINUTES, 10);
+        List<TrendingCell> hour = trendingService.getTrending(TrendingService.Window.HOUR, 10);
+        assertEquals(1, recent.size());
+        assertEquals(3, recent.get(0).getLastFifteenMinutes());
+        assertEquals(2, hour.size());
+        assertEquals(5, hour.get(0).getLastHour());
+        assertEquals(latitude, hour.get(0).getLatitude(), 0.001);
+    }
+
+    @Test
+    void refresh_DropsCellsOlderThanAnHour() {
+        trendingService.recordCheckIn(latitude, longitude, now - 61 * MINUTE);
+        trendingService.refresh(now);
+
+        assertTrue(trendingService.getTrending(TrendingService.Window.HOUR, 10).isEmpty());
+        assertTrue(trendingService.getTrendingNear(latitude, longitude, 2000, TrendingService.Window.HOUR, 10, now).isEmpty());
+    }
+
+    @Test
+    void bucketReuse_ResetsCountFromPreviousHour() {
+        trendingService.recordCheckIn(latitude, longitude, now - 60 * MINUTE);
+        trendingService.recordCheckIn(latitude, longitude, now);
+
+        List<TrendingCell> cells = trendingService.getTrendingNear(latitude, longitude, 500, TrendingService.Window.HOUR, 10, now);
+
+        assertEquals(1, cells.size());
+        assertEquals(1, cells.get(0).getLastHour());
+    }
+
+    @Test
+    void onUpdate_CountsArrivalsOnlyOnceIndexIsWarm() {
+        presenceIndex.update(1L, latitude, longitude);
+        presenceIndex.markWarm();
+        presenceIndex.update(2L, latitude, longitude);
+        presenceIndex.update(2L, latitude + 0.00001, longitude); // Same cell, not a new arrival
+        presenceIndex.update(3L, latitude, longitude);
+
+        List<TrendingCell> cells = trendingService.getTrendingNear(latitude, longitude, 500,
+            TrendingService.Window.FIFTEEN_MINUTES, 10);
+
+        assertEquals(1, cells.size());
+        assertEquals(2, cells.get(0).getLastFifteenMinutes());
+    }
+
+    @Test
+    void refresh_RacingCheckInToIdleCell_DoesNotLoseIt() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 500; i++) {
+                double cellLatitude = 10.0 + i * 0.01;
+                // Idle: its only check-in is over an hour old, so refresh drops it
+                trendingService.recordCheckIn(cellLatitude, longitude, now - 61 * MINUTE);
+                CyclicBarrier start = new CyclicBarrier(2);
+                Future<?> refresh = pool.submit(() -> {
+                    await(start);
+                    trendingService.refresh(now);
+                });
+                Future<?> checkIn = pool.submit(() -> {
+                    await(start);
+                    trendingService.recordCheckIn(cellLatitude, longitude, now);
+                });
+                refresh.get();
+                checkIn.get();
+
+                List<TrendingCell> cells = trendingService.getTrendingNear(cellLatitude, longitude, 50,
+                    TrendingService.Window.HOUR, 10, now);
+                assertEquals(1, cells.size(), "iteration " + i);
+                assertEquals(1, cells.get(0).getLastHour(), "iteration " + i);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.zachholt.nightout.services;
+
+import com.zachholt.nightout.geo.PresenceIndex;
+import com.zachholt.nightout.models.DensityCount;
+import com.zachholt.nightout.models.NearbyBatchRequest;
+import com.zachholt.nightout.models.NearbyProbeResult;
+import com.zachholt.nightout.models.User;
+import com.zachholt.nightout.models.UserResponse;
+import com.zachholt.nightout.repositories.UserRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Guards the nearby-user read model against N+1 regressions by counting
+ * the JDBC statements Hibernate prepares for one call.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "spring.datasource.url=jdbc:h2:mem:querycount;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+    "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+public class UserServiceQueryCountTest {
+
+    private static final int USER_COUNT = 25;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private CoordinateService coordinateService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private CrowdDensityService crowdDensityService;
+
+    @Autowired
+    private PresenceIndex presenceIndex;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+    private final double latitude = 40.7128;
+    private final double longitude = -74.0060;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < USER_COUNT; i++) {
+            User user = new User();
+            user.setName("Query Count " + i);
+            user.setEmail("query-count-" + i + "@example.com");
+            user.setPassword("encoded");
+            user = userRepository.save(user);
+            coordinateService.updateLocation(user.getId(), latitude + i * 0.0001, longitude);
+        }
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (int i = 0; i < USER_COUNT; i++) {
+            userService.deleteUser("query-count-" + i + "@example.com");
+        }
+    }
+
+    @Test
+    void getNearbyUsers_FromPresenceIndex_UsesOneStatement() {
+        assertTrue(presenceIndex.isWarm());
+
+        List<UserResponse> users = userService.getNearbyUsers(latitude, longitude, 2000.0);
+
+        assertEquals(USER_COUNT, users.size());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    void getNearbyUsers_FromSqlFallback_UsesOneStatement() {
+        presenceIndex.clear();
+        try {
+            List<UserResponse> users = userService.getNearbyUsers(latitude, longitude, 2000.0);
+
+            assertEquals(USER_COUNT, users.size());
+            assertNotNull(users.get(0).getCreatedAt());
+            assertEquals(1, statistics.getPrepareStatementCount());
+            assertEquals(0, statistics.getEntityLoadCount());
+        } finally {
+            coordinateService.warmPresenceIndex();
+        }
+    }
+
+    @Test
+    void getNearestUsers_KdTreeMatchesSqlFallback() {
+        List<UserResponse> warm = userService.getNearestUsers(latitude, longitude, 5);
+        assertEquals(1, statistics.getPrepareStatementCount());
+
+        presenceIndex.clear();
+        try {
+            List<UserResponse> cold = userService.getNearestUsers(latitude, longitude, 5);
+
+            assertEquals(5, warm.size());
+            assertEquals(warm.stream().map(UserResponse::getId).toList(),
+                cold.stream().map(UserResponse::getId).toList());
+            assertEquals("query-count-0@example.com", warm.get(0).getEmail());
+        } finally {
+            coordinateService.warmPresenceIndex();
+        }
+    }
+
+    @Test
+    void getUsersInViewport_IndexMatchesSqlFallback() {
+        // Covers the southern half of the seeded column of users
+        double maxLatitude = latitude + 0.00125;
+        List<UserResponse> warm = userService.getUsersInViewport(latitude - 0.001, longitude - 0.001,
+            maxLatitude, longitude + 0.001, 5);
+        assertEquals(1, statistics.getPrepareStatementCount());
+
+        presenceIndex.clear();
+        try {
+            List<UserResponse> cold = userService.getUsersInViewport(latitude - 0.001, longitude - 0.001,
+                maxLatitude, longitude + 0.001, 5);
+
+            assertEquals(5, warm.size());
+            assertEquals(warm.stream().map(UserResponse::getId).toList(),
+                cold.stream().map(UserResponse::getId).toList());
+            assertTrue(warm.stream().allMatch(user -> user.getLatitude() <= maxLatitude));
+        } finally {
+            coordinateService.warmPresenceIndex();
+        }
+    }
+
+    @Test
+    void countNearbyBatch_AnswersProbesWithOneStatementPerGroup() {
+        List<NearbyBatchRequest.Probe> probes = List.of(
+            new NearbyBatchRequest.Probe(latitude, longitude, 50.0),
+            new NearbyBatchRequest.Probe(latitude + 0.002, longitude, 100.0),
+            new NearbyBatchRequest.Probe(latitude + 1.0, longitude, 100.0));
+
+        List<NearbyProbeResult> warm = crowdDensityService.countNearbyBatch(probes, true);
+        assertEquals(0, statistics.getPrepareStatementCount());
+
+        presenceIndex.clear();
+        try {
+            List<NearbyProbeResult> cold = crowdDensityService.countNearbyBatch(probes, true);
+
+            // The two close probes share a box; the one a degree away gets its own
+            assertEquals(2, statistics.getPrepareStatementCount());
+            for (int i = 0; i < probes.size(); i++) {
+                assertEquals(warm.get(i).getCount(), cold.get(i).getCount(), "probe " + i);
+                assertEquals(Set.copyOf(warm.get(i).getUserIds()), Set.copyOf(cold.get(i).getUserIds()), "probe " + i);
+            }
+            assertTrue(warm.get(0).getCount() > 0);
+            assertEquals(0, warm.get(2).getCount());
+        } finally {
+            coordinateService.warmPresenceIndex();
+        }
+    }
+
+    @Test
+    void countNearby_LoadsNoEntitiesOnEitherPath() {
+        List<Double> radii = List.of(50.0, 2000.0);
+
+        List<DensityCount> warm = crowdDensityService.countNearby(latitude, longitude, radii);
+        assertEquals(0, statistics.getPrepareStatementCount());
+
+        presenceIndex.clear();
+        try {
+            List<DensityCount> cold = crowdDensityService.countNearby(latitude, longitude, radii);
+
+            assertEquals(1, statistics.getPrepareStatementCount());
+            assertEquals(0, statistics.getEntityLoadCount());
+            for (int i = 0; i < radii.size(); i++) {
+                assertEquals(warm.get(i).getCount(), cold.get(i).getCount());
+            }
+            assertEquals(USER_COUNT, cold.get(1).getCount());
+            assertTrue(cold.get(0).getCount() < USER_COUNT);
+        } finally {
+            coordinateService.warmPresenceIndex();
+        }
+    }
+
+    @Test
+    void checkIn_MovesUserInPresenceIndexWithoutReloadingUser() {
+        String email = "query-count-0@example.com";
+
+        UserResponse response = userService.checkIn(email, latitude + 0.05, longitude);
+
+        assertEquals(latitude + 0.05, response.getLatitude());
+        assertEquals(latitude + 0.05, presenceIndex.get(response.getId()).latitude());
+        // Coordinate-with-user lookup plus the update on H2; a single upsert on Postgres
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+}
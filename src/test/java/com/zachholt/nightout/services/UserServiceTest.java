@@ -2,6 +2,7 @@ package com.zachholt.nightout.services;
 
 import com.zachholt.nightout.models.Coordinate;
 import com.zachholt.nightout.models.User;
+import com.zachholt.nightout.models.UserResponse;
 import com.zachholt.nightout.repositories.UserRepository;
 import com.zachholt.nightout.services.CoordinateService;
 import com.zachholt.nightout.exceptions.ResourceNotFoundException;
@@ -38,6 +39,9 @@ public class UserServiceTest {
     @Mock
     private Environment environment;
 
+    @Mock
+    private InvalidationBus invalidationBus;
+
     @InjectMocks
     private UserService userService;
 
@@ -164,6 +168,29 @@ public class UserServiceTest {
         assertNull(result);
     }
 
+    @Test
+    void checkIn_WhenUserExists_ReturnsResponseFromCoordinateService() {
+        when(coordinateService.checkIn(userEmail, latitude, longitude))
+            .thenReturn(Optional.of(testUserResponse()));
+
+        UserResponse result = userService.checkIn(userEmail, latitude, longitude);
+
+        assertEquals(userId, result.getId());
+        assertEquals(latitude, result.getLatitude());
+        assertEquals(longitude, result.getLongitude());
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    void checkIn_WhenUserDoesNotExist_ThrowsResourceNotFound() {
+        when(coordinateService.checkIn(userEmail, latitude, longitude)).thenReturn(Optional.empty());
+
+        ResourceNotFoundException exception = assertThrows(ResourceNotFoundException.class,
+            () -> userService.checkIn(userEmail, latitude, longitude));
+
+        assertEquals("User not found with email: " + userEmail, exception.getMessage());
+    }
+
     @Test
     void updateUserLocation_WhenUserExistsAndCoordsProvided_CallsCoordinateServiceUpdate() {
         Double newLatitude = 41.8781;
@@ -251,23 +278,41 @@ public class UserServiceTest {
     }
 
     @Test
-    void getUsersAtLocation_CallsGetUsersByLocationWithRadius() {
+    void getNearbyUsers_DelegatesToCoordinateServiceInKilometers() {
+        Double searchLat = 40.7;
+        Double searchLng = -74.0;
+        Double radiusMeters = 2000.0;
+        Double expectedRadiusKm = 2.0;
+
+        when(coordinateService.getNearbyUsers(searchLat, searchLng, expectedRadiusKm))
+            .thenReturn(Collections.singletonList(testUserResponse()));
+
+        List<UserResponse> results = userService.getNearbyUsers(searchLat, searchLng, radiusMeters);
+
+        assertEquals(1, results.size());
+        assertEquals(userId, results.get(0).getId());
+        assertEquals(latitude, results.get(0).getLatitude());
+        verify(coordinateService, times(1)).getNearbyUsers(searchLat, searchLng, expectedRadiusKm);
+        verify(coordinateService, never()).getNearbyCoordinates(anyDouble(), anyDouble(), anyDouble());
+    }
+
+    @Test
+    void getUsersAtLocation_CallsGetNearbyUsersWithRadius() {
         Double searchLat = 40.7;
         Double searchLng = -74.0;
         Double radiusMeters = 50.0;
         Double expectedRadiusKm = 0.05;
 
-        when(coordinateService.getNearbyCoordinates(searchLat, searchLng, expectedRadiusKm))
-             .thenReturn(Collections.singletonList(testCoordinate));
+        when(coordinateService.getNearbyUsers(searchLat, searchLng, expectedRadiusKm))
+             .thenReturn(Collections.singletonList(testUserResponse()));
 
-        List<User> results = userService.getUsersAtLocation(searchLat, searchLng, radiusMeters);
+        List<UserResponse> results = userService.getUsersAtLocation(searchLat, searchLng, radiusMeters);
 
         assertNotNull(results);
         assertFalse(results.isEmpty());
         assertEquals(1, results.size());
         assertEquals(testUser.getId(), results.get(0).getId());
-        assertNull(results.get(0).getPassword());
-        verify(coordinateService, times(1)).getNearbyCoordinates(searchLat, searchLng, expectedRadiusKm);
+        verify(coordinateService, times(1)).getNearbyUsers(searchLat, searchLng, expectedRadiusKm);
     }
 
     @Test
@@ -277,17 +322,16 @@ public class UserServiceTest {
         Double defaultRadiusMeters = 100.0;
         Double expectedRadiusKm = 0.1;
 
-        when(coordinateService.getNearbyCoordinates(searchLat, searchLng, expectedRadiusKm))
-            .thenReturn(Collections.singletonList(testCoordinate));
+        when(coordinateService.getNearbyUsers(searchLat, searchLng, expectedRadiusKm))
+            .thenReturn(Collections.singletonList(testUserResponse()));
 
-        List<User> results = userService.getUsersAtLocation(searchLat, searchLng, null);
+        List<UserResponse> results = userService.getUsersAtLocation(searchLat, searchLng, null);
 
         assertNotNull(results);
         assertFalse(results.isEmpty());
         assertEquals(1, results.size());
         assertEquals(testUser.getId(), results.get(0).getId());
-        assertNull(results.get(0).getPassword());
-        verify(coordinateService, times(1)).getNearbyCoordinates(searchLat, searchLng, expectedRadiusKm);
+        verify(coordinateService, times(1)).getNearbyUsers(searchLat, searchLng, expectedRadiusKm);
     }
 
     @Test
@@ -302,6 +346,7 @@ public class UserServiceTest {
         verify(userRepository).findByEmail(userEmail);
         verify(userRepository).save(testUser);
         verify(userRepository).deleteById(userId);
+        verify(invalidationBus).publish(InvalidationBus.Topic.USER, userId);
     }
 
     @Test
@@ -333,4 +378,9 @@ public class UserServiceTest {
         verify(userRepository, never()).save(any(User.class));
         verify(userRepository, never()).deleteById(anyLong());
     }
-} 
\ No newline at end of file
+
+    private UserResponse testUserResponse() {
+        return new UserResponse(userId, testUser.getName(), userEmail, testUser.getCreatedAt(),
+            testUser.getProfileImage(), latitude, longitude);
+    }
+}
@@ -0,0 +1,50 @@
+package com.zachholt.nightout.support;
+
+import org.springframework.beans.factory.config.YamlPropertiesFactoryBean;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Connects to the database configured in application-local-postgres.yaml
+ * (the docker-compose Postgres). Tests using it are skipped when that
+ * database is not running.
+ */
+public final class LocalPostgres {
+
+    private LocalPostgres() {}
+
+    /** The spring.datasource.* settings of that profile. */
+    public static Properties properties() {
+        YamlPropertiesFactoryBean yaml = new YamlPropertiesFactoryBean();
+        yaml.setResources(new ClassPathResource("application-local-postgres.yaml"));
+        return yaml.getObject();
+    }
+
+    public static Connection connect() {
+        Properties properties = properties();
+
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(
+                properties.getProperty("spring.datasource.url"),
+                properties.getProperty("spring.datasource.username"),
+                properties.getProperty("spring.datasource.password"));
+        } catch (SQLException e) {
+            // Fall through to the assumption below
+        }
+        assumeTrue(connection != null, "Local Postgres from application-local-postgres.yaml is not available");
+        return connection;
+    }
+
+    /** Applies schema.sql so the test sees the same tables and indexes as the app. */
+    public static void applySchema(Connection connection) {
+        ScriptUtils.executeSqlScript(connection, new ClassPathResource("schema.sql"));
+    }
+}